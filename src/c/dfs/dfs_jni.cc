@@ -475,6 +475,74 @@ JNIEXPORT jbyteArray JNICALL Java_io_xdag_crypto_jni_Native_dfslib_1encrypt_1arr
 
           return jba;
   }
+
+/*
+ * 批量处理连续的512字节扇区，address为direct buffer的内存地址，原地加解密
+ * 第i个扇区使用sectorNo + i，与逐个调用dfslib_encrypt_byte_sector结果相同
+ */
+extern "C"
+JNIEXPORT jint JNICALL Java_io_xdag_crypto_jni_Native_dfslib_1encrypt_1sectors(
+        JNIEnv *env,
+        jobject *obj,
+        jlong address,
+        jint nsectors,
+        jlong sectorNo) {
+    dfs32 *sector = (dfs32 *)(intptr_t)address;
+    for (int i = 0; i < nsectors; i++) {
+        dfslib_encrypt_sector(g_test_crypt, sector, (unsigned long long)(sectorNo + i));
+        sector += SECTOR_SIZE / sizeof(dfs32);
+    }
+    return nsectors;
+}
+
+extern "C"
+JNIEXPORT jint JNICALL Java_io_xdag_crypto_jni_Native_dfslib_1uncrypt_1sectors(
+        JNIEnv *env,
+        jobject *obj,
+        jlong address,
+        jint nsectors,
+        jlong sectorNo) {
+    dfs32 *sector = (dfs32 *)(intptr_t)address;
+    for (int i = 0; i < nsectors; i++) {
+        dfslib_uncrypt_sector(g_test_crypt, sector, (unsigned long long)(sectorNo + i));
+        sector += SECTOR_SIZE / sizeof(dfs32);
+    }
+    return nsectors;
+}
+
+/*
+ * 矿工协议的原地加解密，每个32字节字段使用一个sectorNo，与dfslib_encrypt_array结果相同
+ */
+extern "C"
+JNIEXPORT jint JNICALL Java_io_xdag_crypto_jni_Native_dfslib_1encrypt_1fields(
+        JNIEnv *env,
+        jobject *obj,
+        jlong address,
+        jint nfield,
+        jlong sectorNo) {
+    dfs32 *field = (dfs32 *)(intptr_t)address;
+    for (int i = 0; i < nfield; i++) {
+        dfslib_encrypt_array(g_crypt, field, 8, sectorNo++);
+        field += 8;
+    }
+    return nfield;
+}
+
+extern "C"
+JNIEXPORT jint JNICALL Java_io_xdag_crypto_jni_Native_dfslib_1uncrypt_1fields(
+        JNIEnv *env,
+        jobject *obj,
+        jlong address,
+        jint nfield,
+        jlong sectorNo) {
+    dfs32 *field = (dfs32 *)(intptr_t)address;
+    for (int i = 0; i < nfield; i++) {
+        dfslib_uncrypt_array(g_crypt, field, 8, sectorNo++);
+        field += 8;
+    }
+    return nfield;
+}
+
   //开始写三个主要的函数
 
 // JNIEXPORT void JNICALL Java_io_xdag_Myron_jni_MyJni_init_1g_1crypt
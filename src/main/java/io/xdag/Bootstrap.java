@@ -60,6 +60,11 @@ public class Bootstrap {
         OldWallet wallet = new OldWallet();
 
         Kernel kernel = new Kernel(config, wallet);
+        if (config.isImportOnly()) {
+            // import blocks of C version and exit
+            kernel.testImport();
+            return;
+        }
         // default start kernel
         kernel.testStart();
     }
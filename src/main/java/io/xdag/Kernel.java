@@ -41,19 +41,24 @@ import io.xdag.discovery.DiscoveryController;
 import io.xdag.event.EventProcesser;
 import io.xdag.libp2p.Libp2pNetwork;
 import io.xdag.libp2p.manager.ChannelManager;
+import io.xdag.mine.MinerAdmission;
 import io.xdag.mine.MinerServer;
 import io.xdag.mine.handler.ConnectionLimitHandler;
 import io.xdag.mine.manager.AwardManager;
 import io.xdag.mine.manager.AwardManagerImpl;
 import io.xdag.mine.manager.MinerManager;
 import io.xdag.mine.manager.MinerManagerImpl;
+import io.xdag.mine.manager.PayoutJournal;
 import io.xdag.mine.miner.Miner;
 import io.xdag.mine.miner.MinerStates;
+import io.xdag.mine.miner.MinerStatsStore;
+import io.xdag.mine.miner.ShareLedger;
+import io.xdag.net.PeerNetwork;
 import io.xdag.net.XdagClient;
 import io.xdag.net.XdagServer;
 import io.xdag.net.manager.NetDBManager;
+import io.xdag.net.manager.BlockRelayFilter;
 import io.xdag.net.manager.XdagChannelManager;
-import io.xdag.net.message.MessageQueue;
 import io.xdag.net.message.NetDB;
 import io.xdag.net.node.NodeManager;
 import io.xdag.randomx.RandomX;
@@ -63,6 +68,7 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.nio.file.Paths;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -81,6 +87,10 @@ public class Kernel {
     protected NetDB netDB;
     protected XdagClient client;
     protected XdagChannelManager channelMgr;
+    /** 区块转发去重 */
+    protected BlockRelayFilter blockRelayFilter;
+    /** 老协议和libp2p连接的统一入口 */
+    protected PeerNetwork peerNetwork;
     protected NodeManager nodeMgr;
     protected NetDBManager netDBMgr;
     protected XdagServer p2p;
@@ -89,10 +99,15 @@ public class Kernel {
     protected SyncManager syncMgr;
     /** 初始化一个后续都可以用的handler */
     protected ConnectionLimitHandler connectionLimitHandler;
+    protected MinerAdmission minerAdmission;
 
     protected Block firstAccount;
     protected Miner poolMiner;
     protected AwardManager awardManager;
+    /** 矿工未支付难度的持久化账本 */
+    protected ShareLedger shareLedger;
+    protected PayoutJournal payoutJournal;
+    protected MinerStatsStore minerStats;
     protected MinerManager minerManager;
     protected MinerServer minerServer;
     protected XdagState xdagState;
@@ -138,8 +153,11 @@ public class Kernel {
         // ====================================
         // start channel manager
         // ====================================
+        blockRelayFilter = new BlockRelayFilter();
+        peerNetwork = new PeerNetwork(blockRelayFilter);
         channelMgr = new XdagChannelManager(this);
-        channelMgr.start();
+        peerNetwork.addTransport(channelMgr);
+        peerNetwork.start();
         netDBMgr = new NetDBManager(this.config);
         netDBMgr.init();
         log.info("NetDB Manager init.");
@@ -153,17 +171,7 @@ public class Kernel {
         log.info("Wallet init.");
 //        }
 
-        dbFactory = new RocksdbFactory(this.config);
-        blockStore = new BlockStore(
-                dbFactory.getDB(DatabaseName.INDEX),
-                dbFactory.getDB(DatabaseName.BLOCK),
-                dbFactory.getDB(DatabaseName.TIME));
-        log.info("Block Store init.");
-        blockStore.init();
-
-        orphanPool = new OrphanPool(dbFactory.getDB(DatabaseName.ORPHANIND));
-        log.info("Orphan Pool init.");
-        orphanPool.init();
+        initStore();
 
         // ====================================
         // netstatus netdb init
@@ -174,6 +182,9 @@ public class Kernel {
         // randomX init
         // ====================================
         randomXUtils = new RandomX();
+        randomXUtils.setPoolVmCount(config.getShareVerifyThreads());
+        randomXUtils.setDatasetThreads(config.getRandomxDatasetThreads());
+        randomXUtils.setLightMode(config.isRandomxLightMode());
         randomXUtils.init();
 
         // ====================================
@@ -205,6 +216,7 @@ public class Kernel {
         // ====================================
 
         channelManager = new ChannelManager();
+        peerNetwork.addTransport(channelManager);
 
         p2p = new XdagServer(this);
         p2p.start();
@@ -243,11 +255,16 @@ public class Kernel {
         // set up minermanager awardmanager
         // ====================================
         minerManager = new MinerManagerImpl(this);
+        shareLedger = new ShareLedger(Paths.get(config.getStoreDir(), "shares.ledger"));
+        payoutJournal = new PayoutJournal(Paths.get(config.getStoreDir(), "payouts.journal"));
+        minerStats = new MinerStatsStore(dbFactory.getDB(DatabaseName.STATS));
+        minerStats.start();
         awardManager = new AwardManagerImpl(this);
         // ====================================
         // poolnode open
         // ====================================
         connectionLimitHandler = new ConnectionLimitHandler(this.config.getMaxConnectPerIp());
+        minerAdmission = new MinerAdmission(config);
         minerServer = new MinerServer(this);
 
         // ====================================
@@ -271,6 +288,46 @@ public class Kernel {
         Launcher.registerShutdownHook("kernel", this::testStop);
     }
 
+    /** Import blocks from the storage of C version without starting the node. */
+    public synchronized void testImport() {
+        wallet = new OldWallet();
+        wallet.init(this.config);
+        initStore();
+
+        randomXUtils = new RandomX();
+        randomXUtils.setDatasetThreads(config.getRandomxDatasetThreads());
+        randomXUtils.setLightMode(config.isRandomxLightMode());
+        randomXUtils.init();
+        blockchain = new BlockchainImpl(this);
+        randomXUtils.randomXLoadingForkTime();
+
+        long start = System.currentTimeMillis();
+        long count = blockchain.loadBlockchain(config.getOriginStoreDir());
+        long cost = Math.max(1, System.currentTimeMillis() - start);
+        log.info("Import finished, {} blocks imported in {} s, {} blocks/s, main height {}",
+                count, cost / 1000, count * 1000 / cost, blockchain.getXdagStats().nmain);
+
+        blockchain.stopCheckMain();
+        for (DatabaseName name : DatabaseName.values()) {
+            dbFactory.getDB(name).close();
+        }
+        randomXUtils.randomXPoolReleaseMem();
+    }
+
+    private void initStore() {
+        dbFactory = new RocksdbFactory(this.config);
+        blockStore = new BlockStore(
+                dbFactory.getDB(DatabaseName.INDEX),
+                dbFactory.getDB(DatabaseName.BLOCK),
+                dbFactory.getDB(DatabaseName.TIME));
+        log.info("Block Store init.");
+        blockStore.init();
+
+        orphanPool = new OrphanPool(dbFactory.getDB(DatabaseName.ORPHANIND));
+        log.info("Orphan Pool init.");
+        orphanPool.init();
+    }
+
     /** Stops the kernel. */
     public synchronized void testStop() {
 
@@ -288,23 +345,25 @@ public class Kernel {
 
         // 2. 连接层关闭
         // stop node manager and channel manager
+        peerNetwork.stop();
         channelMgr.stop();
         nodeMgr.stop();
 
         channelManager.stop();
         discoveryController.stop();
         libp2pNetwork.stop();
-        // close timer
-        MessageQueue.timer.shutdown();
-
         // close server
         p2p.close();
         // close client
         client.close();
 
         minerServer.close();
+        minerAdmission.stop();
         minerManager.stop();
         awardManager.stop();
+        shareLedger.close();
+        payoutJournal.close();
+        minerStats.stop();
 
         // 3. 数据层关闭
         // TODO 关闭checkmain线程
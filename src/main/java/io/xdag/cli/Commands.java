@@ -29,11 +29,16 @@ import io.xdag.Kernel;
 import io.xdag.core.*;
 import io.xdag.crypto.ECKeyPair;
 import io.xdag.mine.MinerChannel;
+import io.xdag.mine.VarDiff;
 import io.xdag.mine.miner.Miner;
 import io.xdag.mine.miner.MinerCalculate;
 import io.xdag.mine.miner.MinerStates;
+import io.xdag.mine.miner.MinerStatsStore;
+import io.xdag.mine.miner.StatsSeries;
+import io.xdag.net.manager.PeerScorer;
 import io.xdag.net.node.Node;
 import io.xdag.utils.BasicUtils;
+import io.xdag.utils.ByteArrayWrapper;
 import io.xdag.utils.FormatDateUtils;
 import io.xdag.utils.StringUtils;
 import io.xdag.utils.XdagTime;
@@ -187,7 +192,7 @@ public class Commands {
         for(BlockWrapper blockWrapper : txs) {
             ImportResult result = kernel.getSyncMgr().validateAndAddNewBlock(blockWrapper);
             if (result == ImportResult.IMPORTED_BEST || result == ImportResult.IMPORTED_NOT_BEST) {
-                kernel.getChannelMgr().sendNewBlock(blockWrapper);
+                kernel.getPeerNetwork().sendNewBlock(blockWrapper);
                 str.append(BasicUtils.hash2Address(blockWrapper.getBlock().getHashLow())).append("\n");
             }
         }
@@ -303,7 +308,15 @@ public class Commands {
                             orphan blocks: %d
                          wait sync blocks: %d
                          chain difficulty: %s of %s
-                              XDAG supply: %.9f of %.9f""",
+                              XDAG supply: %.9f of %.9f
+                      verified main chain: %d
+                 duplicate blocks dropped: %d
+                      relay sends skipped: %d
+                           blocks relayed: %d, %d sends
+                   block hashes announced: %d, %d pulled
+                     batch block requests: %d, %d blocks, %d missed
+                  peer requests throttled: %d, %d sends deferred
+                                    peers: %s""",
                 kernel.getNetDB().getSize(), kernel.getNetDBMgr().getWhiteDB().getSize(),
                 xdagStats.getNblocks(), Math.max(xdagStats.getTotalnblocks(),xdagStats.getNblocks()),
                 xdagStats.getNmain(), Math.max(xdagStats.getTotalnmain(),xdagStats.getNmain()),
@@ -315,7 +328,19 @@ public class Commands {
                 currentDiff.toString(16),
                 maxDiff.toString(16),
                 amount2xdag(kernel.getBlockchain().getSupply(xdagStats.nmain)),
-                amount2xdag(kernel.getBlockchain().getSupply(Math.max(xdagStats.nmain,xdagStats.totalnmain)))
+                amount2xdag(kernel.getBlockchain().getSupply(Math.max(xdagStats.nmain,xdagStats.totalnmain))),
+                kernel.getSync() != null ? Math.max(kernel.getSync().getMainChainSync().getVerifiedHeight(), xdagStats.getNmain()) : xdagStats.getNmain(),
+                kernel.getBlockRelayFilter() != null ? kernel.getBlockRelayFilter().getDuplicatesDropped() : 0,
+                kernel.getBlockRelayFilter() != null ? kernel.getBlockRelayFilter().getSendsSkipped() : 0,
+                kernel.getPeerNetwork().getBlocksRelayed(), kernel.getPeerNetwork().getRelaySends(),
+                kernel.getPeerNetwork().getAnnounced(),
+                kernel.getBlockRelayFilter() != null ? kernel.getBlockRelayFilter().getPulled() : 0,
+                kernel.getPeerNetwork().getBlockFetcher().getBatches(),
+                kernel.getPeerNetwork().getBlockFetcher().getBatchedBlocks(),
+                kernel.getPeerNetwork().getBlockFetcher().getMisses(),
+                kernel.getPeerNetwork().getRequestScheduler().getThrottled(),
+                kernel.getPeerNetwork().getRequestScheduler().getDeferred(),
+                kernel.getPeerNetwork().getPeerCounts()
         );
     }
 
@@ -517,7 +542,11 @@ public class Commands {
                     .append(node.getStat().Inbound.get())
                     .append(" in/")
                     .append(node.getStat().Outbound.get())
-                    .append(" out").append(System.getProperty("line.separator"));
+                    .append(" out ")
+                    .append(node.getStat().getRtt())
+                    .append(" ms ")
+                    .append(String.format("score %.2f", PeerScorer.score(node.getStat())))
+                    .append(System.getProperty("line.separator"));
         }
         for (Node node0 : map0.keySet()) {
             stringBuilder
@@ -547,6 +576,13 @@ public class Commands {
         Miner poolMiner = kernel.getPoolMiner();
         StringBuilder sbd = new StringBuilder();
         sbd.append("fee:").append(BasicUtils.hash2Address(poolMiner.getAddressHash())).append("\n");
+        if (kernel.getMinerAdmission() != null) {
+            sbd.append(kernel.getMinerAdmission()).append("\n");
+        }
+        sbd.append(kernel.getMinerManager().getTaskBroadcastLatency()).append("\n");
+        sbd.append(kernel.getMinerManager().getBalanceCache()).append("\n");
+        sbd.append(String.format("shares accepted: %d, %d below target%n",
+                VarDiff.getTotalAccepted(), VarDiff.getTotalRejected()));
         if (kernel.getMinerManager().getActivateMiners().size() == 0) {
             sbd.append(" without activate miners");
         } else {
@@ -559,6 +595,57 @@ public class Commands {
         return sbd.toString();
     }
 
+    /**
+     * 矿池或矿工[address]最近count个分钟或小时的share和算力，只读取时间序列，不遍历矿工
+     */
+    public String hashrate(String address, boolean hourly, int count) {
+        MinerStatsStore store = kernel.getMinerStats();
+        if (store == null) {
+            return "Miner statistics not started";
+        }
+        long now = System.currentTimeMillis();
+        StatsSeries series;
+        Miner miner = null;
+        if (org.apache.commons.lang3.StringUtils.isEmpty(address)) {
+            series = store.getPool();
+        } else {
+            byte[] hash = org.apache.commons.lang3.StringUtils.length(address) == 32
+                    ? address2Hash(address) : StringUtils.getHash(address);
+            if (hash == null) {
+                return "Incorrect address";
+            }
+            byte[] key = new byte[32];
+            System.arraycopy(hash, 8, key, 8, 24);
+            series = store.getSeries(key);
+            if (series == null) {
+                return "No statistics for " + address;
+            }
+            Block block = kernel.getBlockStore().getBlockInfoByHash(key);
+            if (block != null) {
+                miner = kernel.getMinerManager().getActivateMiners().get(new ByteArrayWrapper(block.getInfo().getHash()));
+            }
+        }
+
+        FastDateFormat format = FastDateFormat.getInstance(hourly ? "yyyy-MM-dd HH:00" : "yyyy-MM-dd HH:mm");
+        StringBuilder sbd = new StringBuilder();
+        sbd.append(String.format("%-16s %10s %10s %16s%n", "time", "accepted", "rejected", "hashrate"));
+        for (StatsSeries.Bucket bucket : series.range(hourly, count, now)) {
+            sbd.append(String.format("%-16s %10d %10d %16.6f%n", format.format(bucket.time),
+                    bucket.accepted, bucket.rejected, bucket.getHashrate()));
+        }
+        StatsSeries.Bucket total = series.total(hourly, count, now);
+        sbd.append(String.format("%-16s %10d %10d %16.6f%n", "total", total.accepted, total.rejected,
+                total.getHashrate()));
+        if (miner != null) {
+            for (MinerChannel channel : miner.getChannels().values()) {
+                StatsSeries.Bucket last = channel.getStats().total(false, 60, now);
+                sbd.append(String.format("channel %s last hour: accepted %d, rejected %d, hashrate %.6f%n",
+                        channel.getInetAddress(), last.accepted, last.rejected, last.getHashrate()));
+            }
+        }
+        return sbd.toString();
+    }
+
     public String state() {
         return kernel.getXdagState().toString();
     }
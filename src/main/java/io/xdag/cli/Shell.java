@@ -75,6 +75,7 @@ public class Shell extends JlineCommandRegistry implements CommandRegistry, Teln
         commandExecute.put("stats", new CommandMethods(this::processStats, this::defaultCompleter));
         commandExecute.put("xfer", new CommandMethods(this::processXfer, this::defaultCompleter));
         commandExecute.put("miners", new CommandMethods(this::processMiners, this::defaultCompleter));
+        commandExecute.put("hashrate", new CommandMethods(this::processHashrate, this::defaultCompleter));
 //        commandExecute.put("run", new CommandMethods(this::processRun, this::defaultCompleter));
         commandExecute.put("keygen", new CommandMethods(this::processKeygen, this::defaultCompleter));
         commandExecute.put("net", new CommandMethods(this::processNet, this::defaultCompleter));
@@ -341,6 +342,26 @@ public class Shell extends JlineCommandRegistry implements CommandRegistry, Teln
         }
     }
 
+    private void processHashrate(CommandInput input) {
+        final String[] usage = {
+                "hashrate - for pool, print share and hashrate history of the pool or the miner [ADDRESS]",
+                "Usage: hashrate [OPTIONS] [ADDRESS]",
+                "  -? --help                    Show help",
+                "  -H --hourly                  hourly buckets for 30 days instead of minutes for 24 hours",
+                "  -n --number=SIZE             number of latest buckets (60 by default)",
+        };
+        try {
+            Options opt = parseOptions(usage, input.args());
+            if (opt.isSet("help")) {
+                throw new Options.HelpException(opt.usage());
+            }
+            List<String> argv = opt.args();
+            int num = opt.isSet("number") ? Integer.parseInt(opt.get("number")) : 60;
+            println(commands.hashrate(argv.size() > 0 ? argv.get(0) : null, opt.isSet("hourly"), num));
+        } catch (Exception e) {
+            saveException(e);
+        }
+    }
 
     private void processKeygen(CommandInput input) {
         final String[] usage = {
@@ -118,6 +118,40 @@ public class Config implements Serializable {
     private boolean storeFromBackup = false;
     /** 用于测试加载已有区块数据 从C版本生成的数据 请将所需要的数据放在该目录下 */
     private String originStoreDir = "./testdate";
+    /** 只导入originStoreDir中的C版本区块，不启动节点 */
+    private boolean importOnly = false;
+    /** 导入时解析校验区块的线程数 */
+    private int importThreads = Runtime.getRuntime().availableProcessors();
+    /** 主链优先同步时同时在途的请求数 */
+    private int syncParallelRequests = 8;
+    /** 矿池并行校验share的线程数，RandomX下每个线程对应一个vm */
+    private int shareVerifyThreads = Runtime.getRuntime().availableProcessors();
+    /** 初始化RandomX dataset的线程数 */
+    private int randomxDatasetThreads = Runtime.getRuntime().availableProcessors();
+    /** RandomX只使用cache校验，不分配dataset，适用于不挖矿的节点 */
+    private boolean randomxLightMode = false;
+    /** Linux下有epoll时使用native传输，否则使用nio */
+    private boolean nativeTransport = true;
+    /** 节点网络的事件循环线程数，0为netty默认值(核数的2倍) */
+    private int nodeEventLoopThreads = 0;
+    /** 矿池的事件循环线程数，0为netty默认值 */
+    private int poolEventLoopThreads = 0;
+    /** 矿池accept的线程数，epoll下用SO_REUSEPORT在同一端口绑定多次 */
+    private int poolAcceptThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+    /** 每个节点每秒处理的请求数 */
+    private int peerRequestsPerSecond = 64;
+    /** 每个节点每秒发送的区块字节数 */
+    private int peerBytesPerSecond = 4 << 20;
+    /** 每个节点同时处理的时间段请求数 */
+    private int peerMaxRangeRequests = 2;
+    /** 校验矿工地址块的线程数，校验会进入区块链的全局锁，多了没有用 */
+    private int poolHandshakeThreads = 2;
+    /** 等待校验的握手数，超过后新握手直接断开 */
+    private int poolHandshakeQueueSize = 8192;
+    /** 矿池每秒接入的新连接数，超出的连接推迟读取 */
+    private int poolAcceptRate = 1000;
+    /** 每个矿工连接每个任务进入统计的share数，vardiff按此调整目标 */
+    private int poolSharesPerTask = 8;
     private int TTL = 5;
     private byte[] dnetKeyBytes = new byte[2048];
     private DnetKeys xKeys;
@@ -211,6 +245,11 @@ public class Config implements Serializable {
             case "-r":
                 // todo only load block but no run
                 break;
+            case "-import":
+                i++;
+                config.originStoreDir = args[i];
+                config.importOnly = true;
+                break;
             case "-s":
                 i++;
                 // todo bind the host for us
@@ -304,6 +343,23 @@ public class Config implements Serializable {
 
         password = setting.getStr("password");
 
+        importThreads = setting.getInt("importThreads", importThreads);
+        syncParallelRequests = setting.getInt("syncParallelRequests", syncParallelRequests);
+        shareVerifyThreads = setting.getInt("shareVerifyThreads", shareVerifyThreads);
+        randomxDatasetThreads = setting.getInt("randomxDatasetThreads", randomxDatasetThreads);
+        randomxLightMode = setting.getBool("randomxLightMode", randomxLightMode);
+        nativeTransport = setting.getBool("nativeTransport", nativeTransport);
+        nodeEventLoopThreads = setting.getInt("nodeEventLoopThreads", nodeEventLoopThreads);
+        poolEventLoopThreads = setting.getInt("poolEventLoopThreads", poolEventLoopThreads);
+        poolAcceptThreads = setting.getInt("poolAcceptThreads", poolAcceptThreads);
+        peerRequestsPerSecond = setting.getInt("peerRequestsPerSecond", peerRequestsPerSecond);
+        peerBytesPerSecond = setting.getInt("peerBytesPerSecond", peerBytesPerSecond);
+        peerMaxRangeRequests = setting.getInt("peerMaxRangeRequests", peerMaxRangeRequests);
+        poolHandshakeThreads = setting.getInt("poolHandshakeThreads", poolHandshakeThreads);
+        poolHandshakeQueueSize = setting.getInt("poolHandshakeQueueSize", poolHandshakeQueueSize);
+        poolAcceptRate = setting.getInt("poolAcceptRate", poolAcceptRate);
+        poolSharesPerTask = setting.getInt("poolSharesPerTask", poolSharesPerTask);
+
         String[] list = setting.getStrings("whiteIPs");
         if (list != null) {
             log.debug("{} IP access", list.length);
@@ -47,11 +47,14 @@ public class Constants {
     /** 候补主块未持久化 */
     public static final byte BI_EXTRA = 0x40;
     public static final byte BI_REMARK = (byte) 0x80;
-    public static final Long SEND_PERIOD = 2L;
     public static final int DNET_PKT_XDAG = 0x8B;
     public static final int BLOCK_HEAD_WORD = 0x3fca9e2b;
     public static final long REQUEST_BLOCKS_MAX_TIME = UnsignedLong.fromLongBits(1L << 20).longValue();
     public static final long REQUEST_WAIT = 64;
+    /** 一次主块请求最多覆盖64个epoch */
+    public static final long REQUEST_MAIN_BLOCKS_MAX_TIME = UnsignedLong.fromLongBits(1L << 22).longValue();
+    /** 主块请求的回复区块ttl为0，转发的区块ttl至少为1，接收方据此区分 */
+    public static final int MAIN_BLOCKS_REPLY_TTL = 0;
     public static final long MAX_ALLOWED_EXTRA = 65536;
     public static final String FUND_ADDRESS = "FQglVQtb60vQv2DOWEUL7yh3smtj7g1s";
     /** 每一轮的确认数是16 */
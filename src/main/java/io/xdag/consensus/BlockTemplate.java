@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.consensus;
+
+import io.xdag.core.Block;
+import io.xdag.core.XdagBlock;
+import io.xdag.utils.XdagSha256Digest;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * 出块模板
+ *
+ * 区块签名后只有最后一个字段(nonce)会变化，模板保存编码后的512字节和sha256的中间状态，
+ * 换nonce时只需计算最后64字节的压缩和第二次sha256，不用重新编码区块和推导公钥。
+ * 超时出块时直接用模板的数据构造区块。
+ */
+public class BlockTemplate {
+
+    /** 前7个64字节的块，中间状态发给矿工 */
+    private static final int MIDSTATE_SIZE = 448;
+    private static final int NONCE_OFFSET = 480;
+    private static final int NONCE_SIZE = 32;
+
+    private final byte[] data;
+    /** 前448字节的中间状态 */
+    private final XdagSha256Digest midstate;
+    /** 前480字节，和share的校验共用 */
+    private final XdagSha256Digest digest;
+    private byte[] hash;
+
+    /** @param block 已签名的出块区块，编码一次 */
+    public BlockTemplate(Block block, byte[] nonce) {
+        this.data = block.toBytes();
+        this.midstate = new XdagSha256Digest();
+        try {
+            midstate.sha256Update(Arrays.copyOfRange(data, 0, MIDSTATE_SIZE));
+            this.digest = new XdagSha256Digest(midstate);
+            digest.sha256Update(Arrays.copyOfRange(data, MIDSTATE_SIZE, NONCE_OFFSET));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        setNonce(nonce);
+    }
+
+    /**
+     * 更换nonce
+     *
+     * @return 新的区块hash
+     */
+    public byte[] setNonce(byte[] nonce) {
+        System.arraycopy(nonce, 0, data, NONCE_OFFSET, NONCE_SIZE);
+        try {
+            hash = new XdagSha256Digest(digest).sha256Final(nonce);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return hash;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    /** 前448字节的中间状态，可以继续update */
+    public XdagSha256Digest getMidstate() {
+        return new XdagSha256Digest(midstate);
+    }
+
+    /** 前480字节的sha256状态，share的hash由它加上nonce计算 */
+    public XdagSha256Digest getDigest() {
+        return new XdagSha256Digest(digest);
+    }
+
+    /** 编码后的数据，nonce为当前值 */
+    public byte[] getData() {
+        return data.clone();
+    }
+
+    /** 用当前nonce构造区块，不重新编码 */
+    public Block toBlock() {
+        return new Block(new XdagBlock(getData()));
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.consensus;
+
+import com.google.common.util.concurrent.SettableFuture;
+import io.xdag.Kernel;
+import io.xdag.core.Address;
+import io.xdag.core.Block;
+import io.xdag.core.Blockchain;
+import io.xdag.core.XdagStats;
+import io.xdag.core.XdagTopStatus;
+import io.xdag.net.Capability;
+import io.xdag.net.PeerChannel;
+import io.xdag.net.PeerNetwork;
+import io.xdag.net.manager.PeerScorer;
+import io.xdag.net.message.impl.BlockExtRequestMessage;
+import io.xdag.net.message.impl.BlocksRequestMessage;
+import io.xdag.randomx.RandomX;
+import io.xdag.utils.ByteArrayWrapper;
+import io.xdag.utils.XdagTime;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.util.encoders.Hex;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static io.xdag.config.Constants.*;
+import static io.xdag.utils.BasicUtils.getDiffByHash;
+
+/**
+ * 主链优先同步
+ *
+ * 1. 向节点请求主块(BLOCKEXT_REQUEST)，沿maxDiffLink把主块连成骨架，
+ *    用区块本身重新计算PoW难度和累计难度，选择累计难度最大的链，尽早得到已校验的主链高度；
+ *    RandomX分叉后只有本地已有种子能计算难度的主块才加入骨架；
+ * 2. 按时间顺序分段向多个节点并行请求骨架覆盖范围内的全部区块，区块大致按主链顺序到达并导入。
+ *
+ * 只向声明了 {@link Capability#MAIN_BLOCKS} 的节点请求主块，没有这样的节点时退回原来的sums同步。
+ */
+@Slf4j
+public class MainChainSync {
+
+    /** 落后这么多主块才启用主链优先同步 */
+    private static final long SYNC_LAG = 256;
+    /** 只为最近这么多epoch保留分叉候选 */
+    private static final long FORK_DEPTH = 128;
+
+    private final Blockchain blockchain;
+    private final PeerNetwork peerNetwork;
+    private final RandomX randomX;
+    private final ConcurrentHashMap<Long, SettableFuture<byte[]>> blocksRequestMap;
+    private final int parallel;
+
+    /** 在途的主块请求 random -> 请求 */
+    private final ConcurrentHashMap<Long, MainBlocksRequest> mainRequests = new ConcurrentHashMap<>();
+    /** 声明支持但没有回复主块请求的节点 */
+    private final Set<PeerChannel> unsupported = ConcurrentHashMap.newKeySet();
+
+    /** 骨架 hashlow -> 节点 只保留最近FORK_DEPTH个epoch */
+    private final Map<ByteArrayWrapper, SkeletonNode> skeleton = new HashMap<>();
+    private SkeletonNode base;
+    private SkeletonNode best;
+
+    /** 骨架上通过校验的主链高度和对应epoch */
+    @Getter
+    private volatile long verifiedHeight;
+    @Getter
+    private volatile long verifiedEpoch;
+    @Getter
+    private volatile boolean running;
+
+    public MainChainSync(Kernel kernel, ConcurrentHashMap<Long, SettableFuture<byte[]>> blocksRequestMap) {
+        this.blockchain = kernel.getBlockchain();
+        this.peerNetwork = kernel.getPeerNetwork();
+        this.randomX = kernel.getRandomXUtils();
+        this.blocksRequestMap = blocksRequestMap;
+        this.parallel = Math.max(1, kernel.getConfig().getSyncParallelRequests());
+    }
+
+    /** 本地主链明显落后时先同步骨架，再按骨架顺序补齐区块 */
+    public void sync() {
+        XdagStats xdagStats = blockchain.getXdagStats();
+        if (xdagStats.getTotalnmain() < xdagStats.getNmain() + SYNC_LAG) {
+            return;
+        }
+        List<PeerChannel> channels = supportedChannels();
+        if (channels.isEmpty()) {
+            return;
+        }
+        running = true;
+        try {
+            reset();
+            long endEpoch = XdagTime.getCurrentEpoch();
+            long start = System.currentTimeMillis();
+            if (!buildSkeleton(endEpoch)) {
+                return;
+            }
+            log.info("Main chain skeleton verified to height {} epoch {} in {} ms, difficulty {}, net difficulty {}",
+                    verifiedHeight, Long.toHexString(verifiedEpoch), System.currentTimeMillis() - start,
+                    best.difficulty.toString(16),
+                    xdagStats.getMaxdifficulty() != null ? xdagStats.getMaxdifficulty().toString(16) : "");
+            backfill(peerNetwork.getActivePeers());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mainRequests.clear();
+            skeleton.clear();
+            running = false;
+        }
+    }
+
+    /**
+     * 收到区块时调用，属于在途主块请求的区块只用于构建骨架
+     * 主块回复用 {@link io.xdag.config.Constants#MAIN_BLOCKS_REPLY_TTL} 发送，同一时间段内对方转发的新区块照常导入
+     *
+     * @return true 区块已被骨架同步处理
+     */
+    public boolean onNewBlock(PeerChannel channel, Block block, int ttl) {
+        if (ttl != MAIN_BLOCKS_REPLY_TTL || mainRequests.isEmpty()) {
+            return false;
+        }
+        for (MainBlocksRequest request : mainRequests.values()) {
+            if (request.channel == channel && request.contains(block.getTimestamp())) {
+                request.blocks.add(block);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** 同一通道上回复在区块之后到达，此时请求的主块已全部收到 */
+    public void onMainBlocksReply(long random) {
+        MainBlocksRequest request = mainRequests.get(random);
+        if (request != null) {
+            request.future.set(request.blocks);
+        }
+    }
+
+    private void reset() {
+        skeleton.clear();
+        XdagTopStatus topStatus = blockchain.getXdagTopStatus();
+        Block top = topStatus.getTop() == null ? null : blockchain.getBlockByHash(topStatus.getTop(), false);
+        long epoch = top == null ? XdagTime.getEpoch(XDAG_ERA) - 1 : XdagTime.getEpoch(top.getTimestamp());
+        base = new SkeletonNode(top == null ? null : top.getHashLow(), epoch,
+                topStatus.getTopDiff() == null ? BigInteger.ZERO : topStatus.getTopDiff(),
+                blockchain.getXdagStats().getNmain());
+        best = base;
+        verifiedHeight = base.height;
+        verifiedEpoch = base.epoch;
+        unsupported.retainAll(peerNetwork.getActivePeers());
+    }
+
+    /** 按时间顺序请求主块并扩展骨架，返回false表示没有节点支持主块请求 */
+    private boolean buildSkeleton(long endEpoch) throws InterruptedException {
+        long end = endEpoch << 16;
+        long time = (base.epoch + 1) << 16;
+        Deque<MainBlocksRequest> pending = new ArrayDeque<>(parallel);
+        int next = 0;
+        long rejected = 0;
+        while (running && (time < end || !pending.isEmpty())) {
+            while (time < end && pending.size() < parallel) {
+                List<PeerChannel> channels = supportedChannels();
+                if (channels.isEmpty()) {
+                    return best != base;
+                }
+                PeerChannel xc = channels.get(next++ % channels.size());
+                pending.add(requestMainBlocks(xc, time, Math.min(time + REQUEST_MAIN_BLOCKS_MAX_TIME, end)));
+                time += REQUEST_MAIN_BLOCKS_MAX_TIME;
+            }
+            MainBlocksRequest request = pending.poll();
+            List<Block> blocks = await(request);
+            // 超时则换一个节点重新请求这一段
+            while (blocks == null) {
+                unsupported.add(request.channel);
+                log.info("Peer {} does not answer main blocks request", request.channel.getNode().getAddress());
+                List<PeerChannel> channels = supportedChannels();
+                if (channels.isEmpty()) {
+                    pending.forEach(r -> mainRequests.remove(r.random));
+                    return best != base;
+                }
+                request = requestMainBlocks(channels.get(next++ % channels.size()), request.start, request.end);
+                blocks = await(request);
+            }
+            blocks.sort(Comparator.comparingLong(Block::getTimestamp));
+            for (Block block : blocks) {
+                if (!request.contains(block.getTimestamp()) || !extend(block)) {
+                    rejected++;
+                }
+            }
+            prune();
+        }
+        if (rejected > 0) {
+            log.debug("{} main blocks not connected to skeleton", rejected);
+        }
+        return true;
+    }
+
+    private MainBlocksRequest requestMainBlocks(PeerChannel xc, long start, long end) {
+        BlockExtRequestMessage msg = new BlockExtRequestMessage(start, end, blockchain.getXdagStats());
+        MainBlocksRequest request = new MainBlocksRequest(xc, msg.getRandom(), start, end);
+        // 先登记再发送，避免回复先于登记到达
+        mainRequests.put(request.random, request);
+        xc.getNode().getStat().onRequest(request.random);
+        xc.getXdag().sendMessage(msg);
+        return request;
+    }
+
+    private List<Block> await(MainBlocksRequest request) throws InterruptedException {
+        try {
+            return request.future.get(REQUEST_WAIT, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            request.channel.getNode().getStat().onTimeout(request.random);
+            return null;
+        } finally {
+            mainRequests.remove(request.random);
+        }
+    }
+
+    /** 把主块连到骨架上，重新计算难度 */
+    private boolean extend(Block block) {
+        ByteArrayWrapper key = new ByteArrayWrapper(block.getHashLow());
+        if (skeleton.containsKey(key)) {
+            return true;
+        }
+        long epoch = XdagTime.getEpoch(block.getTimestamp());
+        SkeletonNode parent = null;
+        for (Address link : block.getLinks()) {
+            SkeletonNode node = findParent(link.getHashLow(), epoch);
+            if (node != null && (parent == null || node.difficulty.compareTo(parent.difficulty) > 0)) {
+                parent = node;
+            }
+        }
+        if (parent == null) {
+            // 本地没有区块时 第一个主块直接连到起点
+            if (base.hashlow != null || best != base) {
+                return false;
+            }
+            parent = base;
+        }
+        BigInteger diff = powDiff(block, parent.height + 1);
+        if (diff == null) {
+            return false;
+        }
+        SkeletonNode node = new SkeletonNode(block.getHashLow(), epoch, parent.difficulty.add(diff), parent.height + 1);
+        skeleton.put(key, node);
+        if (node.difficulty.compareTo(best.difficulty) > 0) {
+            best = node;
+            verifiedHeight = node.height;
+            verifiedEpoch = node.epoch;
+        }
+        return true;
+    }
+
+    /** 父块可以是骨架上的主块，也可以是本地主链上的区块 */
+    private SkeletonNode findParent(byte[] hashlow, long epoch) {
+        SkeletonNode node = skeleton.get(new ByteArrayWrapper(hashlow));
+        if (node == null && base.hashlow != null && Arrays.equals(base.hashlow, hashlow)) {
+            node = base;
+        }
+        if (node == null) {
+            Block block = blockchain.getBlockByHash(hashlow, false);
+            if (block != null && (block.getInfo().getFlags() & BI_MAIN_CHAIN) != 0 && block.getInfo().getDifficulty() != null) {
+                long height = block.getInfo().getHeight() > 0 ? block.getInfo().getHeight() : base.height;
+                node = new SkeletonNode(hashlow, XdagTime.getEpoch(block.getTimestamp()), block.getInfo().getDifficulty(), height);
+            }
+        }
+        return node != null && node.epoch < epoch ? node : null;
+    }
+
+    /**
+     * 区块自身的难度由本地计算的hash决定，不信任对方给出的数据
+     * RandomX分叉后的主块用RandomX hash计算，高度超出本地种子覆盖范围时无法校验，返回null，
+     * 骨架停在这里，后面的区块由sums同步在导入时完整校验
+     */
+    private BigInteger powDiff(Block block, long height) {
+        long epoch = XdagTime.getEpoch(block.getTimestamp());
+        if (randomX == null || !randomX.isRandomxFork(epoch) || !XdagTime.isEndOfEpoch(block.getTimestamp())) {
+            return getDiffByHash(block.getHash());
+        }
+        if (height >= randomX.randomXSeedLimitHeight()) {
+            return null;
+        }
+        try {
+            byte[] hash = randomX.randomXBlockHash(block);
+            return hash == null ? null : getDiffByHash(hash);
+        } catch (IllegalStateException e) {
+            log.warn("Can not verify main block {}: {}", Hex.toHexString(block.getHashLow()), e.getMessage());
+            return null;
+        }
+    }
+
+    /** 丢弃不再可能成为分叉的旧候选 */
+    private void prune() {
+        long minEpoch = best.epoch - FORK_DEPTH;
+        skeleton.values().removeIf(node -> node.epoch < minEpoch && node != best);
+    }
+
+    /** 按时间顺序分段从分数较高的一半节点并行请求骨架范围内的全部区块 */
+    private void backfill(List<PeerChannel> channels) throws InterruptedException {
+        if (channels.isEmpty()) {
+            return;
+        }
+        channels = PeerScorer.rank(channels).subList(0, (channels.size() + 1) / 2);
+        long end = (verifiedEpoch + 1) << 16;
+        long time = (base.epoch + 1) << 16;
+        Deque<Map.Entry<Long, PeerChannel>> pending = new ArrayDeque<>(parallel);
+        int next = 0;
+        long timeout = 0;
+        while (running && (time < end || !pending.isEmpty())) {
+            while (time < end && pending.size() < parallel) {
+                PeerChannel xc = channels.get(next++ % channels.size());
+                BlocksRequestMessage msg = new BlocksRequestMessage(time, Math.min(time + REQUEST_BLOCKS_MAX_TIME, end),
+                        blockchain.getXdagStats());
+                long random = msg.getRandom();
+                // 先登记再发送，避免回复先于登记到达
+                blocksRequestMap.put(random, SettableFuture.create());
+                xc.getNode().getStat().onRequest(random);
+                xc.getXdag().sendMessage(msg);
+                pending.add(new AbstractMap.SimpleImmutableEntry<>(random, xc));
+                time += REQUEST_BLOCKS_MAX_TIME;
+            }
+            Map.Entry<Long, PeerChannel> request = pending.poll();
+            long random = request.getKey();
+            try {
+                SettableFuture<byte[]> sf = blocksRequestMap.get(random);
+                if (sf != null) {
+                    sf.get(REQUEST_WAIT, TimeUnit.SECONDS);
+                }
+            } catch (ExecutionException | TimeoutException e) {
+                // 缺失的部分由后续的sums同步补齐
+                request.getValue().getNode().getStat().onTimeout(random);
+                timeout++;
+            } finally {
+                blocksRequestMap.remove(random);
+            }
+        }
+        log.info("Backfill to epoch {} done, {} requests timeout", Long.toHexString(verifiedEpoch), timeout);
+    }
+
+    /** 声明支持主块请求的节点 按分数从高到低，老节点直接跳过，不等待超时 */
+    private List<PeerChannel> supportedChannels() {
+        List<PeerChannel> channels = PeerScorer.rank(peerNetwork.getActivePeers());
+        channels.removeIf(c -> !Capability.has(c.getCapabilities(), Capability.MAIN_BLOCKS));
+        channels.removeAll(unsupported);
+        return channels;
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    private static class MainBlocksRequest {
+        private final PeerChannel channel;
+        private final long start;
+        private final long end;
+        private final List<Block> blocks = Collections.synchronizedList(new ArrayList<>());
+        private final SettableFuture<List<Block>> future = SettableFuture.create();
+        private final long random;
+
+        MainBlocksRequest(PeerChannel channel, long random, long start, long end) {
+            this.channel = channel;
+            this.random = random;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean contains(long time) {
+            return time >= start && time < end;
+        }
+    }
+
+    private static class SkeletonNode {
+        private final byte[] hashlow;
+        private final long epoch;
+        private final BigInteger difficulty;
+        private final long height;
+
+        SkeletonNode(byte[] hashlow, long epoch, BigInteger difficulty, long height) {
+            this.hashlow = hashlow;
+            this.epoch = epoch;
+            this.difficulty = difficulty;
+            this.height = height;
+        }
+    }
+}
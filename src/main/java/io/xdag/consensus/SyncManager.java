@@ -44,7 +44,6 @@ import io.xdag.core.*;
 import io.xdag.discovery.peers.DiscoveryPeer;
 import io.xdag.discovery.peers.PeerTable;
 import io.xdag.libp2p.Libp2pChannel;
-import io.xdag.libp2p.manager.ChannelManager;
 import io.xdag.libp2p.peer.LibP2PNodeId;
 import io.xdag.net.node.Node;
 
@@ -52,8 +51,9 @@ import com.google.common.collect.Queues;
 
 import io.xdag.Kernel;
 import io.xdag.config.Config;
-import io.xdag.net.XdagChannel;
-import io.xdag.net.manager.XdagChannelManager;
+import io.xdag.net.PeerChannel;
+import io.xdag.net.PeerNetwork;
+import io.xdag.net.manager.PeerScorer;
 import io.xdag.utils.ByteArrayWrapper;
 import io.xdag.utils.BytesUtils;
 import io.xdag.utils.XdagTime;
@@ -83,8 +83,7 @@ public class SyncManager {
     private long importStart;
     private AtomicLong importIdleTime = new AtomicLong();
     private boolean syncDone = false;
-    private XdagChannelManager channelMgr;
-    private ChannelManager channelManager;
+    private PeerNetwork peerNetwork;
     private final ScheduledExecutorService exec;
     private ScheduledFuture<?> connectlibp2pFuture;
     private Set<DiscoveryPeer> hadConnectnode = new HashSet<>();
@@ -96,8 +95,7 @@ public class SyncManager {
     public SyncManager(Kernel kernel) {
         this.kernel = kernel;
         this.blockchain = kernel.getBlockchain();
-        this.channelMgr = kernel.getChannelMgr();
-        this.channelManager = kernel.getChannelManager();
+        this.peerNetwork = kernel.getPeerNetwork();
 
         this.stateListener = new StateListener();
         this.exec = new ScheduledThreadPoolExecutor(1, factory);
@@ -214,13 +212,7 @@ public class SyncManager {
                 if (syncPushBlock(blockWrapper, result.getHashlow())) {
                     log.error("push block:{}, NO_PARENT {}", Hex.toHexString(blockWrapper.getBlock().getHashLow()),
                         Hex.toHexString(result.getHashlow()));
-                    List<XdagChannel> channels = channelMgr.getActiveChannels();
-                    for (XdagChannel channel : channels) {
-                        if(channel.getNode().equals(blockWrapper.getRemoteNode())) {
-                            channel.getXdag().sendGetBlock(result.getHashlow());
-
-                        }
-                    }
+                    requestParent(blockWrapper, result.getHashlow());
 //                    for(Libp2pChannel libp2pChannel : channelManager.getactiveChannel()){
 //                        if(libp2pChannel.getNode().equals(blockWrapper.getRemoteNode())){
 //                            libp2pChannel.getHandler().getController().sendGetBlock(result.getHashLow());
@@ -231,6 +223,9 @@ public class SyncManager {
             }
             case INVALID_BLOCK: {
 //                log.error("invalid block:{}", Hex.toHexString(blockWrapper.getBlock().getHashLow()));
+                if (blockWrapper.getRemoteNode() != null) {
+                    blockWrapper.getRemoteNode().getStat().InvalidBlocks.add();
+                }
                 break;
             }
             default:
@@ -239,6 +234,61 @@ public class SyncManager {
         return result;
     }
 
+    /**
+     * 批量导入本地生成的区块，只获取一次链的锁并只保存一次状态
+     *
+     * 导入成功的区块释放等待它的子区块，同步完成后广播；本地区块的父区块都在本地，不处理NO_PARENT
+     */
+    public synchronized List<ImportResult> validateAndAddNewBlocks(List<BlockWrapper> blockWrappers) {
+        List<Block> blocks = new ArrayList<>(blockWrappers.size());
+        for (BlockWrapper blockWrapper : blockWrappers) {
+            blockWrapper.getBlock().parse();
+            blocks.add(blockWrapper.getBlock());
+        }
+        List<ImportResult> results = blockchain.tryToConnect(blocks);
+        for (int i = 0; i < results.size(); i++) {
+            BlockWrapper blockWrapper = blockWrappers.get(i);
+            ImportResult result = results.get(i);
+            log.info("validateAndAddNewBlocks:{}, {}", Hex.toHexString(blockWrapper.getBlock().getHashLow()), result);
+            if (result == IMPORTED_BEST || result == IMPORTED_NOT_BEST) {
+                syncPopBlock(blockWrapper);
+                if (syncDone && blockWrapper.getTtl() > 0) {
+                    distributeBlock(blockWrapper);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 请求缺失的父区块
+     *
+     * 优先向发来该区块的节点请求，该节点不在或分数不到最好节点的一半时，同时向分数最高的其他节点请求
+     */
+    private void requestParent(BlockWrapper blockWrapper, byte[] hashLow) {
+        List<PeerChannel> ranked = PeerScorer.rank(peerNetwork.getActivePeers());
+        PeerChannel origin = null;
+        for (PeerChannel channel : ranked) {
+            if (channel.getNode().equals(blockWrapper.getRemoteNode())) {
+                origin = channel;
+                break;
+            }
+        }
+        if (origin != null) {
+            peerNetwork.requestBlock(origin, hashLow);
+        }
+        for (PeerChannel channel : ranked) {
+            if (channel == origin) {
+                continue;
+            }
+            if (origin == null || PeerScorer.score(origin.getNode().getStat())
+                    < PeerScorer.score(channel.getNode().getStat()) / 2) {
+                peerNetwork.requestBlock(channel, hashLow);
+            }
+            break;
+        }
+    }
+
     /**
      * 同步缺失区块
      *
@@ -302,12 +352,7 @@ public class SyncManager {
                         if (syncPushBlock(bw, importResult.getHashlow())) {
                             log.error("push block:{}, NO_PARENT {}", Hex.toHexString(bw.getBlock().getHashLow()),
                                     Hex.toHexString(importResult.getHashlow()));
-                            List<XdagChannel> channels = channelMgr.getActiveChannels();
-                            for (XdagChannel channel : channels) {
-                                if (channel.getNode().equals(bw.getRemoteNode())) {
-                                    channel.getXdag().sendGetBlock(importResult.getHashlow());
-                                }
-                            }
+                            requestParent(bw, importResult.getHashlow());
                         }
                         break;
                     default:
@@ -385,8 +430,7 @@ public class SyncManager {
     }
 
     public void distributeBlock(BlockWrapper blockWrapper) {
-        channelMgr.onNewForeignBlock(blockWrapper);
-        channelManager.onNewForeignBlock(blockWrapper);
+        peerNetwork.onNewForeignBlock(blockWrapper);
     }
 
 }
@@ -45,6 +45,10 @@ public class Task {
     @Setter
     private XdagSha256Digest digest;
 
+    /** 创建时间，用于统计下发给矿工的延迟 */
+    @Getter
+    private final long createNanos = System.nanoTime();
+
     @Override
     public String toString() {
         return "Task:{ tasktime:" + taskTime + "}";
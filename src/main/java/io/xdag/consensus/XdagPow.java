@@ -26,32 +26,33 @@ package io.xdag.consensus;
 import io.xdag.Kernel;
 import io.xdag.core.*;
 import io.xdag.crypto.Hash;
-import io.xdag.libp2p.manager.ChannelManager;
 import io.xdag.listener.Listener;
 import io.xdag.mine.MinerChannel;
+import io.xdag.mine.VarDiff;
 import io.xdag.mine.manager.AwardManager;
 import io.xdag.mine.manager.MinerManager;
 import io.xdag.mine.miner.MinerCalculate;
-import io.xdag.net.manager.XdagChannelManager;
+import io.xdag.mine.miner.MinerStatsStore;
+import io.xdag.mine.miner.ShareLedger;
+import io.xdag.net.PeerNetwork;
 import io.xdag.net.message.Message;
 import io.xdag.randomx.RandomX;
 import io.xdag.randomx.RandomXMemory;
 import io.xdag.utils.BytesUtils;
 import io.xdag.utils.FastByteComparisons;
+import io.xdag.utils.LatencyHistogram;
 import io.xdag.utils.XdagSha256Digest;
 import io.xdag.utils.XdagTime;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.RandomUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.encoders.Hex;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 
 import static io.xdag.config.Config.AWARD_EPOCH;
 import static io.xdag.utils.FastByteComparisons.compareTo;
@@ -60,20 +61,30 @@ import static io.xdag.utils.FastByteComparisons.compareTo;
 public class XdagPow implements PoW, Listener, Runnable {
 
     protected BlockingQueue<Event> events = new LinkedBlockingQueue<>();
-    protected Timer timer;
-    protected Broadcaster broadcaster;
+    /** 负责到期触发超时和广播区块，没有任务时不占用CPU */
+    protected ScheduledExecutorService scheduler;
+    protected ScheduledFuture<?> timeoutFuture;
+    protected Thread mainThread;
+    /** 并行计算share的hash，结果交给主线程比较minHash和更新矿工 */
+    protected ThreadPoolExecutor shareVerifier;
 
-    // 当前区块
-    protected Block generateBlock;
+    /** share收到到minHash更新完成的延迟 */
+    protected final LatencyHistogram shareLatency = new LatencyHistogram("share->minHash");
+    /** epoch结束到区块发出的延迟 */
+    protected final LatencyHistogram broadcastLatency = new LatencyHistogram("epoch end->broadcast");
+
+    /** 当前区块的编码和sha256中间状态，更换nonce时不重新编码 */
+    protected BlockTemplate template;
 
     protected byte[] minShare;
-    protected byte[] minHash;
+    /** 校验线程也会读取 */
+    protected volatile byte[] minHash;
 
-    protected XdagChannelManager channelMgr;
+    protected PeerNetwork peerNetwork;
     protected Blockchain blockchain;
 
     protected byte[] globalPretop;
-    protected Task currentTask;
+    protected volatile Task currentTask;
     protected long taskIndex = 0;
 
     /** 存放的是过去十六个区块的hash */
@@ -82,6 +93,8 @@ public class XdagPow implements PoW, Listener, Runnable {
     protected List<byte[]> minShares = new CopyOnWriteArrayList<>(new ArrayList<>(16));
     /** 引入矿工与奖励 */
     protected AwardManager awardManager;
+    protected ShareLedger shareLedger;
+    protected MinerStatsStore minerStats;
     protected MinerManager minerManager;
 
 
@@ -89,19 +102,20 @@ public class XdagPow implements PoW, Listener, Runnable {
 
     private boolean isRunning = false;
 
-    private final ChannelManager channelManager;
 
     protected RandomX randomXUtils;
 
+    /** 等待校验的share上限，超过后丢弃 */
+    private static final int SHARE_QUEUE_SIZE = 1 << 16;
+
     public XdagPow(Kernel kernel) {
         this.kernel = kernel;
         this.blockchain = kernel.getBlockchain();
-        this.channelMgr = kernel.getChannelMgr();
-        this.timer = new Timer();
-        this.broadcaster = new Broadcaster();
+        this.peerNetwork = kernel.getPeerNetwork();
         this.minerManager = kernel.getMinerManager();
         this.awardManager = kernel.getAwardManager();
-        this.channelManager = kernel.getChannelManager();
+        this.shareLedger = kernel.getShareLedger();
+        this.minerStats = kernel.getMinerStats();
 
         this.randomXUtils = kernel.getRandomXUtils();
     }
@@ -119,9 +133,19 @@ public class XdagPow implements PoW, Listener, Runnable {
                 this.minShares.add(null);
             }
 
-            new Thread(this.timer, "xdag-pow-timer").start();
-            new Thread(this, "xdag-pow-main").start();
-            new Thread(this.broadcaster, "xdag-pow-broadcaster").start();
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder()
+                    .namingPattern("xdag-pow-scheduler")
+                    .daemon(true)
+                    .build());
+            int verifyThreads = Math.max(1, kernel.getConfig().getShareVerifyThreads());
+            this.shareVerifier = new ThreadPoolExecutor(verifyThreads, verifyThreads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(SHARE_QUEUE_SIZE),
+                    new BasicThreadFactory.Builder()
+                            .namingPattern("xdag-pow-verify-%d")
+                            .daemon(true)
+                            .build());
+            this.mainThread = new Thread(this, "xdag-pow-main");
+            this.mainThread.start();
         }
     }
 
@@ -129,8 +153,9 @@ public class XdagPow implements PoW, Listener, Runnable {
     public void stop() {
         if (this.isRunning) {
             this.isRunning = false;
-            this.timer.isRunning = false;
-            this.broadcaster.isRunning = false;
+            this.scheduler.shutdownNow();
+            this.shareVerifier.shutdownNow();
+            this.mainThread.interrupt();
         }
     }
 
@@ -172,9 +197,9 @@ public class XdagPow implements PoW, Listener, Runnable {
                 memory.setIsSwitched(1);
             }
 
-            generateBlock = generateRandomXBlock(sendTime);
+            generateRandomXBlock(sendTime);
         } else {
-            generateBlock = generateBlock(sendTime);
+            generateBlock(sendTime);
         }
     }
 
@@ -189,6 +214,7 @@ public class XdagPow implements PoW, Listener, Runnable {
 
         minShare = RandomUtils.nextBytes(32);
         block.setNonce(minShare);
+        template = new BlockTemplate(block, minShare);
 
         minHash = Hex.decode("ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff");
 
@@ -196,6 +222,7 @@ public class XdagPow implements PoW, Listener, Runnable {
 
         // 更新poolminer的贡献
         log.debug("Send randomx task to Miners");
+        rollVarDiff(currentTask);
         minerManager.updateTask(currentTask);
         awardManager.onNewTask(currentTask);
 
@@ -213,13 +240,15 @@ public class XdagPow implements PoW, Listener, Runnable {
 
         minShare = RandomUtils.nextBytes(32);
         block.setNonce(minShare);
+        template = new BlockTemplate(block, minShare);
         // 初始nonce, 计算minhash但不作为最终hash
-        minHash = block.recalcHash();
+        minHash = template.getHash();
 
         currentTask = createTaskByNewBlock(block,sendTime);
         // 发送给矿工
         log.debug("Send origin task to Miners");
         // 更新poolminer的贡献
+        rollVarDiff(currentTask);
         minerManager.updateTask(currentTask);
         awardManager.onNewTask(currentTask);
 
@@ -228,9 +257,19 @@ public class XdagPow implements PoW, Listener, Runnable {
         return block;
     }
 
+    /** 在xdag时间timeout之后触发一次超时，取消之前的超时 */
     protected void resetTimeout(long timeout) {
-        timer.timeout(timeout);
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout can not be negative");
+        }
+        if (timeoutFuture != null) {
+            timeoutFuture.cancel(false);
+        }
         events.removeIf(e -> e.type == Event.Type.TIMEOUT);
+        // 超时条件是当前时间大于timeout，即到达timeout的下一个时间单位
+        long deadline = XdagTime.xdagTimestampToMs(timeout + 1);
+        long delay = Math.max(0, deadline - System.currentTimeMillis());
+        timeoutFuture = scheduler.schedule(() -> events.add(new Event(Event.Type.TIMEOUT, deadline)), delay, TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -247,7 +286,21 @@ public class XdagPow implements PoW, Listener, Runnable {
 
         XdagField shareInfo = new XdagField(msg.getEncoded());
         log.debug("Receive share From PoolChannel, Shareinfo:{}", Hex.toHexString(shareInfo.getData()));
-        events.add(new Event(Event.Type.NEW_SHARE, shareInfo, channel));
+        Task task = currentTask;
+        if (task == null) {
+            return;
+        }
+        long receiveTime = System.nanoTime();
+        try {
+            shareVerifier.execute(() -> {
+                byte[] hash = calculateHash(task, shareInfo);
+                if (hash != null && checkTarget(channel, task, shareInfo, hash, receiveTime)) {
+                    events.add(new Event(Event.Type.NEW_SHARE, new Share(shareInfo, task, hash), channel, receiveTime));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Share verify queue is full, drop share from {}", channel.getInetAddress());
+        }
     }
 
     public void receiveNewPretop(byte[] pretop) {
@@ -260,62 +313,124 @@ public class XdagPow implements PoW, Listener, Runnable {
         }
     }
 
-    protected void onNewShare(XdagField shareInfo, MinerChannel channel) {
+    /**
+     * 在校验线程上按通道的vardiff目标过滤share，低于目标且不能更新minHash的share不进入主线程
+     * 能更新minHash的share无论是否达到目标都进入主线程，统计和vardiff中都按接受计算
+     */
+    protected boolean checkTarget(MinerChannel channel, Task task, XdagField shareInfo, byte[] hash, long receiveTime) {
+        double diff = MinerCalculate.shareDiff(hash);
+        byte[] min = minHash;
+        boolean keep = task == currentTask && min != null && compareTo(hash, 0, 32, min, 0, 32) < 0;
+        boolean accepted = channel.getVarDiff().accept(task, shareInfo, hash, diff, keep,
+                carryTo(channel, receiveTime));
+        if (minerStats != null) {
+            minerStats.onShare(channel, task.getTaskTime(), diff, accepted);
+        }
+        return accepted;
+    }
+
+    /** 在校验线程上计算share的hash */
+    protected byte[] calculateHash(Task task, XdagField shareInfo) {
         try {
-            byte[] hash;
             // if randomx fork
-            if (kernel.getRandomXUtils().isRandomxFork(currentTask.getTaskTime())) {
+            if (kernel.getRandomXUtils().isRandomxFork(task.getTaskTime())) {
                 byte[] taskData = new byte[64];
-                System.arraycopy(currentTask.getTask()[0].getData(),0,taskData,0,32);
+                System.arraycopy(task.getTask()[0].getData(),0,taskData,0,32);
                 System.arraycopy(Arrays.reverse(shareInfo.getData()),0,taskData,32,32);
-                hash = Arrays.reverse(kernel.getRandomXUtils().randomXPoolCalcHash(taskData, taskData.length, currentTask.getTaskTime()));
+                byte[] hash = kernel.getRandomXUtils().randomXPoolCalcHash(taskData, taskData.length, task.getTaskTime());
+                return hash == null ? null : Arrays.reverse(hash);
             } else{
-                XdagSha256Digest digest = new XdagSha256Digest(currentTask.getDigest());
-                hash = digest.sha256Final(Arrays.reverse(shareInfo.getData()));
+                XdagSha256Digest digest = new XdagSha256Digest(task.getDigest());
+                return digest.sha256Final(Arrays.reverse(shareInfo.getData()));
             }
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            return null;
+        }
+    }
 
-            log.debug("the new Hash is [{}]",Hex.toHexString(hash));
+    /** 补交的share按普通share交给主线程 */
+    private VarDiff.Carry carryTo(MinerChannel channel, long receiveTime) {
+        return (t, s, h) -> events.add(new Event(Event.Type.NEW_SHARE, new Share(s, t, h), channel, receiveTime));
+    }
 
-            if (compareTo(hash, 0, 32, minHash, 0, 32) < 0) {
-                minHash = hash;
-                minShare = Arrays.reverse(shareInfo.getData());
+    /** 下发新任务时切换各通道的vardiff，上一任务没有达标的share时立即补交最好的一个 */
+    protected void rollVarDiff(Task task) {
+        long now = System.nanoTime();
+        for (MinerChannel channel : minerManager.getActivateMinerChannels().values()) {
+            channel.getVarDiff().onNewTask(task, carryTo(channel, now));
+        }
+    }
 
-                // put minshare into nonce
-                generateBlock.setNonce(minShare);
+    /** 主线程上只做minHash比较和矿工统计 */
+    protected void onNewShare(Share share, MinerChannel channel, long receiveTime) {
+        byte[] hash = share.hash;
+        XdagField shareInfo = share.shareInfo;
+        Task task = share.task;
 
-                //myron
-                int index = (int) ((currentTask.getTaskTime() >> 16) & AWARD_EPOCH);
-                // int index = (int) ((currentTask.getTaskTime() >> 16) & 7);
-                minShares.set(index, minShare);
-                blockHashs.set(index, generateBlock.recalcHash());
+        log.debug("the new Hash is [{}]",Hex.toHexString(hash));
 
-                log.debug("New MinHash :" + Hex.toHexString(minHash));
-                log.debug("New MinShare :" + Hex.toHexString(minShare));
+        // 计算期间已经切换了任务的share不参与出块
+        if (task == currentTask && compareTo(hash, 0, 32, minHash, 0, 32) < 0) {
+            minHash = hash;
+            minShare = Arrays.reverse(shareInfo.getData());
+
+            //myron
+            int index = (int) ((currentTask.getTaskTime() >> 16) & AWARD_EPOCH);
+            // int index = (int) ((currentTask.getTaskTime() >> 16) & 7);
+            minShares.set(index, minShare);
+            // put minshare into nonce, 只计算最后64字节和第二次sha256
+            blockHashs.set(index, template.setNonce(minShare));
+
+            log.debug("New MinHash :" + Hex.toHexString(minHash));
+            log.debug("New MinShare :" + Hex.toHexString(minShare));
 
-            }
-            //update miner state
-            MinerCalculate.updateMeanLogDiff(channel, currentTask, hash);
-            MinerCalculate.calculateNopaidShares(channel, hash, currentTask.getTaskTime());
-        } catch (IOException e) {
-            log.error(e.getMessage(), e);
         }
+        //update miner state
+        MinerCalculate.updateMeanLogDiff(channel, task, hash);
+        if (MinerCalculate.calculateNopaidShares(channel, hash, task.getTaskTime()) && shareLedger != null) {
+            shareLedger.share(task.getTaskTime(), channel.getMiner().getAddressHash(), MinerCalculate.shareDiff(hash));
+        }
+        shareLatency.recordSince(receiveTime);
     }
 
-    protected void onTimeout() {
-        if (generateBlock != null) {
+    /** @param deadline 超时到期的时间，毫秒 */
+    protected void onTimeout(long deadline) {
+        if (template != null) {
             log.info("Broadcast locally generated blockchain, waiting to be verified. block hash = [{}]",
-                    Hex.toHexString(generateBlock.getHash()));
-            // 发送区块 如果有的话 然后开始生成新区块
-            kernel.getBlockchain().tryToConnect(new Block(new XdagBlock(generateBlock.toBytes())));
-            awardManager.addAwardBlock(minShare.clone(), generateBlock.getHash().clone(),
-                    generateBlock.getTimestamp());
-            BlockWrapper bw = new BlockWrapper(new Block(new XdagBlock(generateBlock.toBytes())), kernel.getConfig().getTTL());
-
-            broadcaster.broadcast(bw);
+                    Hex.toHexString(template.getHash()));
+            // 发送区块 如果有的话 然后开始生成新区块，导入和广播共用模板解析出的同一个区块
+            Block block = template.toBlock();
+            kernel.getBlockchain().tryToConnect(block);
+            awardManager.addAwardBlock(minShare.clone(), template.getHash().clone(), block.getTimestamp());
+            BlockWrapper bw = new BlockWrapper(block, kernel.getConfig().getTTL());
+
+            broadcast(bw, deadline);
         }
         newBlock();
     }
 
+    /** 在调度线程上广播区块，不阻塞share的处理 */
+    protected void broadcast(BlockWrapper bw, long deadline) {
+        try {
+            scheduler.execute(() -> {
+                peerNetwork.sendNewBlock(bw);
+                broadcastLatency.record(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - deadline));
+                log.info("PoW latency {}; {}", broadcastLatency, shareLatency);
+            });
+        } catch (RejectedExecutionException e) {
+            log.error("Failed to broadcast block = {}", Hex.toHexString(bw.getBlock().getHash()));
+        }
+    }
+
+    public LatencyHistogram getShareLatency() {
+        return shareLatency;
+    }
+
+    public LatencyHistogram getBroadcastLatency() {
+        return broadcastLatency;
+    }
+
     protected void onNewPreTop() {
         log.debug("Receive New PreTop");
         newBlock();
@@ -333,7 +448,7 @@ public class XdagPow implements PoW, Listener, Runnable {
 
         RandomXMemory memory = randomXUtils.getGlobalMemory()[(int) randomXUtils.getRandomXPoolMemIndex() & 1];
 
-        byte[] rxHash = Hash.sha256(BytesUtils.subArray(block.getXdagBlock().getData(),0,480));
+        byte[] rxHash = Hash.sha256(BytesUtils.subArray(template.getData(),0,480));
 
 
         // todo
@@ -357,20 +472,10 @@ public class XdagPow implements PoW, Listener, Runnable {
         Task newTask = new Task();
 
         XdagField[] task = new XdagField[2];
-        task[1] = block.getXdagBlock().getField(14);
-        byte[] data = new byte[448];
-
-        System.arraycopy(block.getXdagBlock().getData(), 0, data, 0, 448);
-
-        XdagSha256Digest currentTaskDigest = new XdagSha256Digest();
-        try {
-            currentTaskDigest.sha256Update(data);
-            byte[] state = currentTaskDigest.getState();
-            task[0] = new XdagField(state);
-            currentTaskDigest.sha256Update(block.getXdagBlock().getField(14).getData());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        task[1] = new XdagField(BytesUtils.subArray(template.getData(), 448, 32));
+        // 中间状态由出块模板计算
+        task[0] = new XdagField(template.getMidstate().getState());
+        XdagSha256Digest currentTaskDigest = template.getDigest();
         newTask.setTask(task);
         newTask.setTaskTime(XdagTime.getEpoch(sendTime));
         newTask.setTaskIndex(taskIndex);
@@ -386,20 +491,17 @@ public class XdagPow implements PoW, Listener, Runnable {
         globalPretop = blockchain.getXdagTopStatus().getPreTop();
         while (this.isRunning) {
             try {
-                Event ev = events.poll(10, TimeUnit.MILLISECONDS);
-                if(ev == null) {
-                    continue;
-                }
+                Event ev = events.take();
                 switch (ev.getType()) {
                 case NEW_DIFF:
                     break;
                 case NEW_SHARE:
-                    onNewShare(ev.getData(), ev.getChannel());
+                    onNewShare(ev.getData(), ev.getChannel(), ev.getTime());
                     break;
                 case TIMEOUT:
                     // TODO : 判断当前是否可以进行产块
                     if(kernel.getXdagState() == XdagState.STST || kernel.getXdagState() == XdagState.SYNC) {
-                        onTimeout();
+                        onTimeout(ev.<Long>getData());
                     }
                     break;
                 case NEW_PRETOP:
@@ -411,7 +513,7 @@ public class XdagPow implements PoW, Listener, Runnable {
                     break;
                 }
             } catch (InterruptedException e) {
-                log.debug(e.getMessage(), e);
+                log.debug("Main PoW interrupted");
             }
         }
     }
@@ -421,10 +523,25 @@ public class XdagPow implements PoW, Listener, Runnable {
         receiveNewPretop(message.getData());
     }
 
+    /** 已经算出hash的share */
+    protected static class Share {
+        private final XdagField shareInfo;
+        private final Task task;
+        private final byte[] hash;
+
+        public Share(XdagField shareInfo, Task task, byte[] hash) {
+            this.shareInfo = shareInfo;
+            this.task = task;
+            this.hash = hash;
+        }
+    }
+
     public static class Event {
         private final Type type;
         private final Object data;
         private Object channel;
+        /** 事件产生的时间 System.nanoTime() */
+        private long time;
 
         public Event(Type type) {
             this(type, null);
@@ -441,6 +558,11 @@ public class XdagPow implements PoW, Listener, Runnable {
             this.channel = channel;
         }
 
+        public Event(Type type, Object data, Object channel, long time) {
+            this(type, data, channel);
+            this.time = time;
+        }
+
         public Type getType() {
             return type;
         }
@@ -455,6 +577,10 @@ public class XdagPow implements PoW, Listener, Runnable {
             return (T) channel;
         }
 
+        public long getTime() {
+            return time;
+        }
+
         @Override
         public String toString() {
             return "Event [type=" + type + ", data=" + data + "]";
@@ -471,64 +597,4 @@ public class XdagPow implements PoW, Listener, Runnable {
             NEW_DIFF,
         }
     }
-
-    // TODO: change to scheduleAtFixRate
-    public class Timer implements Runnable {
-        private long timeout;
-        private boolean isRunning = false;
-
-        @Override
-        public void run() {
-            this.isRunning = true;
-            while (this.isRunning) {
-                if (timeout != -1 && XdagTime.getCurrentTimestamp() > timeout) {
-                    events.add(new Event(Event.Type.TIMEOUT));
-                    timeout = -1;
-                    continue;
-                }
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    log.error(e.getMessage(), e);
-                }
-            }
-        }
-
-        public void timeout(long sendtime) {
-            if (sendtime < 0) {
-                throw new IllegalArgumentException("Timeout can not be negative");
-            }
-            this.timeout = sendtime;
-        }
-    }
-
-    public class Broadcaster implements Runnable {
-        private final LinkedBlockingQueue<BlockWrapper> queue = new LinkedBlockingQueue<>();
-        private boolean isRunning = false;
-
-        @Override
-        public void run() {
-            this.isRunning = true;
-            while (this.isRunning) {
-                BlockWrapper bw = null;
-                try {
-                    bw = queue.poll(50, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                    log.error(e.getMessage(), e);
-                }
-                if(bw != null) {
-                    channelMgr.sendNewBlock(bw);
-                    channelManager.sendNewBlock(bw);
-
-                }
-            }
-        }
-
-        public void broadcast(BlockWrapper bw) {
-            if (!queue.offer(bw)) {
-                log.error("Failed to add a message to the broadcast queue: block = {}", Hex.toHexString(bw.getBlock()
-                        .getHash()));
-            }
-        }
-    }
 }
@@ -26,19 +26,23 @@ package io.xdag.consensus;
 import com.google.common.util.concurrent.SettableFuture;
 import io.xdag.Kernel;
 import io.xdag.db.store.BlockStore;
-import io.xdag.net.XdagChannel;
-import io.xdag.net.manager.XdagChannelManager;
+import io.xdag.net.PeerChannel;
+import io.xdag.net.PeerNetwork;
+import io.xdag.net.manager.PeerScorer;
 import io.xdag.utils.BytesUtils;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.RandomUtils;
 import org.bouncycastle.util.encoders.Hex;
 
 import javax.annotation.Nonnull;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
 
 import static io.xdag.config.Constants.REQUEST_BLOCKS_MAX_TIME;
 import static io.xdag.config.Constants.REQUEST_WAIT;
@@ -55,7 +59,7 @@ public class XdagSync {
         }
     };
 
-    private final XdagChannelManager channelMgr;
+    private final PeerNetwork peerNetwork;
     private final BlockStore blockStore;
     private Status status;
     private final ScheduledExecutorService sendTask;
@@ -68,13 +72,19 @@ public class XdagSync {
     @Getter
     private final ConcurrentHashMap<Long, SettableFuture<byte[]>> blocksRequestMap;
 
+    @Getter
+    private final MainChainSync mainChainSync;
+
+    /** 因首个节点回复慢而向第二个节点重发的请求数 */
+    private final AtomicLong hedged = new AtomicLong();
 
     public XdagSync(Kernel kernel) {
-        this.channelMgr = kernel.getChannelMgr();
+        this.peerNetwork = kernel.getPeerNetwork();
         this.blockStore = kernel.getBlockStore();
         sendTask = new ScheduledThreadPoolExecutor(1, factory);
         sumsRequestMap = new ConcurrentHashMap<>();
         blocksRequestMap = new ConcurrentHashMap<>();
+        mainChainSync = new MainChainSync(kernel, blocksRequestMap);
     }
 
     /** 不断发送send request */
@@ -89,6 +99,9 @@ public class XdagSync {
     private void syncLoop() {
         log.info("start syncLoop");
         try {
+            PeerScorer.disconnectPoor(getAnyNode());
+            // 落后较多时先按主链同步，剩余的差异再由sums补齐
+            mainChainSync.sync();
             requestBlocks(0, 1L << 48);
         } catch (Throwable e) {
             log.error("error when requestBlocks {}",e.getMessage());
@@ -101,62 +114,82 @@ public class XdagSync {
         if (status != Status.SYNCING) {
             return;
         }
-        List<XdagChannel> any = getAnyNode();
-        long randomSeq;
-        SettableFuture<byte[]> sf = SettableFuture.create();
-        if (any != null && any.size() != 0) {
-            // TODO:随机选一个
-            int index = RandomUtils.nextInt()%any.size();
-            XdagChannel xc = any.get(index);
-            if (dt <= REQUEST_BLOCKS_MAX_TIME) {
-                randomSeq =  xc.getXdag().sendGetBlocks(t, t + dt);
-//                log.debug("sendGetBlocks seq:{}",randomSeq);
-                blocksRequestMap.put(randomSeq, sf);
-                try {
-                    sf.get(REQUEST_WAIT, TimeUnit.SECONDS);
-                } catch (InterruptedException | ExecutionException | TimeoutException e) {
-                    blocksRequestMap.remove(randomSeq);
-                    log.error(e.getMessage(), e);
-                    return;
-                }
-                blocksRequestMap.remove(randomSeq);
-            } else {
-                byte[] lSums = new byte[256];
-                byte[] rSums;
-                if(blockStore.loadSum(t, t + dt, lSums) <= 0) {
-                    return;
-                }
+        List<PeerChannel> any = getAnyNode();
+        if (any == null || any.size() == 0) {
+            return;
+        }
+        // 按节点分数选择，慢的请求再发给第二个节点
+        List<PeerChannel> ranked = PeerScorer.rank(any);
+        if (dt <= REQUEST_BLOCKS_MAX_TIME) {
+            hedgedRequest(ranked, blocksRequestMap, xc -> xc.getXdag().sendGetBlocks(t, t + dt));
+        } else {
+            byte[] lSums = new byte[256];
+            byte[] rSums;
+            if(blockStore.loadSum(t, t + dt, lSums) <= 0) {
+                return;
+            }
 //                log.debug("lSum is " + Hex.toHexString(lSums));
-                randomSeq = xc.getXdag().sendGetSums(t, t + dt);
-                sumsRequestMap.put(randomSeq, sf);
-//                log.debug("sendGetSums seq:{}.", randomSeq);
-                try {
-                    byte[] sums = sf.get(REQUEST_WAIT, TimeUnit.SECONDS);
-                    rSums = Arrays.copyOf(sums, 256);
-                } catch (InterruptedException | ExecutionException | TimeoutException e) {
-                    sumsRequestMap.remove(randomSeq);
-                    log.error(e.getMessage(), e);
-                    return;
-                }
-                sumsRequestMap.remove(randomSeq);
+            byte[] sums = hedgedRequest(ranked, sumsRequestMap, xc -> xc.getXdag().sendGetSums(t, t + dt));
+            if (sums == null) {
+                return;
+            }
+            rSums = Arrays.copyOf(sums, 256);
 //                log.debug("rSum is " + Hex.toHexString(rSums));
-                dt >>= 4;
-                for (int i = 0; i < 16; i++) {
-                    long lSumsSum = BytesUtils.bytesToLong(lSums, i * 16, true);
-                    long lSumsSize = BytesUtils.bytesToLong(lSums, i * 16 + 8, true);
-                    long rSumsSum = BytesUtils.bytesToLong(rSums, i * 16, true);
-                    long rSumsSize = BytesUtils.bytesToLong(rSums, i * 16 + 8, true);
-
-                    if (lSumsSize != rSumsSize || lSumsSum != rSumsSum) {
-                        requestBlocks(t + i * dt, dt);
-                    }
+            long subDt = dt >> 4;
+            for (int i = 0; i < 16; i++) {
+                long lSumsSum = BytesUtils.bytesToLong(lSums, i * 16, true);
+                long lSumsSize = BytesUtils.bytesToLong(lSums, i * 16 + 8, true);
+                long rSumsSum = BytesUtils.bytesToLong(rSums, i * 16, true);
+                long rSumsSize = BytesUtils.bytesToLong(rSums, i * 16 + 8, true);
+
+                if (lSumsSize != rSumsSize || lSumsSum != rSumsSum) {
+                    requestBlocks(t + i * subDt, subDt);
                 }
             }
         }
     }
 
-    public List<XdagChannel> getAnyNode() {
-        return channelMgr.getActiveChannels();
+    /**
+     * 先向分数最高的节点发送请求，超过对冲延迟未回复时再向第二个节点发送同样的请求，先到的回复生效
+     *
+     * @return 回复内容，超时返回null
+     */
+    private byte[] hedgedRequest(List<PeerChannel> ranked, Map<Long, SettableFuture<byte[]>> requestMap,
+            ToLongFunction<PeerChannel> send) {
+        SettableFuture<byte[]> sf = SettableFuture.create();
+        Map<Long, PeerChannel> sent = new HashMap<>(2);
+        PeerChannel first = ranked.get(0);
+        long randomSeq = send.applyAsLong(first);
+        requestMap.put(randomSeq, sf);
+        sent.put(randomSeq, first);
+        try {
+            if (ranked.size() > 1) {
+                try {
+                    return sf.get(PeerScorer.hedgeDelay(first.getNode().getStat()), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    PeerChannel second = ranked.get(1);
+                    randomSeq = send.applyAsLong(second);
+                    requestMap.put(randomSeq, sf);
+                    sent.put(randomSeq, second);
+                    hedged.incrementAndGet();
+                }
+            }
+            return sf.get(REQUEST_WAIT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("Request to {} timeout", sent.values());
+            // 未回复的节点记为超时 回复较慢的节点稍后回复时仍会记录往返时间
+            sent.forEach((random, xc) -> xc.getNode().getStat().onTimeout(random));
+            return null;
+        } finally {
+            sent.keySet().forEach(requestMap::remove);
+        }
+    }
+
+    public List<PeerChannel> getAnyNode() {
+        return peerNetwork.getActivePeers();
     }
 
 
@@ -164,6 +197,7 @@ public class XdagSync {
         log.debug("stop sync");
         if (isRunning) {
             try {
+                mainChainSync.stop();
 
                 if (sendFuture != null) {
                     sendFuture.cancel(true);
@@ -179,6 +213,10 @@ public class XdagSync {
         }
     }
 
+    public long getHedged() {
+        return hedged.get();
+    }
+
     public boolean isRunning() {
         return isRunning;
     }
@@ -30,6 +30,7 @@ import io.xdag.crypto.Sign;
 import io.xdag.utils.ByteArrayWrapper;
 import io.xdag.utils.BytesUtils;
 import io.xdag.utils.Numeric;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -73,6 +74,10 @@ public class Block implements Cloneable {
     private boolean isOurs;
     private byte[] encoded;
     private int tempLength;
+    /** verifiedKeys的缓存，签名变化时清空 */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile List<ECKeyPair> verifiedKeys;
 
     /** 区块是否存在于本地* */
     public boolean isSaved;
@@ -347,6 +352,7 @@ public class Block implements Cloneable {
         byte[] hash = Hash.hashTwice(digest);
 //        log.debug("sign hash:{}", Hex.toHexString(hash));
         ECDSASignature signature = ecKey.sign(hash);
+        verifiedKeys = null;
         if (type == XDAG_FIELD_SIGN_OUT) {
             outsig = signature;
         } else {
@@ -356,6 +362,9 @@ public class Block implements Cloneable {
 
     /** 只匹配输入签名 并返回有用的key */
     public List<ECKeyPair> verifiedKeys() {
+        if (verifiedKeys != null) {
+            return verifiedKeys;
+        }
         List<ECKeyPair> keys = getPubKeys();
         List<ECKeyPair> res = new ArrayList<>();
         byte[] digest;
@@ -379,6 +388,7 @@ public class Block implements Cloneable {
                 res.add(ecKey);
             }
         }
+        verifiedKeys = res;
         return res;
     }
 
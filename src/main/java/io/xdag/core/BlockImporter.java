@@ -0,0 +1,230 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.core;
+
+import io.xdag.config.Config;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.xdag.core.XdagField.FieldType.XDAG_FIELD_HEAD;
+import static io.xdag.core.XdagField.FieldType.XDAG_FIELD_HEAD_TEST;
+
+/**
+ * 离线导入C版本节点的存储目录
+ *
+ * C版本按时间存储区块: storage/xx/xx/xx/xx.dat，每一级目录对应时间戳的一个字节，
+ * 每个文件保存一个epoch(0x10000)内的全部区块，每个区块512字节。
+ * 文件按时间顺序排序后，由线程池内存映射并解析校验，再按时间顺序分批提交到区块链。
+ */
+@Slf4j
+public class BlockImporter {
+
+    private static final Pattern HEX_BYTE = Pattern.compile("[0-9a-f]{2}");
+    private static final Pattern HEX_FILE = Pattern.compile("[0-9a-f]{2}\\.dat");
+
+    /** 进度日志的输出间隔 */
+    private static final long PROGRESS_INTERVAL = 10 * 1000;
+
+    private final Blockchain blockchain;
+    private final int threads;
+    /** 同时在解析中的文件数，限制内存占用 */
+    private final int window;
+
+    @Getter
+    private long imported;
+    @Getter
+    private long exist;
+    @Getter
+    private long noParent;
+    /** 解析线程和导入线程都会更新 */
+    private final AtomicLong invalid = new AtomicLong();
+
+    public BlockImporter(Blockchain blockchain, int threads) {
+        this.blockchain = blockchain;
+        this.threads = Math.max(1, threads);
+        this.window = this.threads * 4;
+    }
+
+    /**
+     * 导入srcDir下的全部区块文件
+     *
+     * @return 成功导入的区块数量，与中途出错时getImported()的含义一致
+     */
+    public long importFrom(Path srcDir) throws IOException {
+        List<Path> files = listStorageFiles(srcDir);
+        log.info("Import {} storage files from {} with {} threads", files.size(), srcDir, threads);
+
+        ExecutorService parser = Executors.newFixedThreadPool(threads, new BasicThreadFactory.Builder()
+                .namingPattern("block-importer-%d")
+                .daemon(true)
+                .build());
+
+        long start = System.currentTimeMillis();
+        long lastReport = start;
+        long total = 0;
+        int done = 0;
+        Deque<Future<List<Block>>> pending = new ArrayDeque<>(window);
+        Iterator<Path> it = files.iterator();
+        try {
+            while (it.hasNext() || !pending.isEmpty()) {
+                // 保持解析窗口填满，结果按文件顺序取出
+                while (it.hasNext() && pending.size() < window) {
+                    Path file = it.next();
+                    pending.add(parser.submit(() -> readFile(file)));
+                }
+                List<Block> blocks = pending.poll().get();
+                total += blocks.size();
+                importBatch(blocks);
+                done++;
+
+                long now = System.currentTimeMillis();
+                if (now - lastReport >= PROGRESS_INTERVAL || done == files.size()) {
+                    lastReport = now;
+                    log.info("Import progress: {}/{} files, {} blocks read, {} imported, {} exist, {} no parent, {} invalid, {} blocks/s",
+                            done, files.size(), total, imported, exist, noParent, invalid.get(),
+                            String.format("%.1f", total * 1000.0 / Math.max(1, now - start)));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Import interrupted after {} blocks", total);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            parser.shutdownNow();
+        }
+        return imported;
+    }
+
+    public long getInvalid() {
+        return invalid.get();
+    }
+
+    private void importBatch(List<Block> blocks) {
+        if (blocks.isEmpty()) {
+            return;
+        }
+        for (ImportResult result : blockchain.tryToConnect(blocks)) {
+            switch (result) {
+            case IMPORTED_BEST:
+            case IMPORTED_NOT_BEST:
+                imported++;
+                break;
+            case EXIST:
+                exist++;
+                break;
+            case NO_PARENT:
+                noParent++;
+                break;
+            default:
+                invalid.incrementAndGet();
+            }
+        }
+    }
+
+    /** 映射并解析一个文件，返回按时间排序并通过预校验的区块 */
+    List<Block> readFile(Path file) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        int dropped = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size() - channel.size() % XdagBlock.XDAG_BLOCK_SIZE;
+            if (size == 0) {
+                return blocks;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            while (buffer.remaining() >= XdagBlock.XDAG_BLOCK_SIZE) {
+                byte[] data = new byte[XdagBlock.XDAG_BLOCK_SIZE];
+                buffer.get(data);
+                Block block = parseAndVerify(data);
+                if (block != null) {
+                    blocks.add(block);
+                } else {
+                    dropped++;
+                }
+            }
+        }
+        if (dropped > 0) {
+            log.debug("Drop {} invalid blocks from {}", dropped, file);
+            invalid.addAndGet(dropped);
+        }
+        blocks.sort(Comparator.comparingLong(Block::getTimestamp));
+        return blocks;
+    }
+
+    /** 区块链锁外可以完成的校验：解析、hash、区块类型和签名 */
+    private Block parseAndVerify(byte[] data) {
+        try {
+            Block block = new Block(new XdagBlock(data));
+            long type = block.getType() & 0xf;
+            if (type != (Config.MAINNET ? XDAG_FIELD_HEAD.asByte() : XDAG_FIELD_HEAD_TEST.asByte())) {
+                return null;
+            }
+            if (!block.getInputs().isEmpty()) {
+                // 预先完成签名校验，tryToConnect时直接使用缓存结果
+                block.verifiedKeys();
+            }
+            return block;
+        } catch (Exception e) {
+            log.debug("Parse block fail: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /** 列出存储目录下所有区块文件，按文件对应的时间排序 */
+    static List<Path> listStorageFiles(Path srcDir) throws IOException {
+        try (Stream<Path> stream = Files.walk(srcDir, 4)) {
+            return stream.filter(Files::isRegularFile)
+                    .filter(p -> isStorageFile(srcDir.relativize(p)))
+                    .sorted(Comparator.comparing(p -> srcDir.relativize(p).toString()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /** 相对路径形如 xx/xx/xx/xx.dat */
+    private static boolean isStorageFile(Path relative) {
+        if (relative.getNameCount() != 4) {
+            return false;
+        }
+        for (int i = 0; i < 3; i++) {
+            if (!HEX_BYTE.matcher(relative.getName(i).toString()).matches()) {
+                return false;
+            }
+        }
+        return HEX_FILE.matcher(relative.getName(3).toString()).matches();
+    }
+}
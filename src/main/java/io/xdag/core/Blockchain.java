@@ -33,6 +33,9 @@ public interface Blockchain {
 
     ImportResult tryToConnect(Block block);
 
+    // 批量导入，按顺序返回每个区块的结果
+    List<ImportResult> tryToConnect(List<Block> blocks);
+
     Block createNewBlock(Map<Address, ECKeyPair> pairs, List<Address> to, boolean mining, String remark);
 
     Block getBlockByHash(byte[] hash, boolean isRaw);
@@ -56,6 +59,9 @@ public interface Blockchain {
 
     List<Block> getBlocksByTime(long starttime, long endtime);
 
+    // 获取时间段内的主块
+    List<Block> getMainBlocksByTime(long starttime, long endtime);
+
     // TODO ： 补充单元测试
     // 启动检查主块链线程
     void startCheckMain();
@@ -65,4 +71,7 @@ public interface Blockchain {
 
     // 注册监听器
     void registerListener(Listener listener);
+
+    // 注册余额变化的监听器，消息内容为区块的hashlow
+    void registerAmountListener(Listener listener);
 }
@@ -44,16 +44,12 @@ import io.xdag.wallet.OldWallet;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
-import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.encoders.Hex;
 
 import javax.annotation.Nonnull;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -98,6 +94,8 @@ public class BlockchainImpl implements Blockchain {
     private final RandomX randomXUtils;
 
     private final List<Listener> listeners = new ArrayList<>();
+    /** 在区块链锁内通知，实现需要足够轻 */
+    private final List<Listener> amountListeners = new CopyOnWriteArrayList<>();
 
     public BlockchainImpl(Kernel kernel) {
         this.kernel = kernel;
@@ -133,91 +131,52 @@ public class BlockchainImpl implements Blockchain {
         this.listeners.add(listener);
     }
 
-    //读取C版本区块
-    public long loadBlockchain(
-            String srcFilePath) {
-        //todo：文件夹的时间
-        long starttime = 1583368095744L;
-        long endtime = 1583389441664L;
-        ByteBuffer buffer = ByteBuffer.allocate(512);
-        StringBuilder file = new StringBuilder(srcFilePath);
-        FileInputStream inputStream = null;
-        FileChannel channel = null;
-        starttime |= 0x00000;
-        endtime |= 0xffff;
-        File fileImpl;
-        long res = 0;
-        System.out.println("开始读取区块");
-        while (starttime < endtime) {
-            List<String> filename = getFileName(starttime);
-            String blockfile = Hex.toHexString(BytesUtils.byteToBytes((byte) ((starttime >> 16) & 0xff), true));
-            file.append(filename.get(filename.size() - 1)).append(blockfile).append(".dat");
-            fileImpl = new File(file.toString());
-            if (!fileImpl.exists()) {
-                starttime += 0x10000;
-                file = new StringBuilder(srcFilePath);
-                continue;
-            }
-            System.out.println("Block from:" + file);
-            try {
-
-                inputStream = new FileInputStream(fileImpl);
-                channel = inputStream.getChannel();
-                while (true) {
-                    int eof = channel.read(buffer);
-                    if (eof == -1) {
-                        break;
-                    }
-                    buffer.flip();
-                    res++;
-                    Block block = new Block(new XdagBlock(buffer.array().clone()));
-                    this.tryToConnect(block);
-                    buffer.clear();
-                }
-
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                try {
-                    if (channel != null) {
-                        channel.close();
-                    }
-                    if (inputStream != null) {
-                        inputStream.close();
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-
-            starttime += 0x10000;
-            file = new StringBuilder(srcFilePath);
-        }
-        System.out.println("读取结束");
-        return res;
+    @Override
+    public void registerAmountListener(Listener listener) {
+        this.amountListeners.add(listener);
     }
 
-    public List<String> getFileName(long time) {
-        List<String> file = new ArrayList<>();
-        file.add("");
-        StringBuilder stringBuffer = new StringBuilder(
-                Hex.toHexString(BytesUtils.byteToBytes((byte) ((time >> 40) & 0xff), true)));
-        stringBuffer.append("/");
-        file.add(String.valueOf(stringBuffer));
-        stringBuffer.append(
-                Hex.toHexString(BytesUtils.byteToBytes((byte) ((time >> 32) & 0xff), true)));
-        stringBuffer.append("/");
-        file.add(String.valueOf(stringBuffer));
-        stringBuffer.append(
-                Hex.toHexString(BytesUtils.byteToBytes((byte) ((time >> 24) & 0xff), true)));
-        stringBuffer.append("/");
-        file.add(String.valueOf(stringBuffer));
-        return file;
+    /** 读取C版本区块 */
+    @Override
+    public long loadBlockchain(String srcFilePath) {
+        BlockImporter importer = new BlockImporter(this, kernel.getConfig().getImportThreads());
+        try {
+            return importer.importFrom(Paths.get(srcFilePath));
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            return importer.getImported();
+        }
     }
 
     /** 尝试去连接这个块 */
     @Override
     public synchronized ImportResult tryToConnect(Block block) {
+        ImportResult result = connectBlock(block);
+        if (result == ImportResult.IMPORTED_BEST || result == ImportResult.IMPORTED_NOT_BEST) {
+            blockStore.saveXdagStatus(xdagStats);
+        }
+        return result;
+    }
+
+    /** 批量连接区块，只获取一次锁并在最后保存状态 */
+    @Override
+    public synchronized List<ImportResult> tryToConnect(List<Block> blocks) {
+        List<ImportResult> results = new ArrayList<>(blocks.size());
+        boolean imported = false;
+        for (Block block : blocks) {
+            ImportResult result = connectBlock(block);
+            if (result == ImportResult.IMPORTED_BEST || result == ImportResult.IMPORTED_NOT_BEST) {
+                imported = true;
+            }
+            results.add(result);
+        }
+        if (imported) {
+            blockStore.saveXdagStatus(xdagStats);
+        }
+        return results;
+    }
+
+    private ImportResult connectBlock(Block block) {
         try {
             ImportResult result = ImportResult.IMPORTED_NOT_BEST;
 
@@ -390,7 +349,6 @@ public class BlockchainImpl implements Blockchain {
                 orphanPool.addOrphan(block);
                 xdagStats.nnoref++;
             }
-            blockStore.saveXdagStatus(xdagStats);
 
             // 如果区块输入不为0说明是交易块
             if (block.getInputs().size() != 0) {
@@ -942,13 +900,12 @@ public class BlockchainImpl implements Blockchain {
         return maxDiff;
     }
 
+    /**
+     * 只有还没有种子覆盖的区块按原hash计算；有种子但vm不可用时randomXBlockHash抛出异常，
+     * 区块导入失败，不会缓存错误的难度
+     */
     public BigInteger getDiffByRandomXHash(Block block) {
-        long epoch = XdagTime.getEpoch(block.getTimestamp());
-        byte[] data = new byte[64];
-        byte[] rxHash = Hash.sha256(BytesUtils.subArray(block.getXdagBlock().getData(),0,512-32));
-        System.arraycopy(rxHash,0,data,0,32);
-        System.arraycopy(block.getXdagBlock().getField(15).getData(),0,data,32,32);
-        byte[] hash = Arrays.reverse(randomXUtils.randomXBlockHash(data,data.length,epoch));
+        byte[] hash = randomXUtils.randomXBlockHash(block);
         if (hash != null) {
             log.debug("New Block randomX hash:{}",Hex.toHexString(hash));
             return getDiffByRawHash(hash);
@@ -1202,6 +1159,11 @@ public class BlockchainImpl implements Blockchain {
         return blockStore.getBlocksUsedTime(starttime, endtime);
     }
 
+    @Override
+    public List<Block> getMainBlocksByTime(long starttime, long endtime) {
+        return blockStore.getMainBlocksUsedTime(starttime, endtime);
+    }
+
     @Override
     public void startCheckMain() {
         if(checkLoop == null) {
@@ -1256,6 +1218,12 @@ public class BlockchainImpl implements Blockchain {
         if ((block.getInfo().flags & BI_OURS) != 0) {
             xdagStats.setBalance(amount.plus(UnsignedLong.valueOf(xdagStats.getBalance())).longValue());
         }
+        if (!amountListeners.isEmpty()) {
+            Message message = new Message(block.getHashLow());
+            for (Listener listener : amountListeners) {
+                listener.onMessage(message);
+            }
+        }
     }
 
     /** 判断是否已经接收过区块 * */
@@ -174,6 +174,18 @@ public class Native {
     /** 这个矿工的加密函数 */
     public static native byte[] dfslib_encrypt_array(byte[] uncrypted, int nfiled, long sectorNo);
 
+    /** 原地加密address开始的nsectors个连续扇区，第i个扇区的序号为sectorNo + i */
+    public static native int dfslib_encrypt_sectors(long address, int nsectors, long sectorNo);
+
+    /** 原地解密address开始的nsectors个连续扇区 */
+    public static native int dfslib_uncrypt_sectors(long address, int nsectors, long sectorNo);
+
+    /** 矿工协议的原地加密，每个字段32字节 */
+    public static native int dfslib_encrypt_fields(long address, int nfield, long sectorNo);
+
+    /** 矿工协议的原地解密 */
+    public static native int dfslib_uncrypt_fields(long address, int nfield, long sectorNo);
+
     public static native long get_user_dnet_crypt();
 
     public static native long get_dnet_keys();
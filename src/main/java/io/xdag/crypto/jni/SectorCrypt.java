@@ -0,0 +1,127 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.crypto.jni;
+
+import io.netty.buffer.ByteBuf;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 在ByteBuf上原地加解密
+ *
+ * direct buffer直接把内存地址交给native批量处理，避免每个区块在JNI边界来回复制；
+ * 没有内存地址的buffer，或加载的旧版本libdfs没有批量接口时，退回逐个扇区的数组接口。
+ */
+@Slf4j
+public final class SectorCrypt {
+
+    /** 区块扇区大小 */
+    public static final int SECTOR_SIZE = 512;
+    /** 矿工协议的字段大小 */
+    public static final int FIELD_SIZE = 32;
+
+    /** 第一次调用批量接口找不到符号时关闭，之后都走数组接口 */
+    private static volatile boolean batch = true;
+
+    private SectorCrypt() {
+    }
+
+    /** 是否使用native的批量接口 */
+    public static boolean isBatch() {
+        return batch;
+    }
+
+    /** 找不到符号时native代码还没有执行，数据未被改动，可以直接改走数组接口 */
+    private static void disableBatch(UnsatisfiedLinkError e) {
+        if (batch) {
+            batch = false;
+            log.warn("Native library has no in-place sector crypt, fall back to per-sector calls: {}", e.getMessage());
+        }
+    }
+
+    /** 加密buf中index开始的count个扇区 */
+    public static void encryptSectors(ByteBuf buf, int index, int count, long sectorNo) {
+        if (batch && buf.hasMemoryAddress()) {
+            try {
+                Native.dfslib_encrypt_sectors(buf.memoryAddress() + index, count, sectorNo);
+                return;
+            } catch (UnsatisfiedLinkError e) {
+                disableBatch(e);
+            }
+        }
+        byte[] data = new byte[SECTOR_SIZE];
+        for (int i = 0; i < count; i++) {
+            int offset = index + i * SECTOR_SIZE;
+            buf.getBytes(offset, data);
+            buf.setBytes(offset, Native.dfslib_encrypt_byte_sector(data, SECTOR_SIZE, sectorNo + i));
+        }
+    }
+
+    /** 解密buf中index开始的count个扇区 */
+    public static void uncryptSectors(ByteBuf buf, int index, int count, long sectorNo) {
+        if (batch && buf.hasMemoryAddress()) {
+            try {
+                Native.dfslib_uncrypt_sectors(buf.memoryAddress() + index, count, sectorNo);
+                return;
+            } catch (UnsatisfiedLinkError e) {
+                disableBatch(e);
+            }
+        }
+        byte[] data = new byte[SECTOR_SIZE];
+        for (int i = 0; i < count; i++) {
+            int offset = index + i * SECTOR_SIZE;
+            buf.getBytes(offset, data);
+            buf.setBytes(offset, Native.dfslib_uncrypt_byte_sector(data, SECTOR_SIZE, sectorNo + i));
+        }
+    }
+
+    /** 加密buf中index开始的nfield个矿工协议字段 */
+    public static void encryptFields(ByteBuf buf, int index, int nfield, long sectorNo) {
+        if (batch && buf.hasMemoryAddress()) {
+            try {
+                Native.dfslib_encrypt_fields(buf.memoryAddress() + index, nfield, sectorNo);
+                return;
+            } catch (UnsatisfiedLinkError e) {
+                disableBatch(e);
+            }
+        }
+        byte[] data = new byte[nfield * FIELD_SIZE];
+        buf.getBytes(index, data);
+        buf.setBytes(index, Native.dfslib_encrypt_array(data, nfield, sectorNo));
+    }
+
+    /** 解密buf中index开始的nfield个矿工协议字段 */
+    public static void uncryptFields(ByteBuf buf, int index, int nfield, long sectorNo) {
+        if (batch && buf.hasMemoryAddress()) {
+            try {
+                Native.dfslib_uncrypt_fields(buf.memoryAddress() + index, nfield, sectorNo);
+                return;
+            } catch (UnsatisfiedLinkError e) {
+                disableBatch(e);
+            }
+        }
+        byte[] data = new byte[nfield * FIELD_SIZE];
+        buf.getBytes(index, data);
+        buf.setBytes(index, Native.dfslib_uncrypt_array(data, nfield, sectorNo));
+    }
+}
@@ -35,5 +35,8 @@ public enum DatabaseName {
     TIME,
 
     /** Orphan block index */
-    ORPHANIND
+    ORPHANIND,
+
+    /** Miner share and hashrate time series */
+    STATS
 }
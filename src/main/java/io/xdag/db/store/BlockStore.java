@@ -50,6 +50,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
+import static io.xdag.config.Constants.BI_MAIN;
+
 @Slf4j
 public class BlockStore {
     public static final byte SETTING_STATS                         =  0x10;
@@ -419,6 +421,22 @@ public class BlockStore {
         return res;
     }
 
+    /** 获取时间段内的主块 先读BlockInfo过滤 只有主块才读原始数据 */
+    public List<Block> getMainBlocksUsedTime(long startTime, long endTime) {
+        List<Block> res = Lists.newArrayList();
+        for (long time = startTime; time < endTime; time += 0x10000) {
+            List<byte[]> keys = timeSource.prefixValueLookup(getTimeKey(time, null));
+            for (byte[] bytes : keys) {
+                byte[] hash = BytesUtils.subArray(bytes, 1+8, 32);
+                Block info = getBlockInfoByHash(hash);
+                if (info != null && (info.getInfo().getFlags() & BI_MAIN) != 0) {
+                    res.add(getRawBlockByHash(hash));
+                }
+            }
+        }
+        return res;
+    }
+
     public List<Block> getBlocksByTime(long startTime) {
         List<Block> blocks = Lists.newArrayList();
         byte[] keyPrefix = getTimeKey(startTime, null);
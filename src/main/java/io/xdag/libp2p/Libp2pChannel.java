@@ -26,17 +26,26 @@ package io.xdag.libp2p;
 import io.libp2p.core.Connection;
 import io.xdag.core.BlockWrapper;
 import io.xdag.libp2p.RPCHandler.RPCHandler;
+import io.xdag.net.PeerChannel;
+import io.xdag.net.handler.Xdag;
+import io.xdag.net.manager.BlockRelayFilter;
 import io.xdag.net.node.Node;
+import io.xdag.utils.ByteArrayWrapper;
+import java.util.Set;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.util.encoders.Hex;
 
 @Slf4j
-public class Libp2pChannel {
+public class Libp2pChannel implements PeerChannel {
     private final Connection connection;
     private boolean isActive;
     private boolean isDisconnected = false;
     private Node node;
     private final RPCHandler handler;
+    /** 对方已有的区块 */
+    private final Set<ByteArrayWrapper> knownBlocks = BlockRelayFilter.newKnownBlocks();
+    /** 对方声明的能力位 */
+    private volatile long capabilities;
 
     public Libp2pChannel(Connection connection, RPCHandler handler) {
         this.connection = connection;
@@ -48,13 +57,28 @@ public class Libp2pChannel {
         log.info( "init libp2pChannel");
         String[] ipcompont= connection.remoteAddress().toString().split("/");
         node = new Node(ipcompont[2],Integer.parseInt(ipcompont[4]));
-//        this.messageQueue = new MessageQueueLib(this);
     }
+    @Override
     public void sendNewBlock(BlockWrapper blockWrapper) {
         log.debug("send a block hash is {}", Hex.toHexString(blockWrapper.getBlock().getHashLow()));
         log.debug("ttl:" + blockWrapper.getTtl());
-        handler.getController().sendNewBlock(blockWrapper.getBlock(), blockWrapper.getTtl());
+        getXdag().sendNewBlock(blockWrapper.getBlock(), blockWrapper.getTtl());
     }
+    @Override
+    public Set<ByteArrayWrapper> getKnownBlocks() {
+        return knownBlocks;
+    }
+
+    @Override
+    public long getCapabilities() {
+        return capabilities;
+    }
+
+    @Override
+    public void setCapabilities(long capabilities) {
+        this.capabilities = capabilities;
+    }
+
     //获取对方的ip
     public String getIp(){
         return connection.remoteAddress().toString();
@@ -64,14 +88,21 @@ public class Libp2pChannel {
         isDisconnected = true;
     }
 
+    @Override
     public boolean isDisconnected() {
         return isDisconnected;
     }
 
+    @Override
     public Node getNode(){
         return node;
     }
 
+    @Override
+    public Xdag getXdag() {
+        return handler.getController();
+    }
+
     public RPCHandler getHandler(){
         return handler;
     }
@@ -84,6 +115,8 @@ public class Libp2pChannel {
         return isActive;
     }
 
+    @Override
     public void dropConnection() {
+        handler.getController().dropConnection();
     }
 }
@@ -38,19 +38,20 @@ import io.xdag.core.Blockchain;
 import io.xdag.core.XdagStats;
 import io.xdag.libp2p.Libp2pChannel;
 import io.xdag.libp2p.manager.ChannelManager;
-import io.xdag.libp2p.message.MessageQueueLib;
 import io.xdag.net.XdagVersion;
 import io.xdag.net.handler.MessageCodes;
+import io.xdag.net.handler.PeerRequests;
 import io.xdag.net.handler.Xdag;
+import io.xdag.net.manager.PeerQuota;
 import io.xdag.net.message.AbstractMessage;
 import io.xdag.net.message.Message;
+import io.xdag.net.message.MessageQueue;
 import io.xdag.net.message.impl.*;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.encoders.Hex;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 @Slf4j
@@ -80,8 +81,9 @@ public class RPCHandler implements ProtocolBinding<RPCHandler.Controller> {
         channelManager.add(libp2pChannel);
         blockHandler = new BlockHandler(libp2pChannel);
         blockHandler.setMessageFactory(new Xdag03MessageFactory());
+        blockHandler.setRelayFilter(kernel.getBlockRelayFilter());
         channelManager.onChannelActive(libp2pChannel,libp2pChannel.getNode());
-        blockHandler.setMsgQueue(new MessageQueueLib(libp2pChannel));
+        blockHandler.setMsgQueue(new MessageQueue(libp2pChannel));
         MessageCodes messageCodes = new MessageCodes();
         this.controller = new Controller(kernel,libp2pChannel,blockHandler);
         p2PChannel.pushHandler(blockHandler);
@@ -99,8 +101,12 @@ public class RPCHandler implements ProtocolBinding<RPCHandler.Controller> {
         protected SyncManager syncMgr;
         protected Kernel kernel;
         protected Libp2pChannel channel;
-        protected MessageQueueLib msgQueue;
+        protected MessageQueue msgQueue;
         protected ChannelManager channelManager;
+        /** 对方请求的配额 */
+        protected final PeerQuota quota;
+        /** 与老协议连接共用的请求处理 */
+        protected final PeerRequests requests;
         public Controller(Kernel kernel,Libp2pChannel channel,BlockHandler blockHandler) {
             this.kernel = kernel;
             this.channel = channel;
@@ -108,6 +114,8 @@ public class RPCHandler implements ProtocolBinding<RPCHandler.Controller> {
             this.msgQueue = blockHandler.msgQueue;
             this.syncMgr = kernel.getSyncMgr();
             this.channelManager = kernel.getChannelManager();
+            this.quota = new PeerQuota(kernel.getConfig());
+            this.requests = new PeerRequests(kernel, channel, quota);
         }
 
         @Override
@@ -141,6 +149,18 @@ public class RPCHandler implements ProtocolBinding<RPCHandler.Controller> {
                 case BLOCKEXT_REQUEST:
                     processBlockExtRequest((BlockExtRequestMessage) msg);
                     break;
+                case BLOCKEXT_REPLY:
+                    processBlockExtReply((BlockExtReplyMessage) msg);
+                    break;
+                case NEW_BLOCK_HASHES:
+                    processNewBlockHashes((NewBlockHashesMessage) msg);
+                    break;
+                case BLOCKS_BATCH_REQUEST:
+                    processBlocksBatchRequest((BlocksBatchRequestMessage) msg);
+                    break;
+                case BLOCKS_BATCH_REPLY:
+                    kernel.getPeerNetwork().getBlockFetcher().onReply(channel, (BlocksBatchReplyMessage) msg);
+                    break;
                 default:
                     break;
             }
@@ -150,6 +170,16 @@ public class RPCHandler implements ProtocolBinding<RPCHandler.Controller> {
         public void handlerAdded(ChannelHandlerContext ctx) {
             log.info("handlerAdded ");
             msgQueue.activate(ctx);
+            // 空时间段的区块请求，让对方尽快知道本节点的能力位
+            sendMessage(new BlocksRequestMessage(0, 0, blockchain.getXdagStats()));
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+            if (ctx.channel().isWritable()) {
+                msgQueue.onWritable();
+            }
+            ctx.fireChannelWritabilityChanged();
         }
 
         @Override
@@ -184,31 +214,38 @@ public class RPCHandler implements ProtocolBinding<RPCHandler.Controller> {
         protected void processNewBlock(NewBlockMessage msg) {
             Block block = msg.getBlock();
             log.info("processNewBlock:{}", Hex.toHexString(block.getHashLow()));
+            // 主链优先同步请求的主块只用于构建骨架
+            if (kernel.getSync() != null && kernel.getSync().getMainChainSync().onNewBlock(channel, block, msg.getTtl())) {
+                return;
+            }
             BlockWrapper bw = new BlockWrapper(block, msg.getTtl() - 1, channel.getNode());
             syncMgr.validateAndAddNewBlock(bw);
         }
 
+        /** 区块通告 只拉取本地没有的区块 */
+        protected void processNewBlockHashes(NewBlockHashesMessage msg) {
+            kernel.getPeerNetwork().onAnnounce(channel, msg.getHashLows(), blockchain);
+        }
+
+        /** 批量区块请求 在请求线程上读库 */
+        protected void processBlocksBatchRequest(BlocksBatchRequestMessage msg) {
+            requests.processBlocksBatchRequest(msg);
+        }
+
         /**
          * 区块请求响应一个区块 并开启一个线程不断发送一段时间内的区块 *
          */
         protected void processBlocksRequest(BlocksRequestMessage msg) {
             log.debug("processBlocksRequest:" + msg);
             updateXdagStats(msg);
-            long startTime = msg.getStarttime();
-            long endTime = msg.getEndtime();
-            long random = msg.getRandom();
-
-            List<Block> blocks = blockchain.getBlocksByTime(startTime, endTime);
-            for (Block block : blocks) {
-                sendNewBlock(block, 1);
-            }
-            sendMessage(new BlocksReplyMessage(startTime, endTime, random, kernel.getBlockchain().getXdagStats()));
+            requests.processBlocksRequest(msg);
         }
 
         protected void processBlocksReply(BlocksReplyMessage msg) {
 //        log.debug("processBlocksReply:" + msg);
             updateXdagStats(msg);
             long randomSeq = msg.getRandom();
+            channel.getNode().getStat().onReply(randomSeq, channel.getNode().getStat().BlocksRtt);
             SettableFuture<byte[]> sf = kernel.getSync().getBlocksRequestMap().get(randomSeq);
             if (sf != null) {
                 sf.set(new byte[]{0});
@@ -221,6 +258,9 @@ public class RPCHandler implements ProtocolBinding<RPCHandler.Controller> {
         protected void processSumsRequest(SumRequestMessage msg) {
             log.debug("processSumsRequest:" + msg);
             updateXdagStats(msg);
+            if (!kernel.getPeerNetwork().getRequestScheduler().admit(quota, 1)) {
+                return;
+            }
             byte[] sums = new byte[256];
             kernel.getBlockStore().loadSum(msg.getStarttime(), msg.getEndtime(), sums);
             SumReplyMessage reply = new SumReplyMessage(msg.getEndtime(), msg.getRandom(), kernel.getBlockchain().getXdagStats(), sums);
@@ -231,6 +271,7 @@ public class RPCHandler implements ProtocolBinding<RPCHandler.Controller> {
         protected void processSumsReply(SumReplyMessage msg) {
             updateXdagStats(msg);
             long randomSeq = msg.getRandom();
+            channel.getNode().getStat().onReply(randomSeq, channel.getNode().getStat().SumsRtt);
             SettableFuture<byte[]> sf = kernel.getSync().getSumsRequestMap().get(randomSeq);
             if (sf != null) {
                 sf.set(msg.getSum());
@@ -238,10 +279,23 @@ public class RPCHandler implements ProtocolBinding<RPCHandler.Controller> {
         }
 
         protected void processBlockExtRequest(BlockExtRequestMessage msg) {
+            updateXdagStats(msg);
+            requests.processBlockExtRequest(msg);
+        }
+
+        protected void processBlockExtReply(BlockExtReplyMessage msg) {
+            updateXdagStats(msg);
+            channel.getNode().getStat().onReply(msg.getRandom(), channel.getNode().getStat().BlocksRtt);
+            if (kernel.getSync() != null) {
+                kernel.getSync().getMainChainSync().onMainBlocksReply(msg.getRandom());
+            }
         }
 
         protected void processBlockRequest(BlockRequestMessage msg) {
             log.debug("processBlockRequest:" + msg);
+            if (!kernel.getPeerNetwork().getRequestScheduler().admit(quota, 1)) {
+                return;
+            }
             byte[] find = new byte[32];
             byte[] hash = msg.getHash();
             hash = Arrays.reverse(hash);
@@ -267,6 +321,7 @@ public class RPCHandler implements ProtocolBinding<RPCHandler.Controller> {
         public long sendGetBlocks(long startTime, long endTime) {
 //        log.debug("sendGetBlocks:[startTime={} endTime={}]", startTime, endTime);
             BlocksRequestMessage msg = new BlocksRequestMessage(startTime, endTime, kernel.getBlockchain().getXdagStats());
+            channel.getNode().getStat().onRequest(msg.getRandom());
             sendMessage(msg);
             return msg.getRandom();
         }
@@ -288,10 +343,16 @@ public class RPCHandler implements ProtocolBinding<RPCHandler.Controller> {
         public long sendGetSums(long startTime, long endTime) {
 //        log.debug("sendGetSums:startTime=[{}],endTime=[{}]", startTime, endTime);
             SumRequestMessage msg = new SumRequestMessage(startTime, endTime, kernel.getBlockchain().getXdagStats());
+            channel.getNode().getStat().onRequest(msg.getRandom());
             sendMessage(msg);
             return msg.getRandom();
         }
 
+        @Override
+        public MessageQueue getMsgQueue() {
+            return msgQueue;
+        }
+
         @Override
         public void sendMessage(Message message) {
             if (msgQueue.isRunning()) {
@@ -334,6 +395,10 @@ public class RPCHandler implements ProtocolBinding<RPCHandler.Controller> {
             XdagStats remoteXdagStats = message.getXdagStats();
             kernel.getBlockchain().getXdagStats().update(remoteXdagStats);
             kernel.getNetDBMgr().updateNetDB(message.getNetDB());
+            long capabilities = message.getCapabilities();
+            if (capabilities != 0) {
+                channel.setCapabilities(capabilities);
+            }
         }
     }
 }
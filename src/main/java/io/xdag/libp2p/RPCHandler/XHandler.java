@@ -31,10 +31,10 @@ import io.xdag.consensus.SyncManager;
 import io.xdag.core.Block;
 import io.xdag.core.Blockchain;
 import io.xdag.libp2p.Libp2pChannel;
-import io.xdag.libp2p.message.MessageQueueLib;
 import io.xdag.net.XdagVersion;
 import io.xdag.net.handler.Xdag;
 import io.xdag.net.message.Message;
+import io.xdag.net.message.MessageQueue;
 import io.xdag.net.message.XdagMessageCodes;
 import io.xdag.net.message.impl.SumReplyMessage;
 import lombok.Data;
@@ -54,7 +54,7 @@ public abstract class XHandler  extends SimpleChannelInboundHandler<Message> imp
     protected Blockchain blockchain;
     protected XdagVersion version = XdagVersion.V03;
     protected Libp2pChannel channel;
-    protected MessageQueueLib msgQueue;
+    protected MessageQueue msgQueue;
     protected Block bestKnownBlock;
     protected BigInteger totalDifficulty;
     protected SyncManager syncMgr;
@@ -23,8 +23,9 @@
  */
 package io.xdag.libp2p.manager;
 
-import io.xdag.core.BlockWrapper;
 import io.xdag.libp2p.Libp2pChannel;
+import io.xdag.net.PeerChannel;
+import io.xdag.net.PeerTransport;
 import io.xdag.net.node.Node;
 import lombok.extern.slf4j.Slf4j;
 
@@ -32,60 +33,19 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 
+/** libp2p连接，区块广播由PeerNetwork统一处理 */
 @Slf4j
-public class ChannelManager {
+public class ChannelManager implements PeerTransport {
     protected ConcurrentHashMap<InetSocketAddress, Libp2pChannel> channels = new ConcurrentHashMap<>();
     protected ConcurrentHashMap<String, Libp2pChannel> activeChannels = new ConcurrentHashMap<>();
-    /** Queue with new blocks from other peers */
-    private final BlockingQueue<BlockWrapper> newForeignBlocks = new LinkedBlockingQueue<>();
-    // 广播区块
-    private final Thread blockDistributeThread;
 
-    public ChannelManager( ) {
-        this.blockDistributeThread = new Thread(this::newBlocksDistributeLoop, "NewSyncThreadBlocks");
-        blockDistributeThread.start();
+    @Override
+    public String getName() {
+        return "libp2p";
     }
 
-    private void newBlocksDistributeLoop() {
-        while (!Thread.currentThread().isInterrupted()) {
-            BlockWrapper wrapper = null;
-            try {
-                wrapper = newForeignBlocks.take();
-                sendNewBlock(wrapper);
-            } catch (InterruptedException e) {
-                break;
-            } catch (Throwable e) {
-                if (wrapper != null) {
-                    log.error("Block dump: {}", wrapper.getBlock());
-                } else {
-                    log.error("Error broadcasting unknown block", e);
-                }
-            }
-        }
-    }
-
-    public void sendNewBlock(BlockWrapper blockWrapper) {
-
-        Node receive = null;
-        // 说明是自己产生的
-        if (blockWrapper.getRemoteNode() != null) {
-            Libp2pChannel receiveChannel = activeChannels.get(blockWrapper.getRemoteNode().getHexId());
-            receive = receiveChannel != null ? receiveChannel.getNode() : null;
-        }
-        //广播
-        for (Libp2pChannel channel : activeChannels.values()) {
-            if (receive != null && channel.getNode().getHexId().equals(receive.getHexId())) {
-                log.debug("不发送给他");
-                continue;
-            }
-            log.debug("发送给除receive的节点");
-            channel.sendNewBlock(blockWrapper);
-        }
-    }
     public void onChannelActive(Libp2pChannel channel, Node node){
         channel.setActive(true);
         activeChannels.put(node.getHexId(), channel);
@@ -97,28 +57,26 @@ public class ChannelManager {
 
     public void remove(Libp2pChannel ch) {
         log.debug("Channel removed: remoteAddress = {}", ch.getIp());
-        channels.remove(ch.getIp());
+        channels.remove(ch.getNode().getAddress());
         if (ch.isActive()) {
-            activeChannels.remove(ch.getIp());
+            activeChannels.remove(ch.getNode().getHexId());
             ch.setActive(false);
         }
     }
 
-    public void onNewForeignBlock(BlockWrapper blockWrapper) {
-        newForeignBlocks.add(blockWrapper);
-    }
-
     public List<Libp2pChannel> getactiveChannel(){
         Collection<Libp2pChannel> channels =activeChannels.values();
         log.debug("Active Channels {}", channels.size());
         return new ArrayList<>(activeChannels.values());
     }
+
+    @Override
+    public List<PeerChannel> getActivePeers() {
+        return new ArrayList<>(activeChannels.values());
+    }
+
     public void stop() {
         log.debug("Channel Manager stop...");
-        if (blockDistributeThread != null) {
-            // 中断
-            blockDistributeThread.interrupt();
-        }
         // 关闭所有连接
         for (Libp2pChannel channel : activeChannels.values()) {
             channel.onDisconnect();
@@ -0,0 +1,209 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.xdag.config.Config;
+import io.xdag.core.Block;
+import io.xdag.core.ImportResult;
+import io.xdag.utils.ByteArrayWrapper;
+import io.xdag.utils.LatencyHistogram;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+/**
+ * 矿工接入控制
+ *
+ * 矿池重启后大量矿工同时重连，地址块校验要进入区块链的全局锁，不能放在事件循环上。
+ * 新连接按poolAcceptRate整形，超出的连接推迟读取，推迟过久的直接断开；
+ * 见过的地址块直接放行，其余的在有界线程池里校验，队列满时断开，由矿工稍后重连。
+ */
+@Slf4j
+public class MinerAdmission {
+
+    /** 缓存的已知地址块数 */
+    public static final int KNOWN_ADDRESSES = 1 << 17;
+    /** 新连接最多推迟这么久，超过时直接断开 */
+    public static final long MAX_ACCEPT_DELAY = TimeUnit.SECONDS.toNanos(10);
+
+    private final LongSupplier clock;
+    private final Cache<ByteArrayWrapper, Boolean> knownAddresses = Caffeine.newBuilder()
+            .maximumSize(KNOWN_ADDRESSES)
+            .build();
+    private final ThreadPoolExecutor workers;
+
+    /** 相邻两个连接的最小间隔和空闲时可积累的连接数 */
+    private final long acceptInterval;
+    private final long acceptBurst;
+    private long nextAcceptSlot;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong shaped = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong validated = new AtomicLong();
+    private final AtomicLong queueFull = new AtomicLong();
+    private final AtomicLong admitted = new AtomicLong();
+
+    /** 连接建立到矿工激活 */
+    private final LatencyHistogram handshakeLatency = new LatencyHistogram("miner handshake");
+    /** 提交校验到得到结果，包括排队时间 */
+    private final LatencyHistogram validateLatency = new LatencyHistogram("address validate");
+
+    public MinerAdmission(Config config) {
+        this(config.getPoolHandshakeThreads(), config.getPoolHandshakeQueueSize(), config.getPoolAcceptRate(),
+                System::nanoTime);
+    }
+
+    public MinerAdmission(int threads, int queueSize, int acceptRate, LongSupplier clock) {
+        this.clock = clock;
+        int n = Math.max(1, threads);
+        this.workers = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+                new BasicThreadFactory.Builder()
+                        .namingPattern("miner-handshake-%d")
+                        .daemon(true)
+                        .build());
+        this.acceptInterval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, acceptRate);
+        this.acceptBurst = Math.max(1, acceptRate);
+        this.nextAcceptSlot = clock.getAsLong() - acceptBurst * acceptInterval;
+    }
+
+    /**
+     * 新连接占用一个接入名额
+     *
+     * @return 需要推迟读取的纳秒数，-1表示排队太久应断开
+     */
+    public synchronized long reserveAccept() {
+        long now = clock.getAsLong();
+        // 空闲时最多积累acceptBurst个名额
+        long slot = Math.max(nextAcceptSlot, now - acceptBurst * acceptInterval);
+        long delay = slot - now;
+        if (delay > MAX_ACCEPT_DELAY) {
+            refused.incrementAndGet();
+            return -1;
+        }
+        nextAcceptSlot = slot + acceptInterval;
+        accepted.incrementAndGet();
+        if (delay > 0) {
+            shaped.incrementAndGet();
+            return delay;
+        }
+        return 0;
+    }
+
+    /**
+     * 校验矿工的地址块，已知的地址块在当前线程直接回调
+     *
+     * @param validator 导入地址块，在线程池中执行
+     * @param callback 校验结果，线程池满时为null
+     */
+    public void validate(Block addressBlock, Function<Block, ImportResult> validator,
+            Consumer<ImportResult> callback) {
+        ByteArrayWrapper key = new ByteArrayWrapper(addressBlock.getHash());
+        if (knownAddresses.getIfPresent(key) != null) {
+            cacheHits.incrementAndGet();
+            callback.accept(ImportResult.EXIST);
+            return;
+        }
+        long submit = clock.getAsLong();
+        try {
+            workers.execute(() -> {
+                ImportResult result;
+                try {
+                    result = validator.apply(addressBlock);
+                } catch (Throwable e) {
+                    log.error("Validate miner address block fail: {}", e.getMessage(), e);
+                    result = ImportResult.ERROR;
+                }
+                validateLatency.record(clock.getAsLong() - submit);
+                validated.incrementAndGet();
+                if (result == ImportResult.EXIST || result == ImportResult.IMPORTED_BEST
+                        || result == ImportResult.IMPORTED_NOT_BEST) {
+                    knownAddresses.put(key, Boolean.TRUE);
+                }
+                callback.accept(result);
+            });
+        } catch (RejectedExecutionException e) {
+            queueFull.incrementAndGet();
+            callback.accept(null);
+        }
+    }
+
+    /** 矿工激活后调用，startNanos为连接建立的时间 */
+    public void onAdmitted(long startNanos) {
+        admitted.incrementAndGet();
+        handshakeLatency.record(clock.getAsLong() - startNanos);
+    }
+
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getQueueFull() {
+        return queueFull.get();
+    }
+
+    public long getShaped() {
+        return shaped.get();
+    }
+
+    public long getRefused() {
+        return refused.get();
+    }
+
+    public LatencyHistogram getHandshakeLatency() {
+        return handshakeLatency;
+    }
+
+    public LatencyHistogram getValidateLatency() {
+        return validateLatency;
+    }
+
+    public void stop() {
+        workers.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("miner admission: %d accepted (%d shaped, %d refused), %d admitted, "
+                        + "%d address cache hits, %d validated, %d queue full, queue %d%n%s%n%s",
+                accepted.get(), shaped.get(), refused.get(), admitted.get(),
+                cacheHits.get(), validated.get(), queueFull.get(), workers.getQueue().size(),
+                handshakeLatency, validateLatency);
+    }
+}
@@ -26,9 +26,8 @@ package io.xdag.mine;
 import static io.xdag.mine.miner.MinerStates.MINER_ACTIVE;
 
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 
 import io.xdag.mine.miner.MinerStates;
@@ -36,19 +35,20 @@ import org.apache.commons.codec.binary.Hex;
 
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.socket.SocketChannel;
 import io.xdag.Kernel;
 import io.xdag.config.Config;
-import io.xdag.core.Block;
 import io.xdag.core.XdagField;
-import io.xdag.db.store.BlockStore;
 import io.xdag.mine.handler.ConnectionLimitHandler;
 import io.xdag.mine.handler.Miner03;
 import io.xdag.mine.handler.MinerHandShakeHandler;
 import io.xdag.mine.handler.MinerMessageHandler;
 import io.xdag.mine.manager.MinerManager;
 import io.xdag.mine.message.MinerMessageFactory;
+import io.xdag.mine.miner.DiffRing;
 import io.xdag.mine.miner.Miner;
+import io.xdag.mine.miner.StatsSeries;
 import io.xdag.net.XdagVersion;
 import io.xdag.net.message.MessageFactory;
 import io.xdag.utils.ByteArrayWrapper;
@@ -111,12 +111,10 @@ public class MinerChannel {
     @Setter
     private ChannelHandlerContext ctx;
 
-    private final BlockStore blockStore;
-
     private final MinerManager minerManager;
 
     /** 存放的是连续16个任务本地计算的最大难度 每一轮放的都是最小hash 计算出来的diffs */
-    private final List<Double> maxDiffs = new CopyOnWriteArrayList<>();
+    private final DiffRing maxDiffs = new DiffRing();
 
     /** 记录的是当前任务所有难度之和，每当接收到一个新的nonce 会更新这个 */
     @Getter
@@ -131,6 +129,9 @@ public class MinerChannel {
     @Setter
     private int boundedTaskCounter;
 
+    /** 上次发送的余额消息 */
+    private byte[] sentBalance;
+
     /** 保存这个channel 最后的计算的hash */
     @Getter
     @Setter
@@ -147,21 +148,24 @@ public class MinerChannel {
     @Getter
     private boolean isMill = false;
 
+    /** share的难度目标，由校验线程更新 */
+    @Getter
+    private final VarDiff varDiff;
+
+    /** 通道的share和算力时间序列 */
+    @Getter
+    private final StatsSeries stats = StatsSeries.forChannel();
+
     /** 初始化 同时需要判断是服务器端还是客户端 */
-    public MinerChannel(Kernel kernel, NioSocketChannel socket, boolean isServer) {
+    public MinerChannel(Kernel kernel, SocketChannel socket, boolean isServer) {
         this.kernel = kernel;
         this.config = kernel.getConfig();
         this.inBound = new StatHandle();
         this.outBound = new StatHandle();
         this.isServer = isServer;
 
-        this.blockStore = kernel.getBlockStore();
         this.minerManager = kernel.getMinerManager();
-
-        // 容器的初始化
-        for (int i = 0; i < 16; i++) {
-            maxDiffs.add(0.0);
-        }
+        this.varDiff = new VarDiff(config.getPoolSharesPerTask());
     }
 
     /**
@@ -291,18 +295,41 @@ public class MinerChannel {
         miner03.sendMessage(bytes);
     }
 
-    /** 矿池发送余额给矿工 */
-    public void sendBalance() {
+    /**
+     * 广播任务时在通道的事件循环上调用，只写入不flush
+     *
+     * 64字节的任务在编码时写入ByteBuf后才加密，不修改数组，所有通道共用同一个明文
+     */
+    public void writeTask(byte[] task) {
+        miner03.writeMessage(task);
+    }
+
+    public void flush() {
+        miner03.flush();
+    }
+
+    /** 激活前为null */
+    public EventLoop eventLoop() {
+        return ctx == null ? null : ctx.channel().eventLoop();
+    }
+
+    /** 账户区块的hashlow */
+    public byte[] getAccountHashLow() {
         byte[] hashlow = new byte[32];
         System.arraycopy(accountAddressHash,8,hashlow,8,24);
-        Block block = blockStore.getBlockByHash(hashlow, false);
-        if (block == null) {
-            log.debug("Can't found block,{}",Hex.encodeHex(hashlow));
+        return hashlow;
+    }
+
+    /**
+     * 矿池发送余额给矿工，和上次发送的内容相同时跳过
+     *
+     * @param data 余额和账户地址，同一账户的所有通道共用
+     */
+    public void sendBalance(byte[] data) {
+        if (Arrays.equals(data, sentBalance)) {
             return;
         }
-        long amount = block.getInfo().getAmount();
-        byte[] data = BytesUtils.merge(BytesUtils.longToBytes(amount, false),
-                BytesUtils.subArray(accountAddressHash, 8, 24));
+        sentBalance = data;
         log.debug("update miner balance {}", Hex.encodeHexString(data));
         miner03.sendMessage(data);
     }
@@ -323,8 +350,13 @@ public class MinerChannel {
         this.prevDiffCounts++;
     }
 
-    public void addMaxDiffs(int index, double diff) {
-        maxDiffs.add(index, diff);
+    public void setMaxDiffs(int index, double diff) {
+        maxDiffs.set(index, diff);
+    }
+
+    /** diff大于当前值时更新，返回是否更新 */
+    public boolean updateMaxDiffs(int index, double diff) {
+        return maxDiffs.max(index, diff);
     }
 
     public double getMaxDiffs(int index) {
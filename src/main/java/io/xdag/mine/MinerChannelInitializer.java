@@ -24,17 +24,18 @@
 package io.xdag.mine;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.FixedRecvByteBufAllocator;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.socket.SocketChannel;
 import io.xdag.Kernel;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
-public class MinerChannelInitializer extends ChannelInitializer<NioSocketChannel> {
+public class MinerChannelInitializer extends ChannelInitializer<SocketChannel> {
     private final Kernel kernel;
     private final boolean isServer;
 
@@ -44,13 +45,26 @@ public class MinerChannelInitializer extends ChannelInitializer<NioSocketChannel
     }
 
     @Override
-    protected void initChannel(NioSocketChannel ch) {
+    protected void initChannel(SocketChannel ch) {
         AtomicInteger channelsAccount = kernel.getChannelsAccount();
         if (channelsAccount.get() >= kernel.getConfig().getGlobalMinerChannelLimit()) {
             ch.close();
             System.out.println("too many channels in this pool");
             return;
         }
+        if (isServer) {
+            // 接入整形：超出速率的连接推迟读取，握手随之推迟
+            long delay = kernel.getMinerAdmission().reserveAccept();
+            if (delay < 0) {
+                log.debug("Too many new miner connections, close {}", ch.remoteAddress());
+                ch.close();
+                return;
+            }
+            if (delay > 0) {
+                ch.config().setAutoRead(false);
+                ch.eventLoop().schedule(() -> ch.config().setAutoRead(true), delay, TimeUnit.NANOSECONDS);
+            }
+        }
         log.info("init a new MinerChannel...... isServer：{}" , isServer);
         // 如果是服务器 就会获取到的是外部的地址 否则获取到自己本地的地址
         channelsAccount.getAndIncrement();
@@ -24,37 +24,24 @@
 package io.xdag.mine;
 
 import java.io.IOException;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import javax.annotation.Nonnull;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultMessageSizeEstimator;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.xdag.config.Config;
+import io.xdag.net.NettyTransport;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class MinerClient {
-    private static final ThreadFactory FACTORY = new ThreadFactory() {
-        final AtomicInteger cnt = new AtomicInteger(0);
-
-        @Override
-        public Thread newThread(@Nonnull Runnable r) {
-            return new Thread(r, "XdagJMinerWorker-" + cnt.getAndIncrement());
-        }
-    };
     private final EventLoopGroup workerGroup;
     private final Config config;
 
     public MinerClient(Config config) {
         this.config = config;
-        this.workerGroup = new NioEventLoopGroup(0, FACTORY);
+        this.workerGroup = NettyTransport.newEventLoopGroup(config, 0, "XdagJMinerWorker-%d");
     }
 
     public void connect(String host, int port, MinerChannelInitializer minerChannelInitializer) {
@@ -77,7 +64,7 @@ public class MinerClient {
             String host, int port, MinerChannelInitializer minerChannelInitializer) {
         Bootstrap b = new Bootstrap();
         b.group(workerGroup);
-        b.channel(NioSocketChannel.class);
+        b.channel(NettyTransport.channelClass(config));
         // b.option(ChannelOption.SO_KEEPALIVE, true);
         b.option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, DefaultMessageSizeEstimator.DEFAULT);
         b.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getConnectionTimeout());
@@ -24,14 +24,17 @@
 package io.xdag.mine;
 
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultMessageSizeEstimator;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.handler.logging.LoggingHandler;
 import io.xdag.Kernel;
+import io.xdag.config.Config;
+import io.xdag.net.NettyTransport;
+import java.util.ArrayList;
+import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -40,8 +43,8 @@ public class MinerServer {
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
 
-    /** 用来接受监听的fuyire */
-    private ChannelFuture channelFuture;
+    /** 监听的channel，epoll下每个accept线程一个 */
+    private final List<Channel> serverChannels = new ArrayList<>();
 
     /** 是否正在监听 */
     private boolean isListening = false;
@@ -56,12 +59,18 @@ public class MinerServer {
     }
 
     public void start(String ip, int port) {
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup();
+        Config config = kernel.getConfig();
+        // SO_REUSEPORT只有epoll支持，由内核把新连接分散到多个accept线程
+        int acceptThreads = NettyTransport.isEpoll(config) ? Math.max(1, config.getPoolAcceptThreads()) : 1;
+        bossGroup = NettyTransport.newEventLoopGroup(config, acceptThreads, "pool-boss-%d");
+        workerGroup = NettyTransport.newEventLoopGroup(config, config.getPoolEventLoopThreads(), "pool-worker-%d");
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
             bootstrap.group(bossGroup, workerGroup);
-            bootstrap.channel(NioServerSocketChannel.class);
+            bootstrap.channel(NettyTransport.serverChannelClass(config));
+            if (acceptThreads > 1) {
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
             bootstrap.childOption(ChannelOption.SO_KEEPALIVE, true);
             bootstrap.childOption(
                     ChannelOption.MESSAGE_SIZE_ESTIMATOR, DefaultMessageSizeEstimator.DEFAULT);
@@ -71,10 +80,13 @@ public class MinerServer {
             // bootstrap.childOption(ChannelOption.ALLOW_HALF_CLOSURE,true);
             bootstrap.handler(new LoggingHandler());
             bootstrap.childHandler(new MinerChannelInitializer(kernel, true));
-            channelFuture = bootstrap.bind(ip, port).sync();
+            // 每次bind注册到bossGroup中的下一个事件循环
+            for (int i = 0; i < acceptThreads; i++) {
+                serverChannels.add(bootstrap.bind(ip, port).sync().channel());
+            }
             isListening = true;
-            // channelFuture.channel().closeFuture().sync();
-            log.info("start listening the pool,host:[{}:{}]", ip, port);
+            log.info("start listening the pool,host:[{}:{}], transport: {}, accept threads: {}",
+                    ip, port, NettyTransport.name(config), acceptThreads);
         } catch (Exception e) {
             log.error("miner server error: {} ({})", e.getMessage(), e.getClass().getName());
             throw new Error("minerServer Disconnected");
@@ -83,10 +95,15 @@ public class MinerServer {
 
     /** 关闭连接 */
     public void close() {
-        if (isListening && channelFuture != null && channelFuture.channel().isOpen()) {
+        if (isListening && !serverChannels.isEmpty()) {
             try {
                 log.info("Closing MinerServer...");
-                channelFuture.channel().close().sync();
+                for (Channel channel : serverChannels) {
+                    if (channel.isOpen()) {
+                        channel.close().sync();
+                    }
+                }
+                serverChannels.clear();
                 workerGroup.shutdownGracefully();
                 bossGroup.shutdownGracefully();
                 isListening = false;
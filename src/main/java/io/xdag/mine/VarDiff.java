@@ -0,0 +1,189 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine;
+
+import io.xdag.consensus.Task;
+import io.xdag.core.XdagField;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 矿工通道的share难度目标(vardiff)
+ *
+ * 难度的定义与MinerCalculate.shareDiff一致，达到难度d的概率与e^-d成正比。
+ * 每个任务结束时把目标调整为上一任务中第sharesPerTask好的share的难度(与旧目标取平均)，
+ * 使每个通道每个任务进入主线程的share数接近sharesPerTask。
+ * 低于目标的share在校验线程上丢弃，不进入minHash比较和矿工统计；某个任务没有达标的share时，
+ * 切换任务时补交其中最好的一个，切换后迟到的上一任务的share超过该任务已知的最大难度时也放行，
+ * 每个任务的最大难度(奖励的依据)不受目标影响。低于目标但能更新minHash的share同样放行，按达标统计。
+ * 任务按taskIndex区分，同一epoch内因pretop变化产生的新任务也会切换。
+ */
+public class VarDiff {
+
+    /** 切换任务时补交上一任务最好的share */
+    public interface Carry {
+        void accept(Task task, XdagField share, byte[] hash);
+    }
+
+    private static final AtomicLong totalAccepted = new AtomicLong();
+    private static final AtomicLong totalRejected = new AtomicLong();
+
+    private final int sharesPerTask;
+
+    /** 当前目标，负无穷表示全部接受 */
+    private double target = Double.NEGATIVE_INFINITY;
+
+    private Task task;
+    private int accepted;
+    private int hashed;
+    /** 当前任务所有share的最大难度 */
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /** 上一任务和其中已交给主线程的最大难度 */
+    private Task previous;
+    private double previousMax = Double.NEGATIVE_INFINITY;
+    /** 当前任务中最好的sharesPerTask个难度，升序 */
+    private final double[] best;
+
+    private XdagField bestRejectedShare;
+    private byte[] bestRejectedHash;
+    private double bestRejectedDiff;
+
+    public VarDiff(int sharesPerTask) {
+        this.sharesPerTask = Math.max(1, sharesPerTask);
+        this.best = new double[this.sharesPerTask];
+    }
+
+    public static long getTotalAccepted() {
+        return totalAccepted.get();
+    }
+
+    public static long getTotalRejected() {
+        return totalRejected.get();
+    }
+
+    public synchronized double getTarget() {
+        return target;
+    }
+
+    /** 下发新任务时调用，立即补交上一任务最好的share，不等通道发来新任务的share */
+    public synchronized void onNewTask(Task next, Carry carry) {
+        if (isNewer(next)) {
+            roll(next, carry);
+        }
+    }
+
+    private boolean isNewer(Task next) {
+        return this.task == null || next.getTaskIndex() > this.task.getTaskIndex();
+    }
+
+    /**
+     * 在校验线程上判断share是否达到目标
+     *
+     * @param keep 因为能更新minHash已经决定放行，按达标处理
+     * @param carry 切换到新任务且上一任务没有达标的share时，先回调补交其中最好的一个
+     * @return 达到目标或keep时返回true
+     */
+    public synchronized boolean accept(Task task, XdagField share, byte[] hash, double diff, boolean keep,
+            Carry carry) {
+        if (isNewer(task)) {
+            roll(task, carry);
+        } else if (task == previous) {
+            // 迟到的上一任务的share，超过已交出的最大难度时放行，保证该任务的最大难度不丢
+            if (keep || diff >= target || diff > previousMax) {
+                previousMax = Math.max(previousMax, diff);
+                return count(true);
+            }
+            return count(false);
+        } else if (task != this.task) {
+            // 更早任务的share只和目标比较，不参与统计
+            return count(keep || diff >= target);
+        }
+
+        if (hashed < best.length) {
+            insert(hashed, diff);
+        } else if (diff > best[0]) {
+            insert(0, diff);
+        }
+        hashed++;
+        max = Math.max(max, diff);
+
+        if (keep || diff >= target) {
+            accepted++;
+            return count(true);
+        }
+        if (bestRejectedHash == null || diff > bestRejectedDiff) {
+            bestRejectedShare = share;
+            bestRejectedHash = hash;
+            bestRejectedDiff = diff;
+        }
+        return count(false);
+    }
+
+    private static boolean count(boolean accepted) {
+        (accepted ? totalAccepted : totalRejected).incrementAndGet();
+        return accepted;
+    }
+
+    /** 把diff放入best[slot]，再向后移动到有序的位置 */
+    private void insert(int slot, double diff) {
+        int i = slot;
+        // 新加入的元素从末尾向前移动
+        if (slot == hashed) {
+            while (i > 0 && best[i - 1] > diff) {
+                best[i] = best[i - 1];
+                i--;
+            }
+        } else {
+            while (i + 1 < best.length && best[i + 1] < diff) {
+                best[i] = best[i + 1];
+                i++;
+            }
+        }
+        best[i] = diff;
+    }
+
+    private void roll(Task next, Carry carry) {
+        previous = this.task;
+        previousMax = max;
+        if (this.task != null) {
+            if (accepted == 0 && bestRejectedHash != null) {
+                carry.accept(this.task, bestRejectedShare, bestRejectedHash);
+            }
+            if (hashed < best.length) {
+                // share太少，全部接受
+                target = Double.NEGATIVE_INFINITY;
+            } else if (target == Double.NEGATIVE_INFINITY) {
+                target = best[0];
+            } else {
+                target = (target + best[0]) / 2;
+            }
+        }
+        this.task = next;
+        accepted = 0;
+        hashed = 0;
+        max = Double.NEGATIVE_INFINITY;
+        bestRejectedShare = null;
+        bestRejectedHash = null;
+    }
+}
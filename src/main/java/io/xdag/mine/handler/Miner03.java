@@ -159,6 +159,15 @@ public class Miner03 extends SimpleChannelInboundHandler<Message> {
         ctx.channel().writeAndFlush(bytes);
     }
 
+    /** 只写入不flush，需在通道的事件循环上调用 */
+    public void writeMessage(byte[] bytes) {
+        ctx.channel().write(bytes);
+    }
+
+    public void flush() {
+        ctx.channel().flush();
+    }
+
     public void dropConnection() {
         disconnect();
     }
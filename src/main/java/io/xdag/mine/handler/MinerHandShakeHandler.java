@@ -44,6 +44,7 @@ import io.xdag.core.BlockWrapper;
 import io.xdag.core.ImportResult;
 import io.xdag.core.XdagBlock;
 import io.xdag.crypto.jni.Native;
+import io.xdag.mine.MinerAdmission;
 import io.xdag.mine.MinerChannel;
 import io.xdag.mine.manager.MinerManager;
 import io.xdag.utils.BasicUtils;
@@ -58,16 +59,31 @@ public class MinerHandShakeHandler extends ByteToMessageDecoder {
     private final Kernel kernel;
     private final MinerManager minerManager;
     private final SyncManager syncManager;
+    private final MinerAdmission admission;
+    /** 连接建立的时间 */
+    private long startNanos;
+    /** 已收到地址块，正在等待校验结果 */
+    private boolean validating;
 
     public MinerHandShakeHandler(MinerChannel channel, Kernel kernel) {
         this.channel = channel;
         this.kernel = kernel;
         minerManager = kernel.getMinerManager();
         syncManager = kernel.getSyncMgr();
+        admission = kernel.getMinerAdmission();
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        startNanos = System.nanoTime();
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        // 地址块校验中，后续数据留给激活后的handler
+        if (validating) {
+            return;
+        }
         if (in.readableBytes() >= XdagBlock.XDAG_BLOCK_SIZE) {
             log.debug("Receive a address block");
             Native.crypt_start();
@@ -78,59 +94,72 @@ public class MinerHandShakeHandler extends ByteToMessageDecoder {
 
             /* 解密数据 */
             byte[] uncryptData = Native.dfslib_uncrypt_array(address, 16, sectorNo);
-//            int crc = BytesUtils.bytesToInt(uncryptData, 4, true);
-//            int head = BytesUtils.bytesToInt(uncryptData, 0, true);
-//
-//            // 清除transportheader
-//            System.arraycopy(BytesUtils.longToBytes(0, true), 0, uncryptData, 4, 4);
-//            System.out.println(Hex.toHexString(uncryptData));
-//            if (head != BLOCK_HEAD_WORD || !crc32Verify(uncryptData, crc)) {
-//                System.out.println(head != BLOCK_HEAD_WORD);
 
             if (isDataIllegal(uncryptData.clone())) {
                 log.debug(" not a block from miner");
-                ctx.channel().closeFuture();
+                ctx.close();
             } else {
                 // 把区块头置0了
                 System.arraycopy(BytesUtils.longToBytes(0, true), 0, uncryptData, 0, 8);
                 Block addressBlock = new Block(new XdagBlock(uncryptData));
-                // Todo:加入block_queue
-                ImportResult importResult = tryToConnect(addressBlock);
-
-                if (importResult == ImportResult.ERROR) {
-                    log.debug("ErrorInfo:{}",importResult.getErrorInfo());
-                    ctx.close();
-                    return;
-                }
-
-                if (!initMiner(addressBlock.getHash())) {
-                    log.debug("too many connect for a miner");
-                    ctx.close();
-                    return;
-                }
-
-                // 如果是新增的地址块
-                if (importResult != ImportResult.EXIST) {
-                    log.debug("Punk:Add new addressblock {}", addressBlock.getHash());
-                }
-
-                log.debug("Punk:New channel {} connectTime {}", channel.getInetAddress().getHostString(),FormatDateUtils.format(new Date()));
-
-                channel.getInBound().add(16L);
-                minerManager.addActivateChannel(channel);
-                channel.setIsActivate(true);
-                channel.setConnectTime(FormatDateUtils.getCurrentTime());
-                channel.setAccountAddressHash(addressBlock.getHash());
-                ctx.pipeline().remove(this);
-                channel.activateHadnler(ctx, V03);
-                // TODO: 2020/5/8 这里可能还有一点小bug 如果无限加入 岂不是会无线创建了
-                log.info("add a new miner,miner address [" + BasicUtils.hash2Address(addressBlock.getHash()) + "]");
+                // 校验不在事件循环上进行，完成前暂停读取
+                validating = true;
+                ctx.channel().config().setAutoRead(false);
+                admission.validate(addressBlock, this::tryToConnect, result -> {
+                    if (ctx.executor().inEventLoop()) {
+                        onValidated(ctx, addressBlock, result);
+                    } else {
+                        ctx.executor().execute(() -> onValidated(ctx, addressBlock, result));
+                    }
+                });
             }
         } else {
             log.debug("length less than " + XdagBlock.XDAG_BLOCK_SIZE + " bytes");
         }
     }
 
+    /** 在事件循环上完成握手 */
+    private void onValidated(ChannelHandlerContext ctx, Block addressBlock, ImportResult importResult) {
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        if (importResult == null) {
+            log.debug("Too many miner handshakes waiting, close {}", channel.getInetAddress());
+            ctx.close();
+            return;
+        }
+        if (importResult == ImportResult.ERROR) {
+            log.debug("ErrorInfo:{}", importResult.getErrorInfo());
+            ctx.close();
+            return;
+        }
+
+        if (!initMiner(addressBlock.getHash())) {
+            log.debug("too many connect for a miner");
+            ctx.close();
+            return;
+        }
+
+        // 如果是新增的地址块
+        if (importResult != ImportResult.EXIST) {
+            log.debug("Punk:Add new addressblock {}", addressBlock.getHash());
+        }
+
+        log.debug("Punk:New channel {} connectTime {}", channel.getInetAddress().getHostString(),FormatDateUtils.format(new Date()));
+
+        channel.getInBound().add(16L);
+        minerManager.addActivateChannel(channel);
+        channel.setIsActivate(true);
+        channel.setConnectTime(FormatDateUtils.getCurrentTime());
+        channel.setAccountAddressHash(addressBlock.getHash());
+        // 先加入消息handler，移除时缓冲中剩余的数据交给它们
+        channel.activateHadnler(ctx, V03);
+        ctx.pipeline().remove(this);
+        ctx.channel().config().setAutoRead(true);
+        admission.onAdmitted(startNanos);
+        log.info("add a new miner,miner address [" + BasicUtils.hash2Address(addressBlock.getHash()) + "]");
+    }
+
     public boolean isDataIllegal(byte[] uncryptData) {
         int crc = BytesUtils.bytesToInt(uncryptData, 4, true);
         int head = BytesUtils.bytesToInt(uncryptData, 0, true);
@@ -40,7 +40,7 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageCodec;
 import io.xdag.core.XdagBlock;
 import io.xdag.core.XdagField;
-import io.xdag.crypto.jni.Native;
+import io.xdag.crypto.jni.SectorCrypt;
 import io.xdag.mine.MinerChannel;
 import io.xdag.net.message.Message;
 import io.xdag.net.message.MessageFactory;
@@ -72,14 +72,14 @@ public class MinerMessageHandler extends ByteToMessageCodec<byte[]> {
         if (len == DATA_SIZE) {
             log.debug("发送一个字段的消息");
             BytesUtils.arrayReverse(bytes);
-            out.writeBytes(Native.dfslib_encrypt_array(bytes, 1, sectorNo));
+            writeEncrypted(out, bytes, 1, sectorNo);
             channel.getOutBound().add();
         } else if (len == 2 * DATA_SIZE) {
             log.debug("发送一个任务消息，消息内容为[{}]", Hex.encodeHexString(bytes));
-            out.writeBytes(Native.dfslib_encrypt_array(bytes, 2, sectorNo));
+            writeEncrypted(out, bytes, 2, sectorNo);
             channel.getOutBound().add(2);
         } else if (len == 16 * DATA_SIZE) {
-            out.writeBytes(Native.dfslib_encrypt_array(bytes, 16, sectorNo));
+            writeEncrypted(out, bytes, 16, sectorNo);
             channel.getOutBound().add(16);
         } else {
             log.debug("没有该长度字段类型的消息");
@@ -95,9 +95,7 @@ public class MinerMessageHandler extends ByteToMessageCodec<byte[]> {
         // 接收到的是任务share
         if (len == DATA_SIZE) {
             log.debug("Received a message from the miner,msg len == 32");
-            byte[] encryptData = new byte[DATA_SIZE];
-            in.readBytes(encryptData);
-            byte[] unCryptData = Native.dfslib_uncrypt_array(encryptData, 1, sectorNo);
+            byte[] unCryptData = readUncrypted(in, 1, sectorNo);
             BytesUtils.arrayReverse(unCryptData);
             if (channel.isServer()) {
                 // 如果是服务端 那么收到的一个字节的消息只能是task——share
@@ -109,17 +107,13 @@ public class MinerMessageHandler extends ByteToMessageCodec<byte[]> {
             // 两个字段 说明收到的是一个任务字段 只有可能是矿工收到新的任务
         } else if (len == 2 * DATA_SIZE) {
             log.debug("Received a message from the miner,msg len == 64");
-            byte[] encryptData = new byte[64];
-            in.readBytes(encryptData);
-            byte[] unCryptData = Native.dfslib_uncrypt_array(encryptData, 2, sectorNo);
+            byte[] unCryptData = readUncrypted(in, 2, sectorNo);
 
             msg = messageFactory.create(TASK_SHARE.asByte(), unCryptData);
             channel.getInBound().add(2);
             // 收到512个字节的消息 那就说明是收到一个区块 矿工发上来的一笔交易
         } else if (len == 16 * DATA_SIZE) {
-            byte[] encryptData = new byte[512];
-            in.readBytes(encryptData);
-            byte[] unCryptData = Native.dfslib_uncrypt_array(encryptData, 16, sectorNo);
+            byte[] unCryptData = readUncrypted(in, 16, sectorNo);
             long transportHeader = BytesUtils.bytesToLong(unCryptData, 0, true);
             int ttl = (int) ((transportHeader >> 8) & 0xff);
             int crc = BytesUtils.bytesToInt(unCryptData, 4, true);
@@ -150,6 +144,21 @@ public class MinerMessageHandler extends ByteToMessageCodec<byte[]> {
         }
     }
 
+    /** 写入out后原地加密 */
+    private void writeEncrypted(ByteBuf out, byte[] bytes, int nfield, long sectorNo) {
+        int index = out.writerIndex();
+        out.writeBytes(bytes);
+        SectorCrypt.encryptFields(out, index, nfield, sectorNo);
+    }
+
+    /** 在in中原地解密后读出 */
+    private byte[] readUncrypted(ByteBuf in, int nfield, long sectorNo) {
+        SectorCrypt.uncryptFields(in, in.readerIndex(), nfield, sectorNo);
+        byte[] data = new byte[nfield * DATA_SIZE];
+        in.readBytes(data);
+        return data;
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         if (cause instanceof IOException) {
@@ -28,10 +28,15 @@ import static io.xdag.core.XdagField.FieldType.XDAG_FIELD_IN;
 import static io.xdag.core.XdagField.FieldType.XDAG_FIELD_OUT;
 import static java.lang.Math.E;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import io.xdag.core.*;
@@ -45,14 +50,18 @@ import io.xdag.config.Config;
 import io.xdag.consensus.Task;
 import io.xdag.mine.miner.Miner;
 import io.xdag.mine.miner.MinerStates;
+import io.xdag.mine.miner.ShareLedger;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.bouncycastle.util.encoders.Hex;
 
 @Slf4j
-public class AwardManagerImpl implements AwardManager, Runnable {
+public class AwardManagerImpl implements AwardManager, ShareLedger.State, Runnable {
     /** 每一轮的确认数是16 */
     private static final int CONFIRMATIONS_COUNT = 16;
+    /** 日志中的支付暂时导入失败时最多重试的轮数 */
+    private static final int MAX_PAYOUT_RETRIES = 16;
     /** 矿池自己的收益 */
     private static double poolRation;
     /** 出块矿工占比 */
@@ -77,9 +86,26 @@ public class AwardManagerImpl implements AwardManager, Runnable {
     private final Kernel kernel;
     private final Blockchain blockchain;
     private final OldWallet xdagWallet;
-
-    private ArrayList<Double> diff = new ArrayList<>();
-    private ArrayList<Double> prev_diff = new ArrayList<>();
+    private final ShareLedger shareLedger;
+    private final PayoutJournal payoutJournal;
+    /** 并行签名支付区块 */
+    private final ExecutorService signer = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2), new BasicThreadFactory.Builder()
+                    .namingPattern("PayoutSigner-%d")
+                    .daemon(true)
+                    .build());
+
+    /** 每个矿工本轮的权重和加上以前难度的权重，与miners一一对应 */
+    private double[] diff = new double[0];
+    private double[] prevDiff = new double[0];
+    private boolean[] outdated = new boolean[0];
+    private boolean poolOutdated;
+    /** countpay算出的本轮权重 */
+    private double currentPay;
+    /** 支付日志写入失败时直接提交的支付区块 */
+    private List<Block> payments = new ArrayList<>();
+    /** 日志中的支付暂时导入失败的轮数，超过上限移入死信 */
+    private final Map<ByteArrayWrapper, Integer> payoutRetries = new HashMap<>();
 
     public AwardManagerImpl(Kernel kernel) {
         this.kernel = kernel;
@@ -88,8 +114,46 @@ public class AwardManagerImpl implements AwardManager, Runnable {
         this.xdagWallet = kernel.getWallet();
         this.poolMiner = kernel.getPoolMiner();
         this.minerManager = kernel.getMinerManager();
+        this.shareLedger = kernel.getShareLedger();
+        this.payoutJournal = kernel.getPayoutJournal();
         init();
         setPoolConfig();
+        if (shareLedger != null) {
+            try {
+                shareLedger.open(this);
+            } catch (IOException e) {
+                log.error("Open share ledger fail, unpaid shares will not survive restart: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /** 回放账本时恢复矿工，重新连接前按已归档处理 */
+    @Override
+    public Miner getMiner(byte[] address) {
+        if (poolMiner != null && Arrays.equals(address, poolMiner.getAddressHash())) {
+            return poolMiner;
+        }
+        return minerManager.getActivateMiners().computeIfAbsent(new ByteArrayWrapper(address), k -> {
+            Miner miner = new Miner(address);
+            miner.setMinerStates(MinerStates.MINER_ARCHIVE);
+            return miner;
+        });
+    }
+
+    @Override
+    public Collection<Miner> getMiners() {
+        List<Miner> list = new ArrayList<>(minerManager.getActivateMiners().values());
+        if (poolMiner != null) {
+            list.add(poolMiner);
+        }
+        return list;
+    }
+
+    @Override
+    public void onAwardBlock(long time, byte[] hash, byte[] share) {
+        int index = (int) ((time >> 16) & AWARD_EPOCH);
+        blockHashs.set(index, new ByteArrayWrapper(hash));
+        minShares.set(index, new ByteArrayWrapper(share));
     }
     private final BlockingQueue<AwardBlock> awardBlockBlockingQueue = new LinkedBlockingQueue<>();
     private Thread t;
@@ -110,6 +174,7 @@ public class AwardManagerImpl implements AwardManager, Runnable {
 
     @Override
     public void start() {
+        resumePayments();
         if (t == null) {
             t = new Thread(this, "AwardManagerImpl");
             t.start();
@@ -128,6 +193,7 @@ public class AwardManagerImpl implements AwardManager, Runnable {
             }
             t = null;
         }
+        signer.shutdown();
     }
 
 
@@ -139,6 +205,9 @@ public class AwardManagerImpl implements AwardManager, Runnable {
         awardBlock.share = share;
         awardBlock.hash = hash;
         awardBlock.generateTime = generateTime;
+        if (shareLedger != null) {
+            shareLedger.award(generateTime, hash, share);
+        }
         if (!awardBlockBlockingQueue.offer(awardBlock)) {
             log.error("Failed to add a awardBlock to the b queue!" );
         }
@@ -153,7 +222,6 @@ public class AwardManagerImpl implements AwardManager, Runnable {
         for (int i = 0; i < CONFIRMATIONS_COUNT; i++) {
             if ((temp = miner.getMaxDiffs(i)) > 0) {
                 sum += temp;
-                miner.setMaxDiffs(i, 0.0);
                 ++diffcount;
             }
         }
@@ -219,6 +287,8 @@ public class AwardManagerImpl implements AwardManager, Runnable {
     public void payAndaddNewAwardBlock(AwardBlock awardBlock) {
         log.debug("Pay miner");
         payMiners(awardBlock.generateTime);
+        // 提交本轮的支付，以及以前没有导入成功的支付
+        submitPayments();
         log.debug("set index:" + (int) ((awardBlock.generateTime >> 16) & AWARD_EPOCH));
         blockHashs.set((int) ((awardBlock.generateTime >> 16) & AWARD_EPOCH), new ByteArrayWrapper(awardBlock.hash));
         minShares.set((int) ((awardBlock.generateTime >> 16) & AWARD_EPOCH), new ByteArrayWrapper(awardBlock.share));
@@ -245,6 +315,7 @@ public class AwardManagerImpl implements AwardManager, Runnable {
      *            时间段
      * @return 错误代码   -1 没有矿工参与挖矿 不进行支付操作 -2 找不到对应的区块hash 或者 结果nonce -3 找不到对应的区块
      *                  -4区块余额不足，不是主块不进行支付 -5 余额分配失败 -6 找不到签名密钥 -7 难度太小 不予支付
+     *                  -8 支付区块签名失败，本轮的难度保留到下一次支付
      */
     public int payMiners(long time) {
         log.debug("=========== start  payMiners for time [{}]===========",time);
@@ -312,7 +383,7 @@ public class AwardManagerImpl implements AwardManager, Runnable {
         }
 
         // 计算矿池部分的收益
-        payData.poolFee = BigDecimalUtils.mul(payData.balance, poolRation);
+        payData.poolFee = (long) (payData.balance * poolRation);
         payData.unusedBalance = payData.balance - payData.poolFee;
 
         // 进行各部分奖励的计算
@@ -338,71 +409,75 @@ public class AwardManagerImpl implements AwardManager, Runnable {
 //        poolMiner.setPrevDiffSum(time, minerCounts);
 
         // 真正处理的数据是在这一块
-        // 这个函数会把每一个矿工的计算出来的diff 和prevdiff 都存在上面的列表
-        // prevDiffSum 是每一个矿工的本轮计算的难度 加上以前所有难度之和
-        // diffs 是本轮进行的计算
-
-        //同样开辟两个数组
-
-        diff = new ArrayList<>(minerCounts);
-        prev_diff = new ArrayList<>(minerCounts);
-        Collections.fill(diff, 0.0);
-        Collections.fill(prev_diff, 0.0);
+        // 一次遍历算出每个矿工本轮的diff和加上以前所有难度的prevDiff，存在下面的数组
         double prevDiffSum = precalculatePayments(nonce, index, payData);
 
         log.debug("after cal prevdiffSum为[{}]",prevDiffSum);
         if (prevDiffSum <= DBL) {
             log.debug("diff is too low");
+            recordPaid(index);
+            clearChannels(index);
             return -7;
         }
 
         // 通过precalculatePay后计算出的数据 进行计算
-        doPayments(hashlow, payminersPerBlock, payData, keyPos);
+        List<Block> blocks = doPayments(hashlow, payminersPerBlock, payData, keyPos);
+        if (blocks == null) {
+            return -8;
+        }
+        // 账本的清零先落盘再写支付日志，两者之间崩溃最多少付这一轮，不会重复支付
+        recordPaid(index);
+        journalPayments(hashlow, blocks);
+        clearChannels(index);
         log.debug("=========== end  payMiners for time [{}]===========",time);
         return 0;
     }
 
     private double precalculatePayments(byte[] nonce, int index, PayData payData) {
         log.debug("precalculatePayments........");
-        //这里缺少对矿池的计算
+        int minerCounts = miners.size();
+        diff = new double[minerCounts];
+        prevDiff = new double[minerCounts];
+        outdated = new boolean[minerCounts];
+        payments = new ArrayList<>();
         //现对矿池进行计算
-        payData.prevDiffSums = countpay(poolMiner,index,payData);
+        poolOutdated = isOutdated(poolMiner);
+        payData.prevDiffSums = countpay(poolMiner, index, poolOutdated);
+        payData.diffSums = currentPay;
 
         //遍历每一个矿工进行运行 获取到对应的数据
-        for (int i = 0; i < miners.size(); i++) {
+        for (int i = 0; i < minerCounts; i++) {
             Miner miner = miners.get(i);
-            prev_diff.add(i,countpay(miner, index, i));
+            outdated[i] = isOutdated(miner);
+            prevDiff[i] = countpay(miner, index, outdated[i]);
+            diff[i] = currentPay;
 
-            payData.diffSums += diff.get(i);
-            payData.prevDiffSums += prev_diff.get(i);
+            payData.diffSums += diff[i];
+            payData.prevDiffSums += prevDiff[i];
 
             if (payData.rewardMiner == null
                     && (FastByteComparisons.compareTo(nonce, 8, 24, miner.getAddressHash(), 8, 24) == 0)) {
-                payData.rewardMiner = new byte[32];
                 payData.rewardMiner = miner.getAddressHash();
                 // 有可以出块的矿工 分配矿工的奖励
-                payData.minerReward = BigDecimalUtils.mul(payData.balance, minerRewardRation);
+                payData.minerReward = (long) (payData.balance * minerRewardRation);
                 payData.unusedBalance -= payData.minerReward;
             }
         }
 
-        for (Map.Entry<InetSocketAddress, MinerChannel> entry : minerManager.getActivateMinerChannels().entrySet()){
-            MinerChannel channel = entry.getValue();
-            if (channel.getMaxDiffs(index) > 0 ) {
-                channel.addMaxDiffs(index, 0);
-            }
-            channel.setPrevDiff(0.0);
-            channel.setPrevDiffCounts(0);
-        }
-
         // 要进行参与奖励的支付
         if (payData.diffSums > 0) {
-            payData.directIncome = BigDecimalUtils.mul(payData.balance, directRation);
+            payData.directIncome = (long) (payData.balance * directRation);
             payData.unusedBalance -= payData.directIncome;
         }
         return payData.prevDiffSums;
     }
 
+    /** 矿工已归档并且超过十六个任务没有挖矿 */
+    private boolean isOutdated(Miner miner) {
+        return miner.getMinerStates() == MinerStates.MINER_ARCHIVE
+                && currentTaskIndex - miner.getTaskIndex() > 16;
+    }
+
     /**
      * 对矿工之前的挖矿的难度进行计算 主要是用于形成支付的权重
      *
@@ -410,69 +485,76 @@ public class AwardManagerImpl implements AwardManager, Runnable {
      *            矿工的结构体
      * @param index
      *            对应的要计算的难度编号
+     * @return 加上以前难度的权重，本轮的权重放在currentPay；只计算不清零，支付区块签名后由recordPaid清零
      */
-    private Double countpay(Miner miner, int index,int i) {
+    private double countpay(Miner miner, int index, boolean outdated) {
         double diffSum = 0.0;
         int diffCount = 0;
-        // 这里是如果矿工的
-        if (miner.getMinerStates() == MinerStates.MINER_ARCHIVE
-                &&
-                // c好过十六个时间戳没有进行计算
-                currentTaskIndex - miner.getTaskIndex() > 16) {
+        if (outdated) {
             // 这个主要是为了超过十六个快没有挖矿 所以要给他支付
             diffSum += processOutdatedMiner(miner);
             diffCount++;
         } else if (miner.getMaxDiffs(index) > 0) {
             diffSum += miner.getMaxDiffs(index);
-            miner.setMaxDiffs(index, 0.0);
             ++diffCount;
         }
-        diff.add(i, diffToPay(diffSum, diffCount));
+        currentPay = diffToPay(diffSum, diffCount);
         diffSum += miner.getPrevDiff();
         diffCount += miner.getPrevDiffCounts();
-
-        miner.setPrevDiff(0.0);
-        miner.setPrevDiffCounts(0);
-
         return diffToPay(diffSum, diffCount);
-
     }
 
-    private Double countpay(Miner miner, int index,PayData payData) {
-        double diffSum = 0.0;
-        int diffCount = 0;
-        // 这里是如果矿工的
-        if (miner.getMinerStates() == MinerStates.MINER_ARCHIVE
-                &&
-                // c好过十六个时间戳没有进行计算
-                currentTaskIndex - miner.getTaskIndex() > 16) {
-            // 这个主要是为了超过十六个快没有挖矿 所以要给他支付
-            diffSum += processOutdatedMiner(miner);
-            diffCount++;
-        } else if (miner.getMaxDiffs(index) > 0) {
-            diffSum += miner.getMaxDiffs(index);
-            miner.setMaxDiffs(index, 0.0);
-            ++diffCount;
+    /** 清零本轮计入支付的难度并写入账本，账本刷到磁盘后才能写支付日志 */
+    private void recordPaid(int index) {
+        clearPaid(poolMiner, index, poolOutdated);
+        for (int i = 0; i < miners.size(); i++) {
+            clearPaid(miners.get(i), index, outdated[i]);
+        }
+        if (shareLedger == null) {
+            return;
         }
+        shareLedger.paid(index, poolMiner.getAddressHash(), poolOutdated);
+        for (int i = 0; i < miners.size(); i++) {
+            shareLedger.paid(index, miners.get(i).getAddressHash(), outdated[i]);
+        }
+        shareLedger.force();
+    }
 
-        payData.diffSums = diffToPay(diffSum, diffCount);
-        diffSum += miner.getPrevDiff();
-        diffCount += miner.getPrevDiffCounts();
+    /** 支付写入日志后才清零连接上的难度，签名失败时保留到下一次支付 */
+    private void clearChannels(int index) {
+        for (Map.Entry<InetSocketAddress, MinerChannel> entry : minerManager.getActivateMinerChannels().entrySet()){
+            MinerChannel channel = entry.getValue();
+            if (channel.getMaxDiffs(index) > 0 ) {
+                channel.setMaxDiffs(index, 0);
+            }
+            channel.setPrevDiff(0.0);
+            channel.setPrevDiffCounts(0);
+        }
+    }
 
+    /** 与账本回放PAID记录的处理一致 */
+    private static void clearPaid(Miner miner, int index, boolean outdated) {
+        if (outdated) {
+            for (int i = 0; i < CONFIRMATIONS_COUNT; i++) {
+                miner.setMaxDiffs(i, 0.0);
+            }
+        } else {
+            miner.setMaxDiffs(index, 0.0);
+        }
         miner.setPrevDiff(0.0);
         miner.setPrevDiffCounts(0);
-
-        return diffToPay(diffSum, diffCount);
-
     }
 
-    public void doPayments(byte[] hash, int paymentsPerBlock, PayData payData, int keyPos) {
+    /**
+     * 按权重分配余额，分组后依次创建支付区块，再并行签名
+     *
+     * @return 签名后的支付区块，签名失败返回null
+     */
+    public List<Block> doPayments(byte[] hash, int paymentsPerBlock, PayData payData, int keyPos) {
         log.debug("Do payment");
-        ArrayList<Address> receipt = new ArrayList<>(paymentsPerBlock - 1);
-        Map<Address, ECKeyPair> inputMap = new HashMap<>();
-        Address input = new Address(hash, XDAG_FIELD_IN);
-        ECKeyPair inputKey = xdagWallet.getKeyByIndex(keyPos);
-        inputMap.put(input, inputKey);
+        List<List<Address>> receipts = new ArrayList<>();
+        List<Long> amounts = new ArrayList<>();
+        ArrayList<Address> receipt = new ArrayList<>(paymentsPerBlock);
         long payAmount = 0L;
         /**
          * 基金会和转账矿池部分代码 暂时不用 //先支付给基金会 long fundpay =
@@ -490,59 +572,78 @@ public class AwardManagerImpl implements AwardManager, Runnable {
          * += payData.poolFee;
          */
         // 不断循环 支付给矿工
-        //// TODO: 2021/4/19  打印矿工的数据
         for (int i = 0; i < miners.size(); i++) {
             Miner miner = miners.get(i);
-            log.debug("Do payments for every miner,miner address = [{}]",Hex.toHexString(miner.getAddressHash()));
             // 保存的是一个矿工所有的收入
             long paymentSum = 0L;
             // 根据历史记录分发奖励
             if (payData.prevDiffSums > 0) {
-                double per = BigDecimalUtils.div(prev_diff.get(i), payData.prevDiffSums);
-                // paymentSum += (long)payData.unusedBalance * per;
-                paymentSum += BigDecimalUtils.mul(payData.unusedBalance, per);
+                paymentSum += (long) (payData.unusedBalance * (prevDiff[i] / payData.prevDiffSums));
             }
             // 计算当前这一轮
             if (payData.diffSums > 0) {
-                double per = BigDecimalUtils.div(diff.get(i), payData.diffSums);
-                // paymentSum += (long)payData.directIncome * per;
-                paymentSum += BigDecimalUtils.mul(payData.directIncome, per);
+                paymentSum += (long) (payData.directIncome * (diff[i] / payData.diffSums));
             }
             if (payData.rewardMiner != null
                     && FastByteComparisons.compareTo(payData.rewardMiner, 8, 24, miner.getAddressHash(), 8, 24) == 0) {
                 paymentSum += payData.minerReward;
             }
-            if (paymentSum < 0.000000001) {
+            if (paymentSum <= 0) {
                 continue;
             }
+            log.debug("Pay miner [{}] amount [{}]", Hex.toHexString(miner.getAddressHash()), paymentSum);
             payAmount += paymentSum;
             receipt.add(new Address(miner.getAddressHaashLow(), XDAG_FIELD_OUT, paymentSum));
             if (receipt.size() == paymentsPerBlock) {
-
-                transaction(hash, receipt, payAmount, keyPos);
+                receipts.add(receipt);
+                amounts.add(payAmount);
+                receipt = new ArrayList<>(paymentsPerBlock);
                 payAmount = 0L;
-                receipt.clear();
             }
         }
 
         if (receipt.size() > 0) {
-            transaction(hash, receipt, payAmount, keyPos);
-            payAmount = 0L;
-            receipt.clear();
+            receipts.add(receipt);
+            amounts.add(payAmount);
+        }
+        if (receipts.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // createNewBlock读取链和孤块池，只能在本线程上依次创建，签名交给签名线程
+        ECKeyPair inputKey = xdagWallet.getKeyByIndex(keyPos);
+        List<Future<Block>> futures = new ArrayList<>(receipts.size());
+        for (int i = 0; i < receipts.size(); i++) {
+            Block block = transaction(hash, receipts.get(i), amounts.get(i), inputKey);
+            futures.add(signer.submit(() -> sign(block, inputKey)));
         }
+        List<Block> blocks = new ArrayList<>(futures.size());
+        try {
+            for (Future<Block> future : futures) {
+                blocks.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while signing payments for {}", Hex.toHexString(hash));
+            return null;
+        } catch (ExecutionException e) {
+            log.error("Sign payments for {} fail: {}", Hex.toHexString(hash), e.getCause().getMessage(), e.getCause());
+            return null;
+        }
+        return blocks;
     }
 
-    public void transaction(byte[] hashLow, ArrayList<Address> receipt, long payAmount, int keypos) {
+    /** 创建一个未签名的支付区块 */
+    public Block transaction(byte[] hashLow, List<Address> receipt, long payAmount, ECKeyPair inputKey) {
         log.debug("All Payment: {}", payAmount);
-        log.debug("unlock keypos =[{}]",keypos);
-        for (Address address : receipt) {
-            log.debug("pay data: {}", Hex.toHexString(address.getData()));
-        }
         Map<Address, ECKeyPair> inputMap = new HashMap<>();
         Address input = new Address(hashLow, XDAG_FIELD_IN, payAmount);
-        ECKeyPair inputKey = xdagWallet.getKeyByIndex(keypos);
         inputMap.put(input, inputKey);
-        Block block = blockchain.createNewBlock(inputMap, receipt, false, null);
+        return blockchain.createNewBlock(inputMap, receipt, false, null);
+    }
+
+    /** 签名支付区块，在签名线程上执行 */
+    private Block sign(Block block, ECKeyPair inputKey) {
         if (inputKey.equals(xdagWallet.getDefKey().ecKey)) {
             block.signOut(inputKey);
         } else {
@@ -550,10 +651,107 @@ public class AwardManagerImpl implements AwardManager, Runnable {
             block.signOut(xdagWallet.getDefKey().ecKey);
         }
         log.debug("pay block hash【{}】", Hex.toHexString(block.getHash()));
+        return block;
+    }
+
+    /** 写入支付日志，日志写入失败时直接提交 */
+    private void journalPayments(byte[] hashlow, List<Block> blocks) {
+        if (blocks.isEmpty()) {
+            return;
+        }
+        if (payoutJournal != null) {
+            try {
+                payoutJournal.begin(hashlow, blocks);
+                return;
+            } catch (IOException e) {
+                log.error("Write payout journal fail, payment will not resume after crash: {}", e.getMessage(), e);
+            }
+        }
+        payments = blocks;
+    }
+
+    /**
+     * 提交支付区块，日志中的支付全部导入或已存在后才标记完成；
+     * 被拒绝或重试MAX_PAYOUT_RETRIES轮仍失败的移入死信，其余等下一轮重试
+     */
+    private void submitPayments() {
+        if (!payments.isEmpty()) {
+            submit(payments);
+            payments = new ArrayList<>();
+        }
+        if (payoutJournal == null || !kernel.getSyncMgr().isSyncDone()) {
+            return;
+        }
+        for (Map.Entry<ByteArrayWrapper, List<byte[]>> entry : payoutJournal.getPendingBatches().entrySet()) {
+            ByteArrayWrapper key = entry.getKey();
+            List<Block> blocks = new ArrayList<>(entry.getValue().size());
+            for (byte[] data : entry.getValue()) {
+                blocks.add(new Block(new XdagBlock(data)));
+            }
+            List<ImportResult> results = submit(blocks);
+            try {
+                if (isImported(results)) {
+                    payoutRetries.remove(key);
+                    payoutJournal.done(key.getData());
+                    continue;
+                }
+                int retries = payoutRetries.merge(key, 1, Integer::sum);
+                if (!isRejected(results) && retries < MAX_PAYOUT_RETRIES) {
+                    log.warn("Payment for {} not imported: {}, retry next round",
+                            Hex.toHexString(key.getData()), results);
+                    continue;
+                }
+                log.error("Payment for {} not imported after {} rounds: {}, move to dead letter",
+                        Hex.toHexString(key.getData()), retries, results);
+                payoutRetries.remove(key);
+                payoutJournal.dead(key.getData());
+            } catch (IOException e) {
+                log.error("Mark payout journal fail: {}", e.getMessage(), e);
+            }
+        }
+    }
 
-        // todo 需要验证还是直接connect
-        kernel.getSyncMgr().validateAndAddNewBlock(new BlockWrapper(block, 5));
-        // kernel.getBlockchain().tryToConnect(block);
+    private static boolean isImported(List<ImportResult> results) {
+        for (ImportResult result : results) {
+            if (result != ImportResult.IMPORTED_BEST && result != ImportResult.IMPORTED_NOT_BEST
+                    && result != ImportResult.EXIST) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** 区块本身无效或引用的主块不存在，重试也不会导入 */
+    private static boolean isRejected(List<ImportResult> results) {
+        for (ImportResult result : results) {
+            if (result == ImportResult.INVALID_BLOCK || result == ImportResult.NO_PARENT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<ImportResult> submit(List<Block> blocks) {
+        List<BlockWrapper> wrappers = new ArrayList<>(blocks.size());
+        for (Block block : blocks) {
+            wrappers.add(new BlockWrapper(block, 5));
+        }
+        return kernel.getSyncMgr().validateAndAddNewBlocks(wrappers);
+    }
+
+    /** 打开支付日志，上次没有完成的支付在同步完成后的下一轮支付时重新提交 */
+    private void resumePayments() {
+        if (payoutJournal == null) {
+            return;
+        }
+        try {
+            List<byte[]> pending = payoutJournal.open();
+            if (!pending.isEmpty()) {
+                log.info("{} payment blocks in payout journal, resubmit after sync", pending.size());
+            }
+        } catch (IOException e) {
+            log.error("Open payout journal fail, unfinished payments will not resume: {}", e.getMessage(), e);
+        }
     }
 
     /** 内部类 用于计算支付数据 */
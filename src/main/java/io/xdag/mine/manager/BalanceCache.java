@@ -0,0 +1,108 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.manager;
+
+import io.xdag.core.Block;
+import io.xdag.db.store.BlockStore;
+import io.xdag.listener.Listener;
+import io.xdag.listener.Message;
+import io.xdag.utils.ByteArrayWrapper;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 矿工账户余额的缓存
+ *
+ * 只缓存有活跃连接的账户，区块链的acceptAmount修改账户区块的余额时使对应条目失效，
+ * 下一轮推送时才重新读取数据库。
+ */
+public class BalanceCache implements Listener {
+
+    private static class Entry {
+        /** 读取数据库前置为true，读取期间被置为false的下一轮重新读取 */
+        volatile boolean valid;
+        volatile Long amount;
+    }
+
+    private final BlockStore blockStore;
+    private final Map<ByteArrayWrapper, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+
+    public BalanceCache(BlockStore blockStore) {
+        this.blockStore = blockStore;
+    }
+
+    /** 余额变化的通知，消息内容为账户区块的hashlow，在区块链锁内调用 */
+    @Override
+    public void onMessage(Message message) {
+        Entry entry = entries.get(new ByteArrayWrapper(message.getData()));
+        if (entry != null) {
+            entry.valid = false;
+        }
+    }
+
+    /** @return 账户区块的余额，区块不存在时返回null */
+    public Long get(ByteArrayWrapper hashlow) {
+        Entry entry = entries.computeIfAbsent(hashlow, k -> new Entry());
+        if (entry.valid) {
+            hits.incrementAndGet();
+            return entry.amount;
+        }
+        entry.valid = true;
+        reads.incrementAndGet();
+        Block block = blockStore.getBlockByHash(hashlow.getData(), false);
+        entry.amount = block == null ? null : block.getInfo().getAmount();
+        if (block == null) {
+            // 区块可能稍后才保存，下一轮再读
+            entry.valid = false;
+        }
+        return entry.amount;
+    }
+
+    /** 移除没有活跃连接的账户 */
+    public void retain(Set<ByteArrayWrapper> accounts) {
+        entries.keySet().retainAll(accounts);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getReads() {
+        return reads.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("balance cache: %d accounts, %d hits, %d reads", size(), getHits(), getReads());
+    }
+}
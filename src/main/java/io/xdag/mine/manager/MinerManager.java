@@ -29,6 +29,7 @@ import io.xdag.mine.MinerChannel;
 import io.xdag.mine.miner.Miner;
 import io.xdag.net.message.Message;
 import io.xdag.utils.ByteArrayWrapper;
+import io.xdag.utils.LatencyHistogram;
 import java.net.InetSocketAddress;
 import java.util.Map;
 
@@ -56,4 +57,9 @@ public interface MinerManager {
     void updateTask(Task task);
 
     void addActiveMiner(Miner miner);
+
+    /** 任务创建到最后一个矿工写出的延迟 */
+    LatencyHistogram getTaskBroadcastLatency();
+
+    BalanceCache getBalanceCache();
 }
@@ -23,6 +23,7 @@
  */
 package io.xdag.mine.manager;
 
+import io.netty.channel.EventLoop;
 import io.xdag.Kernel;
 import io.xdag.consensus.PoW;
 import io.xdag.consensus.Task;
@@ -31,14 +32,21 @@ import io.xdag.mine.miner.Miner;
 import io.xdag.mine.miner.MinerStates;
 import io.xdag.net.message.Message;
 import io.xdag.utils.ByteArrayWrapper;
+import io.xdag.utils.BytesUtils;
+import io.xdag.utils.LatencyHistogram;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.bouncycastle.util.encoders.Hex;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 public class MinerManagerImpl implements MinerManager, Runnable {
@@ -48,7 +56,10 @@ public class MinerManagerImpl implements MinerManager, Runnable {
     /** 根据miner的地址保存的数组 activate 代表的是一个已经注册的矿工 */
     protected Map<ByteArrayWrapper, Miner> activateMiners = new ConcurrentHashMap<>(200);
 
-    private Task currentTask;
+    private volatile Task currentTask;
+
+    /** 任务创建到最后一个事件循环flush完成 */
+    private final LatencyHistogram taskBroadcastLatency = new LatencyHistogram("task created->last miner written");
 
     /**
      * 存放任务的阻塞队列
@@ -69,8 +80,12 @@ public class MinerManagerImpl implements MinerManager, Runnable {
     private ScheduledFuture<?> cleanChannelFuture;
     private ScheduledFuture<?> cleanMinerFuture;
 
+    /** 矿工账户的余额，由区块链的余额变化通知失效 */
+    private final BalanceCache balanceCache;
+
     public MinerManagerImpl(Kernel kernel) {
         this.kernel = kernel;
+        this.balanceCache = new BalanceCache(kernel.getBlockStore());
     }
 
 
@@ -120,17 +135,34 @@ public class MinerManagerImpl implements MinerManager, Runnable {
     /** 启动 函数 开启遍历和server */
     public void init() {
         log.debug("start futulre");
+        kernel.getBlockchain().registerAmountListener(balanceCache);
         updateFuture = server.scheduleAtFixedRate(this::updataBalance, 10, 10, TimeUnit.SECONDS);
         cleanChannelFuture = server.scheduleAtFixedRate(this::cleanUnactivateChannel, 64, 32, TimeUnit.SECONDS);
         cleanMinerFuture = server.scheduleAtFixedRate(this::cleanUnactivateMiner, 64, 32, TimeUnit.SECONDS);
     }
 
+    /** 按账户分组推送余额，每个账户只查一次缓存，余额没有变化的通道不发送 */
     private void updataBalance() {
         try {
+            Map<ByteArrayWrapper, List<MinerChannel>> accounts = new HashMap<>();
             for (MinerChannel channel : activateMinerChannels.values()) {
-                if (channel.isActive()) {
+                if (channel.isActive() && channel.getAccountAddressHash() != null) {
+                    accounts.computeIfAbsent(new ByteArrayWrapper(channel.getAccountHashLow()), k -> new ArrayList<>())
+                            .add(channel);
+                }
+            }
+            balanceCache.retain(accounts.keySet());
+            for (Map.Entry<ByteArrayWrapper, List<MinerChannel>> entry : accounts.entrySet()) {
+                Long amount = balanceCache.get(entry.getKey());
+                if (amount == null) {
+                    log.debug("Can't found block,{}", Hex.toHexString(entry.getKey().getData()));
+                    continue;
+                }
+                byte[] data = BytesUtils.merge(BytesUtils.longToBytes(amount, false),
+                        BytesUtils.subArray(entry.getKey().getData(), 8, 24));
+                for (MinerChannel channel : entry.getValue()) {
                     //log.debug("给channel发送余额");
-                    channel.sendBalance();
+                    channel.sendBalance(data);
                 }
             }
         } catch (Exception e) {
@@ -139,6 +171,11 @@ public class MinerManagerImpl implements MinerManager, Runnable {
         }
     }
 
+    @Override
+    public BalanceCache getBalanceCache() {
+        return balanceCache;
+    }
+
     @Override
     public void addActivateChannel(MinerChannel channel) {
         log.debug("add a new active channel");
@@ -216,16 +253,52 @@ public class MinerManagerImpl implements MinerManager, Runnable {
         activateMiners.put(new ByteArrayWrapper(miner.getAddressHash()), miner);
     }
 
-    /** 每一轮任务刚发出去的时候 会用这个跟新所有miner的额情况 */
+    /**
+     * 每一轮任务刚发出去的时候 会用这个跟新所有miner的额情况
+     *
+     * 明文任务只拼接一次，按通道所属的事件循环分组，每组在自己的事件循环上逐个写入并加密，
+     * 最后统一flush，各事件循环并行下发
+     */
     public void updateNewTaskandBroadcast() {
+        Task task = currentTask;
+        byte[] data = BytesUtils.merge(task.getTask()[0].getData(), task.getTask()[1].getData());
+        Map<EventLoop, List<MinerChannel>> groups = new IdentityHashMap<>();
         for (MinerChannel channel : activateMinerChannels.values()) {
-            if (channel.isActive()) {
-
-                channel.setTaskIndex(currentTask.getTaskIndex());
-                channel.sendTaskToMiner(currentTask.getTask());
-                channel.setSharesCounts(0);
+            EventLoop loop = channel.eventLoop();
+            if (channel.isActive() && loop != null) {
+                groups.computeIfAbsent(loop, k -> new ArrayList<>()).add(channel);
             }
         }
+        if (groups.isEmpty()) {
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger(groups.size());
+        for (Map.Entry<EventLoop, List<MinerChannel>> entry : groups.entrySet()) {
+            List<MinerChannel> channels = entry.getValue();
+            entry.getKey().execute(() -> {
+                try {
+                    for (MinerChannel channel : channels) {
+                        channel.setTaskIndex(task.getTaskIndex());
+                        channel.writeTask(data);
+                        channel.setSharesCounts(0);
+                    }
+                    for (MinerChannel channel : channels) {
+                        channel.flush();
+                    }
+                } catch (Exception e) {
+                    log.warn("Broadcast task fail: {}", e.getMessage(), e);
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        taskBroadcastLatency.recordSince(task.getCreateNanos());
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public LatencyHistogram getTaskBroadcastLatency() {
+        return taskBroadcastLatency;
     }
 
     @Override
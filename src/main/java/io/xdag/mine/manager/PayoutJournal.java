@@ -0,0 +1,200 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.manager;
+
+import io.xdag.core.Block;
+import io.xdag.utils.ByteArrayWrapper;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 支付日志，支付区块签名后、提交前写入，重启后重新提交没有完成的支付
+ *
+ * 追加文件，BATCH记录：类型、主块hashlow、区块数、每个区块512字节；DONE记录：类型、主块hashlow。
+ * 签名后的区块字节不变，重新提交已经导入的区块只会返回EXIST，不会重复支付。
+ * 一次支付的区块全部导入或已存在后才标记完成，所有支付都完成后清空文件。
+ * 被拒绝或多次重试仍不能导入的支付按BATCH格式追加到.dead文件留待人工处理，再标记完成。
+ */
+@Slf4j
+public class PayoutJournal {
+
+    static final int BLOCK_SIZE = 512;
+    private static final byte BATCH = 1;
+    private static final byte DONE = 2;
+    private static final int HASH_SIZE = 32;
+
+    private final Path file;
+    private final Path deadFile;
+    private FileChannel channel;
+    /** 未完成的支付，主块hashlow -> 区块数据 */
+    private final Map<ByteArrayWrapper, List<byte[]>> pending = new LinkedHashMap<>();
+
+    public PayoutJournal(Path file) {
+        this.file = file;
+        this.deadFile = file.resolveSibling(file.getFileName() + ".dead");
+    }
+
+    /** 打开日志，返回上次没有完成的支付区块 */
+    public synchronized List<byte[]> open() throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, buf.position()) < 0) {
+                break;
+            }
+        }
+        buf.flip();
+        long valid = replay(buf);
+        if (valid < channel.size()) {
+            log.warn("Payout journal truncated at {}, drop {} bytes", valid, channel.size() - valid);
+            channel.truncate(valid);
+        }
+        channel.position(valid);
+        List<byte[]> blocks = new ArrayList<>();
+        for (List<byte[]> batch : pending.values()) {
+            blocks.addAll(batch);
+        }
+        return blocks;
+    }
+
+    /** 回放记录，返回最后一条完整记录的结束位置 */
+    private long replay(ByteBuffer buf) {
+        while (buf.remaining() >= 1 + HASH_SIZE) {
+            int start = buf.position();
+            byte type = buf.get();
+            byte[] hashlow = new byte[HASH_SIZE];
+            buf.get(hashlow);
+            if (type == DONE) {
+                pending.remove(new ByteArrayWrapper(hashlow));
+                continue;
+            }
+            if (type != BATCH || buf.remaining() < 4) {
+                return start;
+            }
+            int count = buf.getInt();
+            if (count < 0 || buf.remaining() < (long) count * BLOCK_SIZE) {
+                return start;
+            }
+            List<byte[]> blocks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] data = new byte[BLOCK_SIZE];
+                buf.get(data);
+                blocks.add(data);
+            }
+            pending.put(new ByteArrayWrapper(hashlow), blocks);
+        }
+        return buf.position();
+    }
+
+    /** 写入一次支付的全部区块并刷到磁盘，之后才能提交 */
+    public synchronized void begin(byte[] hashlow, List<Block> blocks) throws IOException {
+        List<byte[]> data = new ArrayList<>(blocks.size());
+        for (Block block : blocks) {
+            data.add(block.toBytes());
+        }
+        write(batch(hashlow, data));
+        channel.force(false);
+        pending.put(new ByteArrayWrapper(hashlow), data);
+    }
+
+    /** 不能导入的支付写入死信文件，再从日志中标记完成 */
+    public synchronized void dead(byte[] hashlow) throws IOException {
+        List<byte[]> data = pending.get(new ByteArrayWrapper(hashlow));
+        if (data == null) {
+            return;
+        }
+        ByteBuffer buf = batch(hashlow, data);
+        try (FileChannel dead = FileChannel.open(deadFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            while (buf.hasRemaining()) {
+                dead.write(buf);
+            }
+            dead.force(false);
+        }
+        done(hashlow);
+    }
+
+    private static ByteBuffer batch(byte[] hashlow, List<byte[]> data) {
+        ByteBuffer buf = ByteBuffer.allocate(1 + HASH_SIZE + 4 + data.size() * BLOCK_SIZE);
+        buf.put(BATCH).put(hashlow).putInt(data.size());
+        for (byte[] bytes : data) {
+            buf.put(bytes);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /** 支付区块已经全部提交 */
+    public synchronized void done(byte[] hashlow) throws IOException {
+        pending.remove(new ByteArrayWrapper(hashlow));
+        if (pending.isEmpty()) {
+            channel.truncate(0);
+            channel.position(0);
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(1 + HASH_SIZE);
+        buf.put(DONE).put(hashlow);
+        buf.flip();
+        write(buf);
+    }
+
+    /** 未完成的支付，主块hashlow -> 区块数据 */
+    public synchronized Map<ByteArrayWrapper, List<byte[]>> getPendingBatches() {
+        return new LinkedHashMap<>(pending);
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("Close payout journal fail: {}", e.getMessage(), e);
+        }
+        channel = null;
+    }
+}
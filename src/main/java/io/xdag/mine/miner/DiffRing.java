@@ -0,0 +1,70 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.miner;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 每个区块周期的最大难度，16个位置循环使用
+ *
+ * 以double的位保存在AtomicLongArray中，更新不分配对象，取最大值用CAS完成。
+ */
+public class DiffRing {
+
+    public static final int SIZE = 16;
+
+    private final AtomicLongArray slots = new AtomicLongArray(SIZE);
+
+    public double get(int index) {
+        return Double.longBitsToDouble(slots.get(index));
+    }
+
+    public void set(int index, double diff) {
+        slots.set(index, Double.doubleToRawLongBits(diff));
+    }
+
+    /** diff大于当前值时更新，返回是否更新 */
+    public boolean max(int index, double diff) {
+        long bits = Double.doubleToRawLongBits(diff);
+        while (true) {
+            long current = slots.get(index);
+            if (diff <= Double.longBitsToDouble(current)) {
+                return false;
+            }
+            if (slots.compareAndSet(index, current, bits)) {
+                return true;
+            }
+        }
+    }
+
+    /** 所有位置都没有难度 */
+    public boolean isEmpty() {
+        for (int i = 0; i < SIZE; i++) {
+            if (get(i) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -27,10 +27,8 @@ import java.net.InetSocketAddress;
 import java.sql.Time;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 import io.xdag.mine.MinerChannel;
 import io.xdag.utils.BytesUtils;
@@ -62,7 +60,7 @@ public class Miner {
     /** 记录prevDiff的次数 实际上类似于进行了多少次计算 */
     private int prevDiffCounts;
     /** 存放的是连续16个任务本地计算的最大难度 每一轮放的都是最小hash 计算出来的diffs */
-    private final List<Double> maxDiffs = new CopyOnWriteArrayList<>();
+    private final DiffRing maxDiffs = new DiffRing();
     /** 记录这个矿工的状态 */
     private MinerStates minerStates;
     /** 类似于id 也是保存的nonce +hasholow的值 */
@@ -74,6 +72,10 @@ public class Miner {
     /** 将hash转换后的难度 可以认为是算力 */
     private double meanLogDiff;
     private Date registeredTime;
+    /** 矿工的share和算力时间序列，由MinerStatsStore设置 */
+    @Getter
+    @Setter
+    private volatile StatsSeries stats;
     /** 保存的是这个矿工对应的channel */
     private final Map<InetSocketAddress, MinerChannel> channels = new ConcurrentHashMap<>();
 
@@ -91,10 +93,6 @@ public class Miner {
         this.meanLogDiff = 0.0;
         this.registeredTime = Calendar.getInstance().getTime();
         boundedTaskCounter = 0;
-        // 容器的初始化
-        for (int i = 0; i < 16; i++) {
-            maxDiffs.add(0.0);
-        }
     }
 
     public byte[] getAddressHash() {
@@ -130,12 +128,7 @@ public class Miner {
      * */
     public boolean canRemove() {
         if (minerStates == MinerStates.MINER_ARCHIVE && connChannelCounts.get() == 0) {
-            for (Double maxDiff : maxDiffs) {
-                if (maxDiff.compareTo((double) 0) > 0) {
-                    return false;
-                }
-            }
-            return true;
+            return maxDiffs.isEmpty();
         } else {
             return false;
         }
@@ -165,6 +158,11 @@ public class Miner {
         maxDiffs.set(index, diff);
     }
 
+    /** diff大于当前值时更新，返回是否更新 */
+    public boolean updateMaxDiffs(int index, double diff) {
+        return maxDiffs.max(index, diff);
+    }
+
     public double getPrevDiff() {
         return prevDiff;
     }
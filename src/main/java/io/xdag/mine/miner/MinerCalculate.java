@@ -27,7 +27,6 @@ import io.xdag.config.Constants;
 import io.xdag.consensus.Task;
 import io.xdag.mine.MinerChannel;
 import io.xdag.utils.BasicUtils;
-import io.xdag.utils.BigDecimalUtils;
 import io.xdag.utils.BytesUtils;
 import io.xdag.utils.FormatDateUtils;
 import lombok.extern.slf4j.Slf4j;
@@ -80,7 +79,7 @@ public class MinerCalculate {
         int count = miner.getPrevDiffCounts();
         for (int i = 0; i < CONFIRMATIONS_COUNT; i++) {
             if (miner.getMaxDiffs(i) > 0) {
-                sum = BigDecimalUtils.add(sum, miner.getMaxDiffs(i));
+                sum += miner.getMaxDiffs(i);
             }
             ++count;
         }
@@ -92,7 +91,7 @@ public class MinerCalculate {
         int count = channel.getPrevDiffCounts();
         for (int i = 0; i < CONFIRMATIONS_COUNT; i++) {
             if (channel.getMaxDiffs(i) > 0) {
-                sum = BigDecimalUtils.add(sum, channel.getMaxDiffs(i));
+                sum += channel.getMaxDiffs(i);
                 ++count;
             }
         }
@@ -141,16 +140,35 @@ public class MinerCalculate {
                     .append(String.format("%.6f", rate))
                     .append("   ")
                     .append(channel.isMill() ? "RandomXMiner" : "xdagClient")
+                    .append("   ")
+                    .append("target: ")
+                    .append(String.format("%.2f", channel.getVarDiff().getTarget()))
                     .append("\n");
             res.append(channelStr);
         }
         return res.toString();
     }
 
+    /**
+     * share的难度，取hash高128位的对数，hash越小难度越大；奖励按每个任务的最大难度计算，
+     * vardiff的目标也使用这个难度
+     */
+    public static double shareDiff(byte[] hash) {
+        double diff = BytesUtils.hexBytesToDouble(hash, 8, false);
+        diff *= Math.pow(2, -64);
+        diff += BytesUtils.hexBytesToDouble(hash, 0, false);
+        if (diff < 1) {
+            diff = 1;
+        }
+        return 46 - Math.log(diff);
+    }
+
     /**
      * 根据一个矿工计算的hash 为他计算一个难度
+     *
+     * @return 矿工在该任务的最大难度是否更新
      */
-    public static void calculateNopaidShares(
+    public static boolean calculateNopaidShares(
             MinerChannel channel, byte[] hash, long currentTaskTime) {
         Miner miner = channel.getMiner();
         double diff = 0.0;
@@ -163,14 +181,7 @@ public class MinerCalculate {
             // 获取到位置 myron
             int i = (int) (((currentTaskTime >> 16) + 1) & AWARD_EPOCH);
             // int i = (int) (((currentTaskTime>> 16) +1 ) & 7);
-            diff = BytesUtils.hexBytesToDouble(hash, 8, false);
-            diff *= Math.pow(2, -64);
-            diff += BytesUtils.hexBytesToDouble(hash, 0, false);
-
-            if (diff < 1) {
-                diff = 1;
-            }
-            diff = 46 - Math.log(diff);
+            diff = shareDiff(hash);
             log.debug("address [{}] calculateNopaidShares, 最新难度的diff为[{}]",
                     Hex.toHexString(channel.getAccountAddressHash())  , diff);
             if (channelTaskTime < currentTaskTime) {
@@ -183,32 +194,41 @@ public class MinerCalculate {
                     channel.addPrevDiff(maxDiff);
                     channel.addPrevDiffCounts();
                 }
-                channel.addMaxDiffs(i, diff);
-            } else if (diff > channel.getMaxDiffs(i)) {
+                channel.setMaxDiffs(i, diff);
+            } else if (channel.updateMaxDiffs(i, diff)) {
                 log.debug("address [{}] calculateNopaidShares,channel获取到的maxdiff[{}] = [{}]",
                         Hex.toHexString(channel.getAccountAddressHash()),i,diff);
-                channel.addMaxDiffs(i, diff);
             }
             // 给对应的矿工设置
-            if (minerTaskTime < currentTaskTime) {
-                miner.setTaskTime(currentTaskTime);
-                double maxDiff = miner.getMaxDiffs(i);
-                log.debug("calculateNopaidShares, channel获取到的maxdiff[{}] = [{}]",i,maxDiff);
-                if (maxDiff > 0) {
-                    miner.addPrevDiff(maxDiff);
-                    miner.addPrevDiffCounts();
-                }
-                miner.setMaxDiffs(i, diff);
-            } else if (diff > miner.getMaxDiffs(i)) {
-                miner.setMaxDiffs(i, diff);
+            return updateMinerDiff(miner, currentTaskTime, diff);
+        }
+        return false;
+    }
+
+    /**
+     * 更新矿工在任务中的最大难度，切换任务时把该位置未支付的难度移入prevDiff
+     *
+     * @return 最大难度是否更新，更新时需要写入账本
+     */
+    public static boolean updateMinerDiff(Miner miner, long taskTime, double diff) {
+        int i = (int) (((taskTime >> 16) + 1) & AWARD_EPOCH);
+        if (miner.getTaskTime() < taskTime) {
+            miner.setTaskTime(taskTime);
+            double maxDiff = miner.getMaxDiffs(i);
+            log.debug("calculateNopaidShares, channel获取到的maxdiff[{}] = [{}]",i,maxDiff);
+            if (maxDiff > 0) {
+                miner.addPrevDiff(maxDiff);
+                miner.addPrevDiffCounts();
             }
+            miner.setMaxDiffs(i, diff);
+            return true;
         }
+        return miner.updateMaxDiffs(i, diff);
     }
 
     public static double welfordOnePass(double mean, double sample, int nsamples) {
         if (nsamples > 0) {
-            double temp = BigDecimalUtils.div(BigDecimalUtils.sub(sample, mean), nsamples);
-            mean = BigDecimalUtils.add(mean, temp);
+            mean += (sample - mean) / nsamples;
         }
         return mean;
     }
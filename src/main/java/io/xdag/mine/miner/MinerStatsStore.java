@@ -0,0 +1,195 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.miner;
+
+import io.xdag.db.KVSource;
+import io.xdag.mine.MinerChannel;
+import io.xdag.utils.ByteArrayWrapper;
+import io.xdag.utils.BytesUtils;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+/**
+ * 矿工share和算力的时间序列，在share校验线程上更新，定期写入RocksDB
+ *
+ * 矿工的序列按hashlow加块号保存，矿工对象上缓存引用，每个share不需要查表；通道的序列只在内存中。
+ * 矿池的序列按线程分段，校验线程之间不竞争同一个锁。
+ * 只写入有更新的块，30天没有更新的矿工被清除，缓存的引用在下一个share时重新查表。
+ */
+@Slf4j
+public class MinerStatsStore {
+
+    private static final byte MINER_PREFIX = 0x01;
+    private static final byte[] POOL_KEY = {0x02};
+    private static final long CHECKPOINT_MINUTES = 10;
+    private static final long EXPIRE = 30 * 24 * StatsSeries.HOUR;
+    /** 前缀、hashlow和块号 */
+    private static final int KEY_SIZE = 1 + 32 + 1;
+
+    private final KVSource<byte[], byte[]> source;
+    private final Map<ByteArrayWrapper, StatsSeries> miners = new ConcurrentHashMap<>();
+    /** 整个矿池的序列，查询汇总时不需要遍历矿工 */
+    private final PoolStatsSeries pool = new PoolStatsSeries();
+    private final ScheduledExecutorService checkpointer = new ScheduledThreadPoolExecutor(1,
+            new BasicThreadFactory.Builder()
+                    .namingPattern("MinerStatsCheckpoint")
+                    .daemon(true)
+                    .build());
+    private ScheduledFuture<?> checkpointFuture;
+
+    public MinerStatsStore(KVSource<byte[], byte[]> source) {
+        this.source = source;
+    }
+
+    public void start() {
+        source.init();
+        load();
+        checkpointFuture = checkpointer.scheduleAtFixedRate(this::checkpoint, CHECKPOINT_MINUTES, CHECKPOINT_MINUTES,
+                TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        if (checkpointFuture != null) {
+            checkpointFuture.cancel(false);
+        }
+        checkpointer.shutdown();
+        checkpoint();
+    }
+
+    private void load() {
+        byte[] data = source.get(POOL_KEY);
+        if (data != null && !pool.load(data)) {
+            log.warn("Drop pool statistics with a different layout");
+        }
+        Set<ByteArrayWrapper> dropped = new HashSet<>();
+        source.fetchPrefix(new byte[] {MINER_PREFIX}, pair -> {
+            byte[] key = pair.getKey();
+            if (key.length != KEY_SIZE) {
+                return false;
+            }
+            ByteArrayWrapper hashlow = new ByteArrayWrapper(BytesUtils.subArray(key, 1, 32));
+            StatsSeries series = miners.computeIfAbsent(hashlow, k -> StatsSeries.forMiner());
+            if (!series.load(key[KEY_SIZE - 1] & 0xff, pair.getValue())) {
+                dropped.add(hashlow);
+            }
+            return false;
+        });
+        miners.keySet().removeAll(dropped);
+        if (!dropped.isEmpty()) {
+            log.warn("Drop statistics of {} miners with a different layout", dropped.size());
+        }
+        log.info("Load statistics of {} miners", miners.size());
+    }
+
+    /** 记录一个校验过的share，在校验线程上调用 */
+    public void onShare(MinerChannel channel, long taskTime, double diff, boolean accepted) {
+        long now = System.currentTimeMillis();
+        pool.onShare(now, taskTime, diff, accepted);
+        channel.getStats().onShare(now, taskTime, diff, accepted);
+        Miner miner = channel.getMiner();
+        if (miner == null) {
+            return;
+        }
+        StatsSeries series = miner.getStats();
+        if (series == null || !series.onShare(now, taskTime, diff, accepted)) {
+            // 缓存的序列已被checkpoint清除，查表、替换过期的序列和记录在同一个原子操作中完成
+            series = miners.compute(new ByteArrayWrapper(miner.getAddressHaashLow()), (k, s) -> {
+                if (s == null || !s.onShare(now, taskTime, diff, accepted)) {
+                    s = StatsSeries.forMiner();
+                    s.onShare(now, taskTime, diff, accepted);
+                }
+                return s;
+            });
+            miner.setStats(series);
+        }
+    }
+
+    /** 合并后的矿池序列，只用于查询 */
+    public StatsSeries getPool() {
+        return pool.snapshot();
+    }
+
+    public StatsSeries getSeries(Miner miner) {
+        StatsSeries series = miner.getStats();
+        if (series == null) {
+            series = miners.computeIfAbsent(new ByteArrayWrapper(miner.getAddressHaashLow()),
+                    k -> StatsSeries.forMiner());
+            miner.setStats(series);
+        }
+        return series;
+    }
+
+    /** 按hashlow查询，矿工已离线时也能查到 */
+    public StatsSeries getSeries(byte[] hashlow) {
+        return miners.get(new ByteArrayWrapper(hashlow));
+    }
+
+    public int size() {
+        return miners.size();
+    }
+
+    /** 写入有更新的块，清除过期的矿工 */
+    public void checkpoint() {
+        try {
+            long now = System.currentTimeMillis();
+            byte[] data = pool.checkpoint();
+            if (data != null) {
+                source.put(POOL_KEY, data);
+            }
+            int written = 0;
+            for (ByteArrayWrapper hashlow : miners.keySet()) {
+                // 过期标记和移除是一个原子操作，onShare不会拿到已过期但还在表中的序列
+                StatsSeries series = miners.computeIfPresent(hashlow, (k, s) -> s.expire(now, EXPIRE) ? null : s);
+                if (series == null) {
+                    for (byte[] key : source.prefixKeyLookup(BytesUtils.merge(MINER_PREFIX, hashlow.getData()))) {
+                        source.delete(key);
+                    }
+                    continue;
+                }
+                if (series.checkpoint((block, bytes) -> source.put(key(hashlow, block), bytes))) {
+                    written++;
+                }
+            }
+            log.debug("Checkpoint statistics of {} miners", written);
+        } catch (Exception e) {
+            log.error("Checkpoint miner statistics fail: {}", e.getMessage(), e);
+        }
+    }
+
+    private static byte[] key(ByteArrayWrapper hashlow, int block) {
+        byte[] key = new byte[KEY_SIZE];
+        key[0] = MINER_PREFIX;
+        System.arraycopy(hashlow.getData(), 0, key, 1, 32);
+        key[KEY_SIZE - 1] = (byte) block;
+        return key;
+    }
+}
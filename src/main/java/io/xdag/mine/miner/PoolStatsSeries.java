@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.miner;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 整个矿池的序列，所有share校验线程都会更新
+ *
+ * share计数和LongAdder一样按线程分到多个StatsSeries，每个任务的最佳难度用CAS更新，
+ * share路径上没有全局的锁。查询和checkpoint时合并成一个StatsSeries。
+ */
+public class PoolStatsSeries {
+
+    /** 当前任务、其中最佳share的难度和第一个share的时间，整体替换 */
+    private static final class TaskBest {
+        final long time;
+        final double best;
+        final long stamp;
+
+        TaskBest(long time, double best, long stamp) {
+            this.time = time;
+            this.best = best;
+            this.stamp = stamp;
+        }
+    }
+
+    private final StatsSeries[] stripes;
+    private final int mask;
+    private final AtomicReference<TaskBest> current = new AtomicReference<>(new TaskBest(0, 0, 0));
+
+    public PoolStatsSeries() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** @param parallelism 向上取2的幂作为分段数 */
+    PoolStatsSeries(int parallelism) {
+        int n = Integer.highestOneBit(Math.max(1, parallelism - 1)) << 1;
+        stripes = new StatsSeries[Math.max(1, Math.min(n, 64))];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = StatsSeries.forMiner();
+        }
+        mask = stripes.length - 1;
+    }
+
+    /** 与StatsSeries.onShare相同，任务的最佳难度在新任务到来时计入第一个share所在的桶，读取时计入还没有提交的任务 */
+    public void onShare(long now, long taskTime, double diff, boolean accepted) {
+        StatsSeries stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        TaskBest task = current.get();
+        while (taskTime > task.time || (taskTime == task.time && diff > task.best)) {
+            boolean newTask = taskTime > task.time;
+            TaskBest next = newTask ? new TaskBest(taskTime, diff, now) : new TaskBest(taskTime, diff, task.stamp);
+            if (current.compareAndSet(task, next)) {
+                // 换下的任务只有一个线程能提交
+                if (newTask && task.best > 0) {
+                    stripe.task(task.stamp, task.best);
+                }
+                break;
+            }
+            task = current.get();
+        }
+        stripe.share(now, accepted);
+    }
+
+    /** 合并各分段，返回的序列只用于查询和序列化 */
+    public StatsSeries snapshot() {
+        StatsSeries merged = StatsSeries.forMiner();
+        for (StatsSeries stripe : stripes) {
+            stripe.mergeInto(merged);
+        }
+        TaskBest task = current.get();
+        merged.setTask(task.time, task.best, task.stamp);
+        return merged;
+    }
+
+    /** 有更新时返回合并后序列化的数据，否则返回null */
+    public byte[] checkpoint() {
+        boolean dirty = false;
+        for (StatsSeries stripe : stripes) {
+            dirty |= stripe.clearDirty();
+        }
+        return dirty ? snapshot().toBytes() : null;
+    }
+
+    /** 恢复到第一个分段，桶数不一致时忽略 */
+    public boolean load(byte[] data) {
+        if (!stripes[0].load(data)) {
+            return false;
+        }
+        current.set(new TaskBest(stripes[0].getTaskTime(), stripes[0].getTaskBest(), stripes[0].getTaskStamp()));
+        return true;
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.miner;
+
+import static io.xdag.config.Config.AWARD_EPOCH;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+/**
+ * 矿池的share账本，重启后恢复矿工未支付的难度
+ *
+ * 内存映射的追加文件，每条记录80字节：类型(1字节，最后写入)、时间、32字节地址或区块hash、32字节数据。
+ * 只有矿工在某个任务的最大难度更新、支付清零和产生区块时才写入，写入只是一次内存拷贝。
+ * 每16个区块周期或剩余空间不足四分之一时，在后台线程把当前状态写成快照记录替换旧文件：
+ * 快照在锁内生成，写入和刷盘在锁外，期间的新记录同时追加到旧文件和新文件快照之后。
+ * 启动时按顺序回放，与MinerCalculate和AwardManagerImpl的更新逻辑一致。
+ */
+@Slf4j
+public class ShareLedger {
+
+    /** 账本对应的内存状态，回放时写入，压缩时读取 */
+    public interface State {
+        /** 找到或创建矿工 */
+        Miner getMiner(byte[] address);
+
+        Collection<Miner> getMiners();
+
+        /** 恢复矿池产生的区块 */
+        void onAwardBlock(long time, byte[] hash, byte[] share);
+    }
+
+    static final int RECORD_SIZE = 80;
+    private static final long MAGIC = 0x5844414753484c31L;
+    private static final int HEADER_SIZE = 16;
+    private static final int DEFAULT_CAPACITY = 16 << 20;
+    private static final int COMPACT_EPOCHS = 16;
+
+    /** 矿工在任务中的最大难度: 任务时间、矿工地址、难度 */
+    private static final byte SHARE = 1;
+    /** 支付后清零: 位置、矿工地址、是否超时全部清零 */
+    private static final byte PAID = 2;
+    /** 矿池产生的区块: 时间、区块hash、nonce */
+    private static final byte AWARD = 3;
+    /** 快照的矿工状态: 任务时间、矿工地址、prevDiff和prevDiffCounts */
+    private static final byte MINER = 4;
+    /** 快照的矿工难度: 位置、矿工地址、难度 */
+    private static final byte SLOT = 5;
+
+    private final Path file;
+    private State state;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int epochs;
+    private long records;
+
+    /** 压缩中的新文件，替换前新记录同时写入 */
+    private FileChannel nextChannel;
+    private MappedByteBuffer next;
+    private long nextRecords;
+    private boolean compacting;
+    private Future<?> compaction;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(new BasicThreadFactory.Builder()
+            .namingPattern("ShareLedger-compact-%d")
+            .daemon(true)
+            .build());
+
+    /** 最近16个区块，压缩时写入快照 */
+    private final long[] awardTimes = new long[AWARD_EPOCH + 1];
+    private final byte[][] awardHashes = new byte[AWARD_EPOCH + 1][];
+    private final byte[][] awardShares = new byte[AWARD_EPOCH + 1][];
+
+    public ShareLedger(Path file) {
+        this.file = file;
+    }
+
+    /** 回放已有的记录并打开账本 */
+    public void open(State state) throws IOException {
+        long replayed = 0;
+        synchronized (this) {
+            this.state = state;
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            if (Files.exists(file)) {
+                replayed = replay();
+            }
+        }
+        // 回放后立即压缩，去掉已经支付的记录
+        compact();
+        log.info("Share ledger {} opened, {} records replayed", file, replayed);
+    }
+
+    public synchronized void close() {
+        compactor.shutdown();
+        if (buffer != null) {
+            buffer.force();
+        }
+        abandon(next);
+        closeChannel();
+    }
+
+    /** 矿工在任务中的最大难度更新，在PoW主线程上调用 */
+    public synchronized void share(long taskTime, byte[] address, double diff) {
+        if (reserve()) {
+            append(SHARE, taskTime, address, Double.doubleToLongBits(diff), 0);
+        }
+    }
+
+    /** 支付时清零矿工的难度 */
+    public synchronized void paid(int index, byte[] address, boolean outdated) {
+        if (reserve()) {
+            append(PAID, index, address, outdated ? 1 : 0, 0);
+        }
+    }
+
+    /** 刷到磁盘，支付日志写入前调用，崩溃后不会既有支付区块又有未支付的难度 */
+    public synchronized void force() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    /** 矿池产生了一个区块，每个区块周期一次 */
+    public synchronized void award(long time, byte[] hash, byte[] share) {
+        if (!reserve()) {
+            return;
+        }
+        appendAward(time, hash, share);
+        remember(time, hash, share);
+        if (++epochs >= COMPACT_EPOCHS) {
+            scheduleCompact();
+        }
+    }
+
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    /** 后台压缩，测试用 */
+    synchronized Future<?> getCompaction() {
+        return compaction;
+    }
+
+    /** 空间不足四分之一时交给后台压缩，旧文件写满并且没有在压缩时丢弃记录 */
+    private boolean reserve() {
+        if (buffer == null) {
+            return false;
+        }
+        if (buffer.remaining() < capacity / 4) {
+            scheduleCompact();
+        }
+        if (buffer.remaining() < RECORD_SIZE && next == null) {
+            log.warn("Share ledger full, record dropped");
+            return false;
+        }
+        return true;
+    }
+
+    /** 写入当前账本，压缩中同时追加到新文件 */
+    private void append(byte type, long time, byte[] key, long a, long b) {
+        if (buffer.remaining() >= RECORD_SIZE) {
+            put(buffer, type, time, key, a, b);
+            records++;
+        }
+        if (next != null) {
+            put(next, type, time, key, a, b);
+            nextRecords++;
+        }
+    }
+
+    private void appendAward(long time, byte[] hash, byte[] share) {
+        if (buffer.remaining() >= RECORD_SIZE) {
+            putAward(buffer, time, hash, share);
+            records++;
+        }
+        if (next != null) {
+            putAward(next, time, hash, share);
+            nextRecords++;
+        }
+    }
+
+    private static void put(ByteBuffer buf, byte type, long time, byte[] key, long a, long b) {
+        int pos = buf.position();
+        buf.position(pos + 8);
+        buf.putLong(time).put(key, 0, 32).putLong(a).putLong(b);
+        // 类型最后写入，进程中断时不完整的记录在回放时被忽略
+        buf.put(pos, type);
+        buf.position(pos + RECORD_SIZE);
+    }
+
+    private static void putAward(ByteBuffer buf, long time, byte[] hash, byte[] share) {
+        int pos = buf.position();
+        buf.position(pos + 8);
+        buf.putLong(time).put(hash, 0, 32).put(share, 0, 32);
+        buf.put(pos, AWARD);
+        buf.position(pos + RECORD_SIZE);
+    }
+
+    private void remember(long time, byte[] hash, byte[] share) {
+        int index = (int) ((time >> 16) & AWARD_EPOCH);
+        awardTimes[index] = time;
+        awardHashes[index] = hash.clone();
+        awardShares[index] = share.clone();
+    }
+
+    private long replay() throws IOException {
+        long count = 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_SIZE) {
+                return 0;
+            }
+            MappedByteBuffer in = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (in.getLong(0) != MAGIC) {
+                log.warn("Share ledger {} has unknown format, ignored", file);
+                return 0;
+            }
+            byte[] key = new byte[32];
+            byte[] data = new byte[32];
+            for (int pos = HEADER_SIZE; pos + RECORD_SIZE <= in.limit(); pos += RECORD_SIZE) {
+                byte type = in.get(pos);
+                if (type == 0) {
+                    break;
+                }
+                long time = in.getLong(pos + 8);
+                in.position(pos + 16);
+                in.get(key).get(data);
+                apply(type, time, key, data, in.getLong(pos + 48), in.getLong(pos + 56));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void apply(byte type, long time, byte[] key, byte[] data, long a, long b) {
+        switch (type) {
+        case SHARE:
+            MinerCalculate.updateMinerDiff(state.getMiner(key.clone()), time, Double.longBitsToDouble(a));
+            break;
+        case PAID: {
+            Miner miner = state.getMiner(key.clone());
+            if (a != 0) {
+                for (int i = 0; i <= AWARD_EPOCH; i++) {
+                    miner.setMaxDiffs(i, 0.0);
+                }
+            } else {
+                miner.setMaxDiffs((int) time, 0.0);
+            }
+            miner.setPrevDiff(0.0);
+            miner.setPrevDiffCounts(0);
+            break;
+        }
+        case AWARD:
+            remember(time, key, data);
+            state.onAwardBlock(time, key.clone(), data.clone());
+            break;
+        case MINER: {
+            Miner miner = state.getMiner(key.clone());
+            miner.setTaskTime(time);
+            miner.setPrevDiff(Double.longBitsToDouble(a));
+            miner.setPrevDiffCounts((int) b);
+            break;
+        }
+        case SLOT:
+            state.getMiner(key.clone()).setMaxDiffs((int) time, Double.longBitsToDouble(a));
+            break;
+        default:
+            log.warn("Unknown share ledger record {}", type);
+        }
+    }
+
+    private void scheduleCompact() {
+        if (compacting || compactor.isShutdown()) {
+            return;
+        }
+        compacting = true;
+        compaction = compactor.submit(this::compactQuietly);
+    }
+
+    /** 压缩失败时继续写旧文件 */
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Compact share ledger fail, keep current ledger: {}", e.getMessage(), e);
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /** 锁内生成快照并切换到双写，锁外写入快照并刷盘，最后在锁内替换账本 */
+    private void compact() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        MappedByteBuffer target;
+        ByteBuffer snapshot;
+        int size;
+        synchronized (this) {
+            if (state == null || next != null) {
+                return;
+            }
+            Collection<Miner> miners = state.getMiners();
+            long needed = (long) RECORD_SIZE * (miners.size() * (AWARD_EPOCH + 2L) + AWARD_EPOCH + 1);
+            size = (int) Math.min(Integer.MAX_VALUE, Math.max(DEFAULT_CAPACITY, (HEADER_SIZE + needed) * 4));
+            snapshot = ByteBuffer.allocate(Math.toIntExact(needed));
+            for (Miner miner : miners) {
+                put(snapshot, MINER, miner.getTaskTime(), miner.getAddressHash(),
+                        Double.doubleToLongBits(miner.getPrevDiff()), miner.getPrevDiffCounts());
+                for (int i = 0; i <= AWARD_EPOCH; i++) {
+                    double diff = miner.getMaxDiffs(i);
+                    if (diff > 0) {
+                        put(snapshot, SLOT, i, miner.getAddressHash(), Double.doubleToLongBits(diff), 0);
+                    }
+                }
+            }
+            for (int i = 0; i <= AWARD_EPOCH; i++) {
+                if (awardHashes[i] != null) {
+                    putAward(snapshot, awardTimes[i], awardHashes[i], awardShares[i]);
+                }
+            }
+            Files.deleteIfExists(tmp);
+            nextChannel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            next = nextChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            next.position(HEADER_SIZE + snapshot.position());
+            nextRecords = snapshot.position() / RECORD_SIZE;
+            epochs = 0;
+            target = next;
+        }
+        try {
+            // 快照区域之后只有持锁的写入，互不重叠，用独立的position写入
+            ByteBuffer view = target.duplicate();
+            view.position(HEADER_SIZE);
+            view.put(snapshot.array(), 0, snapshot.position());
+            target.putLong(0, MAGIC);
+            target.force();
+            synchronized (this) {
+                if (next != target) {
+                    return;
+                }
+                // 只剩锁外刷盘期间追加的少量记录
+                target.force();
+                // 映射在文件移动后仍然有效
+                Files.move(tmp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+                closeChannel();
+                channel = nextChannel;
+                buffer = target;
+                capacity = size;
+                records = nextRecords;
+                nextChannel = null;
+                next = null;
+                log.debug("Share ledger compacted, {} records, capacity {}", records, capacity);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            synchronized (this) {
+                abandon(target);
+            }
+            throw e;
+        }
+    }
+
+    /** 放弃没有完成的压缩，旧文件仍然完整 */
+    private void abandon(MappedByteBuffer target) {
+        if (target == null || next != target) {
+            return;
+        }
+        next = null;
+        try {
+            nextChannel.close();
+            Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".tmp"));
+        } catch (IOException e) {
+            log.warn("Drop share ledger snapshot fail: {}", e.getMessage());
+        }
+        nextChannel = null;
+    }
+
+    private void closeChannel() {
+        buffer = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Close share ledger fail: {}", e.getMessage());
+            }
+            channel = null;
+        }
+    }
+}
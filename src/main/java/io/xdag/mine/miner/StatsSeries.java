@@ -0,0 +1,463 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.miner;
+
+import io.xdag.utils.BasicUtils;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * 一个矿工、通道或整个矿池的share和算力时间序列
+ *
+ * 分钟和小时两个环形缓冲，每个桶记录接收和低于目标的share数、任务数以及每个任务最佳share难度之和。
+ * 每个share同时累加到两个桶，更新是O(1)，小时数据不需要另外降采样。
+ * 算力和矿工统计一致，按每个任务最佳share的平均对数难度换算。
+ * 任务的最佳难度计入它第一个share所在的桶：新任务到来或这一分钟结束时提交，之后更好的share直接修正该桶；
+ * 读取时还没有提交的任务也计入。
+ * 矿工的序列按BLOCK_BUCKETS个桶分块保存，只写入有更新的块和序列头。
+ */
+public class StatsSeries {
+
+    public static final long MINUTE = 60_000L;
+    public static final long HOUR = 60 * MINUTE;
+    /** 每块的桶数 */
+    static final int BLOCK_BUCKETS = 60;
+    /** 序列头的块号: 桶数、当前任务和最后更新时间 */
+    public static final int HEADER = 0xff;
+
+    /** shareDiff与xdag对数难度之差: 46 - 64ln2 */
+    private static final double SHARE_DIFF_OFFSET = 46 - 64 * Math.log(2);
+    private static final int HEADER_SIZE = 8 + 8 + 8 + 8 + 1 + 8;
+    private static final int BUCKET_SIZE = 20;
+
+    /** 一段时间内的统计 */
+    public static class Bucket {
+        public final long time;
+        public final int accepted;
+        public final int rejected;
+        public final int tasks;
+        public final double logDiffSum;
+
+        Bucket(long time, int accepted, int rejected, int tasks, double logDiffSum) {
+            this.time = time;
+            this.accepted = accepted;
+            this.rejected = rejected;
+            this.tasks = tasks;
+            this.logDiffSum = logDiffSum;
+        }
+
+        public double getHashrate() {
+            return tasks == 0 ? 0 : BasicUtils.xdag_log_difficulty2hashrate(logDiffSum / tasks - SHARE_DIFF_OFFSET);
+        }
+    }
+
+    /** 固定精度的环形缓冲，桶号相同才累加，否则先清零 */
+    static final class Ring {
+        final long period;
+        /** 第一个块的块号 */
+        final int firstBlock;
+        final int[] stamps;
+        final int[] accepted;
+        final int[] rejected;
+        final int[] tasks;
+        final float[] logDiff;
+
+        Ring(long period, int size, int firstBlock) {
+            this.period = period;
+            this.firstBlock = firstBlock;
+            this.stamps = new int[size];
+            this.accepted = new int[size];
+            this.rejected = new int[size];
+            this.tasks = new int[size];
+            this.logDiff = new float[size];
+        }
+
+        int blocks() {
+            return (stamps.length + BLOCK_BUCKETS - 1) / BLOCK_BUCKETS;
+        }
+
+        private int slot(int bucket) {
+            int i = bucket % stamps.length;
+            if (stamps[i] != bucket) {
+                stamps[i] = bucket;
+                accepted[i] = 0;
+                rejected[i] = 0;
+                tasks[i] = 0;
+                logDiff[i] = 0;
+            }
+            return i;
+        }
+
+        int share(long now, boolean isAccepted) {
+            int i = slot((int) (now / period));
+            if (isAccepted) {
+                accepted[i]++;
+            } else {
+                rejected[i]++;
+            }
+            return i;
+        }
+
+        /** 桶已经被更新的数据覆盖时忽略，返回-1 */
+        int task(long time, double diff) {
+            int bucket = (int) (time / period);
+            if (stamps[bucket % stamps.length] > bucket) {
+                return -1;
+            }
+            int i = slot(bucket);
+            tasks[i]++;
+            logDiff[i] += diff;
+            return i;
+        }
+
+        /** 修正已提交任务的难度，桶已经不在时返回-1 */
+        int amend(long time, double delta) {
+            int bucket = (int) (time / period);
+            int i = bucket % stamps.length;
+            if (stamps[i] != bucket) {
+                return -1;
+            }
+            logDiff[i] += delta;
+            return i;
+        }
+
+        Bucket get(int bucket) {
+            int i = bucket % stamps.length;
+            if (stamps[i] != bucket) {
+                return new Bucket(bucket * period, 0, 0, 0, 0);
+            }
+            return new Bucket(bucket * period, accepted[i], rejected[i], tasks[i], logDiff[i]);
+        }
+
+        /** 累加other的桶，同一位置桶号较旧的一方被覆盖或忽略 */
+        void add(Ring other) {
+            for (int i = 0; i < stamps.length; i++) {
+                if (other.stamps[i] < stamps[i]) {
+                    continue;
+                }
+                slot(other.stamps[i]);
+                accepted[i] += other.accepted[i];
+                rejected[i] += other.rejected[i];
+                tasks[i] += other.tasks[i];
+                logDiff[i] += other.logDiff[i];
+            }
+        }
+
+        void write(ByteBuffer buf, int from, int to) {
+            for (int i = from; i < to; i++) {
+                buf.putInt(stamps[i]).putInt(accepted[i]).putInt(rejected[i]).putInt(tasks[i]).putFloat(logDiff[i]);
+            }
+        }
+
+        void read(ByteBuffer buf, int from, int to) {
+            for (int i = from; i < to; i++) {
+                stamps[i] = buf.getInt();
+                accepted[i] = buf.getInt();
+                rejected[i] = buf.getInt();
+                tasks[i] = buf.getInt();
+                logDiff[i] = buf.getFloat();
+            }
+        }
+    }
+
+    private final Ring minutes;
+    private final Ring hours;
+    /** 当前任务、其中最佳share的难度和第一个share的时间 */
+    private long taskTime;
+    private double taskBest;
+    private long taskStamp;
+    /** 当前任务已计入taskStamp所在的桶 */
+    private boolean committed;
+    private long lastUpdate;
+    /** 序列头和各块的更新标记 */
+    private boolean dirty;
+    private long dirtyBlocks;
+    /** 已被清除，之后的share不再记录，持有引用的一方需要重新查表 */
+    private boolean expired;
+
+    public StatsSeries(int minuteBuckets, int hourBuckets) {
+        this.minutes = new Ring(MINUTE, minuteBuckets, 0);
+        this.hours = new Ring(HOUR, hourBuckets, minutes.blocks());
+        if (minutes.blocks() + hours.blocks() > Long.SIZE) {
+            throw new IllegalArgumentException("Too many buckets: " + minuteBuckets + ", " + hourBuckets);
+        }
+    }
+
+    /** 矿工和矿池保留24小时的分钟数据和30天的小时数据 */
+    public static StatsSeries forMiner() {
+        return new StatsSeries(24 * 60, 30 * 24);
+    }
+
+    /** 通道重连后地址会变，只保留1小时的分钟数据和1天的小时数据 */
+    public static StatsSeries forChannel() {
+        return new StatsSeries(60, 24);
+    }
+
+    /**
+     * 记录一个校验过的share
+     *
+     * @param diff MinerCalculate.shareDiff计算的难度
+     * @param accepted 是否达到vardiff目标
+     * @return 序列已过期时返回false，不记录
+     */
+    public synchronized boolean onShare(long now, long taskTime, double diff, boolean accepted) {
+        if (expired) {
+            return false;
+        }
+        flush(now);
+        if (taskTime > this.taskTime) {
+            commitTask();
+            this.taskTime = taskTime;
+        }
+        if (taskTime == this.taskTime && diff > taskBest) {
+            if (committed) {
+                amend(taskStamp, diff - taskBest);
+            } else if (taskBest == 0) {
+                taskStamp = now;
+            }
+            taskBest = diff;
+        }
+        share(now, accepted);
+        return true;
+    }
+
+    /** 换下的任务还没有提交时计入 */
+    private void commitTask() {
+        if (taskBest > 0 && !committed) {
+            task(taskStamp, taskBest);
+        }
+        taskBest = 0;
+        committed = false;
+    }
+
+    /** 任务第一个share所在的分钟已经结束时提交，之后的share不会再落到这个桶 */
+    private void flush(long now) {
+        if (taskBest > 0 && !committed && now / MINUTE != taskStamp / MINUTE) {
+            task(taskStamp, taskBest);
+            committed = true;
+        }
+    }
+
+    /** 只累加share计数，任务的最佳难度由调用方用task提交 */
+    synchronized void share(long now, boolean accepted) {
+        mark(minutes, minutes.share(now, accepted));
+        mark(hours, hours.share(now, accepted));
+        lastUpdate = Math.max(lastUpdate, now);
+        dirty = true;
+    }
+
+    /** 一个任务结束，把它的最佳share难度计入time所在的桶 */
+    synchronized void task(long time, double best) {
+        mark(minutes, minutes.task(time, best));
+        mark(hours, hours.task(time, best));
+        dirty = true;
+    }
+
+    private void amend(long time, double delta) {
+        mark(minutes, minutes.amend(time, delta));
+        mark(hours, hours.amend(time, delta));
+        dirty = true;
+    }
+
+    private void mark(Ring ring, int i) {
+        if (i >= 0) {
+            dirtyBlocks |= 1L << (ring.firstBlock + i / BLOCK_BUCKETS);
+        }
+    }
+
+    /** 把桶累加到target，target只在当前线程使用 */
+    synchronized void mergeInto(StatsSeries target) {
+        target.minutes.add(minutes);
+        target.hours.add(hours);
+        target.lastUpdate = Math.max(target.lastUpdate, lastUpdate);
+    }
+
+    synchronized void setTask(long taskTime, double taskBest, long taskStamp) {
+        this.taskTime = taskTime;
+        this.taskBest = taskBest;
+        this.taskStamp = taskStamp;
+        this.committed = false;
+    }
+
+    synchronized long getTaskTime() {
+        return taskTime;
+    }
+
+    synchronized double getTaskBest() {
+        return taskBest;
+    }
+
+    synchronized long getTaskStamp() {
+        return taskStamp;
+    }
+
+    /** 超过expire没有更新时标记为过期 */
+    synchronized boolean expire(long now, long expire) {
+        if (now - lastUpdate > expire) {
+            expired = true;
+        }
+        return expired;
+    }
+
+    /** 返回并清除更新标记 */
+    synchronized boolean clearDirty() {
+        boolean wasDirty = dirty;
+        dirty = false;
+        dirtyBlocks = 0;
+        return wasDirty;
+    }
+
+    /** 截止到now的最近count个桶，时间从早到晚 */
+    public synchronized List<Bucket> range(boolean hourly, int count, long now) {
+        flush(now);
+        Ring ring = hourly ? hours : minutes;
+        count = Math.min(count, ring.stamps.length);
+        int last = (int) (now / ring.period);
+        int pending = taskBest > 0 && !committed ? (int) (taskStamp / ring.period) : Integer.MIN_VALUE;
+        List<Bucket> list = new ArrayList<>(count);
+        for (int b = last - count + 1; b <= last; b++) {
+            Bucket bucket = ring.get(b);
+            if (b == pending) {
+                bucket = new Bucket(bucket.time, bucket.accepted, bucket.rejected, bucket.tasks + 1,
+                        bucket.logDiffSum + taskBest);
+            }
+            list.add(bucket);
+        }
+        return list;
+    }
+
+    /** 最近count个桶的合计 */
+    public Bucket total(boolean hourly, int count, long now) {
+        int accepted = 0;
+        int rejected = 0;
+        int tasks = 0;
+        double logDiff = 0;
+        long time = now;
+        for (Bucket bucket : range(hourly, count, now)) {
+            time = Math.min(time, bucket.time);
+            accepted += bucket.accepted;
+            rejected += bucket.rejected;
+            tasks += bucket.tasks;
+            logDiff += bucket.logDiffSum;
+        }
+        return new Bucket(time, accepted, rejected, tasks, logDiff);
+    }
+
+    public synchronized long getLastUpdate() {
+        return lastUpdate;
+    }
+
+    /**
+     * 有更新时把序列头和有更新的块交给out，并清除更新标记
+     *
+     * @return 没有更新时返回false
+     */
+    public synchronized boolean checkpoint(BiConsumer<Integer, byte[]> out) {
+        if (!dirty) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        writeHeader(header);
+        out.accept(HEADER, header.array());
+        for (long blocks = dirtyBlocks; blocks != 0; blocks &= blocks - 1) {
+            int block = Long.numberOfTrailingZeros(blocks);
+            Ring ring = ring(block);
+            int from = (block - ring.firstBlock) * BLOCK_BUCKETS;
+            int to = Math.min(ring.stamps.length, from + BLOCK_BUCKETS);
+            ByteBuffer buf = ByteBuffer.allocate(BUCKET_SIZE * (to - from));
+            ring.write(buf, from, to);
+            out.accept(block, buf.array());
+        }
+        dirty = false;
+        dirtyBlocks = 0;
+        return true;
+    }
+
+    /** 恢复checkpoint写入的一块，桶数不一致时忽略 */
+    public synchronized boolean load(int block, byte[] data) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (block == HEADER) {
+            return data.length == HEADER_SIZE && readHeader(buf);
+        }
+        if (block < 0 || block >= minutes.blocks() + hours.blocks()) {
+            return false;
+        }
+        Ring ring = ring(block);
+        int from = (block - ring.firstBlock) * BLOCK_BUCKETS;
+        int to = Math.min(ring.stamps.length, from + BLOCK_BUCKETS);
+        if (data.length != BUCKET_SIZE * (to - from)) {
+            return false;
+        }
+        ring.read(buf, from, to);
+        return true;
+    }
+
+    private Ring ring(int block) {
+        return block < hours.firstBlock ? minutes : hours;
+    }
+
+    /** 整个序列，矿池的序列整体保存 */
+    synchronized byte[] toBytes() {
+        ByteBuffer buf = ByteBuffer.allocate(size());
+        writeHeader(buf);
+        minutes.write(buf, 0, minutes.stamps.length);
+        hours.write(buf, 0, hours.stamps.length);
+        return buf.array();
+    }
+
+    /** 恢复toBytes的数据，桶数不一致时忽略 */
+    public synchronized boolean load(byte[] data) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (data.length != size() || !readHeader(buf)) {
+            return false;
+        }
+        minutes.read(buf, 0, minutes.stamps.length);
+        hours.read(buf, 0, hours.stamps.length);
+        return true;
+    }
+
+    private void writeHeader(ByteBuffer buf) {
+        buf.putInt(minutes.stamps.length).putInt(hours.stamps.length);
+        buf.putLong(taskTime).putDouble(taskBest).putLong(taskStamp).put((byte) (committed ? 1 : 0));
+        buf.putLong(lastUpdate);
+    }
+
+    private boolean readHeader(ByteBuffer buf) {
+        if (buf.getInt() != minutes.stamps.length || buf.getInt() != hours.stamps.length) {
+            return false;
+        }
+        taskTime = buf.getLong();
+        taskBest = buf.getDouble();
+        taskStamp = buf.getLong();
+        committed = buf.get() != 0;
+        lastUpdate = buf.getLong();
+        return true;
+    }
+
+    private int size() {
+        return HEADER_SIZE + BUCKET_SIZE * (minutes.stamps.length + hours.stamps.length);
+    }
+}
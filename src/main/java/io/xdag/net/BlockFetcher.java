@@ -0,0 +1,149 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net;
+
+import io.xdag.net.manager.BlockRelayFilter;
+import io.xdag.net.message.impl.BlocksBatchReplyMessage;
+import io.xdag.net.message.impl.BlocksBatchRequestMessage;
+import io.xdag.net.message.impl.HashListMessage;
+import io.xdag.utils.ByteArrayWrapper;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+/**
+ * 按节点合并区块请求
+ *
+ * 支持 {@link Capability#BATCH_REQUEST} 的节点，短时间内请求的区块合并成一个BLOCKS_BATCH_REQUEST，
+ * 满14个立即发出，否则等待 {@link #FLUSH_DELAY} 毫秒；其他节点仍逐个发送BLOCK_REQUEST。
+ */
+@Slf4j
+public class BlockFetcher {
+
+    /** 不满一批时等待更多请求的时间 毫秒 */
+    public static final long FLUSH_DELAY = 20;
+
+    private final BlockRelayFilter relayFilter;
+    /** PeerChannel的equals依赖可变字段，按引用区分节点 */
+    private final Map<PeerChannel, List<byte[]>> pending = new IdentityHashMap<>();
+    private final ScheduledExecutorService exec = new ScheduledThreadPoolExecutor(1, new BasicThreadFactory.Builder()
+            .namingPattern("block-fetcher-%d")
+            .daemon(true)
+            .build());
+
+    /** 发出的批量请求数、其中请求的区块数和对方没有的区块数 */
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedBlocks = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public BlockFetcher(BlockRelayFilter relayFilter) {
+        this.relayFilter = relayFilter;
+    }
+
+    public void request(PeerChannel peer, byte[] hashLow) {
+        if (!Capability.has(peer.getCapabilities(), Capability.BATCH_REQUEST)) {
+            peer.getXdag().sendGetBlock(hashLow);
+            return;
+        }
+        List<byte[]> full = null;
+        boolean first = false;
+        synchronized (pending) {
+            List<byte[]> hashLows = pending.get(peer);
+            if (hashLows == null) {
+                hashLows = new ArrayList<>(HashListMessage.MAX_HASHES);
+                pending.put(peer, hashLows);
+                first = true;
+            }
+            hashLows.add(hashLow);
+            if (hashLows.size() >= HashListMessage.MAX_HASHES) {
+                full = pending.remove(peer);
+            }
+        }
+        if (full != null) {
+            send(peer, full);
+        } else if (first) {
+            exec.schedule(() -> flush(peer), FLUSH_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush(PeerChannel peer) {
+        List<byte[]> hashLows;
+        synchronized (pending) {
+            hashLows = pending.remove(peer);
+        }
+        if (hashLows != null) {
+            send(peer, hashLows);
+        }
+    }
+
+    private void send(PeerChannel peer, List<byte[]> hashLows) {
+        if (peer.isDisconnected()) {
+            return;
+        }
+        BlocksBatchRequestMessage msg = new BlocksBatchRequestMessage(hashLows);
+        peer.getNode().getStat().onRequest(msg.getRandom());
+        peer.getXdag().sendMessage(msg);
+        batches.incrementAndGet();
+        batchedBlocks.addAndGet(hashLows.size());
+    }
+
+    /** 批量请求的区块已全部发回，对方没有的区块允许立即向其他节点拉取 */
+    public void onReply(PeerChannel peer, BlocksBatchReplyMessage msg) {
+        peer.getNode().getStat().onReply(msg.getRandom(), peer.getNode().getStat().BlocksRtt);
+        List<byte[]> hashLows = msg.getHashLows();
+        if (hashLows.isEmpty()) {
+            return;
+        }
+        misses.addAndGet(hashLows.size());
+        if (relayFilter != null) {
+            for (byte[] hashLow : hashLows) {
+                relayFilter.clearRequested(new ByteArrayWrapper(hashLow));
+            }
+        }
+        log.debug("Peer {} miss {} of batch request", peer.getNode().getAddress(), hashLows.size());
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getBatchedBlocks() {
+        return batchedBlocks.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void stop() {
+        exec.shutdownNow();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net;
+
+/**
+ * 节点支持的扩展协议
+ *
+ * 老节点遇到不认识的消息会断开连接，扩展消息只发给声明过支持的节点。
+ * 能力位放在所有AbstractMessage第1个字段未使用的48..56字节，高32位为MAGIC，
+ * 老节点忽略这部分数据；握手完成后双方各发一个空时间段的BLOCKS_REQUEST交换能力位。
+ * 老节点的回复由请求原地改写而来会带回这部分数据，因此只从请求中读取能力位。
+ */
+public final class Capability {
+
+    /** 能力位的标记 "XCAP" */
+    public static final long MAGIC = 0x58434150L << 32;
+    /** 新区块先发送hash，对方按需拉取 */
+    public static final long COMPACT_RELAY = 1;
+    /** 一个请求拉取多个区块 */
+    public static final long BATCH_REQUEST = 1 << 1;
+    /** 回复BLOCKEXT_REQUEST主块请求 */
+    public static final long MAIN_BLOCKS = 1 << 2;
+
+    /** 本节点支持的能力 */
+    public static final long LOCAL = COMPACT_RELAY | BATCH_REQUEST | MAIN_BLOCKS;
+
+    /** 能力位在消息中的偏移 */
+    public static final int OFFSET = 48;
+
+    private Capability() {
+    }
+
+    public static long encode(long capabilities) {
+        return MAGIC | (capabilities & 0xffffffffL);
+    }
+
+    /** 没有MAGIC标记的老节点返回0 */
+    public static long decode(long value) {
+        return (value & 0xffffffff00000000L) == MAGIC ? value & 0xffffffffL : 0;
+    }
+
+    public static boolean has(long capabilities, long capability) {
+        return (capabilities & capability) == capability;
+    }
+}
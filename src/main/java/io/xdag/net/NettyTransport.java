@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.xdag.config.Config;
+import java.util.concurrent.ThreadFactory;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+/**
+ * netty传输层的选择
+ *
+ * Linux下有epoll时使用native传输，减少selector的开销和垃圾，否则使用nio。
+ * 同一个bootstrap的EventLoopGroup和Channel类型必须来自同一种传输。
+ */
+public final class NettyTransport {
+
+    private NettyTransport() {
+    }
+
+    /** 配置允许且当前系统支持epoll */
+    public static boolean isEpoll(Config config) {
+        return config.isNativeTransport() && Epoll.isAvailable();
+    }
+
+    public static String name(Config config) {
+        return isEpoll(config) ? "epoll" : "nio";
+    }
+
+    /**
+     * @param threads 线程数，0为netty默认值
+     * @param namingPattern 线程名，如"xdag-server-%d"
+     */
+    public static EventLoopGroup newEventLoopGroup(Config config, int threads, String namingPattern) {
+        ThreadFactory factory = new BasicThreadFactory.Builder()
+                .namingPattern(namingPattern)
+                .build();
+        return isEpoll(config) ? new EpollEventLoopGroup(threads, factory) : new NioEventLoopGroup(threads, factory);
+    }
+
+    public static Class<? extends ServerSocketChannel> serverChannelClass(Config config) {
+        return isEpoll(config) ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public static Class<? extends SocketChannel> channelClass(Config config) {
+        return isEpoll(config) ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net;
+
+import io.xdag.core.BlockWrapper;
+import io.xdag.net.handler.Xdag;
+import io.xdag.net.node.Node;
+import io.xdag.utils.ByteArrayWrapper;
+import java.util.Set;
+
+/** 一个已连接的节点，与底层是老协议连接还是libp2p连接无关 */
+public interface PeerChannel {
+
+    Node getNode();
+
+    /** 收发消息的协议处理 */
+    Xdag getXdag();
+
+    /** 对方已有的区块，广播时跳过 */
+    Set<ByteArrayWrapper> getKnownBlocks();
+
+    boolean isDisconnected();
+
+    /** 对方在消息中声明的能力位，见 {@link Capability} */
+    long getCapabilities();
+
+    void setCapabilities(long capabilities);
+
+    void sendNewBlock(BlockWrapper blockWrapper);
+
+    void dropConnection();
+}
@@ -0,0 +1,236 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net;
+
+import io.xdag.core.BlockWrapper;
+import io.xdag.core.Blockchain;
+import io.xdag.net.manager.BlockRelayFilter;
+import io.xdag.net.manager.RequestScheduler;
+import io.xdag.net.message.impl.NewBlockHashesMessage;
+import io.xdag.net.node.Node;
+import io.xdag.utils.ByteArrayWrapper;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 节点网络
+ *
+ * 老协议和libp2p作为两种transport注册进来，区块转发、去重和同步请求都只面对PeerChannel，
+ * 所有连接共用一个广播线程，每个区块只经过一次去重判断。
+ * 支持 {@link Capability#COMPACT_RELAY} 的节点只收到区块hash通告，需要时再拉取区块；
+ * 本节点产生的区块仍然直接推送完整区块。
+ */
+@Slf4j
+public class PeerNetwork {
+
+    /** 广播线程一次处理的最大区块数 */
+    private static final int MAX_RELAY_BATCH = 256;
+
+    private final List<PeerTransport> transports = new CopyOnWriteArrayList<>();
+    private final BlockRelayFilter relayFilter;
+    private final BlockFetcher blockFetcher;
+    private final RequestScheduler requestScheduler;
+    /** Queue with new blocks from other peers */
+    private final BlockingQueue<BlockWrapper> newForeignBlocks = new LinkedBlockingQueue<>();
+    // 广播区块
+    private final Thread blockDistributeThread;
+
+    /** 广播的区块数和实际发出的次数 */
+    private final AtomicLong blocksRelayed = new AtomicLong();
+    private final AtomicLong relaySends = new AtomicLong();
+    /** 发出的区块通告数 */
+    private final AtomicLong announced = new AtomicLong();
+
+    public PeerNetwork(BlockRelayFilter relayFilter) {
+        this.relayFilter = relayFilter;
+        this.blockFetcher = new BlockFetcher(relayFilter);
+        this.requestScheduler = new RequestScheduler(RequestScheduler.THREADS);
+        this.blockDistributeThread = new Thread(this::newBlocksDistributeLoop, "NewSyncThreadBlocks");
+    }
+
+    public void addTransport(PeerTransport transport) {
+        transports.add(transport);
+    }
+
+    public void start() {
+        blockDistributeThread.start();
+    }
+
+    /** 所有transport上已完成握手的节点 */
+    public List<PeerChannel> getActivePeers() {
+        List<PeerChannel> peers = new ArrayList<>();
+        for (PeerTransport transport : transports) {
+            peers.addAll(transport.getActivePeers());
+        }
+        return peers;
+    }
+
+    public void onNewForeignBlock(BlockWrapper blockWrapper) {
+        newForeignBlocks.add(blockWrapper);
+    }
+
+    /** Processing new blocks received from other peers from queue */
+    private void newBlocksDistributeLoop() {
+        List<BlockWrapper> batch = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(newForeignBlocks.take());
+                // 一次取出已排队的区块，同一节点的通告合并发送
+                newForeignBlocks.drainTo(batch, MAX_RELAY_BATCH - 1);
+                relay(batch);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Throwable e) {
+                log.error("Error broadcasting {} blocks", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /** 转发收到的区块，支持通告的节点只发hash */
+    void relay(List<BlockWrapper> batch) {
+        List<PeerChannel> peers = getActivePeers();
+        // XdagChannel的equals依赖可变字段，按引用分组
+        Map<PeerChannel, List<byte[]>> announces = new IdentityHashMap<>();
+        for (BlockWrapper blockWrapper : batch) {
+            ByteArrayWrapper hashLow = new ByteArrayWrapper(blockWrapper.getBlock().getHashLow());
+            blocksRelayed.incrementAndGet();
+            for (PeerChannel peer : peers) {
+                if (!shouldSend(peer, blockWrapper, hashLow)) {
+                    continue;
+                }
+                if (Capability.has(peer.getCapabilities(), Capability.COMPACT_RELAY)) {
+                    announces.computeIfAbsent(peer, p -> new ArrayList<>()).add(hashLow.getData());
+                } else {
+                    peer.sendNewBlock(blockWrapper);
+                    relaySends.incrementAndGet();
+                }
+            }
+        }
+        for (Map.Entry<PeerChannel, List<byte[]>> entry : announces.entrySet()) {
+            List<byte[]> hashLows = entry.getValue();
+            for (int i = 0; i < hashLows.size(); i += NewBlockHashesMessage.MAX_HASHES) {
+                List<byte[]> part = hashLows.subList(i, Math.min(hashLows.size(), i + NewBlockHashesMessage.MAX_HASHES));
+                entry.getKey().getXdag().sendMessage(new NewBlockHashesMessage(part));
+            }
+            announced.addAndGet(hashLows.size());
+        }
+    }
+
+    /** 直接推送完整区块，发给除来源节点和已有该区块的节点之外的所有节点 */
+    public void sendNewBlock(BlockWrapper blockWrapper) {
+        ByteArrayWrapper hashLow = new ByteArrayWrapper(blockWrapper.getBlock().getHashLow());
+        blocksRelayed.incrementAndGet();
+        for (PeerChannel peer : getActivePeers()) {
+            if (!shouldSend(peer, blockWrapper, hashLow)) {
+                continue;
+            }
+            peer.sendNewBlock(blockWrapper);
+            relaySends.incrementAndGet();
+        }
+    }
+
+    private boolean shouldSend(PeerChannel peer, BlockWrapper blockWrapper, ByteArrayWrapper hashLow) {
+        Node receive = blockWrapper.getRemoteNode();
+        if (receive != null && peer.getNode().getHexId().equals(receive.getHexId())) {
+            return false;
+        }
+        // 对方已经有该区块
+        return relayFilter == null || relayFilter.markSent(peer.getKnownBlocks(), hashLow);
+    }
+
+    /**
+     * 收到区块通告，本地没有且没有向其他节点请求过的区块向通告的节点拉取
+     *
+     * @return 发出的拉取请求数
+     */
+    public int onAnnounce(PeerChannel peer, List<byte[]> hashLows, Blockchain blockchain) {
+        int pulls = 0;
+        for (byte[] hashLow : hashLows) {
+            ByteArrayWrapper key = new ByteArrayWrapper(hashLow);
+            peer.getKnownBlocks().add(key);
+            if (blockchain.getBlockByHash(hashLow, false) != null) {
+                continue;
+            }
+            if (relayFilter != null && !relayFilter.shouldPull(key)) {
+                continue;
+            }
+            blockFetcher.request(peer, hashLow);
+            pulls++;
+        }
+        return pulls;
+    }
+
+    /** 向节点请求一个区块，支持批量请求的节点会与同一时间的其他请求合并 */
+    public void requestBlock(PeerChannel peer, byte[] hashLow) {
+        blockFetcher.request(peer, hashLow);
+    }
+
+    public BlockFetcher getBlockFetcher() {
+        return blockFetcher;
+    }
+
+    public RequestScheduler getRequestScheduler() {
+        return requestScheduler;
+    }
+
+    public long getBlocksRelayed() {
+        return blocksRelayed.get();
+    }
+
+    public long getRelaySends() {
+        return relaySends.get();
+    }
+
+    public long getAnnounced() {
+        return announced.get();
+    }
+
+    /** 每个transport的节点数 形如 xdag 3, libp2p 2 */
+    public String getPeerCounts() {
+        StringBuilder sb = new StringBuilder();
+        for (PeerTransport transport : transports) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(transport.getName()).append(' ').append(transport.getActivePeers().size());
+        }
+        return sb.toString();
+    }
+
+    public void stop() {
+        log.debug("Peer network stop...");
+        blockDistributeThread.interrupt();
+        blockFetcher.stop();
+        requestScheduler.stop();
+    }
+}
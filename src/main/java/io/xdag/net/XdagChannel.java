@@ -26,7 +26,7 @@ package io.xdag.net;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.socket.SocketChannel;
 import io.xdag.Kernel;
 import io.xdag.config.Config;
 import io.xdag.core.BlockWrapper;
@@ -38,19 +38,22 @@ import io.xdag.net.handler.XdagHandler;
 import io.xdag.net.handler.XdagHandlerFactory;
 import io.xdag.net.handler.XdagHandlerFactoryImpl;
 import io.xdag.net.handler.XdagHandshakeHandler;
+import io.xdag.net.manager.BlockRelayFilter;
 import io.xdag.net.message.MessageFactory;
 import io.xdag.net.message.MessageQueue;
 import io.xdag.net.message.impl.Xdag03MessageFactory;
 import io.xdag.net.node.Node;
+import io.xdag.utils.ByteArrayWrapper;
 import java.net.InetSocketAddress;
+import java.util.Set;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.util.encoders.Hex;
 
 @Data
 @Slf4j
-public class XdagChannel {
-    private final NioSocketChannel socket;
+public class XdagChannel implements PeerChannel {
+    private final SocketChannel socket;
     private InetSocketAddress inetSocketAddress;
     private boolean isActive;
     private boolean isDisconnected = false;
@@ -74,11 +77,17 @@ public class XdagChannel {
     /** 该channel对应的节点 */
     private Node node;
 
+    /** 对方已有的区块，广播时跳过 */
+    private final Set<ByteArrayWrapper> knownBlocks = BlockRelayFilter.newKnownBlocks();
+
+    /** 对方声明的能力位 */
+    private volatile long capabilities;
+
 
     // TODO：记录该连接发送错误消息的次数，一旦超过某个值将断开连接
     private int failTimes;
 
-    public XdagChannel(NioSocketChannel socketChannel) {
+    public XdagChannel(SocketChannel socketChannel) {
         this.socket = socketChannel;
     }
 
@@ -96,6 +105,7 @@ public class XdagChannel {
         this.msgQueue = new MessageQueue(this);
         this.messageCodec = new MessageCodes();
         this.blockHandler = new XdagBlockHandler(this);
+        blockHandler.setRelayFilter(kernel.getBlockRelayFilter());
         this.xdagHandlerFactory = new XdagHandlerFactoryImpl(kernel, this);
     }
 
@@ -130,6 +140,7 @@ public class XdagChannel {
         isDisconnected = true;
     }
 
+    @Override
     public boolean isDisconnected() {
         return isDisconnected;
     }
@@ -148,6 +159,7 @@ public class XdagChannel {
         node.getStat().Outbound.add(1);
     }
 
+    @Override
     public void sendNewBlock(BlockWrapper blockWrapper) {
         log.debug("send a block hash is {}", Hex.toHexString(blockWrapper.getBlock().getHashLow()));
         log.debug("ttl:" + blockWrapper.getTtl());
@@ -185,10 +197,12 @@ public class XdagChannel {
         return format;
     }
 
+    @Override
     public Xdag getXdag() {
         return xdag;
     }
 
+    @Override
     public void dropConnection() {
         xdag.dropConnection();
     }
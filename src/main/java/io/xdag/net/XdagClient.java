@@ -24,18 +24,12 @@
 package io.xdag.net;
 
 import java.io.IOException;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import javax.annotation.Nonnull;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultMessageSizeEstimator;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.xdag.config.Config;
 import io.xdag.net.handler.XdagChannelInitializer;
 import io.xdag.net.node.Node;
@@ -43,15 +37,6 @@ import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class XdagClient {
-    private static final ThreadFactory factory = new ThreadFactory() {
-        final AtomicInteger cnt = new AtomicInteger(0);
-
-        @Override
-        public Thread newThread(@Nonnull Runnable r) {
-            return new Thread(r, "client-" + cnt.getAndIncrement());
-        }
-    };
-
     private final EventLoopGroup workerGroup;
     private final int port;
     private final Config config;
@@ -63,7 +48,7 @@ public class XdagClient {
         this.config = config;
         this.ip = config.getNodeIp();
         this.port = config.getNodePort();
-        this.workerGroup = new NioEventLoopGroup(0, factory);
+        this.workerGroup = NettyTransport.newEventLoopGroup(config, config.getNodeEventLoopThreads(), "client-%d");
 //        log.debug("XdagClient nodeId {}", getNode().getHexId());
     }
 
@@ -85,7 +70,7 @@ public class XdagClient {
             String host, int port, XdagChannelInitializer xdagChannelInitializer) {
         Bootstrap b = new Bootstrap();
         b.group(workerGroup);
-        b.channel(NioSocketChannel.class);
+        b.channel(NettyTransport.channelClass(config));
         b.option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, DefaultMessageSizeEstimator.DEFAULT);
         b.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getConnectionTimeout());
         b.remoteAddress(host, port);
@@ -28,9 +28,8 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultMessageSizeEstimator;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.xdag.Kernel;
+import io.xdag.config.Config;
 import io.xdag.net.handler.XdagChannelInitializer;
 import lombok.extern.slf4j.Slf4j;
 
@@ -51,18 +50,20 @@ public class XdagServer {
     }
 
     public void start(String ip, int port) {
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup();
+        Config config = kernel.getConfig();
+        bossGroup = NettyTransport.newEventLoopGroup(config, 1, "xdag-server-boss-%d");
+        workerGroup = NettyTransport.newEventLoopGroup(config, config.getNodeEventLoopThreads(), "xdag-server-%d");
         try {
             ServerBootstrap b = new ServerBootstrap();
             b.group(bossGroup, workerGroup);
-            b.channel(NioServerSocketChannel.class);
+            b.channel(NettyTransport.serverChannelClass(config));
             b.childOption(ChannelOption.SO_KEEPALIVE, true);
             b.childOption(ChannelOption.MESSAGE_SIZE_ESTIMATOR, DefaultMessageSizeEstimator.DEFAULT);
             b.childOption(
                     ChannelOption.CONNECT_TIMEOUT_MILLIS, kernel.getConfig().getConnectionTimeout());
             b.childHandler(new XdagChannelInitializer(kernel, true, null));
-            log.debug("Listening for incoming connections, address: {}:{} ", ip, port);
+            log.debug("Listening for incoming connections, address: {}:{}, transport: {}", ip, port,
+                    NettyTransport.name(config));
             channelFuture = b.bind(ip, port).sync();
             listening = true;
             log.debug("Connection listen true");
@@ -25,7 +25,6 @@ package io.xdag.net.handler;
 
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageCodec;
-import io.xdag.core.XdagBlock;
 import io.xdag.net.message.Message;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -41,15 +40,10 @@ public class MessageCodes extends MessageToMessageCodec<Message, Message> {
     public MessageCodes() {
     }
 
-    public static XdagBlock convertMessage(Message message) {
-        return new XdagBlock(message.getEncoded());
-    }
-
-    /**出去的第二道*/
+    /**出去的第二道 由blockHandler直接编码到ByteBuf*/
     @Override
     protected void encode(ChannelHandlerContext ctx, Message msg, List<Object> out) {
-        XdagBlock xdagblock = convertMessage(msg);
-        out.add(xdagblock);
+        out.add(msg);
     }
     /**进来的第二道*/
     @Override
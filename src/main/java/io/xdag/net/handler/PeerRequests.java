@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net.handler;
+
+import static io.xdag.config.Constants.MAIN_BLOCKS_REPLY_TTL;
+import static io.xdag.config.Constants.REQUEST_BLOCKS_MAX_TIME;
+import static io.xdag.config.Constants.REQUEST_MAIN_BLOCKS_MAX_TIME;
+
+import io.xdag.Kernel;
+import io.xdag.core.Block;
+import io.xdag.core.Blockchain;
+import io.xdag.net.PeerChannel;
+import io.xdag.net.manager.PeerQuota;
+import io.xdag.net.manager.RequestScheduler;
+import io.xdag.net.message.impl.BlockExtReplyMessage;
+import io.xdag.net.message.impl.BlockExtRequestMessage;
+import io.xdag.net.message.impl.BlocksBatchReplyMessage;
+import io.xdag.net.message.impl.BlocksBatchRequestMessage;
+import io.xdag.net.message.impl.BlocksReplyMessage;
+import io.xdag.net.message.impl.BlocksRequestMessage;
+import io.xdag.net.message.impl.NewBlockMessage;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 老协议和libp2p连接共用的请求处理
+ *
+ * 需要读库的请求交给RequestScheduler在请求线程上执行，按对方的配额和发送队列的长度发送。
+ */
+@Slf4j
+public class PeerRequests {
+
+    private final Kernel kernel;
+    private final Blockchain blockchain;
+    private final PeerChannel channel;
+    /** 对方请求的配额 */
+    private final PeerQuota quota;
+
+    public PeerRequests(Kernel kernel, PeerChannel channel, PeerQuota quota) {
+        this.kernel = kernel;
+        this.blockchain = kernel.getBlockchain();
+        this.channel = channel;
+        this.quota = quota;
+    }
+
+    /** 发送一段时间内的全部区块，最后回复BLOCKS_REPLY */
+    public void processBlocksRequest(BlocksRequestMessage msg) {
+        long startTime = msg.getStarttime();
+        // 更长的时间段请求方应先比较sums
+        long endTime = Math.min(msg.getEndtime(), startTime + REQUEST_BLOCKS_MAX_TIME);
+        long random = msg.getRandom();
+        boolean accepted = scheduler().serveRange(quota, channel,
+                startTime, endTime, RequestScheduler.BLOCKS_STEP, 1, blockchain::getBlocksByTime,
+                () -> channel.getXdag().sendMessage(
+                        new BlocksReplyMessage(startTime, endTime, random, blockchain.getXdagStats())));
+        if (!accepted) {
+            log.debug("Peer {}: request quota exceeded, drop [{}]", channel.getNode().getAddress(), msg.getCommand());
+        }
+    }
+
+    /** 逐个发送时间段内的主块，最后回复BLOCKEXT_REPLY */
+    public void processBlockExtRequest(BlockExtRequestMessage msg) {
+        long startTime = msg.getStarttime();
+        long endTime = Math.min(msg.getEndtime(), startTime + REQUEST_MAIN_BLOCKS_MAX_TIME);
+        long random = msg.getRandom();
+        boolean accepted = scheduler().serveRange(quota, channel,
+                startTime, endTime, REQUEST_MAIN_BLOCKS_MAX_TIME, MAIN_BLOCKS_REPLY_TTL,
+                blockchain::getMainBlocksByTime,
+                () -> channel.getXdag().sendMessage(
+                        new BlockExtReplyMessage(startTime, endTime, random, blockchain.getXdagStats())));
+        if (!accepted) {
+            log.debug("Peer {}: request quota exceeded, drop [{}]", channel.getNode().getAddress(), msg.getCommand());
+        }
+    }
+
+    /** 批量区块请求 逐个发回找到的区块，最后回复没有的hash */
+    public void processBlocksBatchRequest(BlocksBatchRequestMessage msg) {
+        boolean accepted = scheduler().serve(quota, msg.getHashLows().size(), () -> {
+            List<byte[]> misses = new ArrayList<>();
+            for (byte[] hashLow : msg.getHashLows()) {
+                if (channel.isDisconnected()) {
+                    return;
+                }
+                Block block = blockchain.getBlockByHash(hashLow, true);
+                if (block == null) {
+                    misses.add(hashLow);
+                    continue;
+                }
+                channel.getXdag().sendMessage(new NewBlockMessage(block, kernel.getConfig().getTTL()));
+            }
+            channel.getXdag().sendMessage(new BlocksBatchReplyMessage(msg.getRandom(), misses));
+        });
+        if (!accepted) {
+            log.debug("Peer {}: request quota exceeded, drop [{}]", channel.getNode().getAddress(), msg.getCommand());
+        }
+    }
+
+    private RequestScheduler scheduler() {
+        return kernel.getPeerNetwork().getRequestScheduler();
+    }
+}
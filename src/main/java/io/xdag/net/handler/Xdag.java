@@ -26,6 +26,7 @@ package io.xdag.net.handler;
 import io.xdag.core.Block;
 import io.xdag.net.XdagVersion;
 import io.xdag.net.message.Message;
+import io.xdag.net.message.MessageQueue;
 
 public interface Xdag {
 
@@ -61,4 +62,7 @@ public interface Xdag {
     void onSyncDone(boolean done);
 
     void sendMessage(Message message);
+
+    /** 发送队列，时间段请求的回复按它的长度暂停 */
+    MessageQueue getMsgQueue();
 }
@@ -31,6 +31,7 @@ import io.xdag.core.BlockWrapper;
 import io.xdag.core.XdagStats;
 import io.xdag.net.XdagChannel;
 import io.xdag.net.XdagVersion;
+import io.xdag.net.manager.PeerQuota;
 import io.xdag.net.message.AbstractMessage;
 import io.xdag.net.message.Message;
 import io.xdag.net.message.impl.*;
@@ -41,7 +42,6 @@ import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.encoders.Hex;
 
 import javax.annotation.Nonnull;
-import java.util.List;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -58,12 +58,18 @@ public class Xdag03 extends XdagHandler {
     };
 
     private XdagVersion version = XdagVersion.V03;
+    /** 对方请求的配额 */
+    private final PeerQuota quota;
+    /** 与libp2p连接共用的请求处理 */
+    private final PeerRequests requests;
 
     public Xdag03(Kernel kernel, XdagChannel channel) {
         this.kernel = kernel;
         this.channel = channel;
         this.blockchain = kernel.getBlockchain();
         this.syncMgr = kernel.getSyncMgr();
+        this.quota = new PeerQuota(kernel.getConfig());
+        this.requests = new PeerRequests(kernel, channel, quota);
     }
 
     @Override
@@ -90,6 +96,18 @@ public class Xdag03 extends XdagHandler {
         case BLOCKEXT_REQUEST:
             processBlockExtRequest((BlockExtRequestMessage) msg);
             break;
+        case BLOCKEXT_REPLY:
+            processBlockExtReply((BlockExtReplyMessage) msg);
+            break;
+        case NEW_BLOCK_HASHES:
+            processNewBlockHashes((NewBlockHashesMessage) msg);
+            break;
+        case BLOCKS_BATCH_REQUEST:
+            processBlocksBatchRequest((BlocksBatchRequestMessage) msg);
+            break;
+        case BLOCKS_BATCH_REPLY:
+            kernel.getPeerNetwork().getBlockFetcher().onReply(channel, (BlocksBatchReplyMessage) msg);
+            break;
         default:
             break;
         }
@@ -100,6 +118,14 @@ public class Xdag03 extends XdagHandler {
         msgQueue.activate(ctx);
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (ctx.channel().isWritable()) {
+            msgQueue.onWritable();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
         log.debug("channelInactive:[{}] ", ctx.toString());
@@ -130,30 +156,35 @@ public class Xdag03 extends XdagHandler {
     protected void processNewBlock(NewBlockMessage msg) {
         Block block = msg.getBlock();
         log.info("processNewBlock:{}", Hex.toHexString(block.getHashLow()));
+        // 主链优先同步请求的主块只用于构建骨架，稍后随整段区块一起导入
+        if (kernel.getSync() != null && kernel.getSync().getMainChainSync().onNewBlock(channel, block, msg.getTtl())) {
+            return;
+        }
         BlockWrapper bw = new BlockWrapper(block, msg.getTtl() - 1, channel.getNode());
         syncMgr.validateAndAddNewBlock(bw);
     }
 
+    /** 区块通告 只拉取本地没有的区块 */
+    protected void processNewBlockHashes(NewBlockHashesMessage msg) {
+        kernel.getPeerNetwork().onAnnounce(channel, msg.getHashLows(), blockchain);
+    }
+
+    /** 批量区块请求 在请求线程上读库 */
+    protected void processBlocksBatchRequest(BlocksBatchRequestMessage msg) {
+        requests.processBlocksBatchRequest(msg);
+    }
+
     /** 区块请求响应一个区块 并开启一个线程不断发送一段时间内的区块 * */
     protected void processBlocksRequest(BlocksRequestMessage msg) {
-//        log.debug("processBlocksRequest:" + msg);
         // 更新全网状态
         updateXdagStats(msg);
-        long startTime = msg.getStarttime();
-        long endTime = msg.getEndtime();
-        long random = msg.getRandom();
-
-        // TODO: 如果请求时间间隔过大，启动新线程发送，目的是避免攻击
-        List<Block> blocks = blockchain.getBlocksByTime(startTime, endTime);
-        for (Block block : blocks) {
-            sendNewBlock(block, 1);
-        }
-        sendMessage(new BlocksReplyMessage(startTime, endTime, random, kernel.getBlockchain().getXdagStats()));
+        requests.processBlocksRequest(msg);
     }
 
     protected void processBlocksReply(BlocksReplyMessage msg) {
         updateXdagStats(msg);
         long randomSeq = msg.getRandom();
+        channel.getNode().getStat().onReply(randomSeq, channel.getNode().getStat().BlocksRtt);
         SettableFuture<byte[]> sf = kernel.getSync().getBlocksRequestMap().get(randomSeq);
         if(sf != null) {
             sf.set(new byte[]{0});
@@ -163,6 +194,9 @@ public class Xdag03 extends XdagHandler {
     /** 将sumRequest的后8个字段填充为自己的sum 修改type类型为reply 发送 */
     protected void processSumsRequest(SumRequestMessage msg) {
         updateXdagStats(msg);
+        if (!kernel.getPeerNetwork().getRequestScheduler().admit(quota, 1)) {
+            return;
+        }
         byte[] sums = new byte[256];
         kernel.getBlockStore().loadSum(msg.getStarttime(), msg.getEndtime(), sums);
         SumReplyMessage reply = new SumReplyMessage(msg.getEndtime(), msg.getRandom(), kernel.getBlockchain().getXdagStats(), sums);
@@ -172,17 +206,32 @@ public class Xdag03 extends XdagHandler {
     protected void processSumsReply(SumReplyMessage msg) {
         updateXdagStats(msg);
         long randomSeq = msg.getRandom();
+        channel.getNode().getStat().onReply(randomSeq, channel.getNode().getStat().SumsRtt);
         SettableFuture<byte[]> sf = kernel.getSync().getSumsRequestMap().get(randomSeq);
         if(sf != null) {
             sf.set(msg.getSum());
         }
     }
 
+    /** 逐个发送时间段内的主块 最后回复BLOCKEXT_REPLY */
     protected void processBlockExtRequest(BlockExtRequestMessage msg) {
+        updateXdagStats(msg);
+        requests.processBlockExtRequest(msg);
+    }
+
+    protected void processBlockExtReply(BlockExtReplyMessage msg) {
+        updateXdagStats(msg);
+        channel.getNode().getStat().onReply(msg.getRandom(), channel.getNode().getStat().BlocksRtt);
+        if (kernel.getSync() != null) {
+            kernel.getSync().getMainChainSync().onMainBlocksReply(msg.getRandom());
+        }
     }
 
     protected void processBlockRequest(BlockRequestMessage msg) {
 //        log.debug("processBlockRequest: hash:{}" + Hex.toHexString(msg.getHash()));
+        if (!kernel.getPeerNetwork().getRequestScheduler().admit(quota, 1)) {
+            return;
+        }
         byte[] find = new byte[32];
         byte[] hash = msg.getHash();
         hash = Arrays.reverse(hash);
@@ -206,6 +255,7 @@ public class Xdag03 extends XdagHandler {
     @Override
     public long sendGetBlocks(long startTime, long endTime) {
         BlocksRequestMessage msg = new BlocksRequestMessage(startTime, endTime, kernel.getBlockchain().getXdagStats());
+        channel.getNode().getStat().onRequest(msg.getRandom());
         sendMessage(msg);
         return msg.getRandom();
     }
@@ -226,6 +276,7 @@ public class Xdag03 extends XdagHandler {
     @Override
     public long sendGetSums(long startTime, long endTime) {
         SumRequestMessage msg = new SumRequestMessage(startTime, endTime, kernel.getBlockchain().getXdagStats());
+        channel.getNode().getStat().onRequest(msg.getRandom());
         sendMessage(msg);
         return msg.getRandom();
     }
@@ -247,6 +298,8 @@ public class Xdag03 extends XdagHandler {
     public void activate() {
         log.debug("Xdag protocol activate");
         //// xdagListener.trace("Xdag protocol activate");
+        // 空时间段的区块请求，让对方尽快知道本节点的能力位
+        sendMessage(new BlocksRequestMessage(0, 0, kernel.getBlockchain().getXdagStats()));
     }
 
     @Override
@@ -271,6 +324,10 @@ public class Xdag03 extends XdagHandler {
         XdagStats remoteXdagStats = message.getXdagStats();
         kernel.getBlockchain().getXdagStats().update(remoteXdagStats);
         kernel.getNetDBMgr().updateNetDB(message.getNetDB());
+        long capabilities = message.getCapabilities();
+        if (capabilities != 0) {
+            channel.setCapabilities(capabilities);
+        }
     }
 
 }
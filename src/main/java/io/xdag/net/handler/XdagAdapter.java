@@ -26,6 +26,7 @@ package io.xdag.net.handler;
 import io.xdag.core.Block;
 import io.xdag.net.XdagVersion;
 import io.xdag.net.message.Message;
+import io.xdag.net.message.MessageQueue;
 
 public class XdagAdapter implements Xdag {
     @Override
@@ -92,4 +93,9 @@ public class XdagAdapter implements Xdag {
     public void sendMessage(Message message) {
         // TODO Auto-generated method stub
     }
+
+    @Override
+    public MessageQueue getMsgQueue() {
+        return null;
+    }
 }
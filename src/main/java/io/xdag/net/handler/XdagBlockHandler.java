@@ -35,11 +35,14 @@ import io.netty.handler.codec.ByteToMessageCodec;
 import io.xdag.config.Config;
 import io.xdag.core.XdagBlock;
 import io.xdag.core.XdagField;
-import io.xdag.crypto.jni.Native;
+import io.xdag.crypto.jni.SectorCrypt;
+import io.xdag.net.PeerChannel;
 import io.xdag.net.XdagChannel;
+import io.xdag.net.manager.BlockRelayFilter;
 import io.xdag.net.message.Message;
 import io.xdag.net.message.MessageFactory;
 import io.xdag.net.message.impl.NewBlockMessage;
+import io.xdag.utils.ByteArrayWrapper;
 import io.xdag.utils.BytesUtils;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -48,13 +51,22 @@ import lombok.extern.slf4j.Slf4j;
 @EqualsAndHashCode(callSuper = false)
 @Slf4j
 @Data
-public class XdagBlockHandler extends ByteToMessageCodec<XdagBlock> {
-    private XdagChannel channel;
+public class XdagBlockHandler extends ByteToMessageCodec<Message> {
+    private final PeerChannel channel;
+    /** 扇区号相对收发区块数的偏移，老协议握手时已收发3个扇区 */
+    private final int sectorOffset;
     private Config config;
     private MessageFactory messageFactory;
+    private BlockRelayFilter relayFilter;
 
     public XdagBlockHandler(XdagChannel channel) {
+        this(channel, -3 + 1);
+    }
+
+    /** 老协议和libp2p连接共用同一套编解码和校验 */
+    protected XdagBlockHandler(PeerChannel channel, int sectorOffset) {
         this.channel = channel;
+        this.sectorOffset = sectorOffset;
     }
 
     /** 获取第i个的第n个字节 */
@@ -65,70 +77,103 @@ public class XdagBlockHandler extends ByteToMessageCodec<XdagBlock> {
         return (byte) (type >> (n << 2) & 0xf);
     }
 
-    /** T 加解密的过程outbound应该先用上一次结束后的值 发完才加 */
+    /** T 加解密的过程outbound应该先用上一次结束后的值 发完才加 消息直接编码到out后原地加密 */
     @Override
     protected void encode(
-            ChannelHandlerContext channelHandlerContext, XdagBlock xdagblock, ByteBuf out) {
-        byte[] unCryptData = xdagblock.getData();
-
-        byte[] encryptData = Native.dfslib_encrypt_byte_sector(unCryptData, unCryptData.length,
-                channel.getNode().getStat().Outbound.get() - 3 + 1);
-        out.writeBytes(encryptData);
+            ChannelHandlerContext channelHandlerContext, Message msg, ByteBuf out) {
+        out.ensureWritable(XdagBlock.XDAG_BLOCK_SIZE);
+        int index = out.writerIndex();
+        msg.encode(out);
+        SectorCrypt.encryptSectors(out, index, 1, channel.getNode().getStat().Outbound.get() + sectorOffset);
         channel.getNode().getStat().Outbound.add();
     }
 
+    /** 一次解密并解析buffer中所有完整的区块 */
     @Override
     protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf in, List<Object> out) {
-        if (in.readableBytes() >= XdagBlock.XDAG_BLOCK_SIZE) {
-            log.trace("Decoding packet (" + in.readableBytes() + " bytes)");
-            byte[] encryptData = new byte[512];
-            in.readBytes(encryptData);
-            byte[] unCryptData = Native.dfslib_uncrypt_byte_sector(encryptData, encryptData.length,
-                    channel.getNode().getStat().Inbound.get() - 3 + 1);
-            // 该通道的输入记录加一
-            channel.getNode().getStat().Inbound.add();
-
-            // TODO:处理xdagblock的传输头
-            // 8b010002f91eb6eb -> ebb61ef90200018b
-            long transportHeader = BytesUtils.bytesToLong(unCryptData, 0, true);
-            // 转发次数
-            int ttl = (int) ((transportHeader >> 8) & 0xff);
-            // 数据长度 应该为512
-            long dataLength = (transportHeader >> 16 & 0xffff);
-            // crc校验码
-            int crc = BytesUtils.bytesToInt(unCryptData, 4, true);
-            // 清除transportheader
-            System.arraycopy(BytesUtils.longToBytes(0, true), 0, unCryptData, 4, 4);
-
-            // 验证长度和crc校验 如果多次失败考虑断开
-            if (dataLength != 512 || !crc32Verify(unCryptData, crc)) {
-                log.debug(dataLength + " length");
-                log.debug("receive not block verify error!");
-                return;
+        int count = in.readableBytes() / XdagBlock.XDAG_BLOCK_SIZE;
+        if (count == 0) {
+            log.debug("length less than " + XdagBlock.XDAG_BLOCK_SIZE + " bytes");
+            return;
+        }
+        log.trace("Decoding packet (" + in.readableBytes() + " bytes)");
+        // 已读取的字节不会再交给其他handler 可以原地解密
+        SectorCrypt.uncryptSectors(in, in.readerIndex(), count,
+                channel.getNode().getStat().Inbound.get() + sectorOffset);
+        // 该通道的输入记录加count
+        channel.getNode().getStat().Inbound.add(count);
+
+        // 这些区块已经解密并计数，解析失败也要全部读走，否则留在buffer中的下次会被再解密一次
+        RuntimeException error = null;
+        for (int i = 0; i < count; i++) {
+            byte[] unCryptData = new byte[XdagBlock.XDAG_BLOCK_SIZE];
+            in.readBytes(unCryptData);
+            try {
+                Message msg = decodeBlock(unCryptData);
+                if (msg != null) {
+                    out.add(msg);
+                }
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                }
             }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
 
-            System.arraycopy(BytesUtils.longToBytes(0, true), 0, unCryptData, 0, 8);
+    private Message decodeBlock(byte[] unCryptData) {
+        // TODO:处理xdagblock的传输头
+        // 8b010002f91eb6eb -> ebb61ef90200018b
+        long transportHeader = BytesUtils.bytesToLong(unCryptData, 0, true);
+        // 转发次数
+        int ttl = (int) ((transportHeader >> 8) & 0xff);
+        // 数据长度 应该为512
+        long dataLength = (transportHeader >> 16 & 0xffff);
+        // crc校验码
+        int crc = BytesUtils.bytesToInt(unCryptData, 4, true);
+        // 清除transportheader
+        System.arraycopy(BytesUtils.longToBytes(0, true), 0, unCryptData, 4, 4);
 
-            XdagBlock xdagBlock = new XdagBlock(unCryptData);
-            byte first_field_type = getMsgCode(xdagBlock, 0);
-            Message msg = null;
-            // 普通区块
-            XdagField.FieldType netType = MAINNET ? XdagField.FieldType.XDAG_FIELD_HEAD : XDAG_FIELD_HEAD_TEST;
-            if (netType.asByte() == first_field_type) {
-                msg = new NewBlockMessage(xdagBlock, ttl);
-            }
-            // 消息区块
-            else if (XdagField.FieldType.XDAG_FIELD_NONCE.asByte() == first_field_type) {
-                msg = messageFactory.create(getMsgCode(xdagBlock, 1), xdagBlock.getData());
-            }
-            if (msg != null) {
-                out.add(msg);
-            } else {
-                log.debug("receive unknown block first_field_type :" + first_field_type);
+        // 验证长度和crc校验 如果多次失败考虑断开
+        if (dataLength != 512 || !crc32Verify(unCryptData, crc)) {
+            log.debug(dataLength + " length");
+            log.debug("receive not block verify error!");
+            return null;
+        }
+
+        System.arraycopy(BytesUtils.longToBytes(0, true), 0, unCryptData, 0, 8);
+
+        XdagBlock xdagBlock = new XdagBlock(unCryptData);
+        byte first_field_type = getMsgCode(xdagBlock, 0);
+        Message msg = null;
+        // 普通区块
+        XdagField.FieldType netType = MAINNET ? XdagField.FieldType.XDAG_FIELD_HEAD : XDAG_FIELD_HEAD_TEST;
+        if (netType.asByte() == first_field_type) {
+            if (isDuplicate(unCryptData, ttl)) {
+                return null;
             }
+            msg = new NewBlockMessage(xdagBlock, ttl);
+        }
+        // 消息区块
+        else if (XdagField.FieldType.XDAG_FIELD_NONCE.asByte() == first_field_type) {
+            msg = messageFactory.create(getMsgCode(xdagBlock, 1), xdagBlock.getData());
+        }
+        if (msg == null) {
+            log.debug("receive unknown block first_field_type :" + first_field_type);
+        }
+        return msg;
+    }
 
-        } else {
-            log.debug("length less than " + XdagBlock.XDAG_BLOCK_SIZE + " bytes");
+    /** 记录对方已有该区块，最近收到过的转发区块不再解析 */
+    private boolean isDuplicate(byte[] data, int ttl) {
+        if (relayFilter == null) {
+            return false;
         }
+        ByteArrayWrapper hashLow = BlockRelayFilter.hashLow(data);
+        channel.getKnownBlocks().add(hashLow);
+        return relayFilter.isDuplicate(hashLow, ttl);
     }
 }
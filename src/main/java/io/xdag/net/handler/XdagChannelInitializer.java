@@ -28,7 +28,7 @@ import java.net.InetSocketAddress;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.socket.SocketChannel;
 import io.xdag.Kernel;
 import io.xdag.net.XdagChannel;
 import io.xdag.net.manager.XdagChannelManager;
@@ -36,7 +36,7 @@ import io.xdag.net.node.Node;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
-public class XdagChannelInitializer extends ChannelInitializer<NioSocketChannel> {
+public class XdagChannelInitializer extends ChannelInitializer<SocketChannel> {
     private final Node remoteNode;
     protected Kernel kernel;
     private final XdagChannelManager channelMgr;
@@ -50,7 +50,7 @@ public class XdagChannelInitializer extends ChannelInitializer<NioSocketChannel>
     }
 
     @Override
-    protected void initChannel(NioSocketChannel ch) {
+    protected void initChannel(SocketChannel ch) {
         try {
             // log.debug("new input channel");
             InetSocketAddress address = isServer ? ch.remoteAddress() : remoteNode.getAddress();
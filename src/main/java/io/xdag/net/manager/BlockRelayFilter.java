@@ -0,0 +1,146 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net.manager;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.xdag.crypto.Hash;
+import io.xdag.utils.ByteArrayWrapper;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * 区块转发去重
+ *
+ * 全局记录最近收到的区块，重复转发来的区块在解码时丢弃，不再解析和导入；
+ * 每个节点记录它已有的区块，广播时跳过这些节点。
+ * 收到区块通告时，最近没有收到也没有请求过的区块才去拉取。
+ */
+public class BlockRelayFilter {
+
+    /** 全局最近区块的记录数 */
+    public static final int RECENT_BLOCKS_SIZE = 1 << 17;
+    /** 每个节点已知区块的记录数 */
+    public static final int KNOWN_BLOCKS_SIZE = 1 << 13;
+    /** 拉取的区块这么久没有到达时，可以向其他通告的节点重新请求 秒 */
+    public static final int PULL_TIMEOUT = 5;
+
+    private final Cache<ByteArrayWrapper, Boolean> recentBlocks = Caffeine.newBuilder()
+            .maximumSize(RECENT_BLOCKS_SIZE)
+            .build();
+
+    /** 已经请求过的通告区块 */
+    private final Cache<ByteArrayWrapper, Boolean> requestedBlocks = Caffeine.newBuilder()
+            .maximumSize(RECENT_BLOCKS_SIZE)
+            .expireAfterWrite(PULL_TIMEOUT, TimeUnit.SECONDS)
+            .build();
+
+    /** 解码时丢弃的重复区块数 */
+    private final AtomicLong duplicatesDropped = new AtomicLong();
+    /** 广播时因对方已有而跳过的发送数 */
+    private final AtomicLong sendsSkipped = new AtomicLong();
+    /** 收到通告后拉取的区块数 */
+    private final AtomicLong pulled = new AtomicLong();
+
+    /** 新建一个节点的已知区块集合 */
+    public static Set<ByteArrayWrapper> newKnownBlocks() {
+        Cache<ByteArrayWrapper, Boolean> cache = Caffeine.newBuilder()
+                .maximumSize(KNOWN_BLOCKS_SIZE)
+                .build();
+        return Collections.newSetFromMap(cache.asMap());
+    }
+
+    /** 解密后的512字节区块数据(传输头已清零)对应的hashlow */
+    public static ByteArrayWrapper hashLow(byte[] data) {
+        byte[] hash = Arrays.reverse(Hash.hashTwice(data));
+        byte[] hashLow = new byte[32];
+        System.arraycopy(hash, 8, hashLow, 8, 24);
+        return new ByteArrayWrapper(hashLow);
+    }
+
+    /**
+     * 记录收到的区块
+     *
+     * ttl为1的是同步请求的回复或最后一跳，只记录不丢弃
+     *
+     * @return 最近已经收到过的转发区块返回true，应当丢弃
+     */
+    public boolean isDuplicate(ByteArrayWrapper hashLow, int ttl) {
+        boolean seen = recentBlocks.asMap().putIfAbsent(hashLow, Boolean.TRUE) != null;
+        if (seen && ttl > 1) {
+            duplicatesDropped.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 广播前记录节点将拥有该区块
+     *
+     * @return 需要发送返回true，对方已有返回false
+     */
+    public boolean markSent(Set<ByteArrayWrapper> knownBlocks, ByteArrayWrapper hashLow) {
+        if (knownBlocks.add(hashLow)) {
+            return true;
+        }
+        sendsSkipped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 收到区块通告时判断是否需要拉取
+     *
+     * @return 最近没有收到过，也没有在等待其他节点回复时返回true
+     */
+    public boolean shouldPull(ByteArrayWrapper hashLow) {
+        if (recentBlocks.getIfPresent(hashLow) != null) {
+            return false;
+        }
+        if (requestedBlocks.asMap().putIfAbsent(hashLow, Boolean.TRUE) != null) {
+            return false;
+        }
+        pulled.incrementAndGet();
+        return true;
+    }
+
+    /** 对方回复没有该区块，收到其他节点的通告时可以立即再拉取 */
+    public void clearRequested(ByteArrayWrapper hashLow) {
+        requestedBlocks.invalidate(hashLow);
+    }
+
+    public long getPulled() {
+        return pulled.get();
+    }
+
+    public long getDuplicatesDropped() {
+        return duplicatesDropped.get();
+    }
+
+    public long getSendsSkipped() {
+        return sendsSkipped.get();
+    }
+}
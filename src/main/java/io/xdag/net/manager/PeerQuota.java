@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net.manager;
+
+import io.xdag.config.Config;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 单个节点的请求配额
+ *
+ * 请求次数和发送字节各用一个令牌桶，另外限制同时处理的时间段请求数。
+ * 每个连接的handler持有一个，老协议和libp2p连接相同。
+ */
+public class PeerQuota {
+
+    /** 令牌桶容量为每秒速率的倍数，允许短时间的突发 */
+    static final int BURST_SECONDS = 4;
+
+    private final TokenBucket requests;
+    private final TokenBucket bytes;
+    private final int maxRangeRequests;
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    /** 因超出配额被丢弃的请求数 */
+    private final AtomicLong throttled = new AtomicLong();
+
+    public PeerQuota(Config config) {
+        this(config.getPeerRequestsPerSecond(), config.getPeerBytesPerSecond(), config.getPeerMaxRangeRequests(),
+                System::nanoTime);
+    }
+
+    /** clock为纳秒时钟 */
+    public PeerQuota(long requestsPerSecond, long bytesPerSecond, int maxRangeRequests, LongSupplier clock) {
+        this.requests = new TokenBucket(requestsPerSecond, clock);
+        this.bytes = new TokenBucket(bytesPerSecond, clock);
+        this.maxRangeRequests = maxRangeRequests;
+    }
+
+    /** 处理一个请求前调用，cost为请求的区块数 */
+    public boolean tryRequest(int cost) {
+        if (requests.tryAcquire(cost) == 0) {
+            return true;
+        }
+        throttled.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 发送数据前调用
+     *
+     * @return 0表示已取得配额，否则为需要等待的纳秒数
+     */
+    public long acquireBytes(int size) {
+        return bytes.tryAcquire(size);
+    }
+
+    public boolean tryStartRange() {
+        if (rangeRequests.incrementAndGet() <= maxRangeRequests) {
+            return true;
+        }
+        rangeRequests.decrementAndGet();
+        throttled.incrementAndGet();
+        return false;
+    }
+
+    public void endRange() {
+        rangeRequests.decrementAndGet();
+    }
+
+    public int getRangeRequests() {
+        return rangeRequests.get();
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    /** 按时间补充令牌，不足时返回还需等待的时间 */
+    static class TokenBucket {
+
+        private final long rate;
+        private final double capacity;
+        private final LongSupplier clock;
+        private double tokens;
+        private long last;
+
+        TokenBucket(long rate, LongSupplier clock) {
+            this.rate = Math.max(1, rate);
+            this.capacity = (double) this.rate * BURST_SECONDS;
+            this.clock = clock;
+            this.tokens = capacity;
+            this.last = clock.getAsLong();
+        }
+
+        synchronized long tryAcquire(long n) {
+            long now = clock.getAsLong();
+            tokens = Math.min(capacity, tokens + (now - last) * rate / (double) TimeUnit.SECONDS.toNanos(1));
+            last = now;
+            if (tokens >= n) {
+                tokens -= n;
+                return 0;
+            }
+            return Math.max(1, (long) ((n - tokens) * TimeUnit.SECONDS.toNanos(1) / rate));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net.manager;
+
+import static io.xdag.config.Constants.REQUEST_WAIT;
+
+import io.xdag.net.PeerChannel;
+import io.xdag.net.node.NodeStat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 节点评分
+ *
+ * 根据往返时间、请求成功率、接收速率和无效区块数给节点打分，
+ * 同步请求优先发给分数高的节点，长期超时或发送无效区块的节点会被断开。
+ */
+@Slf4j
+public class PeerScorer {
+
+    /** 至少发出这么多请求后才判断节点是否太差 */
+    static final int MIN_REQUESTS = 8;
+    /** 超过这么多无效区块的节点直接断开 */
+    static final int MAX_INVALID_BLOCKS = 64;
+    /** 断开差节点后至少保留的连接数 */
+    static final int MIN_PEERS = 2;
+    /** 对冲请求前等待的时间范围 ms */
+    static final long MIN_HEDGE_DELAY = 500;
+    static final long MAX_HEDGE_DELAY = REQUEST_WAIT * 1000 / 4;
+
+    private PeerScorer() {
+    }
+
+    /** 分数越高越好 */
+    public static double score(NodeStat stat) {
+        long requests = stat.Requests.get();
+        // 拉普拉斯平滑 新节点成功率为0.5
+        double success = (requests - stat.Timeouts.get() + 1.0) / (requests + 2.0);
+        double speed = 1000.0 / (stat.getRtt() + 100);
+        double throughput = 1 + Math.log10(1 + stat.getInboundRate());
+        double penalty = 1 + stat.InvalidBlocks.get() / 8.0;
+        return success * speed * throughput / penalty;
+    }
+
+    /** 大部分请求超时或发送了大量无效区块 */
+    public static boolean isPoor(NodeStat stat) {
+        if (stat.InvalidBlocks.get() > MAX_INVALID_BLOCKS) {
+            return true;
+        }
+        long requests = stat.Requests.get();
+        return requests >= MIN_REQUESTS && stat.Timeouts.get() * 2 > requests;
+    }
+
+    /** 按分数从高到低排序 */
+    public static List<PeerChannel> rank(List<PeerChannel> channels) {
+        List<PeerChannel> ranked = new ArrayList<>(channels);
+        ranked.sort(Comparator.comparingDouble((PeerChannel c) -> score(c.getNode().getStat())).reversed());
+        return ranked;
+    }
+
+    /** 等待该节点回复多久后向下一个节点发送同样的请求 */
+    public static long hedgeDelay(NodeStat stat) {
+        return Math.min(MAX_HEDGE_DELAY, Math.max(MIN_HEDGE_DELAY, stat.getRtt() * 3));
+    }
+
+    /**
+     * 断开太差的节点，至少保留MIN_PEERS个连接
+     *
+     * @return 断开的节点数
+     */
+    public static int disconnectPoor(List<PeerChannel> channels) {
+        List<PeerChannel> ranked = rank(channels);
+        int remain = ranked.size();
+        int dropped = 0;
+        // 从分数最低的开始
+        for (int i = ranked.size() - 1; i >= 0 && remain > MIN_PEERS; i--) {
+            PeerChannel channel = ranked.get(i);
+            NodeStat stat = channel.getNode().getStat();
+            if (isPoor(stat)) {
+                log.info("Disconnect poor peer {}: {} requests, {} timeouts, {} invalid blocks, rtt {} ms",
+                        channel.getNode().getAddress(), stat.Requests.get(), stat.Timeouts.get(),
+                        stat.InvalidBlocks.get(), stat.getRtt());
+                channel.getXdag().dropConnection();
+                remain--;
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+}
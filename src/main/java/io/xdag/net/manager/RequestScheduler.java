@@ -0,0 +1,192 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net.manager;
+
+import io.xdag.core.Block;
+import io.xdag.core.XdagBlock;
+import io.xdag.net.PeerChannel;
+import io.xdag.net.message.MessageQueue;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+/**
+ * 处理节点的时间段请求
+ *
+ * 需要读库的请求不在事件循环上执行，批量请求整个交给这里的线程；时间段请求由这里的线程分段读取区块，每段最多step时间，
+ * 按节点的字节配额发送，配额用完或对方的发送队列超过低水位时推迟剩余部分，不占用线程等待。
+ * 对方读得慢时回复停在这里，不会把发送队列推到硬上限而被断开。
+ */
+@Slf4j
+public class RequestScheduler {
+
+    /** 区块时间段请求每次读取一个epoch */
+    public static final long BLOCKS_STEP = 1 << 16;
+    /** 处理时间段请求的线程数 */
+    public static final int THREADS = 2;
+    /** 对方发送队列超过这个长度时暂停时间段回复 */
+    public static final int QUEUE_LOW_WATERMARK = MessageQueue.MAX_QUEUE_SIZE / 16;
+    /** 发送队列满或不可写时，隔多久再检查，毫秒 */
+    private static final long QUEUE_RETRY_MILLIS = 50;
+
+    private final ScheduledExecutorService exec;
+
+    /** 被丢弃的请求数和因字节配额或发送队列推迟发送的次数 */
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+
+    public RequestScheduler(int threads) {
+        this.exec = new ScheduledThreadPoolExecutor(Math.max(1, threads), new BasicThreadFactory.Builder()
+                .namingPattern("request-scheduler-%d")
+                .daemon(true)
+                .build());
+    }
+
+    /** 请求频率检查，超出配额的请求直接丢弃，对方按超时处理 */
+    public boolean admit(PeerQuota quota, int cost) {
+        if (quota.tryRequest(cost)) {
+            return true;
+        }
+        throttled.incrementAndGet();
+        return false;
+    }
+
+    /** 按cost检查频率后在请求线程上执行task，超出配额返回false */
+    public boolean serve(PeerQuota quota, int cost, Runnable task) {
+        if (!admit(quota, cost)) {
+            return false;
+        }
+        exec.execute(() -> {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                log.error("Serve request fail: {}", e.getMessage(), e);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 发送[startTime, endTime)内的区块，全部发出后执行done
+     *
+     * @param ttl 回复区块的ttl
+     * @param query 读取一段时间内的区块
+     * @return 同时处理的时间段请求超过上限时返回false
+     */
+    public boolean serveRange(PeerQuota quota, PeerChannel peer, long startTime, long endTime, long step, int ttl,
+            BiFunction<Long, Long, List<Block>> query, Runnable done) {
+        if (!admit(quota, 1)) {
+            return false;
+        }
+        if (!quota.tryStartRange()) {
+            throttled.incrementAndGet();
+            return false;
+        }
+        exec.execute(new RangeTask(quota, peer, startTime, endTime, step, ttl, query, done));
+        return true;
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    public long getDeferred() {
+        return deferred.get();
+    }
+
+    public void stop() {
+        exec.shutdownNow();
+    }
+
+    private class RangeTask implements Runnable {
+
+        private final PeerQuota quota;
+        private final PeerChannel peer;
+        private final long endTime;
+        private final long step;
+        private final int ttl;
+        private final BiFunction<Long, Long, List<Block>> query;
+        private final Runnable done;
+        private final Deque<Block> pending = new ArrayDeque<>();
+        private long next;
+
+        RangeTask(PeerQuota quota, PeerChannel peer, long startTime, long endTime, long step, int ttl,
+                BiFunction<Long, Long, List<Block>> query, Runnable done) {
+            this.quota = quota;
+            this.peer = peer;
+            this.next = startTime;
+            this.endTime = endTime;
+            this.step = Math.max(1, step);
+            this.ttl = ttl;
+            this.query = query;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!peer.isDisconnected()) {
+                    if (pending.isEmpty()) {
+                        if (next >= endTime) {
+                            done.run();
+                            break;
+                        }
+                        long to = endTime - next > step ? next + step : endTime;
+                        pending.addAll(query.apply(next, to));
+                        next = to;
+                        continue;
+                    }
+                    if (isBacklogged()) {
+                        deferred.incrementAndGet();
+                        exec.schedule(this, QUEUE_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                    long wait = quota.acquireBytes(XdagBlock.XDAG_BLOCK_SIZE);
+                    if (wait > 0) {
+                        deferred.incrementAndGet();
+                        exec.schedule(this, wait, TimeUnit.NANOSECONDS);
+                        return;
+                    }
+                    peer.getXdag().sendNewBlock(pending.poll(), ttl);
+                }
+            } catch (Throwable e) {
+                log.error("Serve range request fail: {}", e.getMessage(), e);
+            }
+            quota.endRange();
+        }
+
+        /** 对方还没读走之前的回复 */
+        private boolean isBacklogged() {
+            MessageQueue queue = peer.getXdag().getMsgQueue();
+            return queue != null && (queue.size() > QUEUE_LOW_WATERMARK || !queue.isWritable());
+        }
+    }
+}
@@ -24,37 +24,32 @@
 package io.xdag.net.manager;
 
 import io.xdag.Kernel;
-import io.xdag.core.BlockWrapper;
+import io.xdag.net.PeerChannel;
+import io.xdag.net.PeerTransport;
 import io.xdag.net.XdagChannel;
 import io.xdag.net.node.Node;
 import java.net.InetSocketAddress;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import lombok.extern.slf4j.Slf4j;
 
+/** 老协议连接，区块广播由PeerNetwork统一处理 */
 @Slf4j
-public class XdagChannelManager {
+public class XdagChannelManager implements PeerTransport {
     protected ConcurrentHashMap<InetSocketAddress, XdagChannel> channels = new ConcurrentHashMap<>();
     protected ConcurrentHashMap<String, XdagChannel> activeChannels = new ConcurrentHashMap<>();
     private final Kernel kernel;
-    /** Queue with new blocks from other peers */
-    private final BlockingQueue<BlockWrapper> newForeignBlocks = new LinkedBlockingQueue<>();
-    // 广播区块
-    private final Thread blockDistributeThread;
 
     private final Set<InetSocketAddress> addressSet  = new HashSet<>();
 
     public XdagChannelManager(Kernel kernel) {
         this.kernel = kernel;
-        // Resending new blocks to network in loop
-        this.blockDistributeThread = new Thread(this::newBlocksDistributeLoop, "NewSyncThreadBlocks");
         initWhiteIPs();
     }
 
-    public void start() {
-        blockDistributeThread.start();
+    @Override
+    public String getName() {
+        return "xdag";
     }
 
     public void add(XdagChannel ch) {
@@ -82,45 +77,9 @@ public class XdagChannelManager {
         return new ArrayList<>(activeChannels.values());
     }
 
-    /** Processing new blocks received from other peers from queue */
-    private void newBlocksDistributeLoop() {
-        while (!Thread.currentThread().isInterrupted()) {
-            BlockWrapper wrapper = null;
-            try {
-                wrapper = newForeignBlocks.take();
-                log.debug("no problem..");
-                sendNewBlock(wrapper);
-            } catch (InterruptedException e) {
-                break;
-            } catch (Throwable e) {
-                if (wrapper != null) {
-                    log.error("Block dump: {}", wrapper.getBlock());
-                } else {
-                    log.error("Error broadcasting unknown block", e);
-                }
-            }
-        }
-    }
-
-    // TODO:怎么发送 目前是发给除receive的节点
-    public void sendNewBlock(BlockWrapper blockWrapper) {
-        Node receive;
-        // 说明是自己产生的
-        if (blockWrapper.getRemoteNode() == null
-                || blockWrapper.getRemoteNode().equals(kernel.getClient().getNode())) {
-            receive = kernel.getClient().getNode();
-        } else {
-            XdagChannel receiveChannel = activeChannels.get(blockWrapper.getRemoteNode().getHexId());
-            receive = receiveChannel != null ? receiveChannel.getNode() : null;
-        }
-        for (XdagChannel channel : activeChannels.values()) {
-            if (receive != null && channel.getNode().getHexId().equals(receive.getHexId())) {
-                log.debug("不发送给他");
-                continue;
-            }
-            log.debug("发送给除receive的节点");
-            channel.sendNewBlock(blockWrapper);
-        }
+    @Override
+    public List<PeerChannel> getActivePeers() {
+        return new ArrayList<>(activeChannels.values());
     }
 
     public void onChannelActive(XdagChannel channel, Node node) {
@@ -129,10 +88,6 @@ public class XdagChannelManager {
         log.debug("activeChannel size:" + activeChannels.size());
     }
 
-    public void onNewForeignBlock(BlockWrapper blockWrapper) {
-        newForeignBlocks.add(blockWrapper);
-    }
-
     public boolean containsNode(Node node) {
         return activeChannels.containsKey(node.getHexId());
     }
@@ -181,10 +136,6 @@ public class XdagChannelManager {
 
     public void stop() {
         log.debug("Channel Manager stop...");
-        if (blockDistributeThread != null) {
-            // 中断
-            blockDistributeThread.interrupt();
-        }
         // 关闭所有连接
         for (XdagChannel channel : activeChannels.values()) {
             channel.dropConnection();
@@ -29,9 +29,10 @@ import static io.xdag.core.XdagField.FieldType.XDAG_FIELD_NONCE;
 import static io.xdag.net.message.XdagMessageCodes.SUMS_REPLY;
 
 import java.math.BigInteger;
-import java.util.zip.CRC32;
 
+import io.netty.buffer.ByteBuf;
 import io.xdag.core.XdagStats;
+import io.xdag.net.Capability;
 
 import io.xdag.utils.BytesUtils;
 import lombok.EqualsAndHashCode;
@@ -41,6 +42,10 @@ import org.bouncycastle.util.encoders.Hex;
 
 @EqualsAndHashCode(callSuper = false)
 public abstract class AbstractMessage extends Message {
+    /** TODO：后续根据ip替换 net 相关 */
+    private static final byte[] NET_INFO = Hex.decode(
+            "04000000040000003ef4780100000000" + "7f000001611e7f000001b8227f0000015f767f000001d49d");
+
     @Getter
     @Setter
     protected long starttime;
@@ -72,7 +77,6 @@ public abstract class AbstractMessage extends Message {
         this.random = random;
         this.xdagStats = xdagStats;
         this.codes = type;
-        encode();
     }
 
     public AbstractMessage(XdagMessageCodes type, long starttime, long endtime, byte[] hash, XdagStats xdagStats) {
@@ -82,7 +86,6 @@ public abstract class AbstractMessage extends Message {
         this.hash = hash;
         this.xdagStats = xdagStats;
         this.codes = type;
-        encode();
     }
 
     public AbstractMessage(byte[] data) {
@@ -98,6 +101,22 @@ public abstract class AbstractMessage extends Message {
         return netDB;
     }
 
+    /**
+     * 对方声明的能力位，本地创建的消息为本节点的能力
+     *
+     * 老节点在请求消息上原地改写出回复，会把我们请求里的能力位原样带回，
+     * 所以只从对方主动发起的请求中读取，回复一律返回0
+     */
+    public long getCapabilities() {
+        if (encoded == null) {
+            return Capability.LOCAL;
+        }
+        if (getAnswerMessage() == null) {
+            return 0;
+        }
+        return Capability.decode(BytesUtils.bytesToLong(encoded, Capability.OFFSET, true));
+    }
+
     public void parse() {
         if (parsed) {
             return;
@@ -122,54 +141,67 @@ public abstract class AbstractMessage extends Message {
         parsed = true;
     }
 
+    @Override
+    public byte[] getEncoded() {
+        if (encoded == null) {
+            encode();
+        }
+        return encoded;
+    }
+
     public void encode() {
         parsed = true;
-        encoded = new byte[512];
+        encoded = encodeToArray();
+    }
+
+    @Override
+    public void encode(ByteBuf buf) {
+        int index = buf.writerIndex();
+        buf.writeZero(XDAG_BLOCK_SIZE);
+        writeFields(buf, index);
+        updateCrc(buf, index);
+    }
+
+    /** 按固定偏移写入各字段，index为消息在buf中的起始位置 */
+    protected void writeFields(ByteBuf buf, int index) {
         int ttl = 1;
         long transportheader = (ttl << 8) | DNET_PKT_XDAG | (XDAG_BLOCK_SIZE << 16);
         long type = (codes.asByte() << 4) | XDAG_FIELD_NONCE.asByte();
 
-        BigInteger diff = xdagStats.difficulty;
-        BigInteger maxDiff = xdagStats.maxdifficulty;
         long nmain = xdagStats.nmain;
         long totalMainNumber = Math.max(xdagStats.totalnmain,nmain);
-        long nblocks = xdagStats.nblocks;
-        long totalBlockNumber = xdagStats.totalnblocks;
-
-        // TODO：后续根据ip替换
-        String tmp = "04000000040000003ef4780100000000" + "7f000001611e7f000001b8227f0000015f767f000001d49d";
-        // net 相关
-        byte[] tmpbyte = Hex.decode(tmp);
 
         // add netdb
         // byte[] iplist = netDB.encode(netDB.getActiveIP());
 
         // field 0 and field1
-        byte[] first = BytesUtils.merge(
-                BytesUtils.longToBytes(transportheader, true),
-                BytesUtils.longToBytes(type, true),
-                BytesUtils.longToBytes(starttime, true),
-                BytesUtils.longToBytes(endtime, true));
-        System.arraycopy(first, 0, encoded, 0, 32);
-        System.arraycopy(BytesUtils.longToBytes(random, true), 0, encoded, 32, 8);
+        buf.setLongLE(index, transportheader);
+        buf.setLongLE(index + 8, type);
+        buf.setLongLE(index + 16, starttime);
+        buf.setLongLE(index + 24, endtime);
+        buf.setLongLE(index + 32, random);
+        buf.setLongLE(index + Capability.OFFSET, Capability.encode(Capability.LOCAL));
 
         // field2 diff and maxdiff
-        System.arraycopy(BytesUtils.bigIntegerToBytes(diff, 16, true), 0, encoded, 64, 16);
-        System.arraycopy(BytesUtils.bigIntegerToBytes(maxDiff, 16, true), 0, encoded, 80, 16);
+        setBigInteger(buf, index + 64, xdagStats.difficulty);
+        setBigInteger(buf, index + 80, xdagStats.maxdifficulty);
 
         // field3 nblock totalblock main totalmain
-        System.arraycopy(BytesUtils.longToBytes(nblocks, true), 0, encoded, 96, 8);
-        System.arraycopy(BytesUtils.longToBytes(totalBlockNumber, true), 0, encoded, 104, 8);
-        System.arraycopy(BytesUtils.longToBytes(nmain, true), 0, encoded, 112, 8);
-        System.arraycopy(BytesUtils.longToBytes(totalMainNumber, true), 0, encoded, 120, 8);
+        buf.setLongLE(index + 96, xdagStats.nblocks);
+        buf.setLongLE(index + 104, xdagStats.totalnblocks);
+        buf.setLongLE(index + 112, nmain);
+        buf.setLongLE(index + 120, totalMainNumber);
 
-        System.arraycopy(tmpbyte, 0, encoded, 128, tmpbyte.length);
+        buf.setBytes(index + 128, NET_INFO);
     }
 
-    public void updateCrc() {
-        CRC32 crc32 = new CRC32();
-        crc32.update(encoded, 0, 512);
-        System.arraycopy(BytesUtils.longToBytes(crc32.getValue(), true), 0, encoded, 4, 4);
+    /** 16字节小端 */
+    private static void setBigInteger(ByteBuf buf, int index, BigInteger value) {
+        if (value == null) {
+            return;
+        }
+        buf.setLongLE(index, value.longValue());
+        buf.setLongLE(index + 8, value.shiftRight(64).longValue());
     }
 
 }
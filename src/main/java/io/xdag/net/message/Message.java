@@ -23,6 +23,12 @@
  */
 package io.xdag.net.message;
 
+import static io.xdag.core.XdagBlock.XDAG_BLOCK_SIZE;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.zip.CRC32;
+
 public abstract class Message {
     protected boolean parsed;
     protected byte[] encoded;
@@ -38,6 +44,26 @@ public abstract class Message {
 
     public abstract byte[] getEncoded();
 
+    /** 写入buf的writerIndex处，发送时直接写入channel分配的ByteBuf */
+    public void encode(ByteBuf buf) {
+        buf.writeBytes(getEncoded());
+    }
+
+    /** 编码成新的数组，只在需要getEncoded时使用 */
+    protected byte[] encodeToArray() {
+        ByteBuf buf = Unpooled.wrappedBuffer(new byte[XDAG_BLOCK_SIZE]);
+        buf.writerIndex(0);
+        encode(buf);
+        return buf.array();
+    }
+
+    /** 对buf中index开始的512字节原地计算crc，写入传输头 */
+    protected static void updateCrc(ByteBuf buf, int index) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(buf.nioBuffer(index, XDAG_BLOCK_SIZE));
+        buf.setIntLE(index + 4, (int) crc32.getValue());
+    }
+
     public abstract Class<?> getAnswerMessage();
 
     public abstract XdagMessageCodes getCommand();
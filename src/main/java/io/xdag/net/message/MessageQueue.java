@@ -25,84 +25,84 @@ package io.xdag.net.message;
 
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
-import io.xdag.net.XdagChannel;
+import io.xdag.net.PeerChannel;
+import io.xdag.net.message.impl.NewBlockHashesMessage;
+import io.xdag.net.message.impl.NewBlockMessage;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.concurrent.BasicThreadFactory;
-
-import static io.xdag.config.Constants.SEND_PERIOD;
 
+/**
+ * 节点的发送队列
+ *
+ * 有消息时在通道的事件循环上写出并flush，通道不可写(超过写缓冲高水位)时暂停，
+ * 重新可写后继续，发送速度由对端的读取速度决定。老协议和libp2p连接共用。
+ */
 @Slf4j
 public class MessageQueue {
 
-    private static final AtomicInteger cnt = new AtomicInteger(0);
-    public static final ScheduledExecutorService timer = new ScheduledThreadPoolExecutor(
-            4,
-            new BasicThreadFactory.Builder()
-                    .namingPattern("MessageQueueTimer-" + cnt.getAndIncrement())
-                    .daemon(true)
-                    .build());
-    boolean isRunning = false;
+    /** 单个节点排队消息的上限，超过后丢弃转发的新区块 */
+    public static final int MAX_QUEUE_SIZE = 16384;
+    /** 请求和回复消息的硬上限，超过说明对方已不再读取，断开连接 */
+    public static final int MAX_QUEUE_HARD_LIMIT = MAX_QUEUE_SIZE * 2;
+    /** 单次flush最多写出的消息数，之后让出事件循环 */
+    private static final int MAX_WRITE_PER_FLUSH = 256;
+
+    /** 因队列满被丢弃的消息数 */
+    private static final AtomicLong dropped = new AtomicLong();
+
+    volatile boolean isRunning = false;
     private final Queue<Message> requestQueue = new ConcurrentLinkedQueue<>();
     private final Queue<Message> respondQueue = new ConcurrentLinkedQueue<>();
-    private ChannelHandlerContext ctx = null;
-    private ScheduledFuture<?> timerTask;
-    private final XdagChannel channel;
+    private final AtomicInteger queued = new AtomicInteger();
+    /** 事件循环上是否已有待执行的flush */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    /** 已经因为超过硬上限断开 */
+    private final AtomicBoolean overflowed = new AtomicBoolean();
+    private volatile ChannelHandlerContext ctx = null;
+    private final PeerChannel channel;
 
-    public MessageQueue(XdagChannel channel) {
+    public MessageQueue(PeerChannel channel) {
         this.channel = channel;
     }
 
+    public static long getDropped() {
+        return dropped.get();
+    }
+
     public void activate(ChannelHandlerContext ctx) {
         this.ctx = ctx;
         isRunning = true;
-        timerTask = timer.scheduleAtFixedRate(
-                () -> {
-                    try {
-                        nudgeQueue();
-                    } catch (Throwable t) {
-                        log.error("Unhandled exception", t);
-                    }
-                },
-                10,
-                // TODO: 发送周期缩短会不会有影响，但能有效加快同步速度
-                SEND_PERIOD,
-                // 2毫秒执行一次
-                TimeUnit.MILLISECONDS);
+        scheduleFlush();
     }
 
-    /** 每2毫秒执行一次 */
-    private void nudgeQueue() {
-        int n = Math.min(5, size());
-        if (n == 0) {
+    public void sendMessage(Message msg) {
+        if (channel.isDisconnected()) {
+            log.warn("{}: attempt to send [{}] message after disconnect", channel, msg.getCommand().name());
             return;
         }
-        // write out n messages
-        for (int i = 0; i < n; i++) {
-            // Now send the next message
-            // log.debug("Sent to Wire with the message,msg:"+msg.getCommand());
-            Message respondMsg = respondQueue.poll();
-            Message requestMsg = requestQueue.poll();
-            if(respondMsg != null) {
-                ctx.write(respondMsg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
-            }
-            if(requestMsg != null) {
-                ctx.write(requestMsg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
-            }
 
+        // 先占用一个位置再入队，并发发送时排队数也不会超过上限
+        int size = queued.incrementAndGet();
+        if (size > MAX_QUEUE_SIZE && isRelay(msg)) {
+            queued.decrementAndGet();
+            if (dropped.incrementAndGet() % 1000 == 1) {
+                log.warn("{}: send queue full ({}), drop [{}] message, total dropped {}",
+                        channel, size, msg.getCommand().name(), dropped.get());
+            }
+            return;
         }
-        ctx.flush();
-    }
-
-    public void sendMessage(Message msg) {
-        if (channel.isDisconnected()) {
-            log.warn("{}: attempt to send [{}] message after disconnect", channel, msg.getCommand().name());
+        if (size > MAX_QUEUE_HARD_LIMIT) {
+            queued.decrementAndGet();
+            // 静默丢弃回复会让请求方等到超时，对方已不再读取，直接断开
+            if (overflowed.compareAndSet(false, true)) {
+                log.warn("{}: send queue full ({}) with [{}] message, peer is not reading, disconnect",
+                        channel, size, msg.getCommand().name());
+                channel.dropConnection();
+            }
             return;
         }
 
@@ -111,6 +111,65 @@ public class MessageQueue {
         } else {
             respondQueue.add(msg);
         }
+        scheduleFlush();
+    }
+
+    /** 转发的新区块和区块通告可以从其他节点获得，队列满时优先丢弃；ttl不超过1的是同步回复，不丢弃 */
+    private static boolean isRelay(Message msg) {
+        return msg instanceof NewBlockHashesMessage
+                || (msg instanceof NewBlockMessage && ((NewBlockMessage) msg).getTtl() > 1);
+    }
+
+    /** 通道重新可写时由handler调用 */
+    public void onWritable() {
+        scheduleFlush();
+    }
+
+    /** 在通道所属的事件循环上执行flush，同一时刻最多排队一次 */
+    private void scheduleFlush() {
+        ChannelHandlerContext c = ctx;
+        if (c == null || !isRunning || queued.get() == 0) {
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            c.executor().execute(this::flush);
+        }
+    }
+
+    /** 回复和请求交替写出，直到队列为空或通道不可写 */
+    private void flush() {
+        flushScheduled.set(false);
+        if (!isRunning) {
+            return;
+        }
+        int written = 0;
+        while (written < MAX_WRITE_PER_FLUSH && ctx.channel().isWritable()) {
+            Message respondMsg = respondQueue.poll();
+            Message requestMsg = requestQueue.poll();
+            if (respondMsg == null && requestMsg == null) {
+                break;
+            }
+            if (respondMsg != null) {
+                write(respondMsg);
+                written++;
+            }
+            if (requestMsg != null) {
+                write(requestMsg);
+                written++;
+            }
+        }
+        if (written > 0) {
+            ctx.flush();
+        }
+        // 不可写时等待channelWritabilityChanged再继续
+        if (ctx.channel().isWritable()) {
+            scheduleFlush();
+        }
+    }
+
+    private void write(Message msg) {
+        queued.decrementAndGet();
+        ctx.write(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
     }
 
     public void disconnect() {
@@ -119,20 +178,23 @@ public class MessageQueue {
 
     public void close() {
         isRunning = false;
-        if (timerTask != null) {
-            timerTask.cancel(false);
-        }
     }
 
     public boolean isRunning() {
         return isRunning;
     }
 
+    /** 通道的写缓冲低于高水位 */
+    public boolean isWritable() {
+        ChannelHandlerContext c = ctx;
+        return c != null && c.channel().isWritable();
+    }
+
     public boolean isIdle() {
         return size() == 0;
     }
 
     public int size() {
-        return requestQueue.size() + respondQueue.size();
+        return queued.get();
     }
 }
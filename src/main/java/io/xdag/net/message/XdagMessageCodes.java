@@ -42,6 +42,7 @@ import java.util.Map;
  *  XDAG_MESSAGE_BLOCKEXT_REPLY,
  *  XDAG_MESSAGE_BLOCK_REQUEST
  * };
+ * NEW_BLOCK_HASHES之后为xdagj的扩展消息，只发给声明支持的节点
  */
 public enum XdagMessageCodes {
     // add new block type here
@@ -58,7 +59,10 @@ public enum XdagMessageCodes {
     TASK_SHARE(0x08),
     NEW_TASK(0x09),
     NEW_BALANCE(0x0A),
-    NEW_BLOCK(0x0B);
+    NEW_BLOCK(0x0B),
+    NEW_BLOCK_HASHES(0x0C),
+    BLOCKS_BATCH_REQUEST(0x0D),
+    BLOCKS_BATCH_REPLY(0x0E);
 
     private static final Map<XdagVersion, Map<Integer, XdagMessageCodes>> intToTypeMap = new HashMap<>();
     private static final Map<XdagVersion, XdagMessageCodes[]> versionToValuesMap = new HashMap<>();
@@ -78,7 +82,10 @@ public enum XdagMessageCodes {
                         TASK_SHARE,
                         NEW_TASK,
                         NEW_BALANCE,
-                        NEW_BLOCK
+                        NEW_BLOCK,
+                        NEW_BLOCK_HASHES,
+                        BLOCKS_BATCH_REQUEST,
+                        BLOCKS_BATCH_REPLY
                 });
 
         for (XdagVersion v : XdagVersion.values()) {
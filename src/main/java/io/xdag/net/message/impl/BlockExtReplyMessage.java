@@ -23,34 +23,47 @@
  */
 package io.xdag.net.message.impl;
 
-import io.xdag.net.message.Message;
+import static io.xdag.net.message.XdagMessageCodes.BLOCKEXT_REPLY;
+
+import io.xdag.core.XdagStats;
+import io.xdag.net.message.AbstractMessage;
 import io.xdag.net.message.XdagMessageCodes;
+import lombok.EqualsAndHashCode;
 
-public class BlockExtReplyMessage extends Message {
+/** 主块请求的结束标志，random与请求相同 */
+@EqualsAndHashCode(callSuper = false)
+public class BlockExtReplyMessage extends AbstractMessage {
 
-    public BlockExtReplyMessage(byte[] bytes) {
-        super(bytes);
+    public BlockExtReplyMessage(long starttime, long endtime, long random, XdagStats xdagStats) {
+        super(BLOCKEXT_REPLY, starttime, endtime, random, xdagStats);
     }
 
-    @Override
-    public Class<?> getAnswerMessage() {
-        return null;
+    public BlockExtReplyMessage(byte[] encoded) {
+        super(encoded);
     }
 
     @Override
-    public byte[] getEncoded() {
-        // TODO Auto-generated method stub
+    public Class<?> getAnswerMessage() {
         return null;
     }
 
     @Override
-    public String toString() {
-        // TODO Auto-generated method stub
-        return null;
+    public XdagMessageCodes getCommand() {
+        return XdagMessageCodes.BLOCKEXT_REPLY;
     }
 
     @Override
-    public XdagMessageCodes getCommand() {
-        return XdagMessageCodes.BLOCKEXT_REPLY;
+    public String toString() {
+        if (!parsed) {
+            parse();
+        }
+        return "["
+                + this.getCommand().name()
+                + " starttime="
+                + getStarttime()
+                + " endtime="
+                + getEndtime()
+                + " netstatus"
+                + getXdagStats();
     }
 }
@@ -23,36 +23,52 @@
  */
 package io.xdag.net.message.impl;
 
-import io.xdag.net.message.Message;
+import static io.xdag.net.message.XdagMessageCodes.BLOCKEXT_REQUEST;
+
+import io.xdag.core.XdagStats;
+import io.xdag.net.message.AbstractMessage;
 import io.xdag.net.message.XdagMessageCodes;
+import lombok.EqualsAndHashCode;
+import org.apache.commons.lang3.RandomUtils;
 
-public class BlockExtRequestMessage extends Message {
+/**
+ * 请求一段时间内的主块
+ *
+ * 复用C版本保留但未实现的BLOCKEXT消息号，对方按BLOCKS_REQUEST的方式逐个发送主块，最后回复BLOCKEXT_REPLY。
+ * 不支持的老节点会忽略该消息，请求方超时后退回原来的同步方式。
+ */
+@EqualsAndHashCode(callSuper = false)
+public class BlockExtRequestMessage extends AbstractMessage {
 
     public BlockExtRequestMessage(byte[] bytes) {
         super(bytes);
-        // TODO Auto-generated constructor stub
     }
 
-    @Override
-    public Class<?> getAnswerMessage() {
-        // TODO Auto-generated method stub
-        return BlocksReplyMessage.class;
+    public BlockExtRequestMessage(long starttime, long endtime, XdagStats xdagStats) {
+        super(BLOCKEXT_REQUEST, starttime, endtime, RandomUtils.nextLong(), xdagStats);
     }
 
     @Override
-    public byte[] getEncoded() {
-        // TODO Auto-generated method stub
-        return null;
+    public Class<BlockExtReplyMessage> getAnswerMessage() {
+        return BlockExtReplyMessage.class;
     }
 
     @Override
-    public String toString() {
-        // TODO Auto-generated method stub
-        return null;
+    public XdagMessageCodes getCommand() {
+        return XdagMessageCodes.BLOCKEXT_REQUEST;
     }
 
     @Override
-    public XdagMessageCodes getCommand() {
-        return XdagMessageCodes.BLOCKEXT_REQUEST;
+    public String toString() {
+        if (!parsed) {
+            parse();
+        }
+        return "["
+                + this.getCommand().name()
+                + " starttime="
+                + this.starttime
+                + " endtime="
+                + this.endtime
+                + "]";
     }
 }
@@ -23,10 +23,7 @@
  */
 package io.xdag.net.message.impl;
 
-import static io.xdag.config.Constants.DNET_PKT_XDAG;
-import static io.xdag.core.XdagBlock.XDAG_BLOCK_SIZE;
-import static io.xdag.core.XdagField.FieldType.XDAG_FIELD_NONCE;
-
+import io.netty.buffer.ByteBuf;
 import io.xdag.net.message.AbstractMessage;
 import io.xdag.core.XdagStats;
 import io.xdag.net.message.XdagMessageCodes;
@@ -34,7 +31,6 @@ import io.xdag.utils.BytesUtils;
 import java.math.BigInteger;
 
 import lombok.EqualsAndHashCode;
-import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.encoders.Hex;
 
 @EqualsAndHashCode(callSuper = false)
@@ -53,12 +49,6 @@ public class BlockRequestMessage extends AbstractMessage {
         return null;
     }
 
-    @Override
-    public byte[] getEncoded() {
-        // TODO Auto-generated method stub
-        return encoded;
-    }
-
     @Override
     public String toString() {
         if (!parsed) {
@@ -81,47 +71,19 @@ public class BlockRequestMessage extends AbstractMessage {
         return XdagMessageCodes.BLOCK_REQUEST;
     }
 
+    /** 第1个字段是hash，不带能力位 */
     @Override
-    public void encode() {
-        parsed = true;
-        encoded = new byte[512];
-        int ttl = 1;
-        long transportheader = (ttl << 8) | DNET_PKT_XDAG | (XDAG_BLOCK_SIZE << 16);
-        long type = (codes.asByte() << 4) | XDAG_FIELD_NONCE.asByte();
-
-        BigInteger diff = xdagStats.getDifficulty();
-        BigInteger maxDiff = xdagStats.getMaxdifficulty();
-        long nmain = xdagStats.getNmain();
-        long totalMainNumber = Math.max(xdagStats.getTotalnmain(),nmain);
-        long nblocks = xdagStats.getNblocks();
-        long totalBlockNumber = xdagStats.getTotalnblocks();
-
-        // TODO：后续根据ip替换
-        String tmp = "04000000040000003ef4780100000000" + "7f000001611e7f000001b8227f0000015f767f000001d49d";
-        // net 相关
-        byte[] tmpbyte = Hex.decode(tmp);
-
-        // field 0 and field1
-        byte[] first = BytesUtils.merge(
-                BytesUtils.longToBytes(transportheader, true),
-                BytesUtils.longToBytes(type, true),
-                BytesUtils.longToBytes(starttime, true),
-                BytesUtils.longToBytes(endtime, true));
-        System.arraycopy(first, 0, encoded, 0, 32);
-        hash = Arrays.reverse(hash);
-        System.arraycopy(hash, 0, encoded, 32, 32);
-
-        // field2 diff and maxdiff
-        System.arraycopy(BytesUtils.bigIntegerToBytes(diff, 16, true), 0, encoded, 64, 16);
-        System.arraycopy(BytesUtils.bigIntegerToBytes(maxDiff, 16, true), 0, encoded, 80, 16);
+    public long getCapabilities() {
+        return 0;
+    }
 
-        // field3 nblock totalblock main totalmain
-        System.arraycopy(BytesUtils.longToBytes(nblocks, true), 0, encoded, 96, 8);
-        System.arraycopy(BytesUtils.longToBytes(totalBlockNumber, true), 0, encoded, 104, 8);
-        System.arraycopy(BytesUtils.longToBytes(nmain, true), 0, encoded, 112, 8);
-        System.arraycopy(BytesUtils.longToBytes(totalMainNumber, true), 0, encoded, 120, 8);
-        System.arraycopy(tmpbyte, 0, encoded, 128, tmpbyte.length);
-        updateCrc();
+    @Override
+    protected void writeFields(ByteBuf buf, int index) {
+        super.writeFields(buf, index);
+        // field1 为倒序的hash
+        for (int i = 0; i < 32; i++) {
+            buf.setByte(index + 32 + i, hash[31 - i]);
+        }
     }
 
     @Override
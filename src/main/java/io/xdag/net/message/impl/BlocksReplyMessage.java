@@ -34,18 +34,12 @@ import lombok.EqualsAndHashCode;
 public class BlocksReplyMessage extends AbstractMessage {
     public BlocksReplyMessage(long starttime, long endtime, long random, XdagStats xdagStats) {
         super(BLOCKS_REPLY, starttime, endtime, random, xdagStats);
-        updateCrc();
     }
 
     public BlocksReplyMessage(byte[] encoded) {
         super(encoded);
     }
 
-    @Override
-    public byte[] getEncoded() {
-        return encoded;
-    }
-
     @Override
     public Class<?> getAnswerMessage() {
         return null;
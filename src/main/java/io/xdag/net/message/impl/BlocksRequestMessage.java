@@ -41,15 +41,6 @@ public class BlocksRequestMessage extends AbstractMessage {
 
     public BlocksRequestMessage(long starttime, long endtime, XdagStats xdagStats) {
         super(BLOCKS_REQUEST, starttime, endtime, RandomUtils.nextLong(), xdagStats);
-        updateCrc();
-    }
-
-    @Override
-    public byte[] getEncoded() {
-        if (encoded == null) {
-            encode();
-        }
-        return encoded;
     }
 
     @Override
@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net.message.impl;
+
+import static io.xdag.config.Constants.DNET_PKT_XDAG;
+import static io.xdag.core.XdagBlock.XDAG_BLOCK_SIZE;
+import static io.xdag.core.XdagField.FieldType.XDAG_FIELD_NONCE;
+
+import io.netty.buffer.ByteBuf;
+import io.xdag.net.message.Message;
+import io.xdag.utils.BytesUtils;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang3.RandomUtils;
+
+/**
+ * 携带一组hashlow的消息
+ *
+ * 字段0: 传输头、类型、random、hash个数；字段1保留(其他消息的能力位在这里)；字段2..15: 每个字段一个hashlow
+ */
+public abstract class HashListMessage extends Message {
+
+    /** 一个512字节的消息最多容纳的hash数 */
+    public static final int MAX_HASHES = 14;
+
+    protected long random;
+    protected List<byte[]> hashLows;
+
+    public HashListMessage(byte[] encoded) {
+        super(encoded);
+    }
+
+    public HashListMessage(long random, List<byte[]> hashLows) {
+        if (hashLows.size() > MAX_HASHES) {
+            throw new IllegalArgumentException("Too many hashes: " + hashLows.size());
+        }
+        this.random = random;
+        this.hashLows = hashLows;
+        this.parsed = true;
+    }
+
+    public HashListMessage(List<byte[]> hashLows) {
+        this(RandomUtils.nextLong(), hashLows);
+    }
+
+    public long getRandom() {
+        parse();
+        return random;
+    }
+
+    public List<byte[]> getHashLows() {
+        parse();
+        return hashLows;
+    }
+
+    private void parse() {
+        if (parsed) {
+            return;
+        }
+        random = BytesUtils.bytesToLong(encoded, 16, true);
+        int count = (int) Math.max(0, Math.min(MAX_HASHES, BytesUtils.bytesToLong(encoded, 24, true)));
+        hashLows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] hashLow = new byte[32];
+            System.arraycopy(encoded, (i + 2) * 32, hashLow, 0, 32);
+            hashLows.add(hashLow);
+        }
+        parsed = true;
+    }
+
+    @Override
+    public void encode(ByteBuf buf) {
+        int index = buf.writerIndex();
+        buf.writeZero(XDAG_BLOCK_SIZE);
+        long transportheader = (1 << 8) | DNET_PKT_XDAG | (XDAG_BLOCK_SIZE << 16);
+        long type = (getCommand().asByte() << 4) | XDAG_FIELD_NONCE.asByte();
+        buf.setLongLE(index, transportheader);
+        buf.setLongLE(index + 8, type);
+        buf.setLongLE(index + 16, random);
+        buf.setLongLE(index + 24, hashLows.size());
+        for (int i = 0; i < hashLows.size(); i++) {
+            buf.setBytes(index + (i + 2) * 32, hashLows.get(i));
+        }
+        updateCrc(buf, index);
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        if (encoded == null) {
+            encoded = encodeToArray();
+        }
+        return encoded;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getCommand().name() + " random=" + getRandom() + " hashes=" + getHashLows().size() + "]";
+    }
+}
@@ -25,15 +25,13 @@ package io.xdag.net.message.impl;
 
 import static io.xdag.config.Constants.DNET_PKT_XDAG;
 
+import io.netty.buffer.ByteBuf;
 import io.xdag.core.Block;
 import io.xdag.core.XdagBlock;
 import io.xdag.net.message.Message;
 import io.xdag.net.message.XdagMessageCodes;
-import io.xdag.utils.BytesUtils;
 import org.bouncycastle.util.encoders.Hex;
 
-import java.util.zip.CRC32;
-
 public class NewBlockMessage extends Message {
 
     private XdagBlock xdagBlock;
@@ -45,12 +43,11 @@ public class NewBlockMessage extends Message {
         super(bytes);
     }
 
-    /** 处理crc 创建新的用于发送Block的message */
+    /** 处理crc 创建新的用于发送Block的message，发送时才编码 */
     public NewBlockMessage(Block block, int ttl) {
         this.block = block;
         this.ttl = ttl;
         this.parsed = true;
-        encode();
     }
 
     /** 不处理crc */
@@ -73,17 +70,18 @@ public class NewBlockMessage extends Message {
         parsed = true;
     }
 
-    private void encode() {
-        this.encoded = this.block.getXdagBlock().getData().clone();
+    /** 区块数据直接写入buf，再原地写传输头和crc */
+    @Override
+    public void encode(ByteBuf buf) {
+        if (block == null) {
+            buf.writeBytes(encoded);
+            return;
+        }
+        int index = buf.writerIndex();
+        buf.writeBytes(block.getXdagBlock().getData());
         long transportheader = (ttl << 8) | DNET_PKT_XDAG | (512 << 16);
-        System.arraycopy(BytesUtils.longToBytes(transportheader, true), 0, this.encoded, 0, 8);
-        updateCrc();
-    }
-
-    public void updateCrc() {
-        CRC32 crc32 = new CRC32();
-        crc32.update(encoded, 0, 512);
-        System.arraycopy(BytesUtils.intToBytes((int) crc32.getValue(), true), 0, encoded, 4, 4);
+        buf.setLongLE(index, transportheader);
+        updateCrc(buf, index);
     }
 
     public int getTtl() {
@@ -96,6 +94,9 @@ public class NewBlockMessage extends Message {
 
     @Override
     public byte[] getEncoded() {
+        if (encoded == null && block != null) {
+            encoded = encodeToArray();
+        }
         return encoded;
     }
 
@@ -111,6 +112,6 @@ public class NewBlockMessage extends Message {
 
     @Override
     public String toString() {
-        return "NewBlock Message:" + Hex.toHexString(encoded);
+        return "NewBlock Message:" + Hex.toHexString(getEncoded());
     }
 }
@@ -25,6 +25,7 @@ package io.xdag.net.message.impl;
 
 import static io.xdag.net.message.XdagMessageCodes.SUMS_REPLY;
 
+import io.netty.buffer.ByteBuf;
 import io.xdag.net.message.AbstractMessage;
 import io.xdag.net.message.NetDB;
 import io.xdag.core.XdagStats;
@@ -39,9 +40,6 @@ public class SumReplyMessage extends AbstractMessage {
     public SumReplyMessage(long endtime, long random, XdagStats xdagStats, byte[] sums) {
         super(SUMS_REPLY, 1, endtime, random, xdagStats);
         this.sums = sums;
-        System.arraycopy(BytesUtils.longToBytes(random, true), 0, encoded, 32, 8);
-        System.arraycopy(sums, 0, encoded, 256, 256);
-        updateCrc();
     }
 
     public SumReplyMessage(byte[] encoded) {
@@ -49,8 +47,9 @@ public class SumReplyMessage extends AbstractMessage {
     }
 
     @Override
-    public byte[] getEncoded() {
-        return encoded;
+    protected void writeFields(ByteBuf buf, int index) {
+        super.writeFields(buf, index);
+        buf.setBytes(index + 256, sums);
     }
 
     @Override
@@ -36,18 +36,12 @@ import lombok.EqualsAndHashCode;
 public class SumRequestMessage extends AbstractMessage {
     public SumRequestMessage(long starttime, long endtime, XdagStats xdagStats) {
         super(SUMS_REQUEST, starttime, endtime, RandomUtils.nextLong(), xdagStats);
-        updateCrc();
     }
 
     public SumRequestMessage(byte[] bytes) {
         super(bytes);
     }
 
-    @Override
-    public byte[] getEncoded() {
-        return encoded;
-    }
-
     @Override
     public Class<?> getAnswerMessage() {
         return SumReplyMessage.class;
@@ -44,6 +44,9 @@ public class Xdag03MessageFactory implements MessageFactory {
             case BLOCKEXT_REPLY -> new BlockExtReplyMessage(encoded);
             case BLOCK_REQUEST -> new BlockRequestMessage(encoded);
             case NEW_BLOCK -> new NewBlockMessage(encoded);
+            case NEW_BLOCK_HASHES -> new NewBlockHashesMessage(encoded);
+            case BLOCKS_BATCH_REQUEST -> new BlocksBatchRequestMessage(encoded);
+            case BLOCKS_BATCH_REPLY -> new BlocksBatchReplyMessage(encoded);
             default -> throw new IllegalArgumentException("No such message code" + code);
         };
     }
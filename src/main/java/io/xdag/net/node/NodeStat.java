@@ -23,11 +23,80 @@
  */
 package io.xdag.net.node;
 
+import static io.xdag.config.Constants.REQUEST_WAIT;
+import static io.xdag.core.XdagBlock.XDAG_BLOCK_SIZE;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class NodeStat {
+    /** 还没有测量到往返时间时假定的值 ms */
+    public static final long DEFAULT_RTT = 1000;
+    /** 超过这个时间仍未回复的请求记为超时 */
+    private static final long PENDING_EXPIRE = REQUEST_WAIT * 2 * 1000;
+
     public final StatHandler Inbound = new StatHandler();
     public final StatHandler Outbound = new StatHandler();
+    /** sums和blocks请求的往返时间 */
+    public final RttHandler SumsRtt = new RttHandler();
+    public final RttHandler BlocksRtt = new RttHandler();
+    /** 发出的sums/blocks请求数、其中超时的数量 */
+    public final StatHandler Requests = new StatHandler();
+    public final StatHandler Timeouts = new StatHandler();
+    /** 该节点发来的无效区块 */
+    public final StatHandler InvalidBlocks = new StatHandler();
+
+    private final long created = System.currentTimeMillis();
+    /** 在途请求 random -> 发送时间 */
+    private final Map<Long, Long> pending = new ConcurrentHashMap<>();
+
+    /** 记录发出的请求，顺带清理早已过期的请求 */
+    public void onRequest(long random) {
+        long now = System.currentTimeMillis();
+        pending.entrySet().removeIf(e -> {
+            if (now - e.getValue() > PENDING_EXPIRE) {
+                Timeouts.add();
+                return true;
+            }
+            return false;
+        });
+        pending.put(random, now);
+        Requests.add();
+    }
+
+    /**
+     * 收到回复时记录往返时间
+     *
+     * @return false 不是该节点在途的请求
+     */
+    public boolean onReply(long random, RttHandler rtt) {
+        Long sent = pending.remove(random);
+        if (sent == null) {
+            return false;
+        }
+        rtt.add(System.currentTimeMillis() - sent);
+        return true;
+    }
+
+    /** 请求方放弃等待 */
+    public void onTimeout(long random) {
+        if (pending.remove(random) != null) {
+            Timeouts.add();
+        }
+    }
+
+    /** sums和blocks往返时间中较大的一个，都未测量时返回DEFAULT_RTT */
+    public long getRtt() {
+        long rtt = Math.max(SumsRtt.get(), BlocksRtt.get());
+        return rtt < 0 ? DEFAULT_RTT : rtt;
+    }
+
+    /** 连接以来平均每秒收到的字节数 */
+    public long getInboundRate() {
+        long elapsed = Math.max(1000, System.currentTimeMillis() - created);
+        return Inbound.get() * XDAG_BLOCK_SIZE * 1000 / elapsed;
+    }
 
     public static class StatHandler {
         AtomicLong count = new AtomicLong(0);
@@ -49,4 +118,23 @@ public class NodeStat {
             return count.toString();
         }
     }
+
+    /** 往返时间的指数移动平均 权重1/8 */
+    public static class RttHandler {
+        AtomicLong rtt = new AtomicLong(-1);
+
+        public void add(long millis) {
+            rtt.updateAndGet(v -> v < 0 ? millis : v + (millis - v) / 8);
+        }
+
+        /** 未测量时为-1 */
+        public long get() {
+            return rtt.get();
+        }
+
+        @Override
+        public String toString() {
+            return rtt.toString();
+        }
+    }
 }
@@ -3,14 +3,22 @@ package io.xdag.randomx;
 import io.xdag.config.Config;
 import io.xdag.core.Block;
 import io.xdag.core.Blockchain;
+import io.xdag.crypto.Hash;
+import io.xdag.utils.BytesUtils;
 import io.xdag.utils.FastByteComparisons;
 import io.xdag.utils.XdagTime;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.encoders.Hex;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static io.xdag.config.RandomXConstants.*;
@@ -40,6 +48,24 @@ public class RandomX {
     protected boolean is_full_mem;
     protected boolean is_Large_pages;
 
+    /** 并行校验share使用的vm数量 */
+    protected int poolVmCount = 1;
+    /** 初始化dataset的线程数 */
+    protected int datasetThreads = 4;
+    /** 轻量模式只使用cache计算hash，适用于不挖矿的同步节点 */
+    protected boolean lightMode = false;
+    /** 最近一次准备种子的耗时，毫秒 */
+    protected volatile long datasetPrepareTime;
+    /** dataset的分配、初始化和释放互斥，初始化期间不持有读写锁，轻量vm仍可计算 */
+    protected final Lock datasetLock = new ReentrantLock();
+    /** 内存已经释放，不再更新种子 */
+    protected volatile boolean released;
+
+    protected final ExecutorService datasetExecutor = Executors.newSingleThreadExecutor(new BasicThreadFactory.Builder()
+            .namingPattern("randomx-dataset-%d")
+            .daemon(true)
+            .build());
+
     public RandomX() {
         if (Config.MAINNET) {
             isTestNet = false;
@@ -79,7 +105,7 @@ public class RandomX {
                 if (nextMemory.seed == null || !FastByteComparisons.equalBytes(nextMemory.seed,hashlow)) {
                     nextMemory.seed = Arrays.reverse(hashlow);
                     log.debug("Next Memory Seed:{}",Hex.toHexString(hashlow));
-                    randomXPoolUpdateSeed(nextMemIndex);
+                    randomXPoolUpdateSeedAsync(nextMemIndex);
                 }
                 randomXHashEpochIndex = nextMemIndex;
                 nextMemory.isSwitched = 0;
@@ -138,7 +164,7 @@ public class RandomX {
     }
 
 
-    // 计算出hash
+    // 计算出hash 可以多线程并发调用
     public byte[] randomXPoolCalcHash(byte[] data, int dataSize, long taskTime) {
         byte[] hash;
         RandomXMemory memory = globalMemory[(int) (randomXPoolMemIndex)&1];
@@ -150,13 +176,32 @@ public class RandomX {
             readWriteLock = globalMemoryLock[(int) (randomXPoolMemIndex) & 1];
         }
 
+        // dataset只读共享，读锁保证计算期间不会更换种子和销毁vm，vm借出后独占使用
+        readWriteLock.readLock().lock();
+        try {
+            BlockingQueue<Long> poolVms = memory.poolVms;
+            if (poolVms != null && memory.ready) {
+                long vm = poolVms.take();
+                try {
+                    return calculateHash(vm, data, dataSize);
+                } finally {
+                    poolVms.add(vm);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            readWriteLock.readLock().unlock();
+        }
+
+        // 没有vm池时单个vm只能独占使用
         readWriteLock.writeLock().lock();
         try {
-            hash = calculateHash(memory.poolVm, data, dataSize);
+            hash = hashWithVm(memory.ready ? memory.poolVm : memory.lightVm, data, dataSize);
         } finally {
             readWriteLock.writeLock().unlock();
         }
-
         return hash;
     }
 
@@ -191,7 +236,12 @@ public class RandomX {
         readWriteLock.writeLock().lock();
         try{
             log.debug("Use seed {}",Hex.toHexString(Arrays.reverse(memory.seed)));
-            hash = calculateHash(memory.blockVm, data, dataSize);
+            // dataset还在准备时用轻量vm计算，更换种子时旧的vm已同步销毁
+            hash = hashWithVm(memory.ready ? memory.blockVm : memory.lightVm, data, dataSize);
+            if (hash == null) {
+                // 有种子但没有vm，不能退回sha256，否则主链难度和其他节点不一致
+                throw new IllegalStateException("No RandomX vm for seed " + Hex.toHexString(Arrays.reverse(memory.seed)));
+            }
         } finally {
             readWriteLock.writeLock().unlock();
         }
@@ -201,6 +251,35 @@ public class RandomX {
     }
 
 
+    /** vm创建失败或内存已释放时vm为0，返回null，不用空vm调用native */
+    private static byte[] hashWithVm(long vm, byte[] data, int dataSize) {
+        if (vm <= 0) {
+            return null;
+        }
+        return calculateHash(vm, data, dataSize);
+    }
+
+    /** 主块的RandomX hash(已反转)，没有对应的种子时返回null，有种子但vm不可用时抛出IllegalStateException */
+    public byte[] randomXBlockHash(Block block) {
+        byte[] data = new byte[64];
+        byte[] rxHash = Hash.sha256(BytesUtils.subArray(block.getXdagBlock().getData(), 0, 512 - 32));
+        System.arraycopy(rxHash, 0, data, 0, 32);
+        System.arraycopy(block.getXdagBlock().getField(15).getData(), 0, data, 32, 32);
+        return Arrays.reverse(randomXBlockHash(data, data.length, XdagTime.getEpoch(block.getTimestamp())));
+    }
+
+    /** 本地已有的种子能覆盖的主块高度上限(不含)，更高的主块需要还没有导入的种子块 */
+    public long randomXSeedLimitHeight() {
+        long seedEpoch = isTestNet ? SEEDHASH_EPOCH_TESTNET_BLOCKS : SEEDHASH_EPOCH_BLOCKS;
+        long height = -1;
+        for (RandomXMemory memory : globalMemory) {
+            if (memory != null && memory.seed != null) {
+                height = Math.max(height, memory.seedHeight);
+            }
+        }
+        return height < 0 ? 0 : height + seedEpoch;
+    }
+
     public long randomXUpdateVm(RandomXMemory randomXMemory, boolean isPoolVm) {
         if (isPoolVm) {
             randomXMemory.poolVm = createVm(randomXMemory.rxCache, randomXMemory.rxDataset, 4);
@@ -212,22 +291,125 @@ public class RandomX {
     }
 
 
+    /** 重建share校验vm池，调用时需持有该memory的写锁 */
+    public void randomXUpdatePoolVms(RandomXMemory randomXMemory) {
+        destroyPoolVms(randomXMemory);
+        BlockingQueue<Long> poolVms = new ArrayBlockingQueue<>(Math.max(1, poolVmCount));
+        for (int i = 0; i < poolVmCount; i++) {
+            long vm = createVm(randomXMemory.rxCache, randomXMemory.rxDataset, 4);
+            if (vm <= 0) {
+                log.debug("Create pool vm {} failed", i);
+                break;
+            }
+            poolVms.add(vm);
+        }
+        // 没有可用的vm时退回单个poolVm
+        randomXMemory.poolVms = poolVms.isEmpty() ? null : poolVms;
+    }
+
+    /** 调用时需持有写锁，此时没有借出的vm，先摘下队列再逐个取出销毁 */
+    private void destroyPoolVms(RandomXMemory randomXMemory) {
+        BlockingQueue<Long> poolVms = randomXMemory.poolVms;
+        randomXMemory.poolVms = null;
+        if (poolVms != null) {
+            List<Long> vms = new ArrayList<>(poolVms.size());
+            poolVms.drainTo(vms);
+            for (long vm : vms) {
+                destroyVm(vm);
+            }
+        }
+    }
+
+    /**
+     * 同步更换cache并销毁旧种子的vm，再在后台线程准备dataset
+     * 返回时这块内存已经只能用新种子计算，dataset准备好之前由轻量vm计算，不阻塞区块导入和挖矿
+     */
+    public void randomXPoolUpdateSeedAsync(long memIndex) {
+        long version = randomXPoolUpdateCache(memIndex);
+        if (version < 0 || lightMode) {
+            return;
+        }
+        try {
+            datasetExecutor.execute(() -> randomXPoolUpdateDataset(memIndex, version));
+        } catch (RejectedExecutionException e) {
+            log.debug("RandomX dataset executor is shut down");
+        }
+    }
+
+    /**
+     * 更新种子
+     * 1. 持写锁销毁旧的vm，初始化cache并创建轻量vm，dataset准备好之前由它计算hash
+     * 2. 只持dataset锁初始化dataset，此时只有轻量vm读取cache，释放内存时等待初始化完成
+     * 3. 持写锁创建完整vm后切换
+     * 轻量模式下不分配dataset，所有hash都由cache计算
+     */
     public void randomXPoolUpdateSeed(long memIndex) {
+        long version = randomXPoolUpdateCache(memIndex);
+        if (version >= 0 && !lightMode) {
+            randomXPoolUpdateDataset(memIndex, version);
+        }
+    }
+
+    /**
+     * 第1步，先等待正在进行的dataset初始化结束，不会和它同时改写cache
+     *
+     * @return 这次更新的版本，失败时返回-1
+     */
+    private long randomXPoolUpdateCache(long memIndex) {
+        long start = System.currentTimeMillis();
         ReadWriteLock readWriteLock = globalMemoryLock[(int) (memIndex) &1];
-        readWriteLock.writeLock().lock();
+        RandomXMemory rx_memory = globalMemory[(int) (memIndex) &1];
+        datasetLock.lock();
         try {
-            RandomXMemory rx_memory = globalMemory[(int) (memIndex) &1];
-            if(rx_memory.rxCache == 0) {
-                rx_memory.rxCache = allocCache();
-                if (rx_memory.rxCache == 0) {
-                    // fail alloc
-                    log.debug("Failed alloc cache");
-                    return;
+            readWriteLock.writeLock().lock();
+            try {
+                if (released) {
+                    return -1;
+                }
+                long version = ++rx_memory.version;
+                rx_memory.ready = false;
+                destroyVms(rx_memory);
+                if(rx_memory.rxCache == 0) {
+                    rx_memory.rxCache = allocCache();
+                    if (rx_memory.rxCache == 0) {
+                        // fail alloc
+                        log.error("Failed alloc RandomX cache");
+                        return -1;
+                    }
+                }
+                // 分配成功
+                initCache(rx_memory.rxCache,rx_memory.seed,rx_memory.seed.length);
+
+                rx_memory.lightVm = createVm(rx_memory.rxCache, 0, 1);
+                if (rx_memory.lightVm <= 0) {
+                    rx_memory.lightVm = 0;
+                    log.error("Create RandomX light vm failed");
+                    return -1;
                 }
+                if (lightMode) {
+                    datasetPrepareTime = System.currentTimeMillis() - start;
+                    log.info("RandomX seed {} prepared in {} ms, light mode {}",
+                            Hex.toHexString(Arrays.reverse(rx_memory.seed)), datasetPrepareTime, lightMode);
+                }
+                return version;
+            } finally {
+                readWriteLock.writeLock().unlock();
             }
-            // 分配成功
-            initCache(rx_memory.rxCache,rx_memory.seed,rx_memory.seed.length);
+        } finally {
+            datasetLock.unlock();
+        }
+    }
 
+    /** 第2、3步，种子在此期间又被更换时放弃 */
+    private void randomXPoolUpdateDataset(long memIndex, long version) {
+        long start = System.currentTimeMillis();
+        ReadWriteLock readWriteLock = globalMemoryLock[(int) (memIndex) &1];
+        RandomXMemory rx_memory = globalMemory[(int) (memIndex) &1];
+        datasetLock.lock();
+        try {
+            if (released || rx_memory.version != version) {
+                return;
+            }
             if (rx_memory.rxDataset == 0) {
                 // 分配dataset
                 rx_memory.rxDataset = allocDataSet();
@@ -237,49 +419,83 @@ public class RandomX {
                     return;
                 }
             }
+            randomXPoolInitDataset(rx_memory.rxCache, rx_memory.rxDataset, datasetThreads);
 
-            randomXPoolInitDataset(rx_memory.rxCache, rx_memory.rxDataset, 4);
-
-            if (randomXUpdateVm(rx_memory, true) <= 0) {
-                // update failed
-                log.debug("Update pool vm failed");
-                return;
-            }
+            readWriteLock.writeLock().lock();
+            try {
+                if (released || rx_memory.version != version) {
+                    return;
+                }
+                if (randomXUpdateVm(rx_memory, true) <= 0) {
+                    // update failed
+                    log.debug("Update pool vm failed");
+                    return;
+                }
+                if (poolVmCount > 1) {
+                    randomXUpdatePoolVms(rx_memory);
+                }
 
-            // update finished
-            if (randomXUpdateVm(rx_memory, false) <= 0) {
-                // update failed
-                log.debug("Update block vm failed");
+                // update finished
+                if (randomXUpdateVm(rx_memory, false) <= 0) {
+                    // update failed
+                    log.debug("Update block vm failed");
+                    return;
+                }
+                rx_memory.ready = true;
+            } finally {
+                readWriteLock.writeLock().unlock();
             }
-
-            // update finished
-
         } finally {
-            readWriteLock.writeLock().unlock();
+            datasetLock.unlock();
+            datasetPrepareTime = System.currentTimeMillis() - start;
+            log.info("RandomX seed {} prepared in {} ms, light mode {}",
+                    rx_memory.seed == null ? "" : Hex.toHexString(Arrays.reverse(rx_memory.seed)), datasetPrepareTime, lightMode);
         }
     }
 
-    // 释放 ，用于程序关闭时
+    /** 更新种子前销毁旧的vm，调用时需持有写锁 */
+    private void destroyVms(RandomXMemory rx_memory) {
+        if (rx_memory.poolVm != 0) {
+            destroyVm(rx_memory.poolVm);
+            rx_memory.poolVm = 0;
+        }
+        if (rx_memory.blockVm != 0) {
+            destroyVm(rx_memory.blockVm);
+            rx_memory.blockVm = 0;
+        }
+        if (rx_memory.lightVm != 0) {
+            destroyVm(rx_memory.lightVm);
+            rx_memory.lightVm = 0;
+        }
+        destroyPoolVms(rx_memory);
+    }
+
+    // 释放 ，用于程序关闭时，等待正在进行的dataset初始化结束后再释放
     public void randomXPoolReleaseMem() {
-        for (int i = 0; i < 2; i++ ) {
-            globalMemoryLock[i].writeLock().lock();
-            try {
-                RandomXMemory rx_memory = globalMemory[i];
-                if (rx_memory.poolVm != 0) {
-                    destroyVm(rx_memory.poolVm);
-                }
-                if (rx_memory.blockVm != 0) {
-                    destroyVm(rx_memory.blockVm);
-                }
-                if (rx_memory.rxCache != 0) {
-                    releaseCache(rx_memory.rxCache);
-                }
-                if (rx_memory.rxDataset != 0) {
-                    releaseDataSet(rx_memory.rxDataset);
+        datasetExecutor.shutdownNow();
+        datasetLock.lock();
+        try {
+            released = true;
+            for (int i = 0; i < 2; i++ ) {
+                globalMemoryLock[i].writeLock().lock();
+                try {
+                    RandomXMemory rx_memory = globalMemory[i];
+                    rx_memory.ready = false;
+                    destroyVms(rx_memory);
+                    if (rx_memory.rxCache != 0) {
+                        releaseCache(rx_memory.rxCache);
+                        rx_memory.rxCache = 0;
+                    }
+                    if (rx_memory.rxDataset != 0) {
+                        releaseDataSet(rx_memory.rxDataset);
+                        rx_memory.rxDataset = 0;
+                    }
+                } finally {
+                    globalMemoryLock[i].writeLock().unlock();
                 }
-            } finally {
-                globalMemoryLock[i].writeLock().unlock();
             }
+        } finally {
+            datasetLock.unlock();
         }
     }
 
@@ -3,6 +3,8 @@ package io.xdag.randomx;
 
 import lombok.Data;
 
+import java.util.concurrent.BlockingQueue;
+
 @Data
 public class RandomXMemory {
 
@@ -15,6 +17,14 @@ public class RandomXMemory {
     protected long rxDataset;
     protected long poolVm;
     protected long blockVm;
+    /** 空闲的share校验vm，共享同一个dataset，每个vm同一时间只能被一个线程使用 */
+    protected BlockingQueue<Long> poolVms;
+    /** 只使用cache的轻量vm，dataset准备完成前使用 */
+    protected long lightVm;
+    /** dataset和完整vm已经准备好 */
+    protected volatile boolean ready;
+    /** 每次更换种子加一，后台的dataset任务发现版本变化时放弃，持写锁修改 */
+    protected long version;
 
     public RandomXMemory() {
         this.switchTime = -1;
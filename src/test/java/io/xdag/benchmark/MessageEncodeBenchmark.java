@@ -0,0 +1,184 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.benchmark;
+
+import static io.xdag.config.Constants.DNET_PKT_XDAG;
+import static io.xdag.core.XdagField.FieldType.XDAG_FIELD_NONCE;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.xdag.core.Block;
+import io.xdag.core.XdagBlock;
+import io.xdag.core.XdagStats;
+import io.xdag.net.message.Message;
+import io.xdag.net.message.XdagMessageCodes;
+import io.xdag.net.message.impl.BlocksRequestMessage;
+import io.xdag.net.message.impl.NewBlockMessage;
+import io.xdag.utils.BytesUtils;
+import io.xdag.utils.XdagTime;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.apache.commons.lang3.RandomUtils;
+import org.bouncycastle.util.encoders.Hex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 发送消息的编码开销，配合GCProfiler看gc.alloc.rate.norm即每条消息的分配字节数
+ *
+ * array为改动前的方式，编码代码原样拷贝在下面作为基准：生成数组，再包装成XdagBlock写入ByteBuf；
+ * pooled为直接编码到池化的direct buffer。每次操作都新建消息，与实际发送一致。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MessageEncodeBenchmark {
+
+    @Param({"NEW_BLOCK", "BLOCKS_REQUEST"})
+    String type;
+
+    private Block block;
+    private XdagStats stats;
+    private long time;
+    private ByteBuf out;
+
+    @Setup
+    public void setUp() {
+        time = XdagTime.getCurrentTimestamp();
+        block = new Block(time, null, false);
+        block.getXdagBlock();
+        stats = new XdagStats();
+        out = PooledByteBufAllocator.DEFAULT.directBuffer(XdagBlock.XDAG_BLOCK_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        out.release();
+    }
+
+    private Message newMessage() {
+        if ("NEW_BLOCK".equals(type)) {
+            return new NewBlockMessage(block, 5);
+        }
+        return new BlocksRequestMessage(time, time + 0x10000, stats);
+    }
+
+    @Benchmark
+    public ByteBuf array() {
+        out.clear();
+        byte[] encoded = "NEW_BLOCK".equals(type) ? legacyNewBlock(block, 5)
+                : legacyBlocksRequest(time, time + 0x10000, RandomUtils.nextLong(), stats);
+        XdagBlock xdagBlock = new XdagBlock(encoded);
+        out.writeBytes(xdagBlock.getData());
+        return out;
+    }
+
+    @Benchmark
+    public ByteBuf pooled() {
+        out.clear();
+        newMessage().encode(out);
+        return out;
+    }
+
+    /** 改动前NewBlockMessage的编码 */
+    private static byte[] legacyNewBlock(Block block, int ttl) {
+        byte[] encoded = block.getXdagBlock().getData().clone();
+        long transportheader = (ttl << 8) | DNET_PKT_XDAG | (512 << 16);
+        System.arraycopy(BytesUtils.longToBytes(transportheader, true), 0, encoded, 0, 8);
+        CRC32 crc32 = new CRC32();
+        crc32.update(encoded, 0, 512);
+        System.arraycopy(BytesUtils.intToBytes((int) crc32.getValue(), true), 0, encoded, 4, 4);
+        return encoded;
+    }
+
+    /** 改动前AbstractMessage.encode加updateCrc */
+    private static byte[] legacyBlocksRequest(long starttime, long endtime, long random, XdagStats xdagStats) {
+        byte[] encoded = new byte[512];
+        int ttl = 1;
+        long transportheader = (ttl << 8) | DNET_PKT_XDAG | (XdagBlock.XDAG_BLOCK_SIZE << 16);
+        long type = (XdagMessageCodes.BLOCKS_REQUEST.asByte() << 4) | XDAG_FIELD_NONCE.asByte();
+
+        BigInteger diff = xdagStats.difficulty;
+        BigInteger maxDiff = xdagStats.maxdifficulty;
+        long nmain = xdagStats.nmain;
+        long totalMainNumber = Math.max(xdagStats.totalnmain, nmain);
+        long nblocks = xdagStats.nblocks;
+        long totalBlockNumber = xdagStats.totalnblocks;
+
+        String tmp = "04000000040000003ef4780100000000" + "7f000001611e7f000001b8227f0000015f767f000001d49d";
+        byte[] tmpbyte = Hex.decode(tmp);
+
+        byte[] first = BytesUtils.merge(
+                BytesUtils.longToBytes(transportheader, true),
+                BytesUtils.longToBytes(type, true),
+                BytesUtils.longToBytes(starttime, true),
+                BytesUtils.longToBytes(endtime, true));
+        System.arraycopy(first, 0, encoded, 0, 32);
+        System.arraycopy(BytesUtils.longToBytes(random, true), 0, encoded, 32, 8);
+
+        System.arraycopy(BytesUtils.bigIntegerToBytes(diff, 16, true), 0, encoded, 64, 16);
+        System.arraycopy(BytesUtils.bigIntegerToBytes(maxDiff, 16, true), 0, encoded, 80, 16);
+
+        System.arraycopy(BytesUtils.longToBytes(nblocks, true), 0, encoded, 96, 8);
+        System.arraycopy(BytesUtils.longToBytes(totalBlockNumber, true), 0, encoded, 104, 8);
+        System.arraycopy(BytesUtils.longToBytes(nmain, true), 0, encoded, 112, 8);
+        System.arraycopy(BytesUtils.longToBytes(totalMainNumber, true), 0, encoded, 120, 8);
+
+        System.arraycopy(tmpbyte, 0, encoded, 128, tmpbyte.length);
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(encoded, 0, 512);
+        System.arraycopy(BytesUtils.longToBytes(crc32.getValue(), true), 0, encoded, 4, 4);
+        return encoded;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(MessageEncodeBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.benchmark;
+
+import static io.xdag.config.Constants.BLOCK_HEAD_WORD;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.concurrent.ScheduledFuture;
+import io.xdag.Kernel;
+import io.xdag.config.Config;
+import io.xdag.core.Block;
+import io.xdag.crypto.ECKeyPair;
+import io.xdag.crypto.Keys;
+import io.xdag.crypto.jni.Native;
+import io.xdag.mine.MinerAdmission;
+import io.xdag.mine.VarDiff;
+import io.xdag.net.NettyTransport;
+import io.xdag.utils.ByteArrayWrapper;
+import io.xdag.utils.BytesUtils;
+import io.xdag.utils.FastByteComparisons;
+import io.xdag.utils.LatencyHistogram;
+import io.xdag.utils.XdagTime;
+import io.xdag.wallet.OldWallet;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * 矿池容量压测，测量MinerServer、MinerManagerImpl和XdagPow能承载多少矿工
+ *
+ * 启动一个使用本地RocksDB的testnet节点，通过回环地址建立N个模拟矿工连接，使用真实的DFS加密矿工协议：
+ * 发送地址块握手、接收任务、按配置的速率提交share。每10秒输出一次进度，结束时输出
+ * 任务下发延迟、share接收吞吐、握手速率以及整个进程的GC和CPU占用(包含模拟矿工自身的开销)。
+ *
+ * 用法: PoolCapacityBenchmark [矿工数 1000] [每个账户的连接数 4] [每个连接每秒share数 1] [秒数 300]
+ * 任务每64秒下发一次，运行时间至少要覆盖几个任务周期。第一次运行会在./testnet下创建钱包，需要在终端输入密码。
+ */
+public class PoolCapacityBenchmark {
+
+    private static final int FIELD_SIZE = 32;
+    private static final int REPORT_SECONDS = 10;
+
+    private final Kernel kernel;
+    private final Config config;
+    private final int minersPerAccount;
+    private final double sharesPerSecond;
+
+    private final AtomicInteger connected = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+    private final AtomicLong sharesSent = new AtomicLong();
+    private final AtomicLong balances = new AtomicLong();
+    /** 任务第一个字段 -> 各矿工收到该任务的时间 */
+    private final Map<ByteArrayWrapper, TaskSpread> tasks = new ConcurrentHashMap<>();
+    /** 同一个任务第一个和最后一个矿工收到的时间差 */
+    private final LatencyHistogram taskSpread = new LatencyHistogram("task first->last miner received");
+    /** 连接建立到收到第一个任务 */
+    private final LatencyHistogram firstTask = new LatencyHistogram("connect->first task");
+
+    private static class TaskSpread {
+        final long first = System.nanoTime();
+        volatile long last = first;
+        final AtomicInteger receivers = new AtomicInteger();
+    }
+
+    public PoolCapacityBenchmark(Kernel kernel, int minersPerAccount, double sharesPerSecond) {
+        this.kernel = kernel;
+        this.config = kernel.getConfig();
+        this.minersPerAccount = minersPerAccount;
+        this.sharesPerSecond = sharesPerSecond;
+    }
+
+    /** 地址块加上传输头和crc，与矿工软件发出的一致 */
+    static byte[] encodeAddressBlock(Block block) {
+        byte[] data = block.toBytes();
+        System.arraycopy(BytesUtils.intToBytes(BLOCK_HEAD_WORD, true), 0, data, 0, 4);
+        System.arraycopy(new byte[4], 0, data, 4, 4);
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, data.length);
+        System.arraycopy(BytesUtils.intToBytes((int) crc32.getValue(), true), 0, data, 4, 4);
+        return data;
+    }
+
+    /** 一个模拟矿工连接，按矿工协议逐字段加解密 */
+    class SimulatedMiner extends ByteToMessageDecoder {
+        private final byte[] addressBlock;
+        private final byte[] address;
+        private long inSector;
+        private long outSector;
+        private long connectNanos;
+        private long taskFields;
+        private ScheduledFuture<?> shareFuture;
+
+        SimulatedMiner(byte[] addressBlock, byte[] address) {
+            this.addressBlock = addressBlock;
+            this.address = address;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            connected.incrementAndGet();
+            connectNanos = System.nanoTime();
+            write(ctx, addressBlock, 16);
+            super.channelActive(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            closed.incrementAndGet();
+            if (shareFuture != null) {
+                shareFuture.cancel(false);
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            while (in.readableBytes() >= FIELD_SIZE) {
+                byte[] field = new byte[FIELD_SIZE];
+                in.readBytes(field);
+                byte[] data = Native.dfslib_uncrypt_array(field, 1, inSector++);
+                // 余额消息是反序的金额加账户地址，其余都是任务的字段
+                byte[] reversed = data.clone();
+                BytesUtils.arrayReverse(reversed);
+                if (FastByteComparisons.compareTo(reversed, 8, 24, address, 8, 24) == 0) {
+                    balances.incrementAndGet();
+                } else if (taskFields++ % 2 == 0) {
+                    onTask(ctx, data);
+                }
+            }
+        }
+
+        private void onTask(ChannelHandlerContext ctx, byte[] firstField) {
+            long now = System.nanoTime();
+            TaskSpread spread = tasks.computeIfAbsent(new ByteArrayWrapper(firstField), k -> new TaskSpread());
+            spread.receivers.incrementAndGet();
+            spread.last = now;
+            if (shareFuture == null) {
+                firstTask.record(now - connectNanos);
+                if (sharesPerSecond > 0) {
+                    long period = (long) (TimeUnit.SECONDS.toNanos(1) / sharesPerSecond);
+                    long delay = ThreadLocalRandom.current().nextLong(period);
+                    shareFuture = ctx.executor().scheduleAtFixedRate(() -> sendShare(ctx), delay, period,
+                            TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+
+        /** share的后24字节是账户地址，前8字节是随机nonce，发送前反序 */
+        private void sendShare(ChannelHandlerContext ctx) {
+            byte[] share = new byte[FIELD_SIZE];
+            byte[] nonce = new byte[8];
+            ThreadLocalRandom.current().nextBytes(nonce);
+            System.arraycopy(nonce, 0, share, 0, 8);
+            System.arraycopy(address, 8, share, 8, 24);
+            BytesUtils.arrayReverse(share);
+            write(ctx, share, 1);
+            sharesSent.incrementAndGet();
+        }
+
+        private void write(ChannelHandlerContext ctx, byte[] data, int nfield) {
+            byte[] encrypted = Native.dfslib_encrypt_array(data, nfield, outSector);
+            outSector += nfield;
+            ctx.writeAndFlush(Unpooled.wrappedBuffer(encrypted));
+        }
+    }
+
+    /** 生成账户地址块，每个账户minersPerAccount个连接 */
+    private List<byte[][]> createAccounts(int miners) {
+        List<byte[][]> accounts = new ArrayList<>();
+        int count = (miners + minersPerAccount - 1) / minersPerAccount;
+        for (int i = 0; i < count; i++) {
+            ECKeyPair key = Keys.createEcKeyPair();
+            Block block = new Block(XdagTime.getCurrentTimestamp(), null, null, false, null, null, -1);
+            block.signOut(key);
+            accounts.add(new byte[][] {encodeAddressBlock(block), block.getHash()});
+        }
+        return accounts;
+    }
+
+    public void run(int miners, int seconds) throws InterruptedException {
+        List<byte[][]> accounts = createAccounts(miners);
+        EventLoopGroup group = NettyTransport.newEventLoopGroup(config, 0, "SimulatedMiner-%d");
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NettyTransport.channelClass(config))
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getConnectionTimeout());
+
+        MinerAdmission admission = kernel.getMinerAdmission();
+        long admittedBase = admission.getAdmitted();
+        long start = System.nanoTime();
+        for (int i = 0; i < miners; i++) {
+            byte[][] account = accounts.get(i / minersPerAccount);
+            bootstrap.clone().handler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ch.pipeline().addLast(new SimulatedMiner(account[0], account[1]));
+                }
+            }).connect(config.getPoolIp(), config.getPoolPort());
+        }
+
+        Sample first = new Sample(start);
+        Sample last = first;
+        long allAdmitted = 0;
+        for (int t = REPORT_SECONDS; t <= seconds; t += REPORT_SECONDS) {
+            TimeUnit.SECONDS.sleep(REPORT_SECONDS);
+            Sample now = new Sample(System.nanoTime());
+            long admitted = admission.getAdmitted() - admittedBase;
+            if (allAdmitted == 0 && admitted >= miners) {
+                allAdmitted = now.nanos;
+            }
+            System.out.printf("[%4ds] connected %d, admitted %d, closed %d, tasks %d, %s%n",
+                    t, connected.get(), admitted, closed.get(), tasks.size(), now.since(last));
+            last = now;
+        }
+
+        Sample end = new Sample(System.nanoTime());
+        long admitted = admission.getAdmitted() - admittedBase;
+        double handshakeSeconds = ((allAdmitted == 0 ? end.nanos : allAdmitted) - start) / 1e9;
+        for (TaskSpread spread : tasks.values()) {
+            if (spread.receivers.get() > 1) {
+                taskSpread.record(spread.last - spread.first);
+            }
+        }
+
+        System.out.println("==================== pool capacity ====================");
+        System.out.printf("miners %d, accounts %d, shares/s per miner %.2f, %d s%n",
+                miners, accounts.size(), sharesPerSecond, seconds);
+        System.out.printf("handshakes: %d admitted, %.1f/s%s%n", admitted, admitted / handshakeSeconds,
+                allAdmitted == 0 ? " (not all admitted)" : "");
+        System.out.println(admission.getHandshakeLatency());
+        System.out.println(admission.getValidateLatency());
+        System.out.println("task fan-out:");
+        System.out.println(kernel.getMinerManager().getTaskBroadcastLatency());
+        System.out.println(taskSpread);
+        System.out.println(firstTask);
+        System.out.println("shares:");
+        System.out.println(end.since(first));
+        System.out.println(kernel.getPow().getShareLatency());
+
+        group.shutdownGracefully().syncUninterruptibly();
+    }
+
+    /** 某一时刻的计数，两次之差换算为速率 */
+    private class Sample {
+        final long nanos;
+        final long sent;
+        final long accepted;
+        final long rejected;
+        final long gcCount;
+        final long gcMillis;
+        final long cpuNanos;
+
+        Sample(long nanos) {
+            this.nanos = nanos;
+            this.sent = sharesSent.get();
+            this.accepted = VarDiff.getTotalAccepted();
+            this.rejected = VarDiff.getTotalRejected();
+            long count = 0;
+            long millis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, gc.getCollectionCount());
+                millis += Math.max(0, gc.getCollectionTime());
+            }
+            this.gcCount = count;
+            this.gcMillis = millis;
+            this.cpuNanos = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                    .getProcessCpuTime();
+        }
+
+        String since(Sample prev) {
+            double seconds = Math.max(1, nanos - prev.nanos) / 1e9;
+            int cores = Runtime.getRuntime().availableProcessors();
+            return String.format("shares sent %.1f/s, accepted %.1f/s, rejected %.1f/s, gc %d (%d ms), cpu %.1f%%",
+                    (sent - prev.sent) / seconds,
+                    (accepted - prev.accepted) / seconds,
+                    (rejected - prev.rejected) / seconds,
+                    gcCount - prev.gcCount,
+                    gcMillis - prev.gcMillis,
+                    (cpuNanos - prev.cpuNanos) * 100.0 / (nanos - prev.nanos) / cores);
+        }
+    }
+
+    private static int arg(String[] args, int i, int def) {
+        return args.length > i ? Integer.parseInt(args[i]) : def;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int miners = arg(args, 0, 1000);
+        int minersPerAccount = arg(args, 1, 4);
+        double sharesPerSecond = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+        int seconds = arg(args, 3, 300);
+
+        Config.MAINNET = false;
+        Config config = new Config();
+        config.setDir();
+        config.initKeys();
+        // 所有模拟矿工都来自回环地址
+        config.setGlobalMinerLimit(Math.max(config.getGlobalMinerLimit(), miners));
+        config.setGlobalMinerChannelLimit(Math.max(config.getGlobalMinerChannelLimit(), miners * 2));
+        config.setMaxConnectPerIp(Math.max(config.getMaxConnectPerIp(), miners));
+        config.setMaxMinerPerAccount(Math.max(config.getMaxMinerPerAccount(), minersPerAccount));
+
+        Kernel kernel = new Kernel(config, new OldWallet());
+        kernel.testStart();
+        // 没有其他节点，直接开始出块并打开矿池端口
+        kernel.getSyncMgr().makeSyncDone();
+
+        new PoolCapacityBenchmark(kernel, minersPerAccount, sharesPerSecond).run(miners, seconds);
+        kernel.testStop();
+        System.exit(0);
+    }
+}
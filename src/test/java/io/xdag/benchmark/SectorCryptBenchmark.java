@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.xdag.config.Config;
+import io.xdag.crypto.jni.Native;
+import io.xdag.crypto.jni.SectorCrypt;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 区块加解密吞吐量，单线程运行，结果即每个核心的吞吐量
+ *
+ * 每次操作处理sectors个512字节扇区，MB/s = ops/s * sectors * 512 / 1MB。
+ * perSector为原来逐个扇区复制数组的方式，batchInPlace为direct buffer上的批量原地解密。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SectorCryptBenchmark {
+
+    @Param({"1", "16", "128"})
+    int sectors;
+
+    private ByteBuf buf;
+    private long sectorNo;
+
+    @Setup
+    public void setUp() throws Exception {
+        new Config().initKeys();
+        byte[] data = new byte[sectors * SectorCrypt.SECTOR_SIZE];
+        new Random(1).nextBytes(data);
+        buf = PooledByteBufAllocator.DEFAULT.directBuffer(data.length);
+        buf.writeBytes(data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        buf.release();
+    }
+
+    @Benchmark
+    public ByteBuf perSector() {
+        byte[] encrypted = new byte[SectorCrypt.SECTOR_SIZE];
+        for (int i = 0; i < sectors; i++) {
+            int index = i * SectorCrypt.SECTOR_SIZE;
+            buf.getBytes(index, encrypted);
+            byte[] uncrypted = Native.dfslib_uncrypt_byte_sector(encrypted, encrypted.length, sectorNo + i);
+            buf.setBytes(index, uncrypted);
+        }
+        sectorNo += sectors;
+        return buf;
+    }
+
+    @Benchmark
+    public ByteBuf batchInPlace() {
+        SectorCrypt.uncryptSectors(buf, 0, sectors, sectorNo);
+        sectorNo += sectors;
+        return buf;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(SectorCryptBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
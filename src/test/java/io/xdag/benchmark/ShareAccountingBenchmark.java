@@ -0,0 +1,119 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.benchmark;
+
+import io.xdag.mine.miner.Miner;
+import io.xdag.mine.miner.MinerCalculate;
+import io.xdag.utils.BigDecimalUtils;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 单个矿工的share统计吞吐，配合GCProfiler看gc.alloc.rate.norm
+ *
+ * legacy为原来的CopyOnWriteArrayList<Double>和BigDecimal的滑动平均，
+ * primitive为DiffRing和double运算。每32个share切换一次任务，其余share里约一半更新最大难度。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ShareAccountingBenchmark {
+
+    private static final int SHARES_PER_TASK = 32;
+
+    private Miner miner;
+    private final List<Double> legacyDiffs = new CopyOnWriteArrayList<>();
+    private long legacyTaskTime;
+    private double mean;
+    private long taskTime;
+    private int share;
+
+    @Setup
+    public void setUp() {
+        miner = new Miner(new byte[32]);
+        for (int i = 0; i < 16; i++) {
+            legacyDiffs.add(0.0);
+        }
+    }
+
+    /** 下一个share的任务时间和难度 */
+    private double next() {
+        if (++share % SHARES_PER_TASK == 0) {
+            taskTime += 0x10000;
+        }
+        return 20 + (share % SHARES_PER_TASK) * ((share & 1) == 0 ? 0.1 : -0.1);
+    }
+
+    @Benchmark
+    public double legacy() {
+        double diff = next();
+        int i = (int) (((taskTime >> 16) + 1) & 0xf);
+        if (legacyTaskTime < taskTime) {
+            legacyTaskTime = taskTime;
+            legacyDiffs.set(i, diff);
+        } else if (diff > legacyDiffs.get(i)) {
+            legacyDiffs.set(i, diff);
+        }
+        double temp = BigDecimalUtils.div(BigDecimalUtils.sub(diff, mean), 255);
+        mean = BigDecimalUtils.add(mean, temp);
+        return mean;
+    }
+
+    @Benchmark
+    public double primitive() {
+        double diff = next();
+        MinerCalculate.updateMinerDiff(miner, taskTime, diff);
+        mean = MinerCalculate.welfordOnePass(mean, diff, 255);
+        return mean;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ShareAccountingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+}
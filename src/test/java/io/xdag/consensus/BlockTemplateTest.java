@@ -0,0 +1,60 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.consensus;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import io.xdag.core.Block;
+import io.xdag.crypto.ECKeyPair;
+import io.xdag.crypto.Keys;
+import io.xdag.utils.XdagTime;
+import org.apache.commons.lang3.RandomUtils;
+import org.junit.Test;
+
+public class BlockTemplateTest {
+
+    @Test
+    public void testHashMatchesReencodedBlock() throws Exception {
+        ECKeyPair key = Keys.createEcKeyPair();
+        Block block = new Block(XdagTime.getCurrentTimestamp(), null, true);
+        block.signOut(key);
+
+        byte[] nonce = RandomUtils.nextBytes(32);
+        block.setNonce(nonce);
+        BlockTemplate template = new BlockTemplate(block, nonce);
+        assertArrayEquals(block.recalcHash(), template.getHash());
+
+        // 更换nonce后与重新编码的结果一致
+        for (int i = 0; i < 4; i++) {
+            nonce = RandomUtils.nextBytes(32);
+            block.setNonce(nonce);
+            assertArrayEquals(block.recalcHash(), template.setNonce(nonce));
+        }
+        assertArrayEquals(block.toBytes(), template.getData());
+        assertArrayEquals(template.getHash(), template.toBlock().getHash());
+
+        // share的hash由前480字节的状态加上nonce计算
+        assertArrayEquals(template.getHash(), template.getDigest().sha256Final(nonce));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.core;
+
+import com.google.common.collect.Lists;
+import io.xdag.Kernel;
+import io.xdag.config.Config;
+import io.xdag.crypto.ECKeyPair;
+import io.xdag.crypto.Keys;
+import io.xdag.crypto.jni.Native;
+import io.xdag.db.DatabaseFactory;
+import io.xdag.db.DatabaseName;
+import io.xdag.db.rocksdb.RocksdbFactory;
+import io.xdag.db.store.BlockStore;
+import io.xdag.db.store.OrphanPool;
+import io.xdag.utils.XdagTime;
+import io.xdag.wallet.OldWallet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+import static io.xdag.BlockBuilder.generateAddressBlock;
+import static io.xdag.BlockBuilder.generateExtraBlock;
+import static io.xdag.core.ImportResult.IMPORTED_BEST;
+import static io.xdag.core.XdagField.FieldType.XDAG_FIELD_OUT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BlockImporterTest {
+
+    @Rule
+    public TemporaryFolder root = new TemporaryFolder();
+
+    private void createFile(String path) throws Exception {
+        File file = new File(root.getRoot(), path);
+        assertTrue(file.getParentFile().mkdirs() || file.getParentFile().isDirectory());
+        assertTrue(file.createNewFile());
+    }
+
+    @Test
+    public void testListStorageFilesInTimeOrder() throws Exception {
+        createFile("01/6e/5e/ff.dat");
+        createFile("01/6e/5f/00.dat");
+        createFile("01/6e/5e/0a.dat");
+        createFile("00/ff/ff/ff.dat");
+        // not block storage
+        createFile("01/6e/5e/sums.dat");
+        createFile("01/6e/sums.dat");
+        createFile("01/6e/5e/0b.tmp");
+
+        Path src = root.getRoot().toPath();
+        List<Path> files = BlockImporter.listStorageFiles(src);
+        assertEquals(4, files.size());
+        assertEquals("00/ff/ff/ff.dat", toUnix(src.relativize(files.get(0))));
+        assertEquals("01/6e/5e/0a.dat", toUnix(src.relativize(files.get(1))));
+        assertEquals("01/6e/5e/ff.dat", toUnix(src.relativize(files.get(2))));
+        assertEquals("01/6e/5f/00.dat", toUnix(src.relativize(files.get(3))));
+    }
+
+    @Test
+    public void testReadEmptyFile() throws Exception {
+        createFile("01/6e/5e/ff.dat");
+        BlockImporter importer = new BlockImporter(null, 1);
+        assertTrue(importer.readFile(root.getRoot().toPath().resolve("01/6e/5e/ff.dat")).isEmpty());
+    }
+
+    @Test
+    public void testImportStorageFile() throws Exception {
+        BlockchainImpl blockchain = newBlockchain();
+        ECKeyPair key = Keys.createEcKeyPair();
+        long time = XdagTime.getCurrentTimestamp() - 0x100000;
+
+        Block exist = generateAddressBlock(key, time);
+        Block child = generateExtraBlock(key, time + 1,
+                Lists.newArrayList(new Address(exist.getHashLow(), XDAG_FIELD_OUT)));
+        Block missing = generateAddressBlock(Keys.createEcKeyPair(), time + 2);
+        Block orphan = generateExtraBlock(key, time + 3,
+                Lists.newArrayList(new Address(missing.getHashLow(), XDAG_FIELD_OUT)));
+        assertEquals(IMPORTED_BEST, blockchain.tryToConnect(exist));
+
+        createFile("01/6e/5e/ff.dat");
+        File file = new File(root.getRoot(), "01/6e/5e/ff.dat");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            // 文件内顺序打乱，导入前按时间排序
+            out.write(orphan.getXdagBlock().getData());
+            out.write(child.getXdagBlock().getData());
+            out.write(exist.getXdagBlock().getData());
+        }
+
+        BlockImporter importer = new BlockImporter(blockchain, 2);
+        long imported = importer.importFrom(root.getRoot().toPath());
+        assertEquals(1, imported);
+        assertEquals(imported, importer.getImported());
+        assertEquals(1, importer.getExist());
+        assertEquals(1, importer.getNoParent());
+        assertEquals(0, importer.getInvalid());
+        assertTrue(blockchain.isExist(child.getHashLow()));
+    }
+
+    private BlockchainImpl newBlockchain() throws Exception {
+        Config config = new Config();
+        config.setStoreDir(root.newFolder().getAbsolutePath());
+        config.setStoreBackupDir(root.newFolder().getAbsolutePath());
+
+        Native.init();
+        if (Native.dnet_crypt_init() < 0) {
+            throw new Exception("dnet crypt init failed");
+        }
+        OldWallet wallet = new OldWallet();
+        wallet.init(config);
+
+        Kernel kernel = new Kernel(config);
+        DatabaseFactory dbFactory = new RocksdbFactory(config);
+        BlockStore blockStore = new BlockStore(
+                dbFactory.getDB(DatabaseName.INDEX),
+                dbFactory.getDB(DatabaseName.TIME),
+                dbFactory.getDB(DatabaseName.BLOCK));
+        blockStore.reset();
+        OrphanPool orphanPool = new OrphanPool(dbFactory.getDB(DatabaseName.ORPHANIND));
+        orphanPool.reset();
+
+        kernel.setBlockStore(blockStore);
+        kernel.setOrphanPool(orphanPool);
+        kernel.setWallet(wallet);
+        return new BlockchainImpl(kernel);
+    }
+
+    private static String toUnix(Path path) {
+        return path.toString().replace(File.separatorChar, '/');
+    }
+}
@@ -23,8 +23,11 @@
  */
 package io.xdag.crypto;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.xdag.config.Config;
 import io.xdag.crypto.jni.Native;
+import io.xdag.crypto.jni.SectorCrypt;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.binary.StringUtils;
@@ -32,6 +35,8 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Random;
+
 public class DFSJniTest {
     Config config;
 
@@ -58,4 +63,36 @@ public class DFSJniTest {
         Assert.assertTrue(
                 "uncrypt ok.", StringUtils.equals(Hex.encodeHexString(uncryptedBytes), uncryptHexData));
     }
+
+    @Test
+    public void testSectorsInPlace() {
+        int count = 4;
+        long sectorNo = 5;
+        byte[] raw = new byte[count * SectorCrypt.SECTOR_SIZE];
+        new Random(1).nextBytes(raw);
+
+        // 逐个扇区加密的结果
+        byte[] expected = new byte[raw.length];
+        for (int i = 0; i < count; i++) {
+            byte[] sector = new byte[SectorCrypt.SECTOR_SIZE];
+            System.arraycopy(raw, i * SectorCrypt.SECTOR_SIZE, sector, 0, sector.length);
+            byte[] encrypted = Native.dfslib_encrypt_byte_sector(sector, sector.length, sectorNo + i);
+            System.arraycopy(encrypted, 0, expected, i * SectorCrypt.SECTOR_SIZE, encrypted.length);
+        }
+
+        for (ByteBuf buf : new ByteBuf[] { Unpooled.directBuffer(raw.length), Unpooled.buffer(raw.length) }) {
+            buf.writeBytes(raw);
+            SectorCrypt.encryptSectors(buf, 0, count, sectorNo);
+            Assert.assertArrayEquals(expected, toArray(buf));
+            SectorCrypt.uncryptSectors(buf, 0, count, sectorNo);
+            Assert.assertArrayEquals(raw, toArray(buf));
+            buf.release();
+        }
+    }
+
+    private static byte[] toArray(ByteBuf buf) {
+        byte[] data = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), data);
+        return data;
+    }
 }
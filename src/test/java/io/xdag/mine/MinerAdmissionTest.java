@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.xdag.core.Block;
+import io.xdag.core.ImportResult;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class MinerAdmissionTest {
+
+    @Test
+    public void testAcceptShaping() {
+        AtomicLong now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+        MinerAdmission admission = new MinerAdmission(1, 1, 10, now::get);
+        try {
+            // 空闲时积累一秒的名额，加上当前时刻的一个
+            for (int i = 0; i < 11; i++) {
+                assertEquals(0, admission.reserveAccept());
+            }
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(100), admission.reserveAccept());
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(200), admission.reserveAccept());
+            // 排队超过上限的连接被拒绝
+            for (int i = 0; i < 98; i++) {
+                assertTrue(admission.reserveAccept() > 0);
+            }
+            assertEquals(-1, admission.reserveAccept());
+            assertEquals(100, admission.getShaped());
+            assertEquals(1, admission.getRefused());
+        } finally {
+            admission.stop();
+        }
+    }
+
+    @Test
+    public void testKnownAddressSkipsValidation() throws InterruptedException {
+        MinerAdmission admission = new MinerAdmission(1, 16, 1000, System::nanoTime);
+        Block block = mock(Block.class);
+        when(block.getHash()).thenReturn(new byte[32]);
+        AtomicInteger validations = new AtomicInteger();
+        try {
+            CountDownLatch first = new CountDownLatch(1);
+            admission.validate(block, b -> {
+                validations.incrementAndGet();
+                return ImportResult.IMPORTED_NOT_BEST;
+            }, result -> first.countDown());
+            assertTrue(first.await(5, TimeUnit.SECONDS));
+
+            AtomicReference<ImportResult> second = new AtomicReference<>();
+            admission.validate(block, b -> {
+                validations.incrementAndGet();
+                return ImportResult.ERROR;
+            }, second::set);
+            // 命中缓存时直接回调
+            assertEquals(ImportResult.EXIST, second.get());
+            assertEquals(1, validations.get());
+            assertEquals(1, admission.getCacheHits());
+        } finally {
+            admission.stop();
+        }
+    }
+
+    @Test
+    public void testQueueFull() throws InterruptedException {
+        MinerAdmission admission = new MinerAdmission(1, 1, 1000, System::nanoTime);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < 2; i++) {
+                Block block = mock(Block.class);
+                when(block.getHash()).thenReturn(new byte[]{(byte) i});
+                admission.validate(block, b -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return ImportResult.EXIST;
+                }, result -> {
+                });
+            }
+            Block block = mock(Block.class);
+            when(block.getHash()).thenReturn(new byte[]{2});
+            AtomicReference<ImportResult> result = new AtomicReference<>(ImportResult.ERROR);
+            admission.validate(block, b -> ImportResult.EXIST, result::set);
+            assertNull(result.get());
+            assertEquals(1, admission.getQueueFull());
+        } finally {
+            release.countDown();
+            admission.stop();
+        }
+    }
+}
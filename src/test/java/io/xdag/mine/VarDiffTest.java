@@ -0,0 +1,150 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.xdag.consensus.Task;
+import io.xdag.core.XdagField;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class VarDiffTest {
+
+    private long taskIndex;
+
+    private Task task(long time) {
+        Task task = new Task();
+        task.setTaskTime(time);
+        task.setTaskIndex(++taskIndex);
+        return task;
+    }
+
+    @Test
+    public void testRetargetToSharesPerTask() {
+        VarDiff varDiff = new VarDiff(4);
+        List<byte[]> carried = new ArrayList<>();
+        VarDiff.Carry carry = (t, s, h) -> carried.add(h);
+
+        Task first = task(1 << 16);
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(varDiff.accept(first, null, new byte[32], i, false, carry));
+        }
+        // 第4好的难度为7
+        Task second = task(2 << 16);
+        assertFalse(varDiff.accept(second, null, new byte[32], 6, false, carry));
+        assertEquals(7, varDiff.getTarget(), 0);
+        assertTrue(varDiff.accept(second, null, new byte[32], 8, false, carry));
+        assertTrue(carried.isEmpty());
+    }
+
+    @Test
+    public void testCarryBestRejectedShare() {
+        VarDiff varDiff = new VarDiff(2);
+        List<byte[]> carried = new ArrayList<>();
+        List<Task> tasks = new ArrayList<>();
+        VarDiff.Carry carry = (t, s, h) -> {
+            tasks.add(t);
+            carried.add(h);
+        };
+
+        Task first = task(1 << 16);
+        varDiff.accept(first, null, new byte[32], 10, false, carry);
+        varDiff.accept(first, null, new byte[32], 20, false, carry);
+
+        // 目标为10，第二个任务的share都低于目标
+        Task second = task(2 << 16);
+        byte[] best = new byte[32];
+        assertFalse(varDiff.accept(second, null, new byte[32], 5, false, carry));
+        assertFalse(varDiff.accept(second, new XdagField(new byte[32]), best, 8, false, carry));
+        assertFalse(varDiff.accept(second, null, new byte[32], 7, false, carry));
+        assertTrue(carried.isEmpty());
+
+        // 切换任务时补交上一任务最好的share，目标与第2好的难度7取平均
+        assertFalse(varDiff.accept(task(3 << 16), null, new byte[32], 1, false, carry));
+        assertEquals(8.5, varDiff.getTarget(), 0);
+        assertEquals(1, carried.size());
+        assertSame(best, carried.get(0));
+        assertSame(second, tasks.get(0));
+    }
+
+    @Test
+    public void testSameEpochPretopTask() {
+        VarDiff varDiff = new VarDiff(2);
+        List<byte[]> carried = new ArrayList<>();
+        VarDiff.Carry carry = (t, s, h) -> carried.add(h);
+
+        Task first = task(1 << 16);
+        varDiff.accept(first, null, new byte[32], 10, false, carry);
+        varDiff.accept(first, null, new byte[32], 20, false, carry);
+        Task second = task(2 << 16);
+        varDiff.onNewTask(second, carry);
+        assertEquals(10, varDiff.getTarget(), 0);
+
+        // pretop变化产生同一epoch的新任务，上一任务的最好share在切换时立即补交
+        byte[] best = new byte[32];
+        assertFalse(varDiff.accept(second, null, best, 8, false, carry));
+        assertFalse(varDiff.accept(second, null, new byte[32], 7, false, carry));
+        Task pretop = task(2 << 16);
+        varDiff.onNewTask(pretop, carry);
+        assertEquals(1, carried.size());
+        assertSame(best, carried.get(0));
+        assertEquals(8.5, varDiff.getTarget(), 0);
+
+        // 新任务的share参与统计，迟到的上一任务的share低于目标但超过已交出的难度时也放行
+        assertFalse(varDiff.accept(pretop, null, new byte[32], 5, false, carry));
+        assertTrue(varDiff.accept(second, null, new byte[32], 8.2, false, carry));
+        assertFalse(varDiff.accept(second, null, new byte[32], 8.1, false, carry));
+
+        byte[] pretopBest = new byte[32];
+        assertFalse(varDiff.accept(pretop, null, pretopBest, 6, false, carry));
+        varDiff.onNewTask(task(3 << 16), carry);
+        assertEquals(2, carried.size());
+        assertSame(pretopBest, carried.get(1));
+    }
+
+    @Test
+    public void testKeepBelowTarget() {
+        VarDiff varDiff = new VarDiff(2);
+        List<byte[]> carried = new ArrayList<>();
+        VarDiff.Carry carry = (t, s, h) -> carried.add(h);
+
+        Task first = task(1 << 16);
+        varDiff.accept(first, null, new byte[32], 10, false, carry);
+        varDiff.accept(first, null, new byte[32], 20, false, carry);
+        long accepted = VarDiff.getTotalAccepted();
+
+        // 低于目标但能更新minHash的share按接受统计，切换任务时不再重复补交
+        Task second = task(2 << 16);
+        assertTrue(varDiff.accept(second, null, new byte[32], 5, true, carry));
+        assertEquals(accepted + 1, VarDiff.getTotalAccepted());
+        assertFalse(varDiff.accept(second, null, new byte[32], 7, false, carry));
+        varDiff.onNewTask(task(3 << 16), carry);
+        assertTrue(carried.isEmpty());
+    }
+}
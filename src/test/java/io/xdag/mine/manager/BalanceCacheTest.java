@@ -0,0 +1,86 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.xdag.core.Block;
+import io.xdag.core.BlockInfo;
+import io.xdag.db.store.BlockStore;
+import io.xdag.listener.Message;
+import io.xdag.utils.ByteArrayWrapper;
+import java.util.Collections;
+import org.junit.Test;
+
+public class BalanceCacheTest {
+
+    @Test
+    public void testInvalidateOnAmountChange() {
+        BlockInfo info = new BlockInfo();
+        info.setAmount(100);
+        Block block = mock(Block.class);
+        when(block.getInfo()).thenReturn(info);
+        BlockStore blockStore = mock(BlockStore.class);
+        when(blockStore.getBlockByHash(any(), anyBoolean())).thenReturn(block);
+
+        BalanceCache cache = new BalanceCache(blockStore);
+        byte[] hashlow = new byte[32];
+        hashlow[31] = 1;
+        ByteArrayWrapper key = new ByteArrayWrapper(hashlow);
+
+        assertEquals(100L, (long) cache.get(key));
+        assertEquals(100L, (long) cache.get(key));
+        verify(blockStore, times(1)).getBlockByHash(any(), anyBoolean());
+
+        // 其他账户的变化不影响
+        cache.onMessage(new Message(new byte[32]));
+        assertEquals(100L, (long) cache.get(key));
+
+        info.setAmount(200);
+        cache.onMessage(new Message(hashlow.clone()));
+        assertEquals(200L, (long) cache.get(key));
+        verify(blockStore, times(2)).getBlockByHash(any(), anyBoolean());
+        assertEquals(2, cache.getHits());
+
+        cache.retain(Collections.emptySet());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMissingBlockIsReadAgain() {
+        BlockStore blockStore = mock(BlockStore.class);
+        BalanceCache cache = new BalanceCache(blockStore);
+        ByteArrayWrapper key = new ByteArrayWrapper(new byte[32]);
+        assertNull(cache.get(key));
+        assertNull(cache.get(key));
+        verify(blockStore, times(2)).getBlockByHash(any(), anyBoolean());
+    }
+}
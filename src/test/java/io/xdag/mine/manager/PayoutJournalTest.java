@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.manager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.xdag.core.Block;
+import io.xdag.utils.XdagTime;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PayoutJournalTest {
+
+    @Rule
+    public TemporaryFolder root = new TemporaryFolder();
+
+    private static byte[] hashlow(int b) {
+        byte[] hashlow = new byte[32];
+        hashlow[31] = (byte) b;
+        return hashlow;
+    }
+
+    private static Block block(long offset) {
+        return new Block(XdagTime.getCurrentTimestamp() + offset, null, false);
+    }
+
+    @Test
+    public void testResumeUnfinishedPayout() throws IOException {
+        Path file = root.getRoot().toPath().resolve("payouts.journal");
+        Block first = block(0);
+        Block second = block(1);
+        Block third = block(2);
+
+        PayoutJournal journal = new PayoutJournal(file);
+        assertTrue(journal.open().isEmpty());
+        journal.begin(hashlow(1), Arrays.asList(first, second));
+        journal.begin(hashlow(2), Arrays.asList(third));
+        journal.done(hashlow(1));
+        journal.close();
+
+        // 第二次支付没有完成，重启后只返回它的区块
+        journal = new PayoutJournal(file);
+        List<byte[]> pending = journal.open();
+        assertEquals(1, pending.size());
+        assertArrayEquals(third.toBytes(), pending.get(0));
+        assertEquals(1, journal.getPending());
+
+        journal.done(hashlow(2));
+        assertEquals(0, Files.size(file));
+        journal.close();
+    }
+
+    @Test
+    public void testTornRecordDropped() throws IOException {
+        Path file = root.getRoot().toPath().resolve("payouts.journal");
+        PayoutJournal journal = new PayoutJournal(file);
+        journal.open();
+        journal.begin(hashlow(1), Arrays.asList(block(0)));
+        journal.close();
+        long complete = Files.size(file);
+
+        // 模拟写到一半崩溃的记录
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buf = ByteBuffer.allocate(1 + 32 + 4 + 100);
+            buf.put((byte) 1).put(hashlow(2)).putInt(1);
+            buf.position(buf.limit());
+            buf.flip();
+            channel.write(buf);
+        }
+
+        journal = new PayoutJournal(file);
+        assertEquals(1, journal.open().size());
+        assertEquals(complete, Files.size(file));
+        journal.close();
+    }
+
+    @Test
+    public void testDeadLetter() throws IOException {
+        Path file = root.getRoot().toPath().resolve("payouts.journal");
+        Block rejected = block(0);
+        Block other = block(1);
+        PayoutJournal journal = new PayoutJournal(file);
+        journal.open();
+        journal.begin(hashlow(1), Arrays.asList(rejected));
+        journal.begin(hashlow(2), Arrays.asList(other));
+        journal.dead(hashlow(1));
+        assertEquals(1, journal.getPending());
+        journal.close();
+
+        // 死信按BATCH格式保存，重启后不再提交
+        journal = new PayoutJournal(file.resolveSibling("payouts.journal.dead"));
+        List<byte[]> dead = journal.open();
+        assertEquals(1, dead.size());
+        assertArrayEquals(rejected.toBytes(), dead.get(0));
+        journal.close();
+
+        journal = new PayoutJournal(file);
+        List<byte[]> pending = journal.open();
+        assertEquals(1, pending.size());
+        assertArrayEquals(other.toBytes(), pending.get(0));
+        journal.close();
+    }
+}
@@ -48,4 +48,19 @@ public class MinerCalculateTest {
 
 
     }
+
+    @Test
+    public void updateMinerDiffTest() {
+        Miner miner = new Miner(new byte[32]);
+        long taskTime = 0x10000;
+        int index = (int) (((taskTime >> 16) + 1) & 0xf);
+        Assert.assertTrue(MinerCalculate.updateMinerDiff(miner, taskTime, 10));
+        Assert.assertFalse(MinerCalculate.updateMinerDiff(miner, taskTime, 9));
+        Assert.assertTrue(MinerCalculate.updateMinerDiff(miner, taskTime, 12));
+        Assert.assertEquals(12, miner.getMaxDiffs(index), 0);
+        // 其他位置不受影响
+        Assert.assertEquals(0, miner.getMaxDiffs((index + 1) & 0xf), 0);
+
+        Assert.assertEquals(150, MinerCalculate.welfordOnePass(100, 200, 2), 0);
+    }
 }
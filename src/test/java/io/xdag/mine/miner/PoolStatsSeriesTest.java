@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.miner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class PoolStatsSeriesTest {
+
+    @Test
+    public void testMergeStripes() throws Exception {
+        PoolStatsSeries pool = new PoolStatsSeries(4);
+        long now = 100 * StatsSeries.MINUTE;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            double best = 20 + t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    pool.onShare(now, 1, i == 0 ? best : 10, i % 2 == 0);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        StatsSeries.Bucket bucket = pool.snapshot().total(false, 1, now);
+        assertEquals(4000, bucket.accepted);
+        assertEquals(4000, bucket.rejected);
+        // 还没有提交的任务在读取时计入
+        assertEquals(1, bucket.tasks);
+        assertEquals(27, bucket.logDiffSum, 1e-6);
+
+        // 新任务到来时上一个任务的全矿池最佳难度只计入一次
+        pool.onShare(now + 1000, 2, 10, true);
+        bucket = pool.snapshot().total(false, 1, now + 1000);
+        assertEquals(2, bucket.tasks);
+        assertEquals(37, bucket.logDiffSum, 1e-6);
+    }
+
+    @Test
+    public void testCheckpointLoad() {
+        PoolStatsSeries pool = new PoolStatsSeries(2);
+        assertNull(pool.checkpoint());
+        long now = 300 * StatsSeries.HOUR;
+        pool.onShare(now, 1, 20, true);
+        pool.onShare(now, 2, 30, false);
+        byte[] data = pool.checkpoint();
+        assertNull(pool.checkpoint());
+
+        PoolStatsSeries loaded = new PoolStatsSeries(2);
+        assertTrue(loaded.load(data));
+        loaded.onShare(now, 3, 5, true);
+        StatsSeries.Bucket bucket = loaded.snapshot().total(true, 1, now);
+        assertEquals(2, bucket.accepted);
+        assertEquals(1, bucket.rejected);
+        // 恢复的任务2在任务3到来时计入，任务3在读取时计入
+        assertEquals(3, bucket.tasks);
+        assertEquals(55, bucket.logDiffSum, 1e-6);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.miner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import io.xdag.utils.ByteArrayWrapper;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShareLedgerTest {
+
+    @Rule
+    public TemporaryFolder root = new TemporaryFolder();
+
+    static class MemoryState implements ShareLedger.State {
+        final Map<ByteArrayWrapper, Miner> miners = new HashMap<>();
+        final Map<Long, byte[]> awards = new HashMap<>();
+
+        @Override
+        public Miner getMiner(byte[] address) {
+            return miners.computeIfAbsent(new ByteArrayWrapper(address), k -> new Miner(address));
+        }
+
+        @Override
+        public Collection<Miner> getMiners() {
+            return miners.values();
+        }
+
+        @Override
+        public void onAwardBlock(long time, byte[] hash, byte[] share) {
+            awards.put(time, hash);
+        }
+    }
+
+    private static byte[] address(int b) {
+        byte[] address = new byte[32];
+        address[31] = (byte) b;
+        return address;
+    }
+
+    private static int slot(long taskTime) {
+        return (int) (((taskTime >> 16) + 1) & 0xf);
+    }
+
+    @Test
+    public void testReplayAfterRestart() throws IOException {
+        Path file = root.newFolder().toPath().resolve("shares.ledger");
+        long t1 = 0x10000L;
+        long t2 = 0x20000L;
+
+        MemoryState state = new MemoryState();
+        ShareLedger ledger = new ShareLedger(file);
+        ledger.open(state);
+        Miner a = state.getMiner(address(1));
+        for (double diff : new double[] {5, 7, 6}) {
+            if (MinerCalculate.updateMinerDiff(a, t1, diff)) {
+                ledger.share(t1, a.getAddressHash(), diff);
+            }
+        }
+        Miner b = state.getMiner(address(2));
+        MinerCalculate.updateMinerDiff(b, t2, 9);
+        ledger.share(t2, b.getAddressHash(), 9);
+        ledger.award(t1, address(3), address(4));
+        // b的难度已经支付
+        ledger.paid(slot(t2), b.getAddressHash(), false);
+        assertEquals(5, ledger.getRecords());
+        ledger.close();
+
+        MemoryState restored = new MemoryState();
+        ShareLedger reopened = new ShareLedger(file);
+        reopened.open(restored);
+        Miner ra = restored.getMiner(address(1));
+        assertEquals(7, ra.getMaxDiffs(slot(t1)), 0);
+        assertEquals(t1, ra.getTaskTime());
+        assertEquals(0, restored.getMiner(address(2)).getMaxDiffs(slot(t2)), 0);
+        assertArrayEquals(address(3), restored.awards.get(t1));
+        reopened.close();
+    }
+
+    @Test
+    public void testCompactKeepsState() throws Exception {
+        Path file = root.newFolder().toPath().resolve("shares.ledger");
+        MemoryState state = new MemoryState();
+        ShareLedger ledger = new ShareLedger(file);
+        ledger.open(state);
+        Miner a = state.getMiner(address(1));
+        for (int epoch = 1; epoch <= 16; epoch++) {
+            long time = (long) epoch << 16;
+            MinerCalculate.updateMinerDiff(a, time, epoch);
+            ledger.share(time, a.getAddressHash(), epoch);
+            ledger.award(time, address(epoch), address(epoch));
+        }
+        // 第16个区块后在后台压缩为1个矿工、16个难度和16个区块
+        ledger.getCompaction().get();
+        assertEquals(1 + 16 + 16, ledger.getRecords());
+        // 压缩后写入替换后的文件
+        Miner b = state.getMiner(address(2));
+        MinerCalculate.updateMinerDiff(b, 17L << 16, 3);
+        ledger.share(17L << 16, b.getAddressHash(), 3);
+        ledger.close();
+
+        MemoryState restored = new MemoryState();
+        ShareLedger reopened = new ShareLedger(file);
+        reopened.open(restored);
+        Miner ra = restored.getMiner(address(1));
+        for (int epoch = 1; epoch <= 16; epoch++) {
+            assertEquals(epoch, ra.getMaxDiffs(slot((long) epoch << 16)), 0);
+        }
+        assertEquals(16L << 16, ra.getTaskTime());
+        assertEquals(16, restored.awards.size());
+        assertEquals(3, restored.getMiner(address(2)).getMaxDiffs(slot(17L << 16)), 0);
+        reopened.close();
+    }
+}
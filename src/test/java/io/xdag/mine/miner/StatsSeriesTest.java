@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.miner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class StatsSeriesTest {
+
+    @Test
+    public void testBucketRollover() {
+        StatsSeries series = new StatsSeries(4, 2);
+        long now = 100 * StatsSeries.MINUTE;
+        series.onShare(now, 1, 20, true);
+        series.onShare(now + 1000, 1, 21, false);
+        series.onShare(now + StatsSeries.MINUTE, 1, 22, true);
+
+        List<StatsSeries.Bucket> range = series.range(false, 2, now + StatsSeries.MINUTE);
+        assertEquals(2, range.size());
+        assertEquals(1, range.get(0).accepted);
+        assertEquals(1, range.get(0).rejected);
+        assertEquals(1, range.get(1).accepted);
+
+        // 环形缓冲转一圈后旧桶被清零
+        long later = now + 4 * StatsSeries.MINUTE;
+        series.onShare(later, 1, 20, true);
+        StatsSeries.Bucket total = series.total(false, 4, later);
+        assertEquals(2, total.accepted);
+        assertEquals(0, total.rejected);
+    }
+
+    @Test
+    public void testTaskCommit() {
+        StatsSeries series = StatsSeries.forMiner();
+        long now = 200 * StatsSeries.MINUTE;
+        series.onShare(now, 1, 20, true);
+        series.onShare(now, 1, 25, true);
+        // 读取时计入还没有提交的任务
+        StatsSeries.Bucket bucket = series.total(false, 1, now);
+        assertEquals(1, bucket.tasks);
+        assertEquals(25, bucket.logDiffSum, 1e-6);
+
+        // 新任务到来时上一个任务的最佳难度计入它所在的桶
+        series.onShare(now + 1000, 2, 10, true);
+        bucket = series.total(false, 1, now + 1000);
+        assertEquals(2, bucket.tasks);
+        assertEquals(35, bucket.logDiffSum, 1e-6);
+        assertTrue(bucket.getHashrate() > 0);
+    }
+
+    @Test
+    public void testFlushOnRollover() {
+        StatsSeries series = StatsSeries.forMiner();
+        long now = 500 * StatsSeries.MINUTE;
+        series.onShare(now, 1, 20, true);
+        // 下一分钟的share使任务计入第一分钟的桶，之后更好的share修正该桶，不再计一次任务
+        series.onShare(now + StatsSeries.MINUTE, 1, 30, true);
+        List<StatsSeries.Bucket> range = series.range(false, 2, now + StatsSeries.MINUTE);
+        assertEquals(1, range.get(0).tasks);
+        assertEquals(30, range.get(0).logDiffSum, 1e-6);
+        assertEquals(0, range.get(1).tasks);
+        assertEquals(1, series.total(true, 1, now + StatsSeries.MINUTE).tasks);
+
+        // 空闲之后最后一个任务仍然计入
+        StatsSeries idle = StatsSeries.forMiner();
+        idle.onShare(now, 1, 20, true);
+        assertEquals(1, idle.total(false, 60, now + 10 * StatsSeries.MINUTE).tasks);
+    }
+
+    @Test
+    public void testCheckpointLoad() {
+        StatsSeries series = StatsSeries.forMiner();
+        Map<Integer, byte[]> blocks = new HashMap<>();
+        assertFalse(series.checkpoint(blocks::put));
+        long now = 300 * StatsSeries.HOUR;
+        series.onShare(now, 1, 20, true);
+        series.onShare(now, 2, 30, false);
+        assertTrue(series.checkpoint(blocks::put));
+        // 只写入序列头和当前分钟、小时所在的块
+        assertEquals(3, blocks.size());
+        assertTrue(blocks.containsKey(StatsSeries.HEADER));
+        assertFalse(series.checkpoint(blocks::put));
+
+        StatsSeries loaded = StatsSeries.forMiner();
+        for (Map.Entry<Integer, byte[]> entry : blocks.entrySet()) {
+            assertTrue(loaded.load(entry.getKey(), entry.getValue()));
+        }
+        assertEquals(now, loaded.getLastUpdate());
+        StatsSeries.Bucket bucket = loaded.total(true, 1, now);
+        assertEquals(1, bucket.accepted);
+        assertEquals(1, bucket.rejected);
+        assertEquals(2, bucket.tasks);
+        assertEquals(50, bucket.logDiffSum, 1e-6);
+
+        assertFalse(StatsSeries.forChannel().load(StatsSeries.HEADER, blocks.get(StatsSeries.HEADER)));
+    }
+
+    @Test
+    public void testExpire() {
+        StatsSeries series = StatsSeries.forMiner();
+        long now = 400 * StatsSeries.HOUR;
+        assertTrue(series.onShare(now, 1, 20, true));
+        assertFalse(series.expire(now + StatsSeries.HOUR, 2 * StatsSeries.HOUR));
+        assertTrue(series.expire(now + 3 * StatsSeries.HOUR, 2 * StatsSeries.HOUR));
+        // 过期后不再记录，调用方重新查表
+        assertFalse(series.onShare(now + 3 * StatsSeries.HOUR, 1, 20, true));
+        assertEquals(1, series.total(true, 4, now + 3 * StatsSeries.HOUR).accepted);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.xdag.net.handler.Xdag;
+import io.xdag.net.manager.BlockRelayFilter;
+import io.xdag.net.message.impl.BlocksBatchReplyMessage;
+import io.xdag.net.message.impl.BlocksBatchRequestMessage;
+import io.xdag.net.message.impl.HashListMessage;
+import io.xdag.net.node.Node;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+public class BlockFetcherTest {
+
+    private final BlockFetcher fetcher = new BlockFetcher(new BlockRelayFilter());
+
+    private static PeerChannel newPeer(long capabilities) {
+        PeerChannel peer = mock(PeerChannel.class);
+        when(peer.getNode()).thenReturn(new Node("127.0.0.1", 8001));
+        when(peer.getCapabilities()).thenReturn(capabilities);
+        when(peer.getXdag()).thenReturn(mock(Xdag.class));
+        return peer;
+    }
+
+    private static byte[] hashLow(int i) {
+        byte[] hashLow = new byte[32];
+        hashLow[31] = (byte) i;
+        return hashLow;
+    }
+
+    @After
+    public void tearDown() {
+        fetcher.stop();
+    }
+
+    @Test
+    public void testFullBatchSentAtOnce() {
+        PeerChannel peer = newPeer(Capability.LOCAL);
+        for (int i = 0; i < HashListMessage.MAX_HASHES; i++) {
+            fetcher.request(peer, hashLow(i));
+        }
+        verify(peer.getXdag(), times(1)).sendMessage(any(BlocksBatchRequestMessage.class));
+        verify(peer.getXdag(), never()).sendGetBlock(any());
+        assertEquals(1, fetcher.getBatches());
+        assertEquals(HashListMessage.MAX_HASHES, fetcher.getBatchedBlocks());
+    }
+
+    @Test
+    public void testLegacyPeerRequestedOneByOne() {
+        PeerChannel peer = newPeer(0);
+        fetcher.request(peer, hashLow(1));
+        fetcher.request(peer, hashLow(2));
+        verify(peer.getXdag(), times(2)).sendGetBlock(any());
+        assertEquals(0, fetcher.getBatches());
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        List<byte[]> hashLows = new ArrayList<>();
+        for (int i = 0; i < HashListMessage.MAX_HASHES; i++) {
+            hashLows.add(hashLow(i));
+        }
+        BlocksBatchRequestMessage request = new BlocksBatchRequestMessage(hashLows);
+        BlocksBatchRequestMessage decoded = new BlocksBatchRequestMessage(request.getEncoded());
+        assertEquals(request.getRandom(), decoded.getRandom());
+        assertEquals(HashListMessage.MAX_HASHES, decoded.getHashLows().size());
+        assertArrayEquals(hashLow(13), decoded.getHashLows().get(13));
+
+        BlocksBatchReplyMessage reply = new BlocksBatchReplyMessage(request.getRandom(), Collections.emptyList());
+        fetcher.onReply(newPeer(Capability.LOCAL), new BlocksBatchReplyMessage(reply.getEncoded()));
+        assertEquals(0, fetcher.getMisses());
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.xdag.net.manager.BlockRelayFilter;
+import io.xdag.utils.ByteArrayWrapper;
+import java.util.Set;
+import org.junit.Test;
+
+public class BlockRelayFilterTest {
+
+    @Test
+    public void testDuplicateRelay() {
+        BlockRelayFilter filter = new BlockRelayFilter();
+        ByteArrayWrapper hashLow = BlockRelayFilter.hashLow(new byte[512]);
+
+        assertFalse(filter.isDuplicate(hashLow, 5));
+        assertTrue(filter.isDuplicate(hashLow, 5));
+        // 同步回复不丢弃
+        assertFalse(filter.isDuplicate(hashLow, 1));
+        assertEquals(1, filter.getDuplicatesDropped());
+    }
+
+    @Test
+    public void testKnownBlocks() {
+        BlockRelayFilter filter = new BlockRelayFilter();
+        Set<ByteArrayWrapper> known = BlockRelayFilter.newKnownBlocks();
+        ByteArrayWrapper hashLow = BlockRelayFilter.hashLow(new byte[512]);
+
+        known.add(hashLow);
+        assertFalse(filter.markSent(known, hashLow));
+        assertTrue(filter.markSent(BlockRelayFilter.newKnownBlocks(), hashLow));
+        assertEquals(1, filter.getSendsSkipped());
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net;
+
+import static org.junit.Assert.assertEquals;
+
+import io.xdag.core.XdagStats;
+import io.xdag.net.message.impl.BlocksReplyMessage;
+import io.xdag.net.message.impl.BlocksRequestMessage;
+import org.junit.Test;
+
+public class CapabilityTest {
+
+    @Test
+    public void testLearnedFromRequest() {
+        BlocksRequestMessage request = new BlocksRequestMessage(0, 0, new XdagStats());
+        assertEquals(Capability.LOCAL, new BlocksRequestMessage(request.getEncoded()).getCapabilities());
+    }
+
+    @Test
+    public void testEchoedReplyIgnored() {
+        // 老节点把请求原地改写成回复，能力位原样带回
+        byte[] echoed = new BlocksRequestMessage(0, 0, new XdagStats()).getEncoded().clone();
+        assertEquals(0, new BlocksReplyMessage(echoed).getCapabilities());
+    }
+}
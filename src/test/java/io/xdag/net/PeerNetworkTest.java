@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.xdag.core.Block;
+import io.xdag.core.BlockWrapper;
+import io.xdag.core.Blockchain;
+import io.xdag.net.handler.Xdag;
+import io.xdag.net.manager.BlockRelayFilter;
+import io.xdag.net.message.impl.NewBlockHashesMessage;
+import io.xdag.net.node.Node;
+import io.xdag.utils.XdagTime;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class PeerNetworkTest {
+
+    private static PeerChannel newPeer(String host) {
+        PeerChannel peer = mock(PeerChannel.class);
+        when(peer.getNode()).thenReturn(new Node(host, 8001));
+        when(peer.getKnownBlocks()).thenReturn(BlockRelayFilter.newKnownBlocks());
+        return peer;
+    }
+
+    private static PeerChannel newCompactPeer(String host) {
+        PeerChannel peer = newPeer(host);
+        when(peer.getCapabilities()).thenReturn(Capability.COMPACT_RELAY);
+        when(peer.getXdag()).thenReturn(mock(Xdag.class));
+        return peer;
+    }
+
+    private static PeerTransport transport(String name, PeerChannel peer) {
+        return new PeerTransport() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public List<PeerChannel> getActivePeers() {
+                return Collections.singletonList(peer);
+            }
+        };
+    }
+
+    @Test
+    public void testRelayOnceAcrossTransports() {
+        PeerChannel legacy = newPeer("127.0.0.1");
+        PeerChannel libp2p = newPeer("127.0.0.2");
+        PeerNetwork network = new PeerNetwork(new BlockRelayFilter());
+        network.addTransport(transport("xdag", legacy));
+        network.addTransport(transport("libp2p", libp2p));
+        assertEquals(2, network.getActivePeers().size());
+
+        Block block = new Block(XdagTime.getCurrentTimestamp(), null, false);
+        BlockWrapper bw = new BlockWrapper(block, 5, legacy.getNode());
+        network.sendNewBlock(bw);
+        // 重复广播时对方已有该区块
+        network.sendNewBlock(bw);
+
+        verify(legacy, never()).sendNewBlock(any());
+        verify(libp2p, times(1)).sendNewBlock(bw);
+        assertEquals(2, network.getBlocksRelayed());
+        assertEquals(1, network.getRelaySends());
+    }
+
+    @Test
+    public void testAnnounceToCompactPeers() {
+        PeerChannel legacy = newPeer("127.0.0.1");
+        PeerChannel compact = newCompactPeer("127.0.0.2");
+        PeerNetwork network = new PeerNetwork(new BlockRelayFilter());
+        network.addTransport(transport("xdag", legacy));
+        network.addTransport(transport("libp2p", compact));
+
+        Block block = new Block(XdagTime.getCurrentTimestamp(), null, false);
+        network.relay(Collections.singletonList(new BlockWrapper(block, 5, new Node("127.0.0.3", 8001))));
+
+        verify(legacy, times(1)).sendNewBlock(any());
+        verify(compact, never()).sendNewBlock(any());
+        verify(compact.getXdag(), times(1)).sendMessage(any(NewBlockHashesMessage.class));
+        assertEquals(1, network.getRelaySends());
+        assertEquals(1, network.getAnnounced());
+    }
+
+    @Test
+    public void testPullAnnouncedBlockOnce() {
+        PeerChannel first = newCompactPeer("127.0.0.1");
+        PeerChannel second = newCompactPeer("127.0.0.2");
+        PeerNetwork network = new PeerNetwork(new BlockRelayFilter());
+        Blockchain blockchain = mock(Blockchain.class);
+
+        List<byte[]> hashLows = Collections.singletonList(new byte[32]);
+        assertEquals(1, network.onAnnounce(first, hashLows, blockchain));
+        // 已经向第一个节点请求过
+        assertEquals(0, network.onAnnounce(second, hashLows, blockchain));
+        verify(second.getXdag(), never()).sendGetBlock(any());
+        assertEquals(1, second.getKnownBlocks().size());
+    }
+}
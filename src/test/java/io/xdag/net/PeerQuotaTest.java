@@ -0,0 +1,154 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.xdag.core.Block;
+import io.xdag.net.handler.Xdag;
+import io.xdag.net.manager.PeerQuota;
+import io.xdag.net.manager.RequestScheduler;
+import io.xdag.net.message.MessageQueue;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class PeerQuotaTest {
+
+    @Test
+    public void testRequestRate() {
+        AtomicLong now = new AtomicLong();
+        PeerQuota quota = new PeerQuota(10, 1024, 1, now::get);
+        // 容量为4秒的请求数
+        for (int i = 0; i < 40; i++) {
+            assertTrue(quota.tryRequest(1));
+        }
+        assertFalse(quota.tryRequest(1));
+        assertEquals(1, quota.getThrottled());
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(quota.tryRequest(1));
+        assertFalse(quota.tryRequest(1));
+    }
+
+    @Test
+    public void testBytesWait() {
+        AtomicLong now = new AtomicLong();
+        PeerQuota quota = new PeerQuota(10, 512, 1, now::get);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, quota.acquireBytes(512));
+        }
+        assertEquals(TimeUnit.SECONDS.toNanos(1), quota.acquireBytes(512));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(0, quota.acquireBytes(512));
+    }
+
+    @Test
+    public void testRangeLimit() throws InterruptedException {
+        PeerQuota quota = new PeerQuota(100, 1 << 20, 1, System::nanoTime);
+        assertTrue(quota.tryStartRange());
+        assertFalse(quota.tryStartRange());
+        quota.endRange();
+
+        PeerChannel peer = mock(PeerChannel.class);
+        Xdag xdag = mock(Xdag.class);
+        when(peer.getXdag()).thenReturn(xdag);
+        Block block = mock(Block.class);
+        RequestScheduler scheduler = new RequestScheduler(1);
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            // 分两段读取
+            assertTrue(scheduler.serveRange(quota, peer, 0, 2 * RequestScheduler.BLOCKS_STEP, RequestScheduler.BLOCKS_STEP, 1,
+                    (from, to) -> Collections.singletonList(block), done::countDown));
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            verify(xdag, times(2)).sendNewBlock(any(), eq(1));
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void testQueueBackpressure() throws InterruptedException {
+        PeerQuota quota = new PeerQuota(100, 1 << 20, 1, System::nanoTime);
+        PeerChannel peer = mock(PeerChannel.class);
+        Xdag xdag = mock(Xdag.class);
+        MessageQueue queue = mock(MessageQueue.class);
+        AtomicInteger size = new AtomicInteger(RequestScheduler.QUEUE_LOW_WATERMARK + 1);
+        when(peer.getXdag()).thenReturn(xdag);
+        when(xdag.getMsgQueue()).thenReturn(queue);
+        when(queue.size()).thenAnswer(invocation -> size.get());
+        when(queue.isWritable()).thenReturn(true);
+        Block block = mock(Block.class);
+        RequestScheduler scheduler = new RequestScheduler(1);
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            assertTrue(scheduler.serveRange(quota, peer, 0, RequestScheduler.BLOCKS_STEP, RequestScheduler.BLOCKS_STEP, 1,
+                    (from, to) -> Collections.singletonList(block), done::countDown));
+            // 对方的发送队列超过低水位时暂停
+            assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+            verify(xdag, never()).sendNewBlock(any(), eq(1));
+            assertTrue(scheduler.getDeferred() > 0);
+
+            size.set(0);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            verify(xdag, times(1)).sendNewBlock(any(), eq(1));
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void testServeOffEventLoop() throws InterruptedException {
+        PeerQuota quota = new PeerQuota(10, 1024, 1, System::nanoTime);
+        RequestScheduler scheduler = new RequestScheduler(1);
+        CountDownLatch ran = new CountDownLatch(1);
+        AtomicReference<String> thread = new AtomicReference<>();
+        try {
+            assertTrue(scheduler.serve(quota, 14, () -> {
+                thread.set(Thread.currentThread().getName());
+                ran.countDown();
+            }));
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+            assertTrue(thread.get().startsWith("request-scheduler-"));
+            // 批量请求按hash数计入配额
+            assertFalse(scheduler.serve(quota, 40, ran::countDown));
+            assertEquals(1, scheduler.getThrottled());
+        } finally {
+            scheduler.stop();
+        }
+    }
+}
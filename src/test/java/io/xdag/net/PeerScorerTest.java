@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.xdag.net.manager.PeerScorer;
+import io.xdag.net.node.NodeStat;
+import org.junit.Test;
+
+public class PeerScorerTest {
+
+    @Test
+    public void testRtt() {
+        NodeStat stat = new NodeStat();
+        assertEquals(NodeStat.DEFAULT_RTT, stat.getRtt());
+
+        stat.onRequest(1);
+        assertTrue(stat.onReply(1, stat.SumsRtt));
+        // 同一个请求只记录一次
+        assertFalse(stat.onReply(1, stat.SumsRtt));
+        assertTrue(stat.getRtt() < NodeStat.DEFAULT_RTT);
+    }
+
+    @Test
+    public void testScore() {
+        NodeStat fast = new NodeStat();
+        fast.SumsRtt.add(50);
+        NodeStat slow = new NodeStat();
+        slow.SumsRtt.add(5000);
+        assertTrue(PeerScorer.score(fast) > PeerScorer.score(slow));
+
+        NodeStat invalid = new NodeStat();
+        invalid.SumsRtt.add(50);
+        invalid.InvalidBlocks.add(16);
+        assertTrue(PeerScorer.score(fast) > PeerScorer.score(invalid));
+    }
+
+    @Test
+    public void testPoor() {
+        NodeStat stat = new NodeStat();
+        for (int i = 0; i < 8; i++) {
+            stat.onRequest(i);
+        }
+        assertFalse(PeerScorer.isPoor(stat));
+        for (int i = 0; i < 5; i++) {
+            stat.onTimeout(i);
+        }
+        assertTrue(PeerScorer.isPoor(stat));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyByte;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.xdag.config.Config;
+import io.xdag.core.XdagBlock;
+import io.xdag.core.XdagStats;
+import io.xdag.crypto.jni.SectorCrypt;
+import io.xdag.net.PeerChannel;
+import io.xdag.net.message.Message;
+import io.xdag.net.message.MessageFactory;
+import io.xdag.net.message.impl.BlocksRequestMessage;
+import io.xdag.net.node.Node;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class XdagBlockHandlerTest {
+
+    private Node node;
+    private XdagBlockHandler handler;
+
+    @Before
+    public void setUp() throws Exception {
+        new Config().initKeys();
+        node = new Node("127.0.0.1", 8001);
+        PeerChannel channel = mock(PeerChannel.class);
+        when(channel.getNode()).thenReturn(node);
+        handler = new XdagBlockHandler(channel, 1);
+    }
+
+    @Test
+    public void testDecodeErrorConsumesBatch() {
+        ByteBuf in = Unpooled.directBuffer(2 * XdagBlock.XDAG_BLOCK_SIZE);
+        for (int i = 0; i < 2; i++) {
+            new BlocksRequestMessage(0, 0, new XdagStats()).encode(in);
+        }
+        SectorCrypt.encryptSectors(in, 0, 2, 1);
+
+        Message second = mock(Message.class);
+        MessageFactory factory = mock(MessageFactory.class);
+        when(factory.create(anyByte(), any()))
+                .thenThrow(new IllegalArgumentException("bad message"))
+                .thenReturn(second);
+        handler.setMessageFactory(factory);
+
+        List<Object> out = new ArrayList<>();
+        try {
+            handler.decode(null, in, out);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("bad message", e.getMessage());
+        }
+        // 已解密的区块全部读走，后面的区块照常解析
+        assertEquals(0, in.readableBytes());
+        assertEquals(2, node.getStat().Inbound.get());
+        assertEquals(1, out.size());
+        assertSame(second, out.get(0));
+        in.release();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.net.message;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.xdag.net.PeerChannel;
+import io.xdag.net.message.impl.NewBlockMessage;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class MessageQueueTest {
+
+    /** 多个线程同时发送，每个线程发送count条 */
+    private static void sendConcurrently(MessageQueue queue, Message msg, int threads, int count)
+            throws InterruptedException {
+        List<Thread> list = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    queue.sendMessage(msg);
+                }
+            });
+            list.add(thread);
+            thread.start();
+        }
+        for (Thread thread : list) {
+            thread.join();
+        }
+    }
+
+    @Test
+    public void testConcurrentLimits() throws InterruptedException {
+        PeerChannel channel = mock(PeerChannel.class);
+        // 没有激活，消息只排队不写出
+        MessageQueue queue = new MessageQueue(channel);
+
+        NewBlockMessage relay = mock(NewBlockMessage.class);
+        when(relay.getTtl()).thenReturn(5);
+        when(relay.getCommand()).thenReturn(XdagMessageCodes.NEW_BLOCK);
+        sendConcurrently(queue, relay, 8, MessageQueue.MAX_QUEUE_SIZE / 4);
+        // 转发的区块正好停在上限
+        assertEquals(MessageQueue.MAX_QUEUE_SIZE, queue.size());
+
+        Message reply = mock(Message.class);
+        when(reply.getCommand()).thenReturn(XdagMessageCodes.BLOCKS_REPLY);
+        sendConcurrently(queue, reply, 8, MessageQueue.MAX_QUEUE_SIZE / 4);
+        // 回复正好停在硬上限，超出时只断开一次
+        assertEquals(MessageQueue.MAX_QUEUE_HARD_LIMIT, queue.size());
+        verify(channel, times(1)).dropConnection();
+    }
+}